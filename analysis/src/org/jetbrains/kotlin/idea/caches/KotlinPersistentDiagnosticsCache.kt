@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.caches
+
+import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.TextRange
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.openapi.vfs.VirtualFileWithId
+import com.intellij.util.io.DataInputOutputUtil
+import com.intellij.util.io.IOUtil
+import org.jetbrains.annotations.TestOnly
+import org.jetbrains.kotlin.diagnostics.Severity
+import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages
+import org.jetbrains.kotlin.idea.KotlinPluginUtil
+import org.jetbrains.kotlin.idea.caches.project.LibraryInfo
+import org.jetbrains.kotlin.idea.caches.project.getModuleInfo
+import org.jetbrains.kotlin.idea.project.languageVersionSettings
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import java.io.DataInput
+import java.io.DataOutput
+import java.lang.ref.WeakReference
+
+class CachedDiagnostic(
+    val factoryName: String,
+    val severity: Severity,
+    val message: String,
+    val textRanges: List<TextRange>
+)
+
+/**
+ * Persists diagnostics of a [KtFile] between IDE sessions, so a reopened project could show highlighting
+ * before the first analysis of the file is finished.
+ *
+ * Cached data is valid only for the same file content, the same plugin version and the same module fingerprint (module name,
+ * language settings and library roots of the dependencies). Out-of-block modification counters are not persistent between
+ * sessions, so cached diagnostics are shown only until the regular analysis of the file stores the fresh ones.
+ *
+ * Diagnostics are written only when they differ from the stored ones, highlighting of an unchanged file doesn't write anything.
+ */
+object KotlinPersistentDiagnosticsCache {
+    private const val ATTRIBUTE_ID = "kotlin-persistent-diagnostics"
+    private const val VERSION = 1
+
+    private val attributeService: FileAttributeService? by lazy {
+        ServiceManager.getService(FileAttributeService::class.java)?.also { it.register(ATTRIBUTE_ID, VERSION, fixedSize = false) }
+    }
+
+    private val REVALIDATED_KEY = Key.create<Boolean>("KotlinPersistentDiagnosticsCache.REVALIDATED")
+
+    // diagnostics of the last binding context passed to store, the same one is reused by highlighting until the file is reanalyzed
+    private class StoredDiagnostics(val diagnostics: WeakReference<Diagnostics>, val hash: Int)
+
+    private val STORED_KEY = Key.create<StoredDiagnostics>("KotlinPersistentDiagnosticsCache.STORED")
+
+    @TestOnly
+    var pluginVersionForTests: String? = null
+
+    private val cacheVersion: String
+        get() = pluginVersionForTests ?: KotlinPluginUtil.getPluginVersion()
+
+    val isEnabled: Boolean
+        get() = Registry.`is`("kotlin.highlighting.persistent.diagnostics.cache", false)
+
+    /**
+     * `true` when diagnostics of the [file] were computed by the regular analysis in the current session
+     */
+    fun isRevalidated(file: KtFile): Boolean = file.getUserData(REVALIDATED_KEY) == true
+
+    /**
+     * @return `false` if the same diagnostics are stored already
+     */
+    fun store(file: KtFile, diagnostics: Diagnostics): Boolean {
+        val virtualFile = file.virtualFile as? VirtualFileWithId ?: return false
+        val service = attributeService ?: return false
+
+        file.putUserData(REVALIDATED_KEY, true)
+        val stored = file.getUserData(STORED_KEY)
+        if (stored != null && stored.diagnostics.get() === diagnostics) return false
+
+        val cachedDiagnostics = diagnostics.all()
+            .filter { it.isValid && it.psiFile == file }
+            .map { CachedDiagnostic(it.factory.name, it.severity, DefaultErrorMessages.render(it), it.textRanges) }
+
+        val key = CacheKey(contentHash(file), fingerprint(file))
+        val hash = 31 * key.hashCode() + diagnosticsHash(cachedDiagnostics)
+        file.putUserData(STORED_KEY, StoredDiagnostics(WeakReference(diagnostics), hash))
+
+        // the first store in a session compares with the diagnostics of the previous one
+        val storedHash = stored?.hash ?: service.read(virtualFile, ATTRIBUTE_ID) { input -> readHash(input) }?.value
+        if (storedHash == hash) return false
+
+        service.write(virtualFile, ATTRIBUTE_ID, Triple(key, hash, cachedDiagnostics)) { output, (cacheKey, valuesHash, values) ->
+            cacheKey.write(output)
+            DataInputOutputUtil.writeINT(output, valuesHash)
+            writeDiagnostics(output, values)
+        }
+        return true
+    }
+
+    fun load(file: KtFile): List<CachedDiagnostic>? {
+        val virtualFile = file.virtualFile as? VirtualFileWithId ?: return null
+        val service = attributeService ?: return null
+
+        val (cacheKey, diagnostics) = service.read(virtualFile, ATTRIBUTE_ID) { input ->
+            val cacheKey = CacheKey.read(input)
+            DataInputOutputUtil.readINT(input)
+            cacheKey to readDiagnostics(input)
+        }?.value ?: return null
+
+        return diagnostics.takeIf { cacheKey == CacheKey(contentHash(file), fingerprint(file)) }
+    }
+
+    private fun contentHash(file: KtFile): Int = StringUtil.stringHashCode(file.viewProvider.contents)
+
+    private fun readHash(input: DataInput): Int {
+        CacheKey.read(input)
+        return DataInputOutputUtil.readINT(input)
+    }
+
+    private fun diagnosticsHash(diagnostics: List<CachedDiagnostic>): Int {
+        var result = 0
+        for (diagnostic in diagnostics) {
+            result = 31 * result + diagnostic.factoryName.hashCode()
+            result = 31 * result + diagnostic.severity.ordinal
+            result = 31 * result + diagnostic.message.hashCode()
+            result = 31 * result + diagnostic.textRanges.hashCode()
+        }
+        return result
+    }
+
+    private fun fingerprint(file: KtFile): Int {
+        val moduleInfo = file.getModuleInfo()
+        val languageVersionSettings = file.languageVersionSettings
+
+        var result = cacheVersion.hashCode()
+        result = 31 * result + moduleInfo.name.asString().hashCode()
+        result = 31 * result + languageVersionSettings.languageVersion.versionString.hashCode()
+        result = 31 * result + languageVersionSettings.apiVersion.versionString.hashCode()
+        for (dependency in moduleInfo.dependencies()) {
+            result = 31 * result + dependency.name.asString().hashCode()
+            if (dependency is LibraryInfo) {
+                result = 31 * result + dependency.getLibraryRoots().sorted().hashCode()
+            }
+        }
+        return result
+    }
+
+    private data class CacheKey(val contentHash: Int, val fingerprint: Int) {
+        fun write(output: DataOutput) {
+            output.writeInt(contentHash)
+            output.writeInt(fingerprint)
+        }
+
+        companion object {
+            fun read(input: DataInput) = CacheKey(input.readInt(), input.readInt())
+        }
+    }
+
+    private fun writeDiagnostics(output: DataOutput, diagnostics: List<CachedDiagnostic>) {
+        DataInputOutputUtil.writeINT(output, diagnostics.size)
+        for (diagnostic in diagnostics) {
+            IOUtil.writeUTF(output, diagnostic.factoryName)
+            DataInputOutputUtil.writeINT(output, diagnostic.severity.ordinal)
+            IOUtil.writeUTF(output, diagnostic.message)
+            DataInputOutputUtil.writeINT(output, diagnostic.textRanges.size)
+            for (range in diagnostic.textRanges) {
+                DataInputOutputUtil.writeINT(output, range.startOffset)
+                DataInputOutputUtil.writeINT(output, range.length)
+            }
+        }
+    }
+
+    private fun readDiagnostics(input: DataInput): List<CachedDiagnostic> {
+        val severities = Severity.values()
+        return List(DataInputOutputUtil.readINT(input)) {
+            val factoryName = IOUtil.readUTF(input)
+            val severity = severities[DataInputOutputUtil.readINT(input)]
+            val message = IOUtil.readUTF(input)
+            val textRanges = List(DataInputOutputUtil.readINT(input)) {
+                val startOffset = DataInputOutputUtil.readINT(input)
+                TextRange.from(startOffset, DataInputOutputUtil.readINT(input))
+            }
+            CachedDiagnostic(factoryName, severity, message, textRanges)
+        }
+    }
+}
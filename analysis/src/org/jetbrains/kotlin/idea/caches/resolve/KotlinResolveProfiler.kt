@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.caches.resolve
+
+import org.jetbrains.kotlin.resolve.lazy.BodyResolveMode
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Aggregates `analyze*` and `resolveToDescriptor` calls done through resolution facades by their caller, [BodyResolveMode] and module,
+ * so it's possible to find out which inspections, intentions and other IDE features trigger expensive resolve.
+ *
+ * Disabled by default, as a caller is found by the stack trace of every call. Toggled by an internal action.
+ */
+object KotlinResolveProfiler {
+    @Volatile
+    var isEnabled: Boolean = false
+
+    private val statistics = ConcurrentHashMap<ResolveCallKey, ResolveCallStatistics>()
+
+    private val analysesOnThread = object : ThreadLocal<IntArray>() {
+        override fun initialValue() = IntArray(1)
+    }
+
+    data class ResolveCallKey(
+        val operation: String,
+        val caller: String,
+        val bodyResolveMode: BodyResolveMode?,
+        val module: String
+    )
+
+    class ResolveCallStatistics {
+        private val count = LongAdder()
+        private val cacheHits = LongAdder()
+        private val totalNanos = LongAdder()
+        private val maxNanos = AtomicLong()
+
+        /**
+         * Number of calls which took less than `2^i` ms for the `i`-th bucket, the last bucket counts all longer calls
+         */
+        private val buckets = AtomicLongArray(BUCKETS_COUNT)
+
+        internal fun record(nanos: Long, cacheHit: Boolean) {
+            count.increment()
+            if (cacheHit) cacheHits.increment()
+            totalNanos.add(nanos)
+            maxNanos.accumulateAndGet(nanos, Math::max)
+
+            val millis = TimeUnit.NANOSECONDS.toMillis(nanos)
+            val bucket = (64 - java.lang.Long.numberOfLeadingZeros(millis)).coerceAtMost(BUCKETS_COUNT - 1)
+            buckets.incrementAndGet(bucket)
+        }
+
+        val callsCount: Long get() = count.sum()
+        val cacheHitsCount: Long get() = cacheHits.sum()
+        val totalMillis: Long get() = TimeUnit.NANOSECONDS.toMillis(totalNanos.sum())
+        val maxMillis: Long get() = TimeUnit.NANOSECONDS.toMillis(maxNanos.get())
+        val histogram: List<Long> get() = List(BUCKETS_COUNT) { buckets.get(it) }
+    }
+
+    /**
+     * Called where the work is actually done, i.e. the result is not taken from a cache: by [PerFileAnalysisCache] on analysis of
+     * a whole declaration, by `ResolveElementCache` on partial and full resolve of an element and by [ModuleResolutionFacadeImpl]
+     * when a lazy descriptor is created by `ResolveSession`. A profiled call without any of them is counted as a cache hit.
+     */
+    internal fun analysisPerformed() {
+        if (isEnabled) analysesOnThread.get()[0]++
+    }
+
+    internal inline fun <R> profile(operation: String, bodyResolveMode: BodyResolveMode?, module: () -> String, body: () -> R): R {
+        if (!isEnabled) return body()
+
+        val analysesBefore = analysesOnCurrentThread()
+        val start = System.nanoTime()
+        try {
+            return body()
+        } finally {
+            val nanos = System.nanoTime() - start
+            record(operation, bodyResolveMode, module(), nanos, cacheHit = analysesOnCurrentThread() == analysesBefore)
+        }
+    }
+
+    @PublishedApi
+    internal fun analysesOnCurrentThread(): Int = analysesOnThread.get()[0]
+
+    @PublishedApi
+    internal fun record(operation: String, bodyResolveMode: BodyResolveMode?, module: String, nanos: Long, cacheHit: Boolean) {
+        val key = ResolveCallKey(operation, findCaller(), bodyResolveMode, module)
+        statistics.getOrPut(key) { ResolveCallStatistics() }.record(nanos, cacheHit)
+    }
+
+    fun snapshot(): Map<ResolveCallKey, ResolveCallStatistics> = HashMap(statistics)
+
+    fun reset() {
+        statistics.clear()
+    }
+
+    /**
+     * Tab separated report sorted by total time, histogram columns are upper bounds of call durations in ms
+     */
+    fun report(): String = buildString {
+        append("total ms\tcalls\tcache hits\tmax ms\toperation\tmode\tmodule\tcaller")
+        for (bucket in 0 until BUCKETS_COUNT - 1) append("\t<").append(1L shl bucket)
+        append("\t>=").append(1L shl (BUCKETS_COUNT - 2)).appendLine()
+
+        for ((key, value) in snapshot().entries.sortedByDescending { it.value.totalMillis }) {
+            append(value.totalMillis).append('\t')
+            append(value.callsCount).append('\t')
+            append(value.cacheHitsCount).append('\t')
+            append(value.maxMillis).append('\t')
+            append(key.operation).append('\t')
+            append(key.bodyResolveMode ?: "-").append('\t')
+            append(key.module).append('\t')
+            append(key.caller)
+            value.histogram.forEach { append('\t').append(it) }
+            appendLine()
+        }
+    }
+
+    private fun findCaller(): String {
+        val frame = Throwable().stackTrace.firstOrNull { frame ->
+            INFRASTRUCTURE_PREFIXES.none { frame.className.startsWith(it) }
+        } ?: return "<unknown>"
+        return "${frame.className}.${frame.methodName}"
+    }
+
+    private const val BUCKETS_COUNT = 16
+
+    private val INFRASTRUCTURE_PREFIXES = listOf(
+        "org.jetbrains.kotlin.idea.caches.resolve.",
+        "org.jetbrains.kotlin.idea.resolve.",
+        "org.jetbrains.kotlin.idea.util.application.",
+        "kotlin.",
+        "java.",
+        "com.intellij.openapi.application."
+    )
+}
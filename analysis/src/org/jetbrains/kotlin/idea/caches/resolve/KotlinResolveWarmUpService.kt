@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.caches.resolve
+
+import com.intellij.openapi.application.ReadAction
+import com.intellij.openapi.fileEditor.impl.EditorHistoryManager
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.startup.StartupActivity
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.psi.PsiManager
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.concurrency.CancellablePromise
+import org.jetbrains.kotlin.idea.core.KotlinPluginDisposable
+import org.jetbrains.kotlin.idea.util.ProjectRootsUtil
+import org.jetbrains.kotlin.idea.util.application.getServiceSafe
+import org.jetbrains.kotlin.idea.util.application.isUnitTestMode
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedDeclaration
+import org.jetbrains.kotlin.resolve.lazy.BodyResolveMode
+import kotlin.system.measureTimeMillis
+
+/**
+ * Builds resolution facades and resolves top-level declarations of the given files in background,
+ * so the first highlighting of these files doesn't wait for SDK, libraries and modules resolvers construction.
+ *
+ * Each file is warmed up in a separate non-blocking read action: it is cancelled by write actions and restarted afterwards.
+ */
+class KotlinResolveWarmUpService(private val project: Project) {
+    private val executor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+        "Kotlin resolve warm-up",
+        (Runtime.getRuntime().availableProcessors() / 2).coerceAtLeast(1)
+    )
+
+    fun warmUp(files: Collection<VirtualFile>): List<CancellablePromise<Unit>> = files.map { file ->
+        ReadAction
+            .nonBlocking<Unit> { warmUp(file) }
+            .inSmartMode(project)
+            .expireWith(KotlinPluginDisposable.getInstance(project))
+            .coalesceBy(this, file)
+            .submit(executor)
+    }
+
+    private fun warmUp(file: VirtualFile) {
+        if (!file.isValid) return
+        val ktFile = PsiManager.getInstance(project).findFile(file) as? KtFile ?: return
+        if (!ProjectRootsUtil.isInProjectSource(ktFile)) return
+
+        val millis = measureTimeMillis {
+            val resolutionFacade = ktFile.getResolutionFacade()
+            for (declaration in ktFile.declarations) {
+                ProgressManager.checkCanceled()
+                if (declaration !is KtNamedDeclaration) continue
+
+                resolutionFacade.resolveToDescriptor(declaration, BodyResolveMode.PARTIAL)
+                if (declaration is KtClassOrObject) {
+                    declaration.declarations.filterIsInstance<KtNamedDeclaration>().forEach {
+                        ProgressManager.checkCanceled()
+                        resolutionFacade.resolveToDescriptor(it, BodyResolveMode.PARTIAL)
+                    }
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Resolve warm-up of ${file.path} took $millis ms")
+        }
+    }
+
+    /**
+     * Kotlin files from the history of editors, the most recent first: editors of some of them are reopened on startup
+     * and the others are likely to be opened soon
+     */
+    fun recentFiles(): List<VirtualFile> =
+        EditorHistoryManager.getInstance(project).fileList.asReversed().asSequence()
+            .filter { it.extension == "kt" }
+            .take(MAX_RECENT_FILES)
+            .toList()
+
+    class Startup : StartupActivity {
+        override fun runActivity(project: Project) {
+            if (isUnitTestMode() || !Registry.`is`("kotlin.resolve.warmup.on.startup", false)) return
+
+            val service = getInstance(project)
+            service.warmUp(service.recentFiles())
+        }
+    }
+
+    companion object {
+        // resolvers of modules are built by the first files, further files only resolve their own declarations
+        private const val MAX_RECENT_FILES = 10
+
+        fun getInstance(project: Project): KotlinResolveWarmUpService = project.getServiceSafe()
+    }
+}
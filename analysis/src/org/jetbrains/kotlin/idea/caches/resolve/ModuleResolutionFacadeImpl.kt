@@ -93,6 +93,10 @@ internal class ModuleResolutionFacadeImpl(
                 ResolveInDispatchThreadManager.assertNoResolveInDispatchThread()
 
                 val resolveSession = projectFacade.resolverForElement(declaration).componentProvider.get<ResolveSession>()
+                // lazy descriptors are recorded to the trace of the session when they are created
+                if (KotlinResolveProfiler.isEnabled && resolveSession.bindingContext[BindingContext.DECLARATION_TO_DESCRIPTOR, declaration] == null) {
+                    KotlinResolveProfiler.analysisPerformed()
+                }
                 resolveSession.resolveToDescriptor(declaration)
             }
         }
@@ -13,6 +13,7 @@ import com.intellij.openapi.project.DumbService
 import com.intellij.openapi.project.IndexNotReadyException
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.ModificationTracker
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.psi.PsiElement
 import com.intellij.psi.util.PsiTreeUtil
 import org.jetbrains.kotlin.analyzer.AnalysisResult
@@ -45,7 +46,10 @@ import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice
 import org.jetbrains.kotlin.util.slicedMap.WritableSlice
 import org.jetbrains.kotlin.utils.checkWithAttachment
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.locks.ReentrantReadWriteLock
 
 internal class PerFileAnalysisCache(val file: KtFile, componentProvider: ComponentProvider) {
     private val globalContext = componentProvider.get<GlobalContext>()
@@ -54,14 +58,29 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
     private val codeFragmentAnalyzer = componentProvider.get<CodeFragmentAnalyzer>()
     private val bodyResolveCache = componentProvider.get<BodyResolveCache>()
 
-    private val cache = HashMap<PsiElement, AnalysisResult>()
+    /**
+     * In concurrent mode each analyzable parent (top-level declaration, class, etc.) is analyzed under its own lock,
+     * so different declarations of the same file could be resolved in parallel.
+     *
+     * File-wide operations (analysis of the whole file, incremental analysis of in-block modifications) still hold
+     * an exclusive lock, declarations are analyzed under the shared one.
+     *
+     * Locks are always taken in this order: the shared lock, then at most one declaration lock. The exclusive lock is never
+     * requested while the shared one is held, and analysis nested into analysis of another declaration takes no declaration lock,
+     * so a thread never waits for a lock while holding the one another thread is waiting for.
+     */
+    private val concurrentAnalysis = Registry.`is`("kotlin.resolve.concurrent.per.file.analysis", false)
+
+    private val cache: MutableMap<PsiElement, AnalysisResult> = if (concurrentAnalysis) ConcurrentHashMap() else HashMap()
+
+    @Volatile
     private var fileResult: AnalysisResult? = null
-    private val lock = ReentrantLock()
-    private val guardLock = CancellableSimpleLock(lock,
-                                                  checkCancelled = {
-                                                      ProgressIndicatorProvider.checkCanceled()
-                                                  },
-                                                  interruptedExceptionHandler = { throw ProcessCanceledException(it) })
+
+    private val readWriteLock = if (concurrentAnalysis) ReentrantReadWriteLock() else null
+    private val lock: Lock = readWriteLock?.writeLock() ?: ReentrantLock()
+    private val guardLock = cancellableLock(lock)
+    private val sharedGuardLock = readWriteLock?.let { cancellableLock(it.readLock()) }
+    private val declarationLocks = ConcurrentHashMap<PsiElement, CancellableSimpleLock>()
 
     private fun check(element: KtElement) {
         checkWithAttachment(element.containingFile == file, {
@@ -76,6 +95,10 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
     internal fun fetchAnalysisResults(element: KtElement): AnalysisResult? {
         check(element)
 
+        if (concurrentAnalysis) {
+            fileResult?.let { return it.takeIf { file.inBlockModifications.isEmpty() } }
+        }
+
         if (lock.tryLock()) {
             try {
                 updateFileResultFromCache()
@@ -93,6 +116,15 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
 
         val analyzableParent = KotlinResolveDataProvider.findAnalyzableParent(element) ?: return AnalysisResult.EMPTY
 
+        if (concurrentAnalysis) {
+            if (analyzableParent !is KtFile) {
+                getConcurrentAnalysisResult(analyzableParent)?.let { return it }
+            } else if (readWriteLock!!.readHoldCount > 0) {
+                // the shared lock can't be upgraded to the exclusive one: reentrant analysis is performed without caching
+                return analyze(analyzableParent)
+            }
+        }
+
         return guardLock.guarded {
             // step 1: perform incremental analysis IF it is applicable
             getIncrementalAnalysisResult()?.let { return@guarded it }
@@ -113,6 +145,43 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
         }
     }
 
+    /**
+     * Lock-free lookup with fallback to analysis of [analyzableParent] under its own lock.
+     *
+     * Returns `null` when file-wide state has to be updated under the exclusive lock:
+     * the whole file was analyzed and has to be moved from [cache], or there are in-block modifications to be applied.
+     */
+    private fun getConcurrentAnalysisResult(analyzableParent: KtElement): AnalysisResult? {
+        val readWriteLock = readWriteLock ?: return null
+        if (readWriteLock.isWriteLockedByCurrentThread) return null
+
+        if (file.inBlockModifications.isEmpty()) {
+            fileResult?.let { return it }
+        }
+
+        return sharedGuardLock!!.guarded {
+            if (fileResult != null || cache.containsKey(file) || file.inBlockModifications.isNotEmpty()) {
+                // shared lock could not be upgraded to the exclusive one: reentrant analysis is performed without caching
+                return@guarded if (readWriteLock.readHoldCount > 1) analyze(analyzableParent) else null
+            }
+
+            lookUp(analyzableParent)?.let {
+                return@guarded it
+            }
+
+            if (readWriteLock.readHoldCount > 1) {
+                // nested into analysis of another declaration which lock may be held by this thread
+                return@guarded analyze(analyzableParent).also { cache.putIfAbsent(analyzableParent, it) }
+            }
+
+            val declarationLock = declarationLocks.computeIfAbsent(analyzableParent) { cancellableLock(ReentrantLock()) }
+            declarationLock.guarded {
+                // double check: the same declaration could be analyzed by another thread while this one was waiting for the lock
+                lookUp(analyzableParent) ?: analyze(analyzableParent).also { cache[analyzableParent] = it }
+            }
+        }
+    }
+
     private fun getIncrementalAnalysisResult(): AnalysisResult? {
         updateFileResultFromCache()
 
@@ -180,6 +249,7 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
             // if incremental analysis is applicable it will produce a single value for file
             // otherwise those results are potentially stale
             cache.clear()
+            declarationLocks.clear()
         }
     }
 
@@ -232,6 +302,7 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
         }
 
         moduleDescriptor.assertValid()
+        KotlinResolveProfiler.analysisPerformed()
         try {
             return KotlinResolveDataProvider.analyze(
                 project,
@@ -256,6 +327,15 @@ internal class PerFileAnalysisCache(val file: KtFile, componentProvider: Compone
     }
 }
 
+private fun cancellableLock(lock: Lock) =
+    CancellableSimpleLock(
+        lock,
+        checkCancelled = {
+            ProgressIndicatorProvider.checkCanceled()
+        },
+        interruptedExceptionHandler = { throw ProcessCanceledException(it) }
+    )
+
 private class MergedDiagnostics(val diagnostics: Collection<Diagnostic>, override val modificationTracker: ModificationTracker) :
     Diagnostics {
     @Suppress("UNCHECKED_CAST")
@@ -42,28 +42,38 @@ private class ResolutionFacadeWithDebugInfo(
 
     override fun analyze(element: KtElement, bodyResolveMode: BodyResolveMode): BindingContext {
         return wrapExceptions({ ResolvingWhat(listOf(element), bodyResolveMode) }) {
-            delegate.analyze(element, bodyResolveMode)
+            KotlinResolveProfiler.profile("analyze", bodyResolveMode, ::moduleName) {
+                delegate.analyze(element, bodyResolveMode)
+            }
         }
     }
 
     override fun analyze(elements: Collection<KtElement>, bodyResolveMode: BodyResolveMode): BindingContext {
         return wrapExceptions({ ResolvingWhat(elements, bodyResolveMode) }) {
-            delegate.analyze(elements, bodyResolveMode)
+            KotlinResolveProfiler.profile("analyze", bodyResolveMode, ::moduleName) {
+                delegate.analyze(elements, bodyResolveMode)
+            }
         }
     }
 
     override fun analyzeWithAllCompilerChecks(elements: Collection<KtElement>): AnalysisResult {
         return wrapExceptions({ ResolvingWhat(elements) }) {
-            delegate.analyzeWithAllCompilerChecks(elements)
+            KotlinResolveProfiler.profile("analyzeWithAllCompilerChecks", null, ::moduleName) {
+                delegate.analyzeWithAllCompilerChecks(elements)
+            }
         }
     }
 
     override fun resolveToDescriptor(declaration: KtDeclaration, bodyResolveMode: BodyResolveMode): DeclarationDescriptor {
         return wrapExceptions({ ResolvingWhat(listOf(declaration), bodyResolveMode) }) {
-            delegate.resolveToDescriptor(declaration, bodyResolveMode)
+            KotlinResolveProfiler.profile("resolveToDescriptor", bodyResolveMode, ::moduleName) {
+                delegate.resolveToDescriptor(declaration, bodyResolveMode)
+            }
         }
     }
 
+    private fun moduleName(): String = creationPlace.moduleName
+
     override val moduleDescriptor: ModuleDescriptor
         get() = delegate.moduleDescriptor
 
@@ -144,6 +154,10 @@ private class CreationPlace(
     private val moduleInfo: ModuleInfo?,
     private val platform: TargetPlatform?
 ) {
+    val moduleName: String
+        get() = (moduleInfo ?: elements.firstOrNull()?.let { ifIndexReady { it.getNullableModuleInfo() }?.result })?.name?.asString()
+            ?: "<unknown>"
+
     fun description() = buildString {
         appendLine("Resolver created for:")
         for (element in elements) {
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.highlighter
+
+import com.intellij.codeHighlighting.*
+import com.intellij.codeInsight.daemon.impl.HighlightInfo
+import com.intellij.codeInsight.daemon.impl.HighlightInfoType
+import com.intellij.codeInsight.daemon.impl.UpdateHighlightersUtil
+import com.intellij.openapi.editor.Document
+import com.intellij.openapi.editor.Editor
+import com.intellij.openapi.progress.ProgressIndicator
+import com.intellij.openapi.project.DumbAware
+import com.intellij.openapi.project.Project
+import com.intellij.psi.PsiFile
+import org.jetbrains.kotlin.diagnostics.Severity
+import org.jetbrains.kotlin.idea.caches.CachedDiagnostic
+import org.jetbrains.kotlin.idea.caches.KotlinPersistentDiagnosticsCache
+import org.jetbrains.kotlin.psi.KtFile
+
+/**
+ * Shows diagnostics stored by [KotlinPersistentDiagnosticsCache] until the file is analyzed in the current session.
+ *
+ * The pass doesn't analyze anything itself: cached highlighters are put into the group of the general highlighting pass,
+ * so they are replaced by the regular [KotlinPsiChecker] results as soon as those are applied, and the checker stores
+ * the fresh diagnostics. After that the pass doesn't touch highlighters of the file at all.
+ */
+class KotlinCachedDiagnosticsHighlightingPass(
+    private val file: KtFile,
+    document: Document
+) : TextEditorHighlightingPass(file.project, document), DumbAware {
+
+    @Volatile
+    private var infos: List<HighlightInfo>? = null
+
+    override fun doCollectInformation(progress: ProgressIndicator) {
+        infos = if (KotlinPersistentDiagnosticsCache.isRevalidated(file)) {
+            null
+        } else {
+            KotlinPersistentDiagnosticsCache.load(file)?.mapNotNull { it.toHighlightInfo() }?.takeIf { it.isNotEmpty() }
+        }
+    }
+
+    override fun doApplyInformationToEditor() {
+        val infos = infos ?: return
+        this.infos = null
+
+        // highlighters of the regular analysis are already shown, they must not be replaced with the cached ones
+        if (KotlinPersistentDiagnosticsCache.isRevalidated(file)) return
+
+        UpdateHighlightersUtil.setHighlightersToEditor(myProject, myDocument!!, 0, file.textLength, infos, colorsScheme, Pass.UPDATE_ALL)
+    }
+
+    private fun CachedDiagnostic.toHighlightInfo(): HighlightInfo? {
+        val type = when (severity) {
+            Severity.ERROR -> HighlightInfoType.ERROR
+            Severity.WARNING -> HighlightInfoType.WARNING
+            Severity.INFO -> return null
+        }
+        val range = textRanges.firstOrNull()?.takeIf { it.endOffset <= file.textLength } ?: return null
+
+        return HighlightInfo.newHighlightInfo(type).range(range).descriptionAndTooltip(message).create()
+    }
+
+    class Factory : TextEditorHighlightingPassFactory {
+        override fun createHighlightingPass(file: PsiFile, editor: Editor): TextEditorHighlightingPass? {
+            if (file !is KtFile || !KotlinPersistentDiagnosticsCache.isEnabled) return null
+            return KotlinCachedDiagnosticsHighlightingPass(file, editor.document)
+        }
+    }
+
+    class Registrar : TextEditorHighlightingPassFactoryRegistrar {
+        override fun registerHighlightingPassFactory(registrar: TextEditorHighlightingPassRegistrar, project: Project) {
+            registrar.registerTextEditorHighlightingPass(
+                Factory(),
+                TextEditorHighlightingPassRegistrar.Anchor.BEFORE,
+                Pass.UPDATE_ALL,
+                false,
+                false
+            )
+        }
+    }
+}
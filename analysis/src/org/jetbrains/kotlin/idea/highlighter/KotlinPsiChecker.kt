@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.diagnostics.Diagnostic
 import org.jetbrains.kotlin.diagnostics.DiagnosticFactory
 import org.jetbrains.kotlin.diagnostics.Errors
 import org.jetbrains.kotlin.diagnostics.Severity
+import org.jetbrains.kotlin.idea.caches.KotlinPersistentDiagnosticsCache
 import org.jetbrains.kotlin.idea.caches.resolve.analyzeWithAllCompilerChecks
 import org.jetbrains.kotlin.idea.quickfix.QuickFixes
 import org.jetbrains.kotlin.idea.references.mainReference
@@ -55,6 +56,10 @@ open class KotlinPsiChecker : AbstractKotlinPsiChecker() {
         getAfterAnalysisVisitor(holder, bindingContext).forEach { visitor -> element.accept(visitor) }
 
         annotateElement(element, holder, bindingContext.diagnostics)
+
+        if (element === containingFile && KotlinPersistentDiagnosticsCache.isEnabled) {
+            KotlinPersistentDiagnosticsCache.store(containingFile, bindingContext.diagnostics)
+        }
     }
 
     protected open fun shouldSuppressUnusedParameter(parameter: KtParameter): Boolean = false
@@ -25,6 +25,7 @@ import org.jetbrains.kotlin.descriptors.annotations.Annotations
 import org.jetbrains.kotlin.frontend.di.createContainerForBodyResolve
 import org.jetbrains.kotlin.idea.DaemonCodeAnalyzerStatusService
 import org.jetbrains.kotlin.idea.caches.resolve.CodeFragmentAnalyzer
+import org.jetbrains.kotlin.idea.caches.resolve.KotlinResolveProfiler
 import org.jetbrains.kotlin.idea.caches.resolve.util.analyzeControlFlow
 import org.jetbrains.kotlin.idea.caches.trackers.KotlinCodeBlockModificationListener
 import org.jetbrains.kotlin.idea.caches.trackers.PureKotlinCodeBlockModificationListener
@@ -371,6 +372,8 @@ class ResolveElementCache(
             assert(bodyResolveMode == BodyResolveMode.FULL)
         }
 
+        KotlinResolveProfiler.analysisPerformed()
+
         val file = resolveElement.containingKtFile
 
         var statementFilterUsed = StatementFilter.NONE
@@ -20,10 +20,9 @@ fun <TDeclaration : KtCallableDeclaration> indexTopLevelExtension(stub: KotlinCa
         val declaration = stub.psi
         val containingTypeReference = declaration.receiverTypeReference!!
         containingTypeReference.typeElement?.index(declaration, containingTypeReference) { typeName ->
-            val name = declaration.name ?: return@index
             sink.occurrence(
-                KotlinTopLevelExtensionsByReceiverTypeIndex.INSTANCE.key,
-                KotlinTopLevelExtensionsByReceiverTypeIndex.buildKey(typeName, name)
+                KotlinTopLevelExtensionsByReceiverTypeIdIndex.INSTANCE.key,
+                KotlinTopLevelExtensionsByReceiverTypeIdIndex.keyId(typeName)
             )
         }
     }
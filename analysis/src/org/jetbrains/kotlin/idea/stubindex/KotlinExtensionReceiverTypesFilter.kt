@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.stubindex
+
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.openapi.vfs.newvfs.persistent.PersistentFS
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectScope
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.util.indexing.IdFilter
+import com.intellij.util.io.DataInputOutputUtil
+import org.jetbrains.kotlin.idea.caches.trackers.KotlinCodeBlockModificationListener
+import java.io.DataInput
+import java.io.DataOutput
+
+/**
+ * Bloom filters over key ids of top-level extensions stored in [KotlinTopLevelExtensionsByReceiverTypeIdIndex],
+ * used to skip index lookups for receiver types that have no extensions in the search scope.
+ *
+ * Filters of modules and libraries are kept by [KotlinExtensionReceiverTypesFilterStorage] between sessions and updated
+ * incrementally, a filter for the rest of the files (scripts, files outside of content roots) is rebuilt after out-of-block
+ * modifications. Filters are built from the keys of the persistent index and extended by the keys of changed files,
+ * so they never give false negatives.
+ */
+object KotlinExtensionReceiverTypesFilter {
+    const val BITS_PER_ELEMENT = 10
+
+    val isEnabled: Boolean
+        get() = Registry.`is`("kotlin.completion.extensions.receiver.bloom.filter", false)
+
+    /**
+     * @param keyIds see [KotlinTopLevelExtensionsByReceiverTypeIdIndex.keyId]
+     */
+    fun filterKeyIds(keyIds: Collection<Int>, project: Project, scope: GlobalSearchScope): Collection<Int> {
+        if (!isEnabled) return keyIds
+
+        val filters = KotlinExtensionReceiverTypesFilterStorage.getInstance(project).relevantFilters(scope) + otherFilesFilter(project)
+        return keyIds.filter { id -> filters.any { it.mightContain(id) } }
+    }
+
+    private fun otherFilesFilter(project: Project): IntBloomFilter =
+        CachedValuesManager.getManager(project).getCachedValue(project, OtherFilesFilterProvider(project))
+
+    private class OtherFilesFilterProvider(private val project: Project) : CachedValueProvider<IntBloomFilter> {
+        override fun compute(): CachedValueProvider.Result<IntBloomFilter> {
+            val projectAndLibraries = ProjectScope.getContentScope(project).union(ProjectScope.getLibrariesScope(project))
+            val otherFiles = GlobalSearchScope.notScope(projectAndLibraries)
+            return CachedValueProvider.Result.create(
+                buildFilter(project, otherFiles, extraCapacity = 0),
+                KotlinCodeBlockModificationListener.getInstance(project).kotlinOutOfCodeBlockTracker,
+                ProjectRootModificationTracker.getInstance(project)
+            )
+        }
+    }
+
+    /**
+     * @param extraCapacity share of the index keys the filter can take in addition to them without getting less selective
+     */
+    fun buildFilter(project: Project, scope: GlobalSearchScope, extraCapacity: Double): IntBloomFilter {
+        val ids = HashSet<Int>()
+        StubIndex.getInstance().processAllKeys(
+            KotlinTopLevelExtensionsByReceiverTypeIdIndex.INSTANCE.key,
+            { ids.add(it) },
+            scope,
+            ScopeIdFilter(scope)
+        )
+
+        val capacity = ids.size + (ids.size * extraCapacity).toInt()
+        return IntBloomFilter(capacity, BITS_PER_ELEMENT).apply { ids.forEach { add(it) } }
+    }
+
+    private class ScopeIdFilter(private val scope: GlobalSearchScope) : IdFilter() {
+        override fun containsFileId(id: Int): Boolean {
+            val file = PersistentFS.getInstance().findFileById(id) ?: return false
+            return scope.contains(file)
+        }
+    }
+}
+
+/**
+ * Bloom filter of int values, 10 bits per element give about 1% of false positives.
+ */
+class IntBloomFilter private constructor(private val expectedSize: Int, private val bitsPerElement: Int, private val bits: LongArray) {
+    constructor(expectedSize: Int, bitsPerElement: Int) : this(expectedSize, bitsPerElement, LongArray((bitsCount(expectedSize, bitsPerElement) + 63) / 64))
+
+    private val bitsCount = bitsCount(expectedSize, bitsPerElement)
+    private val hashFunctionsCount = (bitsPerElement * 0.7).toInt().coerceIn(1, 16)
+
+    /**
+     * Number of [add] calls, values added several times are counted each time
+     */
+    var addedCount: Int = 0
+        private set
+
+    /**
+     * `true` when more values were added than expected, so there are more false positives than [bitsPerElement] gives
+     */
+    val isOverfilled: Boolean
+        get() = addedCount > expectedSize
+
+    fun add(value: Int) {
+        forEachBit(value) { bits[it ushr 6] = bits[it ushr 6] or (1L shl it) }
+        addedCount++
+    }
+
+    fun mightContain(value: Int): Boolean {
+        forEachBit(value) { if (bits[it ushr 6] and (1L shl it) == 0L) return false }
+        return true
+    }
+
+    private inline fun forEachBit(value: Int, action: (Int) -> Unit) {
+        // Kirsch-Mitzenmacher double hashing over two independent mixes of the value
+        val hash1 = mix(value)
+        val hash2 = mix(hash1 xor value) or 1
+        for (i in 0 until hashFunctionsCount) {
+            action(((hash1 + i * hash2) and Int.MAX_VALUE) % bitsCount)
+        }
+    }
+
+    private fun mix(value: Int): Int {
+        var h = value * -0x61c88647
+        h = h xor (h ushr 16)
+        h *= -0x7a143595
+        return h xor (h ushr 13)
+    }
+
+    fun write(output: DataOutput) {
+        DataInputOutputUtil.writeINT(output, expectedSize)
+        DataInputOutputUtil.writeINT(output, bitsPerElement)
+        DataInputOutputUtil.writeINT(output, addedCount)
+        bits.forEach { output.writeLong(it) }
+    }
+
+    companion object {
+        private fun bitsCount(expectedSize: Int, bitsPerElement: Int): Int =
+            (expectedSize.coerceAtLeast(1).toLong() * bitsPerElement).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+
+        fun read(input: DataInput): IntBloomFilter {
+            val expectedSize = DataInputOutputUtil.readINT(input)
+            val bitsPerElement = DataInputOutputUtil.readINT(input)
+            val addedCount = DataInputOutputUtil.readINT(input)
+            val bits = LongArray((bitsCount(expectedSize, bitsPerElement) + 63) / 64) { input.readLong() }
+            return IntBloomFilter(expectedSize, bitsPerElement, bits).also { it.addedCount = addedCount }
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.stubindex
+
+import com.intellij.ProjectTopics
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.module.Module
+import com.intellij.openapi.module.ModuleManager
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.rootManager
+import com.intellij.openapi.roots.ModuleRootEvent
+import com.intellij.openapi.roots.ModuleRootListener
+import com.intellij.openapi.roots.OrderEnumerator
+import com.intellij.openapi.roots.ProjectFileIndex
+import com.intellij.openapi.startup.StartupActivity
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.ManagingFS
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent
+import com.intellij.psi.PsiElement
+import com.intellij.psi.PsiManager
+import com.intellij.psi.impl.PsiTreeChangeEventImpl
+import com.intellij.psi.impl.PsiTreeChangePreprocessor
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.ProjectScope
+import com.intellij.psi.stubs.IndexSink
+import com.intellij.psi.stubs.StubIndexKey
+import com.intellij.util.io.DataInputOutputUtil
+import com.intellij.util.io.IOUtil
+import org.jetbrains.kotlin.idea.KotlinFileType
+import org.jetbrains.kotlin.idea.core.KotlinPluginDisposable
+import org.jetbrains.kotlin.idea.util.application.getServiceSafe
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.stubs.KotlinCallableStubBase
+import java.io.*
+
+/**
+ * Bloom filters of [KotlinExtensionReceiverTypesFilter] for modules and libraries of the project, stored between IDE sessions.
+ *
+ * A filter is built from the keys of [KotlinTopLevelExtensionsByReceiverTypeIdIndex] on the first use, after that keys of changed
+ * Kotlin files are added to it from their stubs. Keys of removed extensions stay in the filter and only make it less selective,
+ * so the filter is rebuilt when more keys are added than it has room for, and after changes of roots or directories.
+ *
+ * Filters are saved on project closing together with stamps of module content roots and of library roots, and are used by
+ * the next session only when the stamps and the index version are the same. Stamps of modules are persistent VFS modification
+ * counts of their content roots, which grow with any change below the roots, so module content is never walked. Changes made
+ * while the project was closed update the counts when VFS refresh finds them after the start, either before the first use
+ * of a filter, so it's rebuilt, or after it, so the changed files are added as usual.
+ */
+class KotlinExtensionReceiverTypesFilterStorage(private val project: Project) : Disposable {
+    private val lock = Any()
+
+    // by filter id, see filterId
+    private var filters: MutableMap<String, IntBloomFilter>? = null
+
+    // stamps of filters read from the disk which are not checked yet in this session
+    private val uncheckedStamps = HashMap<String, Long>()
+
+    private val dirtyFiles = LinkedHashSet<VirtualFile>()
+
+    fun relevantFilters(scope: GlobalSearchScope): List<IntBloomFilter> = synchronized(lock) {
+        val filters = filters ?: load().also { filters = it }
+        updateDirtyFiles(filters)
+
+        val result = ArrayList<IntBloomFilter>()
+        for (module in ModuleManager.getInstance(project).modules) {
+            if (scope.isSearchInModuleContent(module)) {
+                result += filter(filters, moduleFilterId(module), { moduleStamp(module) }) { GlobalSearchScope.moduleScope(module) }
+            }
+        }
+        if (scope.isSearchInLibraries) {
+            result += filter(filters, LIBRARIES_FILTER_ID, ::librariesStamp) { ProjectScope.getLibrariesScope(project) }
+        }
+        result
+    }
+
+    private fun filter(
+        filters: MutableMap<String, IntBloomFilter>,
+        filterId: String,
+        stamp: () -> Long,
+        scope: () -> GlobalSearchScope
+    ): IntBloomFilter {
+        val storedStamp = uncheckedStamps.remove(filterId)
+        if (storedStamp != null && storedStamp != stamp()) {
+            filters.remove(filterId)
+        }
+        return filters.getOrPut(filterId) { KotlinExtensionReceiverTypesFilter.buildFilter(project, scope(), EXTRA_CAPACITY) }
+    }
+
+    fun fileChanged(file: VirtualFile) {
+        synchronized(lock) {
+            dirtyFiles += file
+        }
+    }
+
+    fun rootsChanged() {
+        synchronized(lock) {
+            filters?.clear()
+            uncheckedStamps.clear()
+            dirtyFiles.clear()
+        }
+    }
+
+    private fun updateDirtyFiles(filters: MutableMap<String, IntBloomFilter>) {
+        if (dirtyFiles.isEmpty()) return
+
+        for (file in dirtyFiles) {
+            // keys of deleted files only make the filter less selective
+            if (!file.isValid) continue
+
+            val filterId = filterId(file) ?: continue
+            val filter = filters[filterId] ?: continue
+
+            val ktFile = if (file.isDirectory) null else PsiManager.getInstance(project).findFile(file) as? KtFile
+            if (ktFile == null || ktFile.isCompiled) {
+                filters.remove(filterId)
+                uncheckedStamps.remove(filterId)
+                continue
+            }
+
+            addKeys(ktFile, filter)
+            if (filter.isOverfilled) {
+                filters.remove(filterId)
+            }
+        }
+        dirtyFiles.clear()
+    }
+
+    private fun addKeys(file: KtFile, filter: IntBloomFilter) {
+        val sink = object : IndexSink {
+            override fun <Psi : PsiElement, K> occurrence(indexKey: StubIndexKey<K, Psi>, value: K) {
+                if (indexKey == KotlinTopLevelExtensionsByReceiverTypeIdIndex.INSTANCE.key) filter.add(value as Int)
+            }
+        }
+
+        for (stub in file.calcStubTree().plainList) {
+            if (stub is KotlinCallableStubBase<*> && stub.isTopLevel() && stub.getFqName() != null) {
+                indexTopLevelExtension(stub, sink)
+            }
+        }
+    }
+
+    private fun filterId(file: VirtualFile): String? {
+        val fileIndex = ProjectFileIndex.getInstance(project)
+        val module = fileIndex.getModuleForFile(file)
+        return when {
+            module != null && fileIndex.isInContent(file) -> moduleFilterId(module)
+            fileIndex.isInLibrary(file) -> LIBRARIES_FILTER_ID
+            else -> null
+        }
+    }
+
+    private fun moduleFilterId(module: Module) = "module:${module.name}"
+
+    // content roots and their modification counts, see ManagingFS.getModificationCount
+    private fun moduleStamp(module: Module): Long {
+        var result = module.rootManager.contentRootUrls.sorted().hashCode().toLong()
+        val managingFS = ManagingFS.getInstance()
+        for (root in module.rootManager.contentRoots.sortedBy { it.url }) {
+            result = 31 * result + managingFS.getModificationCount(root)
+        }
+        return result
+    }
+
+    // library roots and time stamps of the archives
+    private fun librariesStamp(): Long {
+        var result = 0L
+        for (root in OrderEnumerator.orderEntries(project).librariesOnly().withoutSdk().classes().roots) {
+            val file = VfsUtilCore.getVirtualFileForJar(root) ?: root
+            result = 31 * result + root.url.hashCode()
+            result = 31 * result + file.timeStamp
+        }
+        return result
+    }
+
+    private val storageFile: File
+        get() = File(PathManager.getSystemPath(), "kotlin-extension-receivers/${project.locationHash}")
+
+    private fun load(): MutableMap<String, IntBloomFilter> {
+        val result = HashMap<String, IntBloomFilter>()
+        val file = storageFile
+        if (!file.exists()) return result
+
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (DataInputOutputUtil.readINT(input) != FORMAT_VERSION || DataInputOutputUtil.readINT(input) != indexVersion()) {
+                    return result
+                }
+
+                repeat(DataInputOutputUtil.readINT(input)) {
+                    val filterId = IOUtil.readUTF(input)
+                    uncheckedStamps[filterId] = input.readLong()
+                    result[filterId] = IntBloomFilter.read(input)
+                }
+            }
+        } catch (e: IOException) {
+            LOG.warn("Could not read $file", e)
+            uncheckedStamps.clear()
+            result.clear()
+        } finally {
+            // stamps of a copy left by a crashed session may not correspond to the filters
+            file.delete()
+        }
+        return result
+    }
+
+    private fun save() {
+        val filters = filters?.takeIf { it.isNotEmpty() } ?: return
+        val modules = ModuleManager.getInstance(project).modules.associateBy { moduleFilterId(it) }
+        val file = storageFile
+
+        try {
+            file.parentFile.mkdirs()
+            DataOutputStream(BufferedOutputStream(FileOutputStream(file))).use { output ->
+                DataInputOutputUtil.writeINT(output, FORMAT_VERSION)
+                DataInputOutputUtil.writeINT(output, indexVersion())
+
+                val stamps = LinkedHashMap<String, Long>()
+                for (filterId in filters.keys) {
+                    stamps[filterId] = if (filterId == LIBRARIES_FILTER_ID) librariesStamp() else modules[filterId]?.let(::moduleStamp) ?: continue
+                }
+
+                DataInputOutputUtil.writeINT(output, stamps.size)
+                for ((filterId, stamp) in stamps) {
+                    IOUtil.writeUTF(output, filterId)
+                    output.writeLong(stamp)
+                    filters.getValue(filterId).write(output)
+                }
+            }
+        } catch (e: IOException) {
+            LOG.warn("Could not write $file", e)
+            file.delete()
+        }
+    }
+
+    private fun indexVersion(): Int = KotlinTopLevelExtensionsByReceiverTypeIdIndex.INSTANCE.version
+
+    override fun dispose() {
+        synchronized(lock) {
+            // keys of the files changed after the last use are not added yet
+            val filters = filters ?: return
+            dirtyFiles.filter { it.isValid }.mapNotNullTo(HashSet(), ::filterId).forEach { filters.remove(it) }
+            dirtyFiles.clear()
+            save()
+        }
+    }
+
+    class Startup : StartupActivity {
+        override fun runActivity(project: Project) {
+            val connection = project.messageBus.connect(KotlinPluginDisposable.getInstance(project))
+            connection.subscribe(VirtualFileManager.VFS_CHANGES, object : BulkFileListener {
+                override fun after(events: List<VFileEvent>) {
+                    if (!KotlinExtensionReceiverTypesFilter.isEnabled) return
+                    val storage = getInstance(project)
+                    for (event in events) {
+                        if (event is VFilePropertyChangeEvent) continue
+                        val file = event.file ?: continue
+                        if (file.isDirectory || file.fileType == KotlinFileType.INSTANCE) {
+                            storage.fileChanged(file)
+                        }
+                    }
+                }
+            })
+
+            connection.subscribe(ProjectTopics.PROJECT_ROOTS, object : ModuleRootListener {
+                override fun rootsChanged(event: ModuleRootEvent) {
+                    if (!KotlinExtensionReceiverTypesFilter.isEnabled) return
+                    getInstance(project).rootsChanged()
+                }
+            })
+        }
+    }
+
+    class PsiChangesPreprocessor(private val project: Project) : PsiTreeChangePreprocessor {
+        override fun treeChanged(event: PsiTreeChangeEventImpl) {
+            if (!KotlinExtensionReceiverTypesFilter.isEnabled) return
+            val file = event.file as? KtFile ?: return
+            val virtualFile = file.virtualFile ?: return
+            getInstance(project).fileChanged(virtualFile)
+        }
+    }
+
+    companion object {
+        private val LOG = Logger.getInstance(KotlinExtensionReceiverTypesFilterStorage::class.java)
+
+        private const val FORMAT_VERSION = 1
+        private const val LIBRARIES_FILTER_ID = "libraries"
+
+        // room for keys of changed files, see IntBloomFilter.isOverfilled
+        private const val EXTRA_CAPACITY = 0.5
+
+        fun getInstance(project: Project): KotlinExtensionReceiverTypesFilterStorage = project.getServiceSafe()
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.stubindex
+
+import com.intellij.openapi.project.Project
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.stubs.IntStubIndexExtension
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.psi.stubs.StubIndexKey
+import com.intellij.util.Processor
+import org.jetbrains.kotlin.psi.KtCallableDeclaration
+
+/**
+ * Top-level extensions by int id of the receiver type short name (see [keyId]), so extensions for a known set of receiver types
+ * are found with one lookup per type name, without enumerating index keys.
+ *
+ * Ids are hashes of the names, the same way the platform keys its hash-based Java indices: they are stable between sessions
+ * and need no separate persistent name table. Results may contain extensions of other receiver types with the same id,
+ * callers are expected to check receiver types anyway.
+ */
+class KotlinTopLevelExtensionsByReceiverTypeIdIndex private constructor() : IntStubIndexExtension<KtCallableDeclaration>() {
+    override fun getKey(): StubIndexKey<Int, KtCallableDeclaration> = KEY
+
+    fun get(keyId: Int, project: Project, scope: GlobalSearchScope): Collection<KtCallableDeclaration> =
+        StubIndex.getElements(KEY, keyId, project, scope, KtCallableDeclaration::class.java)
+
+    fun processElements(keyId: Int, project: Project, scope: GlobalSearchScope, processor: Processor<in KtCallableDeclaration>): Boolean =
+        StubIndex.getInstance().processElements(KEY, keyId, project, scope, KtCallableDeclaration::class.java, processor)
+
+    companion object {
+        private val KEY = KotlinIndexUtil.createIndexKey(KotlinTopLevelExtensionsByReceiverTypeIdIndex::class.java)
+
+        @JvmField
+        val INSTANCE = KotlinTopLevelExtensionsByReceiverTypeIdIndex()
+
+        @JvmStatic
+        fun keyId(receiverTypeName: String): Int = receiverTypeName.hashCode()
+    }
+}
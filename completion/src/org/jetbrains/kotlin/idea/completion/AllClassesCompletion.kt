@@ -7,9 +7,12 @@ package org.jetbrains.kotlin.idea.completion
 
 import com.intellij.codeInsight.completion.AllClassesGetter
 import com.intellij.codeInsight.completion.CompletionParameters
+import com.intellij.codeInsight.completion.CompletionUtil
+import com.intellij.codeInsight.completion.LimitedAccessibleClassPreprocessor
 import com.intellij.codeInsight.completion.PrefixMatcher
 import com.intellij.psi.PsiClass
 import com.intellij.psi.PsiLiteral
+import com.intellij.psi.impl.search.AllClassesSearchExecutor
 import com.intellij.psi.search.PsiShortNamesCache
 import org.jetbrains.kotlin.asJava.classes.KtLightClass
 import org.jetbrains.kotlin.descriptors.ClassDescriptor
@@ -38,6 +41,8 @@ class AllClassesCompletion(
     private val includeTypeAliases: Boolean,
     private val includeJavaClassesNotToBeUsed: Boolean
 ) {
+    private val namesTrieCache = ClassShortNamesTrieCache.getInstance(parameters.originalFile.project)
+
     fun collect(classifierDescriptorCollector: (ClassifierDescriptorWithTypeParameters) -> Unit, javaClassCollector: (PsiClass) -> Unit) {
 
         //TODO: this is a temporary solution until we have built-ins in indices
@@ -50,11 +55,22 @@ class AllClassesCompletion(
             }
         }
 
-        kotlinIndicesHelper.getKotlinClasses({ prefixMatcher.prefixMatches(it) }, kindFilter = kindFilter)
-            .forEach { classifierDescriptorCollector(it) }
+        val kotlinClassFqNames = namesTrieCache.kotlinClassFqNames(prefixMatcher)
+        val kotlinClasses = if (kotlinClassFqNames != null) {
+            kotlinIndicesHelper.getKotlinClassesByFqNames(kotlinClassFqNames, kindFilter = kindFilter)
+        } else {
+            kotlinIndicesHelper.getKotlinClasses({ prefixMatcher.prefixMatches(it) }, kindFilter = kindFilter)
+        }
+        kotlinClasses.forEach { classifierDescriptorCollector(it) }
 
         if (includeTypeAliases) {
-            kotlinIndicesHelper.getTopLevelTypeAliases(prefixMatcher.asStringNameFilter()).forEach { classifierDescriptorCollector(it) }
+            val typeAliasFqNames = namesTrieCache.kotlinTypeAliasFqNames(prefixMatcher)
+            val typeAliases = if (typeAliasFqNames != null) {
+                kotlinIndicesHelper.getTopLevelTypeAliasesByFqNames(typeAliasFqNames)
+            } else {
+                kotlinIndicesHelper.getTopLevelTypeAliases(prefixMatcher.asStringNameFilter())
+            }
+            typeAliases.forEach { classifierDescriptorCollector(it) }
         }
 
         if (TargetPlatformDetector.getPlatform(parameters.originalFile as KtFile).isJvm()) {
@@ -80,8 +96,8 @@ class AllClassesCompletion(
         } as KotlinShortNamesCache?
         shortNamesCache?.disableSearch?.set(true)
         try {
-            AllClassesGetter.processJavaClasses(parameters, prefixMatcher, true) { psiClass ->
-                if (psiClass!! !is KtLightClass) { // Kotlin class should have already been added as kotlin element before
+            processJavaClasses { psiClass ->
+                if (psiClass !is KtLightClass) { // Kotlin class should have already been added as kotlin element before
                     if (psiClass.isSyntheticKotlinClass()) return@processJavaClasses // filter out synthetic classes produced by Kotlin compiler
 
                     val kind = when {
@@ -100,6 +116,26 @@ class AllClassesCompletion(
         }
     }
 
+    private fun processJavaClasses(processor: (PsiClass) -> Unit) {
+        val names = namesTrieCache.javaClassNames(prefixMatcher)
+        if (names == null) {
+            AllClassesGetter.processJavaClasses(parameters, prefixMatcher, true) { processor(it!!) }
+            return
+        }
+
+        // same as AllClassesGetter.processJavaClasses does for the names it finds by checking all of them
+        val position = parameters.position
+        AllClassesSearchExecutor.processClassesByNames(
+            position.project,
+            position.containingFile.resolveScope,
+            CompletionUtil.sortMatching(prefixMatcher, names),
+            LimitedAccessibleClassPreprocessor(parameters, true) { psiClass ->
+                processor(psiClass)
+                true
+            }
+        )
+    }
+
     private fun PsiClass.isSyntheticKotlinClass(): Boolean {
         if ('$' !in name!!) return false // optimization to not analyze annotations of all classes
         val metadata = modifierList?.findAnnotation(JvmAnnotationNames.METADATA_FQ_NAME.asString())
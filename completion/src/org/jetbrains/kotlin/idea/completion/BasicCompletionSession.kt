@@ -364,9 +364,11 @@ class BasicCompletionSession(
 
         private fun completeNonImported(lookupElementFactory: LookupElementFactory) {
             if (shouldCompleteTopLevelCallablesFromIndex()) {
-                processTopLevelCallables {
-                    collector.addDescriptorElements(it, lookupElementFactory, notImported = true)
-                    flushToResultSet()
+                streamFrom("top-level callables") { source ->
+                    processTopLevelCallables {
+                        collector.addDescriptorElements(it, lookupElementFactory, notImported = true)
+                        source.elementsAdded()
+                    }
                 }
             }
 
@@ -817,12 +819,18 @@ class BasicCompletionSession(
         }
     }
 
-    private fun addClassesFromIndex(kindFilter: (ClassKind) -> Boolean, includeTypeAliases: Boolean, prefixMatcher: PrefixMatcher) {
+    private fun addClassesFromIndex(
+        kindFilter: (ClassKind) -> Boolean,
+        includeTypeAliases: Boolean,
+        prefixMatcher: PrefixMatcher
+    ) = streamFrom("classes from index") { source ->
         val classifierDescriptorCollector = { descriptor: ClassifierDescriptorWithTypeParameters ->
             collector.addElement(basicLookupElementFactory.createLookupElement(descriptor), notImported = true)
+            source.elementsAdded()
         }
         val javaClassCollector = { javaClass: PsiClass ->
             collector.addElement(basicLookupElementFactory.createLookupElementForJavaClass(javaClass), notImported = true)
+            source.elementsAdded()
         }
         AllClassesCompletion(
             parameters, indicesHelper(true), prefixMatcher, resolutionFacade,
@@ -843,9 +851,12 @@ class BasicCompletionSession(
         }
 
         val referenceVariantsCollector = referenceVariantsCollector!!
-        referenceVariantsCollector.collectReferenceVariants(descriptorKindFilter) { referenceVariants ->
-            addReferenceVariants(referenceVariants)
-            flushToResultSet()
+        streamFrom("reference variants") {
+            // scope members and extensions are separate batches, each of them is shown as soon as it's collected
+            referenceVariantsCollector.collectReferenceVariants(descriptorKindFilter) { referenceVariants ->
+                addReferenceVariants(referenceVariants)
+                flushToResultSet()
+            }
         }
     }
 
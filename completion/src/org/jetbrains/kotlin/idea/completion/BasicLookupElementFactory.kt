@@ -97,11 +97,14 @@ class BasicLookupElementFactory(
 
         element = element.appendTailText(" ($containerName)", true)
 
-        if (lookupObject.isDeprecated) {
+        val isDeprecated = lookupObject.isDeprecated
+        if (isDeprecated) {
             element = element.withStrikeoutness(true)
         }
 
-        return element.withIconFromLookupObject()
+        val result = element.withIconFromLookupObject()
+        result.precomputedWeights = LookupElementWeights(lookupObject, isDeprecated)
+        return result
     }
 
     fun createLookupElementForPackage(name: FqName): LookupElement {
@@ -263,7 +266,8 @@ class BasicLookupElementFactory(
             }
         }
 
-        if (lookupObject.isDeprecated) {
+        val isDeprecated = lookupObject.isDeprecated
+        if (isDeprecated) {
             element = element.withStrikeoutness(true)
         }
 
@@ -273,6 +277,7 @@ class BasicLookupElementFactory(
 
         val result = element.withIconFromLookupObject()
         result.isDslMember = isMarkedAsDsl
+        result.precomputedWeights = LookupElementWeights(lookupObject, isDeprecated)
         return result
     }
 
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.completion
+
+import com.intellij.openapi.progress.ProgressManager
+
+/**
+ * Immutable prefix trie of class names, used to find the names a completion prefix can match without checking every name.
+ *
+ * Values are short or qualified class names keyed by their short names. A short name is stored in two tries: under the whole name
+ * and under each of its camel-hump segments after the first one (`HashMap` is also stored as `Map`), so that the words the prefix
+ * starts with are found by going down from the root. Keys keep word starts in upper case and other characters in lower case.
+ *
+ * [update] returns a new trie sharing unchanged nodes with this one, so a trie used by a completion session is never modified.
+ */
+class ClassShortNamesTrie private constructor(private val names: Node, private val segments: Node, val size: Int) {
+    private class Node(val label: String, val children: Array<Node>, val values: Array<String>) {
+        // characters of the label and all the keys below, see charBit
+        val mask: Long = children.fold(labelMask(label)) { mask, child -> mask or child.mask }
+
+        fun copy(label: String = this.label, children: Array<Node> = this.children, values: Array<String> = this.values) =
+            Node(label, children, values)
+
+        fun childIndex(char: Char): Int {
+            var low = 0
+            var high = children.size - 1
+            while (low <= high) {
+                val middle = (low + high) ushr 1
+                val middleChar = children[middle].label[0]
+                when {
+                    middleChar < char -> low = middle + 1
+                    middleChar > char -> high = middle - 1
+                    else -> return middle
+                }
+            }
+            return -(low + 1)
+        }
+    }
+
+    fun update(added: Collection<String>, removed: Collection<String>): ClassShortNamesTrie {
+        var names = names
+        var segments = segments
+        var size = size
+        var processed = 0
+
+        fun forEachKey(value: String, f: (isSegment: Boolean, key: String) -> Unit) {
+            if (++processed % 1000 == 0) ProgressManager.checkCanceled()
+            val shortName = value.substringAfterLast('.')
+            if (shortName.isEmpty()) return
+            f(false, encode(shortName, 0))
+            for (index in 1 until shortName.length) {
+                if (isSegmentStart(shortName, index)) f(true, encode(shortName, index))
+            }
+        }
+
+        for (value in removed) {
+            forEachKey(value) { isSegment, key ->
+                // roots are never removed
+                if (isSegment) segments = segments.remove(key, 0, value)!! else names = names.remove(key, 0, value)!!
+            }
+            size--
+        }
+
+        for (value in added) {
+            forEachKey(value) { isSegment, key ->
+                if (isSegment) segments = segments.insert(key, 0, value) else names = names.insert(key, 0, value)
+            }
+            size++
+        }
+
+        return ClassShortNamesTrie(names, segments, size)
+    }
+
+    /**
+     * Values with short names [pattern] may match by camel humps (`NPE` and `NuPoEx` for `NullPointerException`, case-insensitively),
+     * starting from any word when [middleMatching] is on, including the names [pattern] matches in the middle of a word
+     * (`ring` for `String`) with at least three first characters. The matcher should still be applied to the candidates.
+     *
+     * `null` if [pattern] can't be looked up here, e.g. is empty or has wildcards: all the names are to be checked then.
+     */
+    fun candidates(pattern: String, middleMatching: Boolean): Set<String>? {
+        if (pattern.isEmpty() || pattern.length >= Long.SIZE_BITS - 1 || !pattern.all { it.isLetterOrDigit() || it == '_' || it == '$' }) {
+            return null
+        }
+
+        val matcher = HumpsMatcher(pattern.toLowerCase())
+        val result = HashSet<String>()
+        matcher.collectFromRoot(names, result)
+        if (middleMatching) {
+            matcher.collectFromRoot(segments, result)
+            if (pattern.length >= MIN_MIDDLE_MATCH_LENGTH) {
+                matcher.collectMiddleMatches(names, result)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Bit-parallel camel-hump matching along the trie paths, states are bit sets of numbers of pattern characters matched so far:
+     * `contiguous` right after a matched character, `skipping` after skipped name characters, continued only at word starts.
+     */
+    private class HumpsMatcher(private val pattern: String) {
+        private val completeBit = 1L shl pattern.length
+
+        // characters of the pattern starting from the given position
+        private val remainingMasks = LongArray(pattern.length + 1).also { masks ->
+            for (index in pattern.length - 1 downTo 0) {
+                masks[index] = masks[index + 1] or charBit(pattern[index])
+            }
+        }
+
+        private fun positions(char: Char): Long {
+            var result = 0L
+            for (index in pattern.indices) {
+                if (pattern[index] == char) result = result or (1L shl index)
+            }
+            return result
+        }
+
+        private val asciiPositions = LongArray(128) { positions(it.toChar()) }
+
+        private fun positionsOf(lowerCaseChar: Char): Long =
+            if (lowerCaseChar.toInt() < asciiPositions.size) asciiPositions[lowerCaseChar.toInt()] else positions(lowerCaseChar)
+
+        fun collectFromRoot(root: Node, result: MutableSet<String>) {
+            val index = root.childIndex(pattern[0].toUpperCase())
+            if (index >= 0) collect(root.children[index], 1L, 0L, isFirst = true, result = result)
+        }
+
+        private fun collect(node: Node, contiguousStates: Long, skippingStates: Long, isFirst: Boolean, result: MutableSet<String>) {
+            ProgressManager.checkCanceled()
+
+            var contiguous = contiguousStates
+            var skipping = skippingStates
+            // characters left to match for the most advanced state
+            val required = remainingMasks[Long.SIZE_BITS - 1 - java.lang.Long.numberOfLeadingZeros(contiguous or skipping)]
+            if (node.mask and required != required) return
+
+            for ((index, char) in node.label.withIndex()) {
+                val isWordStart = !char.isLowerCase()
+                val matched = (if (isWordStart) contiguous or skipping else contiguous) and positionsOf(char.toLowerCase())
+                skipping = if (isFirst && index == 0) 0L else contiguous or skipping
+                contiguous = matched shl 1
+
+                if (contiguous and completeBit != 0L) {
+                    collectAll(node, result)
+                    return
+                }
+                if (contiguous or skipping == 0L) return
+            }
+
+            for (child in node.children) {
+                collect(child, contiguous, skipping, isFirst = false, result = result)
+            }
+        }
+
+        /**
+         * Names containing the first [MIN_MIDDLE_MATCH_LENGTH] characters of the pattern and all the others,
+         * states are bit sets of numbers of these characters matched before the current one minus one
+         */
+        fun collectMiddleMatches(root: Node, result: MutableSet<String>) {
+            for (child in root.children) {
+                collectMiddleMatches(child, 0L, result)
+            }
+        }
+
+        private fun collectMiddleMatches(node: Node, statesBefore: Long, result: MutableSet<String>) {
+            ProgressManager.checkCanceled()
+            val required = remainingMasks[Long.SIZE_BITS - java.lang.Long.numberOfLeadingZeros(statesBefore)]
+            if (node.mask and required != required) return
+
+            val found = 1L shl (MIN_MIDDLE_MATCH_LENGTH - 1)
+            val firstCharacters = (1L shl MIN_MIDDLE_MATCH_LENGTH) - 1
+            var states = statesBefore
+            for (char in node.label) {
+                states = ((states shl 1) or 1L) and positionsOf(char.toLowerCase()) and firstCharacters
+                if (states and found != 0L) {
+                    collectAll(node, result)
+                    return
+                }
+            }
+
+            for (child in node.children) {
+                collectMiddleMatches(child, states, result)
+            }
+        }
+
+        private fun collectAll(node: Node, result: MutableSet<String>) {
+            result.addAll(node.values)
+            for (child in node.children) {
+                collectAll(child, result)
+            }
+        }
+    }
+
+    companion object {
+        private const val MIN_MIDDLE_MATCH_LENGTH = 3
+
+        private val EMPTY_ROOT = Node("", emptyArray(), emptyArray())
+
+        val EMPTY = ClassShortNamesTrie(EMPTY_ROOT, EMPTY_ROOT, 0)
+
+        private fun Node.insert(key: String, from: Int, value: String): Node {
+            if (from == key.length) {
+                return if (value in values) this else copy(values = values + value)
+            }
+
+            val index = childIndex(key[from])
+            if (index < 0) {
+                val leaf = Node(key.substring(from), emptyArray(), arrayOf(value))
+                val insertionPoint = -index - 1
+                return copy(children = children.copyOfRange(0, insertionPoint) + leaf + children.copyOfRange(insertionPoint, children.size))
+            }
+
+            val child = children[index]
+            val common = commonPrefixLength(child.label, key, from)
+            val newChild = if (common == child.label.length) {
+                child.insert(key, from + common, value)
+            } else {
+                // split the label of the child where the key diverges from it
+                val split = Node(child.label.substring(0, common), arrayOf(child.copy(label = child.label.substring(common))), emptyArray())
+                split.insert(key, from + common, value)
+            }
+            return copy(children = children.copyOf().also { it[index] = newChild })
+        }
+
+        /**
+         * `null` if nothing is left in this node
+         */
+        private fun Node.remove(key: String, from: Int, value: String): Node? {
+            val result = if (from == key.length) {
+                if (value !in values) return this
+                copy(values = values.filter { it != value }.toTypedArray())
+            } else {
+                val index = childIndex(key[from])
+                if (index < 0) return this
+                val child = children[index]
+                if (!key.startsWith(child.label, from)) return this
+
+                when (val newChild = child.remove(key, from + child.label.length, value)) {
+                    child -> return this
+                    null -> copy(children = children.copyOfRange(0, index) + children.copyOfRange(index + 1, children.size))
+                    else -> copy(children = children.copyOf().also { it[index] = newChild })
+                }
+            }
+
+            return when {
+                result.label.isEmpty() -> result // root
+                result.values.isEmpty() && result.children.isEmpty() -> null
+                result.values.isEmpty() && result.children.size == 1 -> {
+                    val child = result.children.single()
+                    child.copy(label = result.label + child.label)
+                }
+                else -> result
+            }
+        }
+
+        private fun commonPrefixLength(label: String, key: String, from: Int): Int {
+            var length = 0
+            while (length < label.length && from + length < key.length && label[length] == key[from + length]) {
+                length++
+            }
+            return length
+        }
+
+        private fun isWordStart(name: String, index: Int): Boolean {
+            if (index == 0) return true
+            val char = name[index]
+            val previous = name[index - 1]
+            return char.isUpperCase() ||
+                    char.isLetter() && !previous.isLetter() ||
+                    char.isDigit()
+        }
+
+        // all upper case letters are word starts in keys, but only the hump starts of names like `URLConnection` begin segments
+        private fun isSegmentStart(name: String, index: Int): Boolean {
+            if (!isWordStart(name, index) || !name[index].isLetterOrDigit()) return false
+            val previous = name[index - 1]
+            return !(name[index].isUpperCase() && previous.isUpperCase()) ||
+                    index + 1 < name.length && name[index + 1].isLowerCase()
+        }
+
+        private fun encode(name: String, from: Int): String {
+            val result = CharArray(name.length - from)
+            for (index in from until name.length) {
+                val char = name[index]
+                result[index - from] = if (index == from || isWordStart(name, index)) char.toUpperCase() else char.toLowerCase()
+            }
+            return String(result)
+        }
+
+        private fun charBit(char: Char): Long {
+            val lowerCaseChar = char.toLowerCase()
+            return 1L shl when (lowerCaseChar) {
+                in 'a'..'z' -> lowerCaseChar - 'a'
+                in '0'..'9' -> 26 + (lowerCaseChar - '0')
+                '_' -> 36
+                '$' -> 37
+                else -> 38
+            }
+        }
+
+        private fun labelMask(label: String): Long = label.fold(0L) { mask, char -> mask or charBit(char) }
+    }
+}
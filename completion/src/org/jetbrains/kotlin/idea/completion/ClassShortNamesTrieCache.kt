@@ -0,0 +1,318 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.completion
+
+import com.intellij.codeInsight.completion.PrefixMatcher
+import com.intellij.codeInsight.completion.impl.CamelHumpMatcher
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.startup.StartupActivity
+import com.intellij.openapi.util.SimpleModificationTracker
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.openapi.vfs.newvfs.BulkFileListener
+import com.intellij.openapi.vfs.newvfs.events.*
+import com.intellij.psi.PsiClass
+import com.intellij.psi.PsiClassOwner
+import com.intellij.psi.PsiFile
+import com.intellij.psi.PsiManager
+import com.intellij.psi.impl.PsiTreeChangeEventImpl
+import com.intellij.psi.impl.PsiTreeChangeEventImpl.PsiEventType
+import com.intellij.psi.impl.PsiTreeChangePreprocessor
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.search.PsiShortNamesCache
+import org.jetbrains.kotlin.idea.caches.KotlinShortNamesCache
+import org.jetbrains.kotlin.idea.core.KotlinPluginDisposable
+import org.jetbrains.kotlin.idea.stubindex.KotlinFullClassNameIndex
+import org.jetbrains.kotlin.idea.stubindex.KotlinTopLevelTypeAliasFqNameIndex
+import org.jetbrains.kotlin.idea.util.application.getServiceSafe
+import org.jetbrains.kotlin.psi.KtClassOrObject
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtTypeAlias
+
+/**
+ * [ClassShortNamesTrie]s of the classes completion looks for in indices: Kotlin classes and type aliases by qualified names
+ * and Java classes by short names. Java classes are the ones of all JVM languages except Kotlin, e.g. Groovy classes too.
+ *
+ * The tries are built from all index keys on first use and after changes of project roots, and then are kept up to date
+ * by changes of files: names declared in the files changed since the previous completion session are compared with
+ * the names they declared before ([PsiChangesPreprocessor] and [Startup] collect the files), added names are inserted
+ * into the trie, removed ones are removed if no other file declares them.
+ * All keys are reloaded if too many files are changed at once, e.g. after VCS updates.
+ *
+ * The index keys are project-wide, the names found here are looked up in the index with the search scope of the completed file.
+ */
+class ClassShortNamesTrieCache(private val project: Project) {
+    private inner class IncrementalTrie(
+        private val loadKeys: () -> Collection<String>,
+        // `null` if the file doesn't declare names of this trie
+        private val declaredNames: (PsiFile) -> Collection<String>?,
+        private val isDeclared: (String) -> Boolean
+    ) {
+        private val lock = Any()
+
+        // all fields are guarded by the lock
+        private var trie = ClassShortNamesTrie.EMPTY
+        private val keys = HashSet<String>()
+        private var modificationCount = -1L
+        private var reloadRequired = true
+
+        // names of the trie declared by changed files, recorded before the first change of a file
+        private val namesByFile = HashMap<VirtualFile, Collection<String>>()
+        private val changedFiles = HashSet<VirtualFile>()
+
+        fun matchingNames(prefixMatcher: PrefixMatcher): Collection<String>? {
+            val trie = synchronized(lock) { actualTrie() }
+            val candidates = trie.candidates(prefixMatcher.prefix, isMiddleMatchingEnabled) ?: return null
+            return candidates.filter { prefixMatcher.prefixMatches(it.substringAfterLast('.')) }
+        }
+
+        fun beforeFileChanged(file: PsiFile) {
+            synchronized(lock) {
+                if (reloadRequired) return
+                val virtualFile = file.virtualFile ?: return
+                if (virtualFile !in namesByFile) {
+                    declaredNames(file)?.let { namesByFile[virtualFile] = it }
+                }
+            }
+        }
+
+        fun fileChanged(file: VirtualFile) {
+            synchronized(lock) {
+                if (reloadRequired) return
+                changedFiles.add(file)
+                if (changedFiles.size > MAX_CHANGED_FILES) {
+                    requestReload()
+                }
+            }
+        }
+
+        fun requestReload() {
+            synchronized(lock) {
+                reloadRequired = true
+                namesByFile.clear()
+                changedFiles.clear()
+            }
+        }
+
+        private fun actualTrie(): ClassShortNamesTrie {
+            val modificationCount = ProjectRootModificationTracker.getInstance(project).modificationCount +
+                    changesWhileDisabled.modificationCount
+            if (reloadRequired || modificationCount != this.modificationCount) {
+                reload()
+                this.modificationCount = modificationCount
+            } else if (changedFiles.isNotEmpty()) {
+                applyChangedFiles()
+            }
+            return trie
+        }
+
+        private fun reload() {
+            val newKeys = loadKeys().toHashSet()
+            trie = trie.update(newKeys.filter { it !in keys }, keys.filter { it !in newKeys })
+            keys.clear()
+            keys.addAll(newKeys)
+            namesByFile.clear()
+            changedFiles.clear()
+            reloadRequired = false
+        }
+
+        // the state is modified only after all lookups, so it stays consistent if they are cancelled
+        private fun applyChangedFiles() {
+            val psiManager = PsiManager.getInstance(project)
+            val newNamesByFile = HashMap<VirtualFile, Collection<String>?>()
+            val added = HashSet<String>()
+            val removed = HashSet<String>()
+            for (file in changedFiles) {
+                val names = if (file.isValid) psiManager.findFile(file)?.let(declaredNames) else null
+                newNamesByFile[file] = names
+                names?.filterTo(added) { it !in keys }
+                namesByFile[file]?.filterTo(removed) { it in keys && (names == null || it !in names) }
+            }
+            removed.removeAll(isDeclared)
+
+            trie = trie.update(added, removed)
+            keys.addAll(added)
+            keys.removeAll(removed)
+            for ((file, names) in newNamesByFile) {
+                if (names != null) namesByFile[file] = names else namesByFile.remove(file)
+            }
+            changedFiles.clear()
+        }
+    }
+
+    private val kotlinClasses = IncrementalTrie(
+        { KotlinFullClassNameIndex.getInstance().getAllKeys(project) },
+        ::declaredKotlinClassFqNames,
+        { KotlinFullClassNameIndex.getInstance().get(it, project, GlobalSearchScope.allScope(project)).isNotEmpty() }
+    )
+
+    private val kotlinTypeAliases = IncrementalTrie(
+        { KotlinTopLevelTypeAliasFqNameIndex.getInstance().getAllKeys(project) },
+        ::declaredKotlinTypeAliasFqNames,
+        { KotlinTopLevelTypeAliasFqNameIndex.getInstance().get(it, project, GlobalSearchScope.allScope(project)).isNotEmpty() }
+    )
+
+    private val javaClasses = IncrementalTrie(
+        { withoutKotlinShortNames { allClassNames.asList() } },
+        ::declaredJavaClassNames,
+        { name -> withoutKotlinShortNames { getClassesByName(name, GlobalSearchScope.allScope(project)).isNotEmpty() } }
+    )
+
+    private val tries = listOf(kotlinClasses, kotlinTypeAliases, javaClasses)
+
+    // changes aren't collected while the tries are disabled, they are reloaded once enabled again
+    private val changesWhileDisabled = SimpleModificationTracker()
+
+    private fun declaredKotlinClassFqNames(file: PsiFile): Collection<String>? {
+        if (file !is KtFile) return null
+        val names = ArrayList<String>()
+        fun collect(declarations: List<KtDeclaration>) {
+            for (declaration in declarations) {
+                if (declaration !is KtClassOrObject) continue
+                declaration.fqName?.let { names.add(it.asString()) }
+                collect(declaration.declarations)
+            }
+        }
+        collect(file.declarations)
+        return names
+    }
+
+    private fun declaredKotlinTypeAliasFqNames(file: PsiFile): Collection<String>? {
+        if (file !is KtFile) return null
+        return file.declarations.filterIsInstance<KtTypeAlias>().mapNotNull { it.fqName?.asString() }
+    }
+
+    // Kotlin classes are found in Kotlin indices, see AllClassesCompletion
+    private fun declaredJavaClassNames(file: PsiFile): Collection<String>? {
+        if (file !is PsiClassOwner || file is KtFile) return null
+        val names = ArrayList<String>()
+        fun collect(classes: Array<out PsiClass>) {
+            for (psiClass in classes) {
+                psiClass.name?.let { names.add(it) }
+                collect(psiClass.innerClasses)
+            }
+        }
+        collect(file.classes)
+        return names
+    }
+
+    private fun <T> withoutKotlinShortNames(action: PsiShortNamesCache.() -> T): T {
+        val kotlinShortNamesCache = PsiShortNamesCache.EP_NAME.getExtensions(project).firstOrNull {
+            it is KotlinShortNamesCache
+        } as KotlinShortNamesCache?
+        val disableSearch = kotlinShortNamesCache?.disableSearch ?: return PsiShortNamesCache.getInstance(project).action()
+        // is already disabled when the trie is updated from AllClassesCompletion
+        val wasDisabled = disableSearch.get()
+        disableSearch.set(true)
+        try {
+            return PsiShortNamesCache.getInstance(project).action()
+        } finally {
+            disableSearch.set(wasDisabled)
+        }
+    }
+
+    private fun beforeFileChanged(file: VirtualFile) {
+        if (!file.isValid) return
+        val psiFile = PsiManager.getInstance(project).findFile(file) ?: return
+        tries.forEach { it.beforeFileChanged(psiFile) }
+    }
+
+    /**
+     * Qualified names of Kotlin classes with short names matched by [prefixMatcher], `null` if they can't be found in the trie
+     */
+    fun kotlinClassFqNames(prefixMatcher: PrefixMatcher): Collection<String>? =
+        if (isApplicable(prefixMatcher)) kotlinClasses.matchingNames(prefixMatcher) else null
+
+    fun kotlinTypeAliasFqNames(prefixMatcher: PrefixMatcher): Collection<String>? =
+        if (isApplicable(prefixMatcher)) kotlinTypeAliases.matchingNames(prefixMatcher) else null
+
+    fun javaClassNames(prefixMatcher: PrefixMatcher): Collection<String>? =
+        if (isApplicable(prefixMatcher)) javaClasses.matchingNames(prefixMatcher) else null
+
+    // candidates found in the trie are a superset of the names matched by camel humps only
+    private fun isApplicable(prefixMatcher: PrefixMatcher): Boolean = isEnabled && prefixMatcher is CamelHumpMatcher
+
+    class Startup : StartupActivity {
+        override fun runActivity(project: Project) {
+            project.messageBus.connect(KotlinPluginDisposable.getInstance(project)).subscribe(
+                VirtualFileManager.VFS_CHANGES,
+                object : BulkFileListener {
+                    override fun before(events: List<VFileEvent>) {
+                        val cache = getInstance(project)
+                        if (!isEnabled) return cache.changesWhileDisabled.incModificationCount()
+                        if (events.size > MAX_CHANGED_FILES) {
+                            cache.tries.forEach { it.requestReload() }
+                            return
+                        }
+                        for (event in events) {
+                            if (event !is VFileDeleteEvent && event !is VFileContentChangeEvent) continue
+                            val file = event.file ?: continue
+                            if (file.isDirectory) {
+                                cache.tries.forEach { it.requestReload() }
+                            } else {
+                                cache.beforeFileChanged(file)
+                            }
+                        }
+                    }
+
+                    override fun after(events: List<VFileEvent>) {
+                        val cache = getInstance(project)
+                        if (!isEnabled) return cache.changesWhileDisabled.incModificationCount()
+                        for (event in events) {
+                            if (event is VFilePropertyChangeEvent) continue
+                            val file = (if (event is VFileCopyEvent) event.findCreatedFile() else event.file) ?: continue
+                            if (file.isDirectory) {
+                                // new directories are empty, other ones may contain many files
+                                if (event !is VFileCreateEvent) cache.tries.forEach { it.requestReload() }
+                            } else {
+                                cache.tries.forEach { it.fileChanged(file) }
+                            }
+                        }
+                    }
+                }
+            )
+        }
+    }
+
+    class PsiChangesPreprocessor(private val project: Project) : PsiTreeChangePreprocessor {
+        override fun treeChanged(event: PsiTreeChangeEventImpl) {
+            val cache = getInstance(project)
+            if (!isEnabled) return cache.changesWhileDisabled.incModificationCount()
+            val file = event.file ?: return
+            if (event.code in BEFORE_CHANGE_EVENTS) {
+                cache.tries.forEach { it.beforeFileChanged(file) }
+            } else {
+                val virtualFile = file.virtualFile ?: return
+                cache.tries.forEach { it.fileChanged(virtualFile) }
+            }
+        }
+    }
+
+    companion object {
+        // more changed files are reloaded from the index keys instead of checking them one by one
+        private const val MAX_CHANGED_FILES = 1000
+
+        private val BEFORE_CHANGE_EVENTS = setOf(
+            PsiEventType.BEFORE_CHILD_ADDITION,
+            PsiEventType.BEFORE_CHILD_REMOVAL,
+            PsiEventType.BEFORE_CHILD_REPLACEMENT,
+            PsiEventType.BEFORE_CHILD_MOVEMENT,
+            PsiEventType.BEFORE_CHILDREN_CHANGE,
+            PsiEventType.BEFORE_PROPERTY_CHANGE
+        )
+
+        fun getInstance(project: Project): ClassShortNamesTrieCache = project.getServiceSafe()
+
+        val isEnabled: Boolean
+            get() = Registry.`is`("kotlin.completion.class.names.trie", false)
+
+        private val isMiddleMatchingEnabled: Boolean
+            get() = Registry.`is`("ide.completion.middle.matching", true)
+    }
+}
@@ -25,6 +25,7 @@ interface CompletionBenchmarkSink {
     fun onCompletionStarted(completionSession: CompletionSession)
     fun onCompletionEnded(completionSession: CompletionSession, canceled: Boolean)
     fun onFlush(completionSession: CompletionSession)
+    fun onSourceFinished(completionSession: CompletionSession, source: String)
 
     companion object {
 
@@ -45,6 +46,8 @@ interface CompletionBenchmarkSink {
         override fun onCompletionEnded(completionSession: CompletionSession, canceled: Boolean) {}
 
         override fun onFlush(completionSession: CompletionSession) {}
+
+        override fun onSourceFinished(completionSession: CompletionSession, source: String) {}
     }
 
     class Impl : CompletionBenchmarkSink {
@@ -67,13 +70,24 @@ interface CompletionBenchmarkSink {
             if (pendingSessions.isEmpty()) {
                 val firstFlush = perSessionResults.values.filterNot { results -> results.canceled }.minOfOrNull { it.firstFlush } ?: 0
                 val full = perSessionResults.values.maxOfOrNull { it.full } ?: 0
-                channel.offer(CompletionBenchmarkResults(firstFlush, full))
+                val sources = LinkedHashMap<String, Long>()
+                for (results in perSessionResults.values) {
+                    for ((source, time) in results.sources) {
+                        sources[source] = maxOf(sources[source] ?: 0, time)
+                    }
+                }
+                channel.offer(CompletionBenchmarkResults(firstFlush, full, sources))
                 reset()
             }
         }
 
         override fun onFlush(completionSession: CompletionSession) = synchronized(this) {
-            perSessionResults[completionSession]?.onFirstFlush()
+            perSessionResults[completionSession]?.onFlush()
+            Unit
+        }
+
+        override fun onSourceFinished(completionSession: CompletionSession, source: String) = synchronized(this) {
+            perSessionResults[completionSession]?.onSourceFinished(source)
             Unit
         }
 
@@ -82,17 +96,34 @@ interface CompletionBenchmarkSink {
             perSessionResults.clear()
         }
 
-        data class CompletionBenchmarkResults(var firstFlush: Long = 0, var full: Long = 0)
+        /**
+         * @param firstFlush time to the first item shown in the lookup
+         * @param full time to the complete lookup
+         * @param sources time to the last item of every completion source, see [CompletionSession.StreamingSource]
+         */
+        data class CompletionBenchmarkResults(
+            var firstFlush: Long = 0,
+            var full: Long = 0,
+            val sources: Map<String, Long> = emptyMap()
+        )
 
         private inner class PerSessionResults {
             var firstFlush = 0L
             var full = 0L
             var canceled = false
+            val sources = LinkedHashMap<String, Long>()
+            private var flushed = false
 
-            fun onFirstFlush() {
+            fun onFlush() {
+                if (flushed) return
+                flushed = true
                 firstFlush = currentTimeMillis() - start
             }
 
+            fun onSourceFinished(source: String) {
+                sources[source] = currentTimeMillis() - start
+            }
+
             fun onEnd(canceled: Boolean) {
                 full = currentTimeMillis() - start
                 this.canceled = canceled
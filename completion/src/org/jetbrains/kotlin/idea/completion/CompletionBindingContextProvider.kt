@@ -22,9 +22,7 @@ import org.jetbrains.kotlin.idea.caches.trackers.PureKotlinCodeBlockModification
 import org.jetbrains.kotlin.idea.resolve.ResolutionFacade
 import org.jetbrains.kotlin.idea.util.application.getServiceSafe
 import org.jetbrains.kotlin.idea.util.getResolutionScope
-import org.jetbrains.kotlin.psi.KtBlockExpression
-import org.jetbrains.kotlin.psi.KtElement
-import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.psi.*
 import org.jetbrains.kotlin.psi.psiUtil.anyDescendantOfType
 import org.jetbrains.kotlin.psi.psiUtil.parents
 import org.jetbrains.kotlin.psi.psiUtil.parentsWithSelf
@@ -35,10 +33,14 @@ import org.jetbrains.kotlin.resolve.bindingContextUtil.getDataFlowInfoBefore
 import org.jetbrains.kotlin.resolve.calls.smartcasts.DataFlowInfo
 import org.jetbrains.kotlin.resolve.lazy.BodyResolveMode
 import org.jetbrains.kotlin.resolve.scopes.LexicalScope
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.types.TypeUtils
 import org.jetbrains.kotlin.utils.addToStdlib.firstIsInstance
 import org.jetbrains.kotlin.utils.addToStdlib.firstIsInstanceOrNull
 import java.lang.ref.SoftReference
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
 class CompletionBindingContextProvider(project: Project) {
     private val LOG = Logger.getInstance(CompletionBindingContextProvider::class.java)
@@ -52,14 +54,92 @@ class CompletionBindingContextProvider(project: Project) {
         var ENABLED = true
     }
 
+    /**
+     * Kinds of expressions analyzed alone when completion is invoked again inside the same expression
+     * and nothing else has changed since the previous completion.
+     */
+    enum class ContextKind(val containerName: String, val anchorName: String) {
+        BLOCK_STATEMENT("block", "statement"),
+        CALL_ARGUMENT("argument list", "argument"),
+        STRING_TEMPLATE_ENTRY("string template", "template entry"),
+        // expression bodies of functions and accessors and property initializers, including the ones in class bodies
+        DECLARATION_INITIALIZER("declaration", "initializer")
+    }
+
+    class ReuseStatistics {
+        private val attempts = AtomicInteger()
+        private val reuses = AtomicInteger()
+        private val reuseNanos = AtomicLong()
+        private val fullResolveNanos = AtomicLong()
+
+        val attemptCount: Int
+            get() = attempts.get()
+
+        val reuseCount: Int
+            get() = reuses.get()
+
+        val reuseRate: Double
+            get() = attemptCount.let { if (it == 0) 0.0 else reuseCount.toDouble() / it }
+
+        val averageReuseMillis: Double
+            get() = average(reuseNanos.get(), reuseCount)
+
+        val averageFullResolveMillis: Double
+            get() = average(fullResolveNanos.get(), attemptCount - reuseCount)
+
+        internal fun record(reused: Boolean, nanos: Long) {
+            attempts.incrementAndGet()
+            if (reused) {
+                reuses.incrementAndGet()
+                reuseNanos.addAndGet(nanos)
+            } else {
+                fullResolveNanos.addAndGet(nanos)
+            }
+        }
+
+        internal fun reset() {
+            attempts.set(0)
+            reuses.set(0)
+            reuseNanos.set(0)
+            fullResolveNanos.set(0)
+        }
+
+        private fun average(nanos: Long, count: Int) = if (count == 0) 0.0 else nanos.toDouble() / count / 1_000_000
+    }
+
+    private val statistics = EnumMap<ContextKind, ReuseStatistics>(ContextKind::class.java).apply {
+        ContextKind.values().forEach { put(it, ReuseStatistics()) }
+    }
+
+    fun getStatistics(kind: ContextKind): ReuseStatistics = statistics.getValue(kind)
+
+    fun resetStatistics() {
+        statistics.values.forEach { it.reset() }
+    }
+
+    /**
+     * An expression analyzed alone in [container] when completion data from the previous completion can be reused.
+     */
+    private class Anchor(
+        val kind: ContextKind,
+        val expression: KtExpression,
+        val container: KtElement,
+        val prevSibling: KtExpression?
+    ) {
+        val contextExpression: KtExpression
+            get() = if (kind == ContextKind.BLOCK_STATEMENT) container as KtBlockExpression else expression
+    }
+
     private class CompletionData(
-        val block: KtBlockExpression,
-        val prevStatement: KtExpression?,
+        val kind: ContextKind,
+        val container: KtElement,
+        val prevSibling: KtExpression?,
         val psiElementsBeforeAndAfter: List<PsiElementData>,
         val bindingContext: BindingContext,
         val moduleDescriptor: ModuleDescriptor,
-        val statementResolutionScope: LexicalScope,
-        val statementDataFlowInfo: DataFlowInfo,
+        val resolutionScope: LexicalScope,
+        val dataFlowInfo: DataFlowInfo,
+        val expectedType: KotlinType,
         val debugText: String
     )
 
@@ -93,61 +173,78 @@ class CompletionBindingContextProvider(project: Project) {
     }
 
     private fun _getBindingContext(position: PsiElement, resolutionFacade: ResolutionFacade): BindingContext {
-        val inStatement = position.findStatementInBlock()
-        val block = inStatement?.parent as KtBlockExpression?
-        val prevStatement = inStatement?.siblings(forward = false, withItself = false)?.firstIsInstanceOrNull<KtExpression>()
-        val modificationScope = inStatement?.let { PureKotlinCodeBlockModificationListener.getInsideCodeBlockModificationScope(it)?.element }
+        val anchor = position.findAnchor()
+        val startNanos = System.nanoTime()
+        val modificationScope = anchor?.let {
+            PureKotlinCodeBlockModificationListener.getInsideCodeBlockModificationScope(it.expression)?.element
+        }
 
-        val psiElementsBeforeAndAfter = modificationScope?.let { collectPsiElementsBeforeAndAfter(modificationScope, inStatement) }
+        val psiElementsBeforeAndAfter = if (anchor != null && modificationScope != null)
+            collectPsiElementsBeforeAndAfter(modificationScope, anchor.expression)
+        else
+            null
 
         val prevCompletionData = prevCompletionDataCache.value.data
         when {
             prevCompletionData == null ->
                 log("No up-to-date data from previous completion\n")
-            block != prevCompletionData.block ->
-                log("Not in the same block\n")
-            prevStatement != prevCompletionData.prevStatement ->
-                log("Previous statement is not the same\n")
+            anchor == null || anchor.container != prevCompletionData.container ->
+                log("Not in the same ${prevCompletionData.kind.containerName}\n")
+            anchor.prevSibling != prevCompletionData.prevSibling ->
+                log("Previous ${anchor.kind.anchorName} is not the same\n")
             psiElementsBeforeAndAfter != prevCompletionData.psiElementsBeforeAndAfter ->
                 log("PSI-tree has changed inside current scope\n")
             prevCompletionData.moduleDescriptor != resolutionFacade.moduleDescriptor ->
                 log("ModuleDescriptor has been reset")
-            inStatement.isTooComplex() ->
-                log("Current statement is too complex to use optimization\n")
+            anchor.isTooComplex() ->
+                log("Current ${anchor.kind.anchorName} is too complex to use optimization\n")
             else -> {
-                log("Statement position is the same - analyzing only one statement:\n${inStatement.text.prependIndent("    ")}\n")
+                val kind = anchor.kind
+                log(
+                    "${kind.anchorName.capitalize()} position is the same - analyzing only one ${kind.anchorName}:\n" +
+                            "${anchor.expression.text.prependIndent("    ")}\n"
+                )
                 LOG.debug("Reusing data from completion of \"${prevCompletionData.debugText}\"")
 
-                //TODO: expected type?
-                val statementContext = inStatement.analyzeInContext(
-                    scope = prevCompletionData.statementResolutionScope,
-                    contextExpression = block,
-                    dataFlowInfo = prevCompletionData.statementDataFlowInfo,
-                    isStatement = true
+                val anchorContext = anchor.expression.analyzeInContext(
+                    scope = prevCompletionData.resolutionScope,
+                    contextExpression = anchor.contextExpression,
+                    dataFlowInfo = prevCompletionData.dataFlowInfo,
+                    expectedType = prevCompletionData.expectedType,
+                    isStatement = kind == ContextKind.BLOCK_STATEMENT
                 )
+                getStatistics(kind).record(reused = true, nanos = System.nanoTime() - startNanos)
                 // we do not update prevCompletionDataCache because the same data should work
-                return CompositeBindingContext.create(listOf(statementContext, prevCompletionData.bindingContext))
+                return CompositeBindingContext.create(listOf(anchorContext, prevCompletionData.bindingContext))
             }
         }
 
         val bindingContext =
             resolutionFacade.analyze(position.parentsWithSelf.firstIsInstance<KtElement>(), BodyResolveMode.PARTIAL_FOR_COMPLETION)
-        prevCompletionDataCache.value.data = if (block != null && modificationScope != null) {
-            val resolutionScope = inStatement.getResolutionScope(bindingContext, resolutionFacade)
-            val dataFlowInfo = bindingContext.getDataFlowInfoBefore(inStatement)
+        prevCompletionDataCache.value.data = if (anchor != null && modificationScope != null) {
+            val expression = anchor.expression
+            val resolutionScope = expression.getResolutionScope(bindingContext, resolutionFacade)
+            val dataFlowInfo = bindingContext.getDataFlowInfoBefore(expression)
+            // the type expected from declarations doesn't depend on the expression, unlike the types of generic call arguments
+            val expectedType = bindingContext[BindingContext.EXPECTED_EXPRESSION_TYPE, expression]
+                ?.takeIf { anchor.kind == ContextKind.DECLARATION_INITIALIZER }
+                ?: TypeUtils.NO_EXPECTED_TYPE
             CompletionData(
-                block,
-                prevStatement,
+                anchor.kind,
+                anchor.container,
+                anchor.prevSibling,
                 psiElementsBeforeAndAfter!!,
                 bindingContext,
                 resolutionFacade.moduleDescriptor,
                 resolutionScope,
                 dataFlowInfo,
+                expectedType,
                 debugText = position.text
             )
         } else {
             null
         }
+        anchor?.let { getStatistics(it.kind).record(reused = false, nanos = System.nanoTime() - startNanos) }
 
         return bindingContext
     }
@@ -157,8 +254,8 @@ class CompletionBindingContextProvider(project: Project) {
         LOG.debug(message)
     }
 
-    private fun collectPsiElementsBeforeAndAfter(scope: PsiElement, statement: KtExpression): List<PsiElementData> {
-        return ArrayList<PsiElementData>().apply { addElementsInTree(scope, 0, statement) }
+    private fun collectPsiElementsBeforeAndAfter(scope: PsiElement, expression: KtExpression): List<PsiElementData> {
+        return ArrayList<PsiElementData>().apply { addElementsInTree(scope, 0, expression) }
     }
 
     private fun MutableList<PsiElementData>.addElementsInTree(root: PsiElement, initialLevel: Int, skipSubtree: PsiElement) {
@@ -173,11 +270,66 @@ class CompletionBindingContextProvider(project: Project) {
         }
     }
 
-    private fun PsiElement.findStatementInBlock(): KtExpression? {
-        return parents.filterIsInstance<KtExpression>().firstOrNull { it.parent is KtBlockExpression }
+    /**
+     * Statements in blocks are preferred as before, other anchors are used for expressions outside of blocks,
+     * e.g. in expression bodies and property accessors.
+     */
+    private fun PsiElement.findAnchor(): Anchor? {
+        var innermostAnchor: Anchor? = null
+        for (expression in parents.filterIsInstance<KtExpression>()) {
+            val anchor = when (val parent = expression.parent) {
+                is KtBlockExpression -> {
+                    val prevStatement = expression.siblings(forward = false, withItself = false).firstIsInstanceOrNull<KtExpression>()
+                    return Anchor(ContextKind.BLOCK_STATEMENT, expression, parent, prevStatement)
+                }
+
+                is KtValueArgument -> {
+                    val argumentList = parent.parent as? KtValueArgumentList ?: continue
+                    val prevArgument = parent.siblings(forward = false, withItself = false).firstIsInstanceOrNull<KtValueArgument>()
+                    Anchor(ContextKind.CALL_ARGUMENT, expression, argumentList, prevArgument?.getArgumentExpression())
+                }
+
+                is KtStringTemplateEntryWithExpression -> {
+                    val template = parent.parent as? KtStringTemplateExpression ?: continue
+                    val prevEntry = parent.siblings(forward = false, withItself = false)
+                        .filterIsInstance<KtStringTemplateEntryWithExpression>()
+                        .firstOrNull()
+                    Anchor(ContextKind.STRING_TEMPLATE_ENTRY, expression, template, prevEntry?.expression)
+                }
+
+                is KtDeclarationWithBody ->
+                    if (parent !is KtFunctionLiteral && !parent.hasBlockBody() && parent.bodyExpression == expression && !parent.isLocal())
+                        Anchor(ContextKind.DECLARATION_INITIALIZER, expression, parent, null)
+                    else
+                        null
+
+                is KtProperty ->
+                    if (parent.initializer == expression && !parent.isLocal)
+                        Anchor(ContextKind.DECLARATION_INITIALIZER, expression, parent, null)
+                    else
+                        null
+
+                else -> null
+            }
+
+            if (innermostAnchor == null) {
+                innermostAnchor = anchor
+            }
+        }
+        return innermostAnchor
+    }
+
+    // local declarations are analyzed as statements of the enclosing block
+    private fun KtDeclarationWithBody.isLocal(): Boolean {
+        val declaration = (this as? KtPropertyAccessor)?.property ?: this
+        return KtPsiUtil.isLocal(declaration)
     }
 
-    private fun KtExpression.isTooComplex(): Boolean {
-        return anyDescendantOfType<KtBlockExpression> { it.statements.size > 1 }
+    private fun Anchor.isTooComplex(): Boolean {
+        if (expression.anyDescendantOfType<KtBlockExpression> { it.statements.size > 1 }) return true
+        // types of lambdas and callable references depend on the call or declaration outside of the analyzed expression
+        return kind != ContextKind.BLOCK_STATEMENT && expression.anyDescendantOfType<KtExpression> {
+            it is KtLambdaExpression || it is KtCallableReferenceExpression || it is KtNamedFunction
+        }
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.completion
+
+import com.intellij.codeInsight.CodeInsightSettings
+import com.intellij.openapi.module.Module
+import com.intellij.openapi.module.ModuleUtilCore
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.psi.util.CachedValueProvider
+import com.intellij.psi.util.CachedValuesManager
+import com.intellij.util.containers.ContainerUtil
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptorWithSource
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.idea.caches.trackers.KotlinModuleOutOfCodeBlockModificationTracker
+import org.jetbrains.kotlin.idea.resolve.ResolutionFacade
+import org.jetbrains.kotlin.idea.util.application.getServiceSafe
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.DescriptorUtils
+import org.jetbrains.kotlin.resolve.source.getPsi
+import org.jetbrains.kotlin.types.KotlinType
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Candidate descriptors found in indices for completion, reused by the next completion sessions at similar positions,
+ * e.g. top-level extensions after `.` on a receiver of the same type.
+ *
+ * Candidates are stored per module of the completed file and dropped when Kotlin declarations of the module or its dependencies
+ * change (see [KotlinModuleOutOfCodeBlockModificationTracker]) or when the module descriptor used by completion is rebuilt.
+ * Candidates declared in the completed file itself are never cached: they are resolved in a copy of the file made for every session.
+ * Their files are checked once, when the candidates are stored, by the source elements of the descriptors.
+ */
+class CompletionCandidatesCache(private val project: Project) {
+    /**
+     * @param kind what is cached, e.g. "extensions"
+     * @param receiverTypes rendered receiver types, empty when there is no receiver
+     * @param expectedType rendered expected type, `null` when candidates don't depend on it
+     * @param scopeFingerprint everything else the candidates depend on: the file, the prefix, settings of the session
+     */
+    data class Key(val kind: String, val receiverTypes: List<String>, val expectedType: String?, val scopeFingerprint: String)
+
+    private class Entry(val moduleDescriptor: ModuleDescriptor, val candidates: Collection<DeclarationDescriptor>)
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    val hitCount: Long
+        get() = hits.get()
+
+    val missCount: Long
+        get() = misses.get()
+
+    val hitRate: Double
+        get() {
+            val hitCount = hits.get()
+            val total = hitCount + misses.get()
+            return if (total == 0L) 0.0 else hitCount.toDouble() / total
+        }
+
+    fun resetStatistics() {
+        hits.set(0)
+        misses.set(0)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun <T : DeclarationDescriptor> getOrCompute(
+        file: KtFile,
+        resolutionFacade: ResolutionFacade,
+        key: Key,
+        compute: () -> Collection<T>
+    ): Collection<T> {
+        if (!isEnabled) return compute()
+
+        val module = ModuleUtilCore.findModuleForPsiElement(file.originalFile) ?: return compute()
+        val entries = CachedValuesManager.getManager(project).getCachedValue(module, ModuleEntriesProvider(module))
+        val moduleDescriptor = resolutionFacade.moduleDescriptor
+
+        val entry = entries[key]
+        if (entry != null && entry.moduleDescriptor === moduleDescriptor) {
+            hits.incrementAndGet()
+            return entry.candidates as Collection<T>
+        }
+
+        misses.incrementAndGet()
+        val candidates = compute()
+        if (candidates.none { isDeclaredIn(it, file) }) {
+            entries[key] = Entry(moduleDescriptor, candidates)
+        }
+        return candidates
+    }
+
+    // source elements of source declarations keep their PSI, nothing is looked up unlike DescriptorToSourceUtils does for overrides
+    private fun isDeclaredIn(descriptor: DeclarationDescriptor, file: KtFile): Boolean {
+        val source = (descriptor.original as? DeclarationDescriptorWithSource)?.source ?: return false
+        return source.getPsi()?.containingFile == file
+    }
+
+    private class ModuleEntriesProvider(private val module: Module) : CachedValueProvider<ConcurrentMap<Key, Entry>> {
+        override fun compute(): CachedValueProvider.Result<ConcurrentMap<Key, Entry>> = CachedValueProvider.Result.create(
+            ContainerUtil.createConcurrentSoftValueMap(),
+            KotlinModuleOutOfCodeBlockModificationTracker(module),
+            ProjectRootModificationTracker.getInstance(module.project)
+        )
+    }
+
+    companion object {
+        fun getInstance(project: Project): CompletionCandidatesCache = project.getServiceSafe()
+
+        val isEnabled: Boolean
+            get() = Registry.`is`("kotlin.completion.candidates.cache", true)
+
+        fun renderTypes(types: Collection<KotlinType>): List<String>? {
+            // local classes can be changed without out-of-block modifications
+            if (types.any { it.containsLocalTypes() }) return null
+            return types.map { DescriptorRenderer.FQ_NAMES_IN_TYPES.renderType(it) }
+        }
+
+        fun scopeFingerprint(file: KtFile, prefix: String, vararg settings: Any?): String = buildString {
+            append(file.originalFile.virtualFile?.url)
+            append('|').append(prefix)
+            append('|').append(CodeInsightSettings.getInstance().COMPLETION_CASE_SENSITIVE)
+            settings.forEach { append('|').append(it) }
+        }
+
+        private fun KotlinType.containsLocalTypes(): Boolean {
+            val classifier = constructor.declarationDescriptor
+            if (classifier is ClassDescriptor && DescriptorUtils.isLocal(classifier)) return true
+            return arguments.any { !it.isStarProjection && it.type.containsLocalTypes() }
+        }
+    }
+}
@@ -52,6 +52,8 @@ import org.jetbrains.kotlin.types.checker.KotlinTypeChecker
 import org.jetbrains.kotlin.types.typeUtil.isUnit
 import org.jetbrains.kotlin.types.typeUtil.makeNotNullable
 
+private const val STREAMING_FLUSH_INTERVAL_MS = 50L
+
 class CompletionSessionConfiguration(
     val useBetterPrefixMatcherForNonImportedClasses: Boolean,
     val nonAccessibleDeclarations: Boolean,
@@ -219,6 +221,33 @@ abstract class CompletionSession(
         collector.flushToResultSet()
     }
 
+    /**
+     * Delivers the elements collected from one completion source while the source is still running:
+     * the first elements are flushed to the lookup immediately and the next ones at most once per [flushIntervalMs],
+     * so a slow source (e.g. an index) doesn't keep the lookup empty, but doesn't re-sort it on every element either.
+     */
+    protected inner class StreamingSource(private val name: String, private val flushIntervalMs: Long = STREAMING_FLUSH_INTERVAL_MS) {
+        private var lastFlush = 0L
+
+        fun elementsAdded() {
+            val now = System.currentTimeMillis()
+            if (collector.isResultEmpty || now - lastFlush >= flushIntervalMs) {
+                flushToResultSet()
+                lastFlush = now
+            }
+        }
+
+        fun finished() {
+            flushToResultSet()
+            CompletionBenchmarkSink.instance.onSourceFinished(this@CompletionSession, name)
+        }
+    }
+
+    protected fun <T> streamFrom(name: String, action: (StreamingSource) -> T): T {
+        val source = StreamingSource(name)
+        return action(source).also { source.finished() }
+    }
+
     fun complete(): Boolean {
         return try {
             _complete().also {
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.completion
+
+import com.intellij.codeInsight.lookup.LookupElement
+import com.intellij.concurrency.JobLauncher
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.Key
+import com.intellij.psi.statistics.StatisticsInfo
+import com.intellij.util.Processor
+import org.jetbrains.kotlin.descriptors.*
+import org.jetbrains.kotlin.idea.core.completion.DeclarationLookupObject
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.resolve.descriptorUtil.fqNameSafe
+import org.jetbrains.kotlin.types.typeUtil.isNothing
+
+/**
+ * Weights of a declaration lookup element which don't depend on the completion position, see [KindWeigher], [DeprecatedWeigher],
+ * [KotlinCompletionStatistician] and others.
+ *
+ * They are created once with the element by [BasicLookupElementFactory] instead of being computed by every weigher from the descriptor.
+ * Cheap weights are computed right away, the costly ones on the first access, possibly concurrently by [precomputeConcurrently].
+ */
+class LookupElementWeights(private val lookupObject: DeclarationLookupObject, knownDeprecated: Boolean? = null) {
+    enum class DeclarationKind {
+        VARIABLE,
+        FUNCTION,
+        ENUM_ENTRY,
+        OTHER
+    }
+
+    private val descriptor: DeclarationDescriptor? = lookupObject.descriptor
+
+    val kind: DeclarationKind = when (descriptor) {
+        is VariableDescriptor -> DeclarationKind.VARIABLE
+        is FunctionDescriptor -> DeclarationKind.FUNCTION
+        is ClassDescriptor -> if (descriptor.kind == ClassKind.ENUM_ENTRY) DeclarationKind.ENUM_ENTRY else DeclarationKind.OTHER
+        else -> DeclarationKind.OTHER
+    }
+
+    val name: String? = lookupObject.name?.asString()
+
+    /**
+     * Number of value parameters of a function, `-1` for other declarations
+     */
+    val parameterCount: Int = (descriptor as? FunctionDescriptor)?.valueParameters?.size ?: -1
+
+    val isDeprecated: Boolean by lazy(LazyThreadSafetyMode.PUBLICATION) { knownDeprecated ?: lookupObject.isDeprecated }
+
+    val isUnwanted: Boolean by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        descriptor != null && descriptor.fqNameSafe == FLOW_COLLECT_FQ_NAME
+    }
+
+    val returnsNothing: Boolean by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        (descriptor as? CallableDescriptor)?.returnType?.isNothing() == true
+    }
+
+    private val statisticsValue: String? by lazy(LazyThreadSafetyMode.PUBLICATION) {
+        descriptor?.let { KotlinStatisticsInfo.valueForDescriptor(it.original) }
+    }
+
+    /**
+     * Same as [KotlinStatisticsInfo.forDescriptor], `null` for elements without descriptors
+     */
+    fun statisticsInfo(context: String): StatisticsInfo? {
+        if (descriptor == null) return null
+        val value = statisticsValue ?: return StatisticsInfo.EMPTY
+        return StatisticsInfo(if (descriptor is ClassDescriptor) "" else context, value)
+    }
+
+    private fun computeLazyWeights() {
+        isDeprecated
+        isUnwanted
+        returnsNothing
+        statisticsValue
+    }
+
+    companion object {
+        // see KotlinUnwantedLookupElementWeigher
+        private val FLOW_COLLECT_FQ_NAME = FqName("kotlinx.coroutines.flow.Flow.collect")
+
+        // below this size computing the weights by weighers in the sorting thread is cheaper than distributing the work
+        const val CONCURRENT_PRECOMPUTATION_THRESHOLD = 1000
+
+        /**
+         * Computes the costly weights of [elements] in several threads before the elements are passed to the lookup to be sorted.
+         * The weights not computed because of cancellation are computed later by weighers.
+         */
+        fun precomputeConcurrently(elements: List<LookupElement>) {
+            JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+                elements,
+                ProgressManager.getGlobalProgressIndicator(),
+                Processor { element ->
+                    element.weights?.computeLazyWeights()
+                    true
+                }
+            )
+        }
+    }
+}
+
+private val PRECOMPUTED_WEIGHTS_KEY = Key.create<LookupElementWeights>("PRECOMPUTED_WEIGHTS")
+
+/**
+ * Weights are stored in the innermost decorated element, so all the decorators wrapping it later see them
+ */
+var LookupElement.precomputedWeights: LookupElementWeights?
+    get() = getUserDataDeep(PRECOMPUTED_WEIGHTS_KEY)
+    set(value) = putUserDataDeep(PRECOMPUTED_WEIGHTS_KEY, value)
+
+/**
+ * Weights of a declaration element, computed here for the elements not created by [BasicLookupElementFactory]
+ */
+val LookupElement.weights: LookupElementWeights?
+    get() {
+        precomputedWeights?.let { return it }
+        val lookupObject = `object` as? DeclarationLookupObject ?: return null
+        return LookupElementWeights(lookupObject).also { precomputedWeights = it }
+    }
@@ -52,6 +52,9 @@ class LookupElementsCollector(
         if (!elements.isEmpty()) {
             onFlush()
 
+            if (elements.size >= LookupElementWeights.CONCURRENT_PRECOMPUTATION_THRESHOLD) {
+                LookupElementWeights.precomputeConcurrently(elements)
+            }
             resultSet.addAllElements(elements)
             elements.clear()
             isResultEmpty = false
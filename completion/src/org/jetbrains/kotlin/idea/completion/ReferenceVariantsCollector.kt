@@ -13,6 +13,7 @@ import org.jetbrains.kotlin.idea.core.KotlinIndicesHelper
 import org.jetbrains.kotlin.idea.resolve.ResolutionFacade
 import org.jetbrains.kotlin.idea.util.CallTypeAndReceiver
 import org.jetbrains.kotlin.idea.util.ShadowedDeclarationsFilter
+import org.jetbrains.kotlin.idea.util.receiverTypes
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.KtCodeFragment
 import org.jetbrains.kotlin.psi.KtSimpleNameExpression
@@ -183,7 +184,7 @@ class ReferenceVariantsCollector(
             val extensions = if (runtimeReceiver != null)
                 indicesHelper.getCallableTopLevelExtensions(callTypeAndReceiver, listOf(runtimeReceiver.type), nameFilter)
             else
-                indicesHelper.getCallableTopLevelExtensions(callTypeAndReceiver, nameExpression, bindingContext, nameFilter)
+                getCallableTopLevelExtensions(nameFilter)
 
             val (extensionsVariants, notImportedExtensions) = extensions.partition {
                 importableFqNameClassifier.isImportableDescriptorImported(
@@ -207,6 +208,29 @@ class ReferenceVariantsCollector(
         return ReferenceVariants(emptyList(), emptyList())
     }
 
+    private fun getCallableTopLevelExtensions(nameFilter: (String) -> Boolean): Collection<CallableDescriptor> {
+        val receiverTypes = callTypeAndReceiver.receiverTypes(
+            bindingContext, nameExpression, resolutionFacade.moduleDescriptor, resolutionFacade, stableSmartCastsOnly = false
+        ) ?: return emptyList()
+
+        val renderedReceiverTypes = CompletionCandidatesCache.renderTypes(receiverTypes)
+            ?: return indicesHelper.getCallableTopLevelExtensions(callTypeAndReceiver, receiverTypes, nameFilter)
+
+        val key = CompletionCandidatesCache.Key(
+            "top-level extensions",
+            renderedReceiverTypes,
+            expectedType = null,
+            scopeFingerprint = CompletionCandidatesCache.scopeFingerprint(
+                nameExpression.containingKtFile, prefix,
+                callTypeAndReceiver.callType.javaClass.simpleName, configuration.nonAccessibleDeclarations
+            )
+        )
+        val cache = CompletionCandidatesCache.getInstance(nameExpression.project)
+        return cache.getOrCompute(nameExpression.containingKtFile, resolutionFacade, key) {
+            indicesHelper.getCallableTopLevelExtensions(callTypeAndReceiver, receiverTypes, nameFilter)
+        }
+    }
+
     private fun <TDescriptor : DeclarationDescriptor> FilterConfiguration.filterVariants(_variants: Collection<TDescriptor>): Collection<TDescriptor> {
         var variants = _variants
 
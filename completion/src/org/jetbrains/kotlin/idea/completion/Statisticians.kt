@@ -30,7 +30,7 @@ class KotlinCompletionStatistician : CompletionStatistician() {
         val context = element.getUserDataDeep(STATISTICS_INFO_CONTEXT_KEY) ?: ""
 
         if (o.descriptor != null) {
-            return KotlinStatisticsInfo.forDescriptor(o.descriptor!!.original, context)
+            return element.weights?.statisticsInfo(context) ?: KotlinStatisticsInfo.forDescriptor(o.descriptor!!.original, context)
         } else {
             val fqName = o.importableFqName ?: return StatisticsInfo.EMPTY
             return StatisticsInfo(context, fqName.asString())
@@ -58,8 +58,16 @@ object KotlinStatisticsInfo {
     }
 
     fun forDescriptor(descriptor: DeclarationDescriptor, context: String = ""): StatisticsInfo {
+        val value = valueForDescriptor(descriptor) ?: return StatisticsInfo.EMPTY
+        return StatisticsInfo(if (descriptor is ClassDescriptor) "" else context, value)
+    }
+
+    /**
+     * The part of [forDescriptor] which doesn't depend on the context, `null` for [StatisticsInfo.EMPTY]
+     */
+    fun valueForDescriptor(descriptor: DeclarationDescriptor): String? {
         if (descriptor is ClassDescriptor) {
-            return descriptor.importableFqName?.let { StatisticsInfo("", it.asString()) } ?: StatisticsInfo.EMPTY
+            return descriptor.importableFqName?.asString()
         }
 
         val containerFqName = when (val container = descriptor.containingDeclaration) {
@@ -67,8 +75,8 @@ object KotlinStatisticsInfo {
             is PackageFragmentDescriptor -> container.fqName.asString()
             is ModuleDescriptor -> ""
             else -> null
-        } ?: return StatisticsInfo.EMPTY
+        } ?: return null
         val signature = SIGNATURE_RENDERER.render(descriptor)
-        return StatisticsInfo(context, "$containerFqName###$signature")
+        return "$containerFqName###$signature"
     }
 }
@@ -22,12 +22,9 @@ import org.jetbrains.kotlin.idea.resolve.ResolutionFacade
 import org.jetbrains.kotlin.idea.util.CallType
 import org.jetbrains.kotlin.idea.util.CallTypeAndReceiver
 import org.jetbrains.kotlin.idea.util.toFuzzyType
-import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.resolve.BindingContext
-import org.jetbrains.kotlin.resolve.descriptorUtil.fqNameSafe
 import org.jetbrains.kotlin.resolve.descriptorUtil.parentsWithSelf
 import org.jetbrains.kotlin.resolve.findOriginalTopMostOverriddenDescriptors
-import org.jetbrains.kotlin.types.typeUtil.isNothing
 
 object PriorityWeigher : LookupElementWeigher("kotlin.priority") {
     override fun weigh(element: LookupElement, context: WeighingContext) = element.getUserData(ITEM_PRIORITY_KEY) ?: ItemPriority.DEFAULT
@@ -120,13 +117,10 @@ object KindWeigher : LookupElementWeigher("kotlin.kind") {
         return when (o) {
             is PackageLookupObject -> Weight.packages
 
-            is DeclarationLookupObject -> {
-                val descriptor = o.descriptor
-                when (descriptor) {
-                    is VariableDescriptor, is FunctionDescriptor -> Weight.callable
-                    is ClassDescriptor -> if (descriptor.kind == ClassKind.ENUM_ENTRY) Weight.enumMember else Weight.default
-                    else -> Weight.default
-                }
+            is DeclarationLookupObject -> when (element.weights?.kind) {
+                LookupElementWeights.DeclarationKind.VARIABLE, LookupElementWeights.DeclarationKind.FUNCTION -> Weight.callable
+                LookupElementWeights.DeclarationKind.ENUM_ENTRY -> Weight.enumMember
+                else -> Weight.default
             }
 
             is KeywordLookupObject -> if (element.isProbableKeyword) Weight.probableKeyword else Weight.keyword
@@ -195,10 +189,9 @@ object VariableOrFunctionWeigher : LookupElementWeigher("kotlin.variableOrFuncti
     }
 
     override fun weigh(element: LookupElement): Comparable<*>? {
-        val descriptor = (element.`object` as? DeclarationLookupObject)?.descriptor ?: return null
-        return when (descriptor) {
-            is VariableDescriptor -> Weight.variable
-            is FunctionDescriptor -> Weight.function
+        return when (element.weights?.kind) {
+            LookupElementWeights.DeclarationKind.VARIABLE -> Weight.variable
+            LookupElementWeights.DeclarationKind.FUNCTION -> Weight.function
             else -> null
         }
     }
@@ -219,8 +212,8 @@ object PreferGetSetMethodsToPropertyWeigher : LookupElementWeigher("kotlin.prefe
 
 object DeprecatedWeigher : LookupElementWeigher("kotlin.deprecated") {
     override fun weigh(element: LookupElement): Int {
-        val o = element.`object` as? DeclarationLookupObject ?: return 0
-        return if (o.isDeprecated) 1 else 0
+        val weights = element.weights ?: return 0
+        return if (weights.isDeprecated) 1 else 0
     }
 }
 
@@ -230,11 +223,9 @@ object DeprecatedWeigher : LookupElementWeigher("kotlin.deprecated") {
  * For now it only works on "Flow.collect" member method (see [https://youtrack.jetbrains.com/issue/KT-36808] for details).
  */
 object KotlinUnwantedLookupElementWeigher : LookupElementWeigher("kotlin.unwantedElement") {
-    private val flowCollectFqName = FqName("kotlinx.coroutines.flow.Flow.collect")
-
     override fun weigh(element: LookupElement): Int {
-        val descriptor = (element.`object` as? DeclarationLookupObject)?.descriptor ?: return 0
-        return if (descriptor.fqNameSafe == flowCollectFqName) 1 else 0
+        val weights = element.weights ?: return 0
+        return if (weights.isUnwanted) 1 else 0
     }
 }
 
@@ -381,25 +372,20 @@ class PreferContextElementsWeigher(context: DeclarationDescriptor) : LookupEleme
 }
 
 object ByNameAlphabeticalWeigher : LookupElementWeigher("kotlin.byNameAlphabetical") {
-    override fun weigh(element: LookupElement): String? {
-        val lookupObject = element.`object` as? DeclarationLookupObject ?: return null
-        return lookupObject.name?.asString()
-    }
+    override fun weigh(element: LookupElement): String? = element.weights?.name
 }
 
 object PreferLessParametersWeigher : LookupElementWeigher("kotlin.preferLessParameters") {
     override fun weigh(element: LookupElement): Int? {
-        val lookupObject = element.`object` as? DeclarationLookupObject ?: return null
-        val function = lookupObject.descriptor as? FunctionDescriptor ?: return null
-        return function.valueParameters.size
+        val parameterCount = element.weights?.parameterCount ?: return null
+        return parameterCount.takeIf { it >= 0 }
     }
 }
 
 class CallableReferenceWeigher(private val callType: CallType<*>) : LookupElementWeigher("kotlin.callableReference") {
     override fun weigh(element: LookupElement): Int? {
         if (callType == CallType.CALLABLE_REFERENCE || element.getUserData(SMART_COMPLETION_ITEM_PRIORITY_KEY) == SmartCompletionItemPriority.CALLABLE_REFERENCE) {
-            val descriptor = (element.`object` as? DeclarationLookupObject)?.descriptor as? CallableDescriptor
-            return if (descriptor?.returnType?.isNothing() == true) 1 else 0
+            return if (element.weights?.returnsNothing == true) 1 else 0
         }
         return null
     }
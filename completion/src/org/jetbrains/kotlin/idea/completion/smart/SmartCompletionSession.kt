@@ -135,9 +135,11 @@ class SmartCompletionSession(
                 }
 
                 if (shouldCompleteTopLevelCallablesFromIndex()) {
-                    processTopLevelCallables {
-                        collector.addElements(filter(it, lookupElementFactory), notImported = true)
-                        flushToResultSet()
+                    streamFrom("top-level callables") { source ->
+                        processTopLevelCallables {
+                            collector.addElements(filter(it, lookupElementFactory), notImported = true)
+                            source.elementsAdded()
+                        }
                     }
                 }
 
@@ -159,10 +161,12 @@ class SmartCompletionSession(
 
                 if (staticMembersCompletion != null && configuration.staticMembers) {
                     val decoratedFactory = staticMembersCompletion.decoratedLookupElementFactory(ItemPriority.STATIC_MEMBER)
-                    staticMembersCompletion.processMembersFromIndices(indicesHelper(false)) {
-                        filter(it, decoratedFactory).forEach { element ->
-                            collector.addElement(element)
-                            flushToResultSet()
+                    streamFrom("static members from index") { source ->
+                        staticMembersCompletion.processMembersFromIndices(indicesHelper(false)) {
+                            filter(it, decoratedFactory).forEach { element ->
+                                collector.addElement(element)
+                                source.elementsAdded()
+                            }
                         }
                     }
                 }
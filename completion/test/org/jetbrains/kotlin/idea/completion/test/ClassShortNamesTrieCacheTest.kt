@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.completion.test
+
+import com.intellij.codeInsight.completion.impl.CamelHumpMatcher
+import com.intellij.openapi.application.runWriteAction
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.psi.PsiDocumentManager
+import org.jetbrains.kotlin.idea.completion.ClassShortNamesTrieCache
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.util.application.executeWriteCommand
+import org.junit.internal.runners.JUnit38ClassRunner
+import org.junit.runner.RunWith
+
+@RunWith(JUnit38ClassRunner::class)
+class ClassShortNamesTrieCacheTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun setUp() {
+        super.setUp()
+        Registry.get("kotlin.completion.class.names.trie").setValue(true, testRootDisposable)
+    }
+
+    fun testIncrementalUpdates() {
+        val alphaFile = myFixture.addFileToProject("alpha/Alpha.kt", "package alpha\n\nclass AlphaBuilder")
+        assertEquals(setOf("alpha.AlphaBuilder"), kotlinClassNames("ABu"))
+
+        // added class
+        myFixture.addFileToProject("beta/Beta.kt", "package beta\n\nclass AlphaBetaBuilder")
+        assertEquals(setOf("alpha.AlphaBuilder", "beta.AlphaBetaBuilder"), kotlinClassNames("ABu"))
+
+        // renamed class, a modification without changes of files
+        val document = PsiDocumentManager.getInstance(project).getDocument(alphaFile)!!
+        project.executeWriteCommand("rename") {
+            document.replaceString(0, document.textLength, "package alpha\n\nclass AlphaBox")
+            PsiDocumentManager.getInstance(project).commitDocument(document)
+        }
+        assertEquals(setOf("beta.AlphaBetaBuilder"), kotlinClassNames("ABu"))
+        assertEquals(setOf("alpha.AlphaBox"), kotlinClassNames("ABo"))
+
+        // removed class
+        runWriteAction { alphaFile.virtualFile.delete(this) }
+        assertEquals(setOf("beta.AlphaBetaBuilder"), kotlinClassNames("ABu"))
+        assertEmpty(kotlinClassNames("ABo"))
+    }
+
+    fun testJavaClassUpdates() {
+        val javaFile = myFixture.addFileToProject("gamma/Gamma.java", "package gamma;\n\npublic class GammaBuilder {}")
+        assertEquals(setOf("GammaBuilder"), javaClassNames("GBu"))
+
+        val document = PsiDocumentManager.getInstance(project).getDocument(javaFile)!!
+        project.executeWriteCommand("add inner class") {
+            document.replaceString(0, document.textLength, "package gamma;\n\npublic class GammaBox { class GammaBoxBuilder {} }")
+            PsiDocumentManager.getInstance(project).commitDocument(document)
+        }
+        assertEquals(setOf("GammaBoxBuilder"), javaClassNames("GBu"))
+        assertEquals(setOf("GammaBox", "GammaBoxBuilder"), javaClassNames("GBo"))
+
+        runWriteAction { javaFile.virtualFile.delete(this) }
+        assertEmpty(javaClassNames("GBo"))
+    }
+
+    private fun kotlinClassNames(prefix: String): Set<String> {
+        val names = ClassShortNamesTrieCache.getInstance(project).kotlinClassFqNames(CamelHumpMatcher(prefix))
+            ?: error("Class names matching '$prefix' are not looked up in the trie")
+        return names.filterTo(HashSet()) { it.startsWith("alpha.") || it.startsWith("beta.") }
+    }
+
+    private fun javaClassNames(prefix: String): Set<String> {
+        val names = ClassShortNamesTrieCache.getInstance(project).javaClassNames(CamelHumpMatcher(prefix))
+            ?: error("Class names matching '$prefix' are not looked up in the trie")
+        return names.filterTo(HashSet()) { it.startsWith("Gamma") }
+    }
+}
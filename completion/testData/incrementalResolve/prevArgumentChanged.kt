@@ -0,0 +1,6 @@
+fun bar(a: Int, b: Int, s: String): String = s
+
+fun foo(p1: Int, p2: String): String = bar(p1, 1<change>, <before><caret>)
+
+// TYPE: "2"
+// EXIST: p2
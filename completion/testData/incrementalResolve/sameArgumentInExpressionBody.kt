@@ -0,0 +1,6 @@
+fun bar(a: Int, s: String): String = s
+
+fun foo(p1: Int, p2: String): String = bar(p1, p<before><change>)
+
+// TYPE: "2."
+// EXIST: length
@@ -0,0 +1,6 @@
+class C(private val p1: Int, private val p2: String) {
+    fun foo(): Int = p<before><change>
+}
+
+// TYPE: "2."
+// EXIST: length
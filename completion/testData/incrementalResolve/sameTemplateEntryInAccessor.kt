@@ -0,0 +1,7 @@
+class C(private val p1: Int, private val p2: String) {
+    val v: String
+        get() = "$p1: ${p<before><change>}"
+}
+
+// TYPE: "2."
+// EXIST: length
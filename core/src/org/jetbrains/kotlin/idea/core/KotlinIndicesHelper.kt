@@ -159,18 +159,21 @@ class KotlinIndicesHelper(
         val receiverTypeNames = HashSet<String>()
         receiverTypes.forEach { receiverTypeNames.addTypeNames(it) }
 
-        val index = KotlinTopLevelExtensionsByReceiverTypeIndex.INSTANCE
+        val index = KotlinTopLevelExtensionsByReceiverTypeIdIndex.INSTANCE
+        val keyIds = receiverTypeNames.mapTo(LinkedHashSet()) { KotlinTopLevelExtensionsByReceiverTypeIdIndex.keyId(it) }
 
-        val declarations = index.getAllKeys(project)
-            .asSequence()
-            .filter {
-                ProgressManager.checkCanceled()
-                KotlinTopLevelExtensionsByReceiverTypeIndex.receiverTypeNameFromKey(it) in receiverTypeNames
-                        && nameFilter(KotlinTopLevelExtensionsByReceiverTypeIndex.callableNameFromKey(it))
+        // names are checked on stubs of the found extensions, so only extensions of the receiver types are visited
+        val declarations = LinkedHashSet<KtCallableDeclaration>()
+        for (keyId in KotlinExtensionReceiverTypesFilter.filterKeyIds(keyIds, project, scope)) {
+            ProgressManager.checkCanceled()
+            index.processElements(keyId, project, scope) { declaration ->
+                if (declaration.name?.let(nameFilter) == true) declarations.add(declaration)
+                true
             }
-            .flatMap { index.get(it, project, scope).asSequence() }.filter(declarationFilter)
+        }
 
-        val suitableExtensions = findSuitableExtensions(declarations, receiverTypes, callTypeAndReceiver.callType)
+        val suitableExtensions =
+            findSuitableExtensions(declarations.asSequence().filter(declarationFilter), receiverTypes, callTypeAndReceiver.callType)
 
         val additionalDescriptors = ArrayList<CallableDescriptor>(0)
 
@@ -381,14 +384,21 @@ class KotlinIndicesHelper(
         nameFilter: (String) -> Boolean,
         psiFilter: (KtDeclaration) -> Boolean = { true },
         kindFilter: (ClassKind) -> Boolean = { true }
+    ): Collection<ClassDescriptor> {
+        val fqNames = KotlinFullClassNameIndex.getInstance().getAllKeys(project).filter { fqName ->
+            ProgressManager.checkCanceled()
+            nameFilter(fqName.substringAfterLast('.'))
+        }
+        return getKotlinClassesByFqNames(fqNames, psiFilter, kindFilter)
+    }
+
+    fun getKotlinClassesByFqNames(
+        fqNames: Collection<String>,
+        psiFilter: (KtDeclaration) -> Boolean = { true },
+        kindFilter: (ClassKind) -> Boolean = { true }
     ): Collection<ClassDescriptor> {
         val index = KotlinFullClassNameIndex.getInstance()
-        return index.getAllKeys(project).asSequence()
-            .filter { fqName ->
-                ProgressManager.checkCanceled()
-                nameFilter(fqName.substringAfterLast('.'))
-            }
-            .toList()
+        return fqNames
             .flatMap { fqName ->
                 index[fqName, project, scope].flatMap { classOrObject ->
                     classOrObject.resolveToDescriptorsWithHack(psiFilter).filterIsInstance<ClassDescriptor>()
@@ -398,13 +408,16 @@ class KotlinIndicesHelper(
     }
 
     fun getTopLevelTypeAliases(nameFilter: (String) -> Boolean): Collection<TypeAliasDescriptor> {
+        val fqNames = KotlinTopLevelTypeAliasFqNameIndex.getInstance().getAllKeys(project).filter {
+            ProgressManager.checkCanceled()
+            nameFilter(it.substringAfterLast('.'))
+        }
+        return getTopLevelTypeAliasesByFqNames(fqNames)
+    }
+
+    fun getTopLevelTypeAliasesByFqNames(fqNames: Collection<String>): Collection<TypeAliasDescriptor> {
         val index = KotlinTopLevelTypeAliasFqNameIndex.getInstance()
-        return index.getAllKeys(project).asSequence()
-            .filter {
-                ProgressManager.checkCanceled()
-                nameFilter(it.substringAfterLast('.'))
-            }
-            .toList()
+        return fqNames
             .flatMap { fqName ->
                 index[fqName, project, scope]
                     .flatMap { it.resolveToDescriptors<TypeAliasDescriptor>() }
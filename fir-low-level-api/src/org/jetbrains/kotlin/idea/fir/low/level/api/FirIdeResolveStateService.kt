@@ -7,12 +7,16 @@ package org.jetbrains.kotlin.idea.fir.low.level.api
 
 import com.intellij.openapi.components.service
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.psi.util.CachedValueProvider
 import com.intellij.psi.util.CachedValuesManager
 import com.intellij.psi.util.PsiModificationTracker
 import org.jetbrains.kotlin.idea.caches.project.IdeaModuleInfo
 import org.jetbrains.kotlin.idea.caches.project.LibraryModificationTracker
 import org.jetbrains.kotlin.idea.caches.project.ModuleSourceInfo
+import org.jetbrains.kotlin.idea.caches.trackers.KotlinCodeBlockModificationListener
+import org.jetbrains.kotlin.idea.fir.low.level.api.file.builder.ModuleFileCache
 import org.jetbrains.kotlin.idea.fir.low.level.api.lazy.resolve.FirLazyDeclarationResolver
 import org.jetbrains.kotlin.idea.fir.low.level.api.sessions.FirIdeLibrariesSession
 import org.jetbrains.kotlin.idea.fir.low.level.api.sessions.FirIdeSessionFactory
@@ -27,11 +31,22 @@ internal class FirIdeResolveStateService(private val project: Project) {
         ConcurrentHashMap<IdeaModuleInfo, FirModuleResolveStateImpl>()
     }
 
+    /**
+     * States which survive in-block modifications, modified files are rebuilt incrementally by [ModuleFileCache]
+     */
+    private val incrementalStateCache by cachedValue(
+        project,
+        KotlinCodeBlockModificationListener.getInstance(project).kotlinOutOfCodeBlockTracker,
+        ProjectRootModificationTracker.getInstance(project)
+    ) {
+        ConcurrentHashMap<IdeaModuleInfo, FirModuleResolveStateImpl>()
+    }
+
     private val librarySessionCache by cachedValue(project, LibraryModificationTracker.getInstance(project)) {
         ConcurrentHashMap<IdeaModuleInfo, FirIdeLibrariesSession>()
     }
 
-    private fun createResolveStateFor(moduleInfo: IdeaModuleInfo): FirModuleResolveStateImpl {
+    private fun createResolveStateFor(moduleInfo: IdeaModuleInfo, incrementalRawFir: Boolean): FirModuleResolveStateImpl {
         require(moduleInfo is ModuleSourceInfo)
         val firPhaseRunner = FirPhaseRunner()
         val sessionProvider = FirIdeSessionProvider(project)
@@ -45,6 +60,7 @@ internal class FirIdeResolveStateService(private val project: Project) {
             firPhaseRunner,
             sessionProvider,
             librariesSession,
+            incrementalRawFir,
         )
 
         sessionProvider.apply {
@@ -63,10 +79,16 @@ internal class FirIdeResolveStateService(private val project: Project) {
         )
     }
 
-    fun getResolveState(moduleInfo: IdeaModuleInfo): FirModuleResolveStateImpl =
-        stateCache.getOrPut(moduleInfo) { createResolveStateFor(moduleInfo) }
+    fun getResolveState(moduleInfo: IdeaModuleInfo): FirModuleResolveStateImpl {
+        val incrementalRawFir = isIncrementalRawFirEnabled
+        val cache = if (incrementalRawFir) incrementalStateCache else stateCache
+        return cache.getOrPut(moduleInfo) { createResolveStateFor(moduleInfo, incrementalRawFir) }
+    }
 
     companion object {
         fun getInstance(project: Project): FirIdeResolveStateService = project.service()
+
+        val isIncrementalRawFirEnabled: Boolean
+            get() = Registry.`is`("kotlin.fir.incremental.raw.fir", false)
     }
 }
@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtNamedFunction
 import org.jetbrains.kotlin.fir.symbols.impl.FirNamedFunctionSymbol
 import org.jetbrains.kotlin.idea.fir.low.level.api.element.builder.FirTowerDataContextCollector
+import org.jetbrains.kotlin.idea.fir.low.level.api.util.CacheStatistics
 import org.jetbrains.kotlin.idea.util.getElementTextInContext
 import org.jetbrains.kotlin.psi.KtProperty
 
@@ -38,8 +39,11 @@ object LowLevelFirApiFacade {
     fun getSessionFor(element: KtElement): FirSession =
         getResolveStateFor(element).getSessionFor(element.getModuleInfo())
 
+    private val getOrBuildFirCounter = LowLevelFirStatistics.counter("get or build fir")
+    private val completionContextCounter = LowLevelFirStatistics.counter("completion context building")
+
     fun getOrBuildFirFor(element: KtElement, resolveState: FirModuleResolveState, phase: FirResolvePhase): FirElement =
-        resolveState.getOrBuildFirFor(element, phase)
+        getOrBuildFirCounter.measure { resolveState.getOrBuildFirFor(element, phase) }
 
     class FirCompletionContext internal constructor(
         val session: FirSession,
@@ -67,7 +71,7 @@ object LowLevelFirApiFacade {
         originalElement: KtNamedFunction,
         state: FirModuleResolveState,
         phase: FirResolvePhase = FirResolvePhase.BODY_RESOLVE
-    ): FirCompletionContext {
+    ): FirCompletionContext = completionContextCounter.measure {
         val firIdeProvider = firFile.session.firIdeProvider
         val originalFunction = state.getOrBuildFirFor(originalElement, phase) as FirSimpleFunction
         val builtFunction = firIdeProvider.buildFunctionWithBody(element)
@@ -89,7 +93,7 @@ object LowLevelFirApiFacade {
             state.recordPsiToFirMappingsForCompletionFrom(this, firFile, element.containingKtFile)
         }
 
-        return FirCompletionContext(
+        FirCompletionContext(
             function.session,
             contextCollector,
             state
@@ -102,7 +106,7 @@ object LowLevelFirApiFacade {
         originalElement: KtProperty,
         state: FirModuleResolveState,
         phase: FirResolvePhase = FirResolvePhase.BODY_RESOLVE
-    ): FirCompletionContext {
+    ): FirCompletionContext = completionContextCounter.measure {
         val firIdeProvider = firFile.session.firIdeProvider
         val originalProperty = state.getOrBuildFirFor(originalElement, phase) as FirProperty
         val builtProperty = firIdeProvider.buildPropertyWithBody(element)
@@ -122,7 +126,7 @@ object LowLevelFirApiFacade {
             state.recordPsiToFirMappingsForCompletionFrom(this, firFile, element.containingKtFile)
         }
 
-        return FirCompletionContext(
+        FirCompletionContext(
             function.session,
             contextCollector,
             state
@@ -132,4 +136,7 @@ object LowLevelFirApiFacade {
     fun getDiagnosticsFor(element: KtElement, resolveState: FirModuleResolveState): Collection<Diagnostic> {
         return resolveState.getDiagnostics(element)
     }
+
+    fun getPsiToFirCacheStatistics(resolveState: FirModuleResolveState): CacheStatistics? =
+        (resolveState as? FirModuleResolveStateImpl)?.psiToFirCache?.statistics
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.fir.low.level.api
+
+import org.jetbrains.kotlin.fir.declarations.FirResolvePhase
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Time and number of invocations of FIR IDE operations: raw FIR building, resolve phases, diagnostics collection, symbol building
+ *
+ * Measurement is disabled by default and is enabled by [isEnabled] or by the `kotlin.fir.low.level.statistics` system property.
+ * Measured time is inclusive, e.g. lazy resolve of a declaration may include lazy resolve of declarations it depends on.
+ */
+object LowLevelFirStatistics {
+    @Volatile
+    @JvmStatic
+    var isEnabled: Boolean = java.lang.Boolean.getBoolean("kotlin.fir.low.level.statistics")
+
+    private val counters = ConcurrentHashMap<String, Counter>()
+
+    class Counter internal constructor(val name: String) {
+        private val count = LongAdder()
+        private val nanos = LongAdder()
+
+        inline fun <R> measure(block: () -> R): R {
+            if (!isEnabled) return block()
+            val start = System.nanoTime()
+            try {
+                return block()
+            } finally {
+                record(System.nanoTime() - start)
+            }
+        }
+
+        @PublishedApi
+        internal fun record(elapsedNanos: Long) {
+            count.increment()
+            nanos.add(elapsedNanos)
+        }
+
+        internal fun reset() {
+            count.reset()
+            nanos.reset()
+        }
+
+        val invocationCount: Long get() = count.sum()
+        val totalNanos: Long get() = nanos.sum()
+    }
+
+    fun counter(name: String): Counter = counters.computeIfAbsent(name, ::Counter)
+
+    /**
+     * Counters named `"[prefix]: <phase>"` indexed by [FirResolvePhase.ordinal]
+     */
+    fun phaseCounters(prefix: String): List<Counter> = FirResolvePhase.values().map { counter("$prefix: $it") }
+
+    /**
+     * Reports counters which were invoked at least once, in the same shape as [org.jetbrains.kotlin.util.PerformanceCounter.report]
+     */
+    fun report(consumer: (name: String, count: Long, nanos: Long) -> Unit) {
+        for (counter in counters.values.sortedBy { it.name }) {
+            val count = counter.invocationCount
+            if (count > 0) consumer(counter.name, count, counter.totalNanos)
+        }
+    }
+
+    fun reset() {
+        counters.values.forEach { it.reset() }
+    }
+
+    /**
+     * `{"counters":[{"name":"raw fir building","count":10,"nanos":123456}, ...]}`
+     */
+    fun exportJson(): String = buildString {
+        append("{\"counters\":[")
+        var first = true
+        report { name, count, nanos ->
+            if (!first) append(',')
+            first = false
+            append("{\"name\":\"").append(name.replace("\\", "\\\\").replace("\"", "\\\""))
+            append("\",\"count\":").append(count)
+            append(",\"nanos\":").append(nanos).append('}')
+        }
+        append("]}")
+    }
+}
@@ -5,49 +5,69 @@
 
 package org.jetbrains.kotlin.idea.fir.low.level.api.diagnostics
 
+import com.intellij.openapi.util.registry.Registry
 import org.jetbrains.kotlin.diagnostics.Diagnostic
 import org.jetbrains.kotlin.fir.declarations.FirFile
 import org.jetbrains.kotlin.fir.declarations.FirResolvePhase
 import org.jetbrains.kotlin.idea.fir.low.level.api.file.builder.FirFileBuilder
 import org.jetbrains.kotlin.idea.fir.low.level.api.file.builder.ModuleFileCache
+import org.jetbrains.kotlin.idea.fir.low.level.api.lazy.resolve.FirLazyDeclarationResolver
 import org.jetbrains.kotlin.psi.KtElement
 import org.jetbrains.kotlin.psi.KtFile
 import java.util.concurrent.ConcurrentHashMap
 
 internal class DiagnosticsCollector(
     private val firFileBuilder: FirFileBuilder,
+    private val firLazyDeclarationResolver: FirLazyDeclarationResolver,
     private val cache: ModuleFileCache,
 ) {
     private val diagnosticsForFile = ConcurrentHashMap<KtFile, DiagnosticsForFile>()
 
     fun getDiagnosticsFor(element: KtElement): List<Diagnostic> {
         val ktFile = element.containingKtFile
-        val diagnostics = diagnosticsForFile.computeIfAbsent(ktFile) {
-            val firFile = firFileBuilder.getFirFileResolvedToPhaseWithCaching(
-                ktFile,
-                cache,
-                toPhase = FirResolvePhase.BODY_RESOLVE,
-                checkPCE = true
-            )
-            DiagnosticsForFile.collectDiagnosticsForFile(firFile)
-        }
+        diagnosticsForFile[ktFile]?.takeIf { it.isUpToDate(ktFile) }?.let { return it.getDiagnosticsFor(element) }
+
+        val diagnostics = diagnosticsForFile.compute(ktFile) { _, diagnostics ->
+            diagnostics?.takeIf { it.isUpToDate(ktFile) } ?: run {
+                val modificationStamp = ktFile.modificationStamp
+                val firFile = firFileBuilder.buildRawFirFileWithCaching(ktFile, cache)
+                firLazyDeclarationResolver.lazyResolveFileDeclarations(
+                    firFile,
+                    cache,
+                    toPhase = FirResolvePhase.BODY_RESOLVE,
+                    concurrent = isConcurrentResolveEnabled
+                )
+                DiagnosticsForFile.collectDiagnosticsForFile(firFile, modificationStamp)
+            }
+        }!!
         return diagnostics.getDiagnosticsFor(element)
     }
+
+    companion object {
+        val isConcurrentResolveEnabled: Boolean
+            get() = Registry.`is`("kotlin.fir.concurrent.file.resolve", false)
+    }
 }
 
-private class DiagnosticsForFile private constructor(private val diagnostics: Map<KtElement, List<Diagnostic>>) {
+private class DiagnosticsForFile private constructor(
+    private val diagnostics: Map<KtElement, List<Diagnostic>>,
+    private val modificationStamp: Long
+) {
     fun getDiagnosticsFor(element: KtElement): List<Diagnostic> = diagnostics[element].orEmpty()
 
+    // diagnostics become outdated when the resolve state survives in-block modifications of the file
+    fun isUpToDate(ktFile: KtFile): Boolean = ktFile.modificationStamp == modificationStamp
+
     companion object {
         /**
          * Collects diagnostics for given [firFile]
          * Should be called under [firFile]-based lock
          */
-        fun collectDiagnosticsForFile(firFile: FirFile): DiagnosticsForFile {
+        fun collectDiagnosticsForFile(firFile: FirFile, modificationStamp: Long): DiagnosticsForFile {
             require(firFile.resolvePhase >= FirResolvePhase.BODY_RESOLVE) {
                 "To collect diagnostics at least FirResolvePhase.BODY_RESOLVE is needed, but file ${firFile.name} was resolved to ${firFile.resolvePhase}"
             }
-            return DiagnosticsForFile(FirIdeDiagnosticsCollector.collect(firFile))
+            return DiagnosticsForFile(FirIdeDiagnosticsCollector.collect(firFile), modificationStamp)
         }
     }
 }
\ No newline at end of file
@@ -16,6 +16,7 @@ import org.jetbrains.kotlin.fir.analysis.diagnostics.FirPsiDiagnostic
 import org.jetbrains.kotlin.fir.declarations.FirFile
 import org.jetbrains.kotlin.fir.resolve.ScopeSession
 import org.jetbrains.kotlin.fir.resolve.transformers.body.resolve.createReturnTypeCalculatorForIDE
+import org.jetbrains.kotlin.idea.fir.low.level.api.LowLevelFirStatistics
 import org.jetbrains.kotlin.idea.fir.low.level.api.util.addValueFor
 import org.jetbrains.kotlin.idea.fir.low.level.api.util.checkCanceled
 import org.jetbrains.kotlin.psi.KtElement
@@ -63,15 +64,17 @@ internal class FirIdeDiagnosticsCollector private constructor(
 
     companion object {
         private val LOG = Logger.getInstance(FirIdeDiagnosticsCollector::class.java)
+        private val collectionCounter = LowLevelFirStatistics.counter("diagnostics collection")
 
         /**
          * Collects diagnostics for given [firFile]
          * Should be called under [firFile]-based lock
          */
-        fun collect(firFile: FirFile): Map<KtElement, List<Diagnostic>> =
+        fun collect(firFile: FirFile): Map<KtElement, List<Diagnostic>> = collectionCounter.measure {
             FirIdeDiagnosticsCollector(firFile.session).let { collector ->
                 collector.collectDiagnostics(firFile)
                 collector.result
             }
+        }
     }
 }
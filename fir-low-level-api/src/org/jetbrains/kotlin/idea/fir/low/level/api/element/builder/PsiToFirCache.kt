@@ -18,6 +18,8 @@ import org.jetbrains.kotlin.fir.types.FirUserTypeRef
 import org.jetbrains.kotlin.fir.types.impl.FirResolvedTypeRefImpl
 import org.jetbrains.kotlin.fir.visitors.FirVisitorVoid
 import org.jetbrains.kotlin.idea.fir.low.level.api.file.builder.ModuleFileCache
+import org.jetbrains.kotlin.idea.fir.low.level.api.util.CacheStatistics
+import org.jetbrains.kotlin.idea.fir.low.level.api.util.SizeBoundedCache
 import org.jetbrains.kotlin.idea.fir.low.level.api.util.isErrorElement
 import java.util.concurrent.ConcurrentHashMap
 import org.jetbrains.kotlin.idea.util.getElementTextInContext
@@ -25,31 +27,65 @@ import org.jetbrains.kotlin.psi.*
 
 /**
  * Belongs to a [org.jetbrains.kotlin.idea.fir.low.level.api.FirModuleResolveState]
+ *
+ * Caches of least recently used files are evicted when their total size exceeds the budget set by the
+ * `kotlin.fir.psi.to.fir.cache.size.mb` registry key, evicted mappings are recorded again on the next request
  */
 internal class PsiToFirCache(private val moduleFileCache: ModuleFileCache) {
-    private val caches = ConcurrentHashMap<KtFile, FileCache>()
+    private val caches = SizeBoundedCache<KtFile, FileCache>(
+        SizeBoundedCache.budgetFromRegistry("kotlin.fir.psi.to.fir.cache.size.mb", defaultSizeInMb = 64)
+    ) { _, fileCache -> fileCache.approximateSize() }
+
+    val statistics: CacheStatistics
+        get() = caches.statistics
 
     fun getCachedMapping(element: KtElement): FirElement? {
         val ktFile = element.containingKtFile
-        val cache = caches[ktFile]
+        val cache = caches.getIfPresent(ktFile)?.takeIf { it.isUpToDate() }
         return cache?.getCachedMapping(element)
     }
 
     fun getFir(element: KtElement, containerFir: FirDeclaration, firFile: FirFile): FirElement {
         val ktFile = element.containingKtFile
-        val cache = caches.getOrPut(ktFile) { FileCache(ktFile, firFile, moduleFileCache) }
-        return cache.getFir(element, containerFir)
+        return withFileCache(ktFile, firFile) { it.getFir(element, containerFir) }
     }
 
     //todo for completion only
     fun recordElementsForCompletionFrom(containerFir: FirDeclaration, firFile: FirFile, ktFile: KtFile) {
-        val cache = caches.getOrPut(ktFile) { FileCache(ktFile, firFile, moduleFileCache) }
-        cache.recordElementsForCompletionFrom(containerFir)
+        withFileCache(ktFile, firFile) { it.recordElementsForCompletionFrom(containerFir) }
+    }
+
+    private inline fun <R> withFileCache(ktFile: KtFile, firFile: FirFile, action: (FileCache) -> R): R {
+        val fileCache = getOrCreateFileCache(ktFile, firFile)
+        val sizeBefore = fileCache.size
+        return action(fileCache).also {
+            if (fileCache.size != sizeBefore) {
+                caches.reweigh(ktFile, fileCache)
+            }
+        }
+    }
+
+    // file cache becomes outdated when the resolve state survives in-block modifications of the file
+    private fun getOrCreateFileCache(ktFile: KtFile, firFile: FirFile): FileCache {
+        caches.getIfPresent(ktFile)?.takeIf { it.isUpToDate() }?.let { return it }
+        return caches.putIfOutdated(ktFile, FileCache(ktFile, firFile, moduleFileCache)) { it.isUpToDate() }
     }
 }
 
 internal class FileCache(val ktFile: KtFile, firFile: FirFile, moduleFileCache: ModuleFileCache) {
     private val cache: ConcurrentHashMap<KtElement, FirElement> = ConcurrentHashMap()
+    private val modificationStamp = ktFile.modificationStamp
+
+    fun isUpToDate(): Boolean = ktFile.modificationStamp == modificationStamp
+
+    val size: Int
+        get() = cache.size
+
+    /**
+     * Mapped [FirElement]s are retained by the [FirFile] anyway, so only the mapping itself is counted
+     */
+    fun approximateSize(): Long =
+        SizeBoundedCache.OBJECT_HEADER_SIZE * 2 + cache.size * (SizeBoundedCache.MAP_ENTRY_SIZE + SizeBoundedCache.REFERENCE_SIZE)
 
     fun getCachedMapping(ktElement: KtElement): FirElement? {
         require(ktElement.containingKtFile === ktFile)
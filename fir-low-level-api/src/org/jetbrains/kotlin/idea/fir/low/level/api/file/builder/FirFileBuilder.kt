@@ -6,12 +6,19 @@
 package org.jetbrains.kotlin.idea.fir.low.level.api.file.builder
 
 import org.jetbrains.kotlin.fir.builder.RawFirBuilder
-import org.jetbrains.kotlin.fir.declarations.FirFile
-import org.jetbrains.kotlin.fir.declarations.FirResolvePhase
+import org.jetbrains.kotlin.fir.declarations.*
+import org.jetbrains.kotlin.fir.declarations.builder.buildFile
+import org.jetbrains.kotlin.fir.declarations.builder.buildPropertyCopy
+import org.jetbrains.kotlin.fir.declarations.builder.buildSimpleFunctionCopy
+import org.jetbrains.kotlin.fir.psi
 import org.jetbrains.kotlin.fir.resolve.ScopeSession
 import org.jetbrains.kotlin.fir.scopes.FirScopeProvider
 import org.jetbrains.kotlin.idea.fir.low.level.api.FirPhaseRunner
+import org.jetbrains.kotlin.idea.fir.low.level.api.LowLevelFirStatistics
+import org.jetbrains.kotlin.psi.KtDeclaration
 import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.KtProperty
 import org.jetbrains.kotlin.idea.fir.low.level.api.annotations.ThreadSafe
 import org.jetbrains.kotlin.idea.fir.low.level.api.util.checkCanceled
 import org.jetbrains.kotlin.idea.fir.low.level.api.util.lockWithPCECheck
@@ -28,12 +35,88 @@ internal class FirFileBuilder(
     /**
      * Builds a [FirFile] by given [ktFile] and records it's parenting info if it not present in [cache]
      * [FirFile] building a happens at most once per each [KtFile]
+     *
+     * If [cache] is incremental and [ktFile] was modified after its [FirFile] was built, only declarations with changed text are rebuilt,
+     * see [rebuildChangedDeclarations]
      */
     fun buildRawFirFileWithCaching(
         ktFile: KtFile,
         cache: ModuleFileCache
-    ): FirFile = cache.fileCached(ktFile) {
-        RawFirBuilder(cache.session, scopeProvider, stubMode = false).buildFirFile(ktFile)
+    ): FirFile {
+        return cache.fileCached(ktFile) { outdated ->
+            val firFile = outdated?.let { incrementalRawFirBuildingCounter.measure { rebuildChangedDeclarations(ktFile, it, cache) } }
+                ?: rawFirBuildingCounter.measure {
+                    RawFirBuilder(cache.session, scopeProvider, stubMode = false).buildFirFile(ktFile)
+                }.also {
+                    // providers may still refer to declarations of the outdated file
+                    if (outdated != null) cache.clearProviderMaps()
+                }
+            val declarationTextHashes = if (cache.isIncremental) ktFile.declarations.associateWith { it.text.hashCode() } else emptyMap()
+            CachedFirFile(firFile, ktFile.modificationStamp, declarationTextHashes)
+        }
+    }
+
+    /**
+     * Builds a new [FirFile] for [ktFile] reusing [FirDeclaration]s of [outdated] file which text is not changed.
+     * Declarations are matched by their PSI which stays the same on in-block modifications.
+     *
+     * Only top-level functions and properties can be rebuilt separately, they keep symbols and resolved headers of the outdated
+     * declarations, so other declarations referring to them remain valid. Modified bodies are resolved again on the next request.
+     *
+     * Reused declarations may still be resolved through the [outdated] file, so the new file is guarded by the same lock.
+     *
+     * @return `null` if some changed declaration can't be rebuilt separately and the whole file has to be built from scratch
+     */
+    private fun rebuildChangedDeclarations(ktFile: KtFile, outdated: CachedFirFile, cache: ModuleFileCache): FirFile? {
+        val outdatedFirFile = outdated.firFile
+        val outdatedDeclarations = outdatedFirFile.declarations.associateBy { it.psi }
+        if (outdatedDeclarations.size != ktFile.declarations.size) return null
+
+        val builder = RawFirBuilder(cache.session, scopeProvider, stubMode = false)
+        val newDeclarations = ktFile.declarations.map { ktDeclaration ->
+            val firDeclaration = outdatedDeclarations[ktDeclaration] ?: return null
+            if (outdated.declarationTextHashes[ktDeclaration] == ktDeclaration.text.hashCode()) {
+                firDeclaration
+            } else {
+                builder.rebuildWithNewBody(ktDeclaration, firDeclaration) ?: return null
+            }
+        }
+
+        val firFile = buildFile {
+            source = outdatedFirFile.source
+            session = outdatedFirFile.session
+            name = outdatedFirFile.name
+            packageFqName = outdatedFirFile.packageFqName
+            annotations += outdatedFirFile.annotations
+            imports += outdatedFirFile.imports
+            declarations += newDeclarations
+            resolvePhase = newDeclarations.fold(outdatedFirFile.resolvePhase) { phase, declaration -> minOf(phase, declaration.resolvePhase) }
+        }
+        cache.firFileLockProvider.shareLock(outdatedFirFile, firFile)
+        return firFile
+    }
+
+    private fun RawFirBuilder.rebuildWithNewBody(ktDeclaration: KtDeclaration, outdated: FirDeclaration): FirDeclaration? = when {
+        ktDeclaration is KtNamedFunction && outdated is FirSimpleFunction -> {
+            val function = buildFunctionWithBody(ktDeclaration)
+            buildSimpleFunctionCopy(outdated) {
+                body = function.body
+                source = function.source
+                resolvePhase = minOf(outdated.resolvePhase, FirResolvePhase.DECLARATIONS)
+            }
+        }
+        ktDeclaration is KtProperty && outdated is FirProperty -> {
+            val property = buildPropertyWithBody(ktDeclaration)
+            buildPropertyCopy(outdated) {
+                initializer = property.initializer
+                delegate = property.delegate
+                getter = property.getter
+                setter = property.setter
+                source = property.source
+                resolvePhase = minOf(outdated.resolvePhase, FirResolvePhase.DECLARATIONS)
+            }
+        }
+        else -> null
     }
 
     fun getFirFileResolvedToPhaseWithCaching(
@@ -59,6 +142,7 @@ internal class FirFileBuilder(
         cache.firFileLockProvider.withLock(firFile) { resolve() }
 
     inline fun <R : Any> runCustomResolveWithPCECheck(firFile: FirFile, cache: ModuleFileCache, resolve: () -> R): R {
+        if (cache.firFileLockProvider.isLockedByCaller(firFile)) return resolve()
         val lock = cache.firFileLockProvider.getLockFor(firFile)
         return lock.lockWithPCECheck(LOCKING_INTERVAL_MS) { resolve() }
     }
@@ -77,13 +161,19 @@ internal class FirFileBuilder(
         while (currentPhase < toPhase) {
             if (checkPCE) checkCanceled()
             currentPhase = currentPhase.next
-            firPhaseRunner.runPhase(firFile, currentPhase, scopeSession)
+            fileResolveCounters[currentPhase.ordinal].measure {
+                firPhaseRunner.runPhase(firFile, currentPhase, scopeSession)
+            }
         }
     }
 
 
     companion object {
         private const val LOCKING_INTERVAL_MS = 500L
+
+        private val rawFirBuildingCounter = LowLevelFirStatistics.counter("raw fir building")
+        private val incrementalRawFirBuildingCounter = LowLevelFirStatistics.counter("incremental raw fir building")
+        private val fileResolveCounters = LowLevelFirStatistics.phaseCounters("file resolve")
     }
 }
 
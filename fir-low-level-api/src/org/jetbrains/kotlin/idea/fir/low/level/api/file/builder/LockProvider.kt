@@ -14,6 +14,35 @@ import kotlin.concurrent.withLock
 internal class LockProvider<KEY, out LOCK>(private val createLock: () -> LOCK) {
     private val locks: ConcurrentMap<KEY, LOCK> = MapMaker().weakKeys().makeMap()
     fun getLockFor(key: KEY) = locks.getOrPut(key) { createLock() }
+
+    /**
+     * Makes [key] guarded by the same lock as [existingKey], e.g. when they share some mutable state
+     */
+    fun shareLock(existingKey: KEY, key: KEY) {
+        locks[key] = getLockFor(existingKey)
+    }
+
+    // keys which locks are held by the threads the current thread works for, see runOnBehalfOfLockOwner
+    private val keysLockedByCaller = ThreadLocal<Set<KEY>>()
+
+    /**
+     * `true` if the lock for [key] is held by a thread which waits for the current one to complete some work,
+     * so taking the lock would deadlock and the work can be performed without it
+     */
+    fun isLockedByCaller(key: KEY): Boolean = keysLockedByCaller.get()?.contains(key) == true
+
+    /**
+     * Runs [action] which is a part of work done under the lock for [key] by a thread waiting for the current one
+     */
+    fun <R> runOnBehalfOfLockOwner(key: KEY, action: () -> R): R {
+        val previous = keysLockedByCaller.get()
+        keysLockedByCaller.set(previous.orEmpty() + key)
+        try {
+            return action()
+        } finally {
+            keysLockedByCaller.set(previous)
+        }
+    }
 }
 
 internal inline fun <KEY, R> LockProvider<KEY, ReadWriteLock>.withReadLock(key: KEY, action: () -> R): R {
@@ -28,6 +57,7 @@ internal inline fun <KEY, R> LockProvider<KEY, ReadWriteLock>.withWriteLock(key:
 
 
 internal inline fun <KEY, R> LockProvider<KEY, ReentrantLock>.withLock(key: KEY, action: () -> R): R {
+    if (isLockedByCaller(key)) return action()
     val lock = getLockFor(key)
     return lock.withLock { action() }
 }
\ No newline at end of file
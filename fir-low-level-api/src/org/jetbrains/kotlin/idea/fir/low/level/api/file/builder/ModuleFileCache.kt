@@ -13,13 +13,16 @@ import org.jetbrains.kotlin.fir.psi
 import org.jetbrains.kotlin.fir.symbols.CallableId
 import org.jetbrains.kotlin.fir.symbols.impl.FirCallableSymbol
 import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.psi.KtDeclaration
 import org.jetbrains.kotlin.psi.KtFile
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.locks.ReentrantLock
 import java.util.concurrent.locks.ReentrantReadWriteLock
 import org.jetbrains.kotlin.idea.fir.low.level.api.annotations.ThreadSafe
+import kotlin.concurrent.read
 import kotlin.concurrent.withLock
+import kotlin.concurrent.write
 
 /**
  * Caches mapping [KtFile] -> [FirFile] of module [moduleInfo]
@@ -28,6 +31,11 @@ import kotlin.concurrent.withLock
 internal abstract class ModuleFileCache {
     abstract val session: FirSession
 
+    /**
+     * `true` if [FirFile]s are rebuilt on modifications of their [KtFile]s, see [FirFileBuilder.buildRawFirFileWithCaching]
+     */
+    abstract val isIncremental: Boolean
+
     /**
      * Maps [ClassId] to corresponding classifiers
      * If classifier with required [ClassId] is not found in given module then map contains [Optional.EMPTY]
@@ -40,11 +48,45 @@ internal abstract class ModuleFileCache {
      */
     abstract val callableByCallableId: ConcurrentHashMap<CallableId, List<FirCallableSymbol<*>>>
 
+    private val providerMapsLock = ReentrantReadWriteLock()
+
+    @Volatile
+    private var providerMapsGeneration = 0
+
+    /**
+     * @return value of [map] (one of [classifierByClassId] and [callableByCallableId]) for [key], computed by [compute] if absent
+     *
+     * Unlike [ConcurrentHashMap.computeIfAbsent] [compute] is run without locks, so it can build [FirFile]s,
+     * which clear the maps under [FirFile] building lock, see [clearProviderMaps]. Values computed while the maps were cleared are not stored.
+     */
+    fun <K : Any, V : Any> getOrComputeProviderValue(map: ConcurrentHashMap<K, V>, key: K, compute: () -> V): V {
+        map[key]?.let { return it }
+        val generation = providerMapsGeneration
+        val value = compute()
+        return providerMapsLock.read {
+            if (generation == providerMapsGeneration) map.putIfAbsent(key, value) ?: value else value
+        }
+    }
+
+    /**
+     * Clears [classifierByClassId] and [callableByCallableId] which may refer to declarations of outdated [FirFile]s
+     */
+    fun clearProviderMaps() {
+        providerMapsLock.write {
+            providerMapsGeneration++
+            classifierByClassId.clear()
+            callableByCallableId.clear()
+        }
+    }
+
     /**
      * @return [FirFile] by [file] if it was previously built or runs [createValue] otherwise
      * The [createValue] is run under the lock so [createValue] is executed at most once for each [KtFile]
+     *
+     * In incremental mode [FirFile] is also rebuilt when [file] was modified after it was built,
+     * [createValue] receives the outdated [CachedFirFile] in that case
      */
-    abstract fun fileCached(file: KtFile, createValue: () -> FirFile): FirFile
+    abstract fun fileCached(file: KtFile, createValue: (outdated: CachedFirFile?) -> CachedFirFile): FirFile
 
     abstract fun getContainerFirFile(declaration: FirDeclaration): FirFile?
 
@@ -58,16 +100,39 @@ internal abstract class ModuleFileCache {
     abstract val firFileLockProvider: LockProvider<FirFile, ReentrantLock>
 }
 
-internal class ModuleFileCacheImpl(override val session: FirSession) : ModuleFileCache() {
-    private val ktFileToFirFile = ConcurrentHashMap<KtFile, FirFile>()
+/**
+ * [FirFile] built for [modificationStamp] of its [KtFile]
+ * with hashes of the text of top-level declarations it was built from
+ */
+internal class CachedFirFile(
+    val firFile: FirFile,
+    val modificationStamp: Long,
+    val declarationTextHashes: Map<KtDeclaration, Int>
+) {
+    fun isUpToDate(ktFile: KtFile): Boolean = ktFile.modificationStamp == modificationStamp
+}
+
+internal class ModuleFileCacheImpl(
+    override val session: FirSession,
+    override val isIncremental: Boolean = false
+) : ModuleFileCache() {
+    private val ktFileToFirFile = ConcurrentHashMap<KtFile, CachedFirFile>()
 
     override val classifierByClassId: ConcurrentHashMap<ClassId, Optional<FirClassLikeDeclaration<*>>> = ConcurrentHashMap()
     override val callableByCallableId: ConcurrentHashMap<CallableId, List<FirCallableSymbol<*>>> = ConcurrentHashMap()
 
-    override fun fileCached(file: KtFile, createValue: () -> FirFile): FirFile =
-        ktFileToFirFile.computeIfAbsent(file) { createValue() }
+    override fun fileCached(file: KtFile, createValue: (outdated: CachedFirFile?) -> CachedFirFile): FirFile {
+        if (!isIncremental) {
+            return ktFileToFirFile.computeIfAbsent(file) { createValue(null) }.firFile
+        }
+
+        ktFileToFirFile[file]?.takeIf { it.isUpToDate(file) }?.let { return it.firFile }
+        return ktFileToFirFile.compute(file) { _, cached ->
+            if (cached != null && cached.isUpToDate(file)) cached else createValue(cached)
+        }!!.firFile
+    }
 
-    override fun getCachedFirFile(ktFile: KtFile): FirFile? = ktFileToFirFile[ktFile]
+    override fun getCachedFirFile(ktFile: KtFile): FirFile? = ktFileToFirFile[ktFile]?.firFile
 
     override fun getContainerFirFile(declaration: FirDeclaration): FirFile? {
         val ktFile = declaration.psi?.containingFile as? KtFile ?: return null
@@ -5,12 +5,17 @@
 
 package org.jetbrains.kotlin.idea.fir.low.level.api.lazy.resolve
 
+import com.intellij.concurrency.JobLauncher
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.util.Processor
 import org.jetbrains.kotlin.fir.declarations.*
 import org.jetbrains.kotlin.fir.psi
 import org.jetbrains.kotlin.fir.render
 import org.jetbrains.kotlin.fir.resolve.ResolutionMode
 import org.jetbrains.kotlin.fir.resolve.ScopeSession
 import org.jetbrains.kotlin.fir.resolve.providers.FirProvider
+import org.jetbrains.kotlin.idea.fir.low.level.api.LowLevelFirStatistics
 import org.jetbrains.kotlin.idea.fir.low.level.api.element.builder.FirTowerDataContextCollector
 import org.jetbrains.kotlin.idea.fir.low.level.api.element.builder.FirDesignatedBodyResolveTransformerForIDE
 import org.jetbrains.kotlin.idea.fir.low.level.api.element.builder.getNonLocalContainingDeclarationWithFqName
@@ -66,6 +71,82 @@ internal class FirLazyDeclarationResolver(
         }
     }
 
+    /**
+     * Resolves all declarations of [firFile] to [toPhase] under [firFile]-based lock
+     *
+     * If [concurrent] is `true` and [toPhase] is [FirResolvePhase.BODY_RESOLVE], phases up to [FirResolvePhase.IMPLICIT_TYPES_BODY_RESOLVE]
+     * are still run for the whole file sequentially. They resolve all implicit types, so after them bodies of different top-level
+     * declarations do not depend on each other and are resolved concurrently, see [runBodyResolveConcurrently]
+     */
+    fun lazyResolveFileDeclarations(
+        firFile: FirFile,
+        moduleFileCache: ModuleFileCache,
+        toPhase: FirResolvePhase,
+        concurrent: Boolean
+    ) {
+        if (firFile.resolvePhase >= toPhase) return
+        firFileBuilder.runCustomResolveWithPCECheck(firFile, moduleFileCache) {
+            val sequentialToPhase = if (concurrent && toPhase == FirResolvePhase.BODY_RESOLVE) {
+                FirResolvePhase.IMPLICIT_TYPES_BODY_RESOLVE
+            } else {
+                toPhase
+            }
+            if (firFile.resolvePhase < sequentialToPhase) {
+                firFileBuilder.runResolveWithoutLock(firFile, fromPhase = firFile.resolvePhase, toPhase = sequentialToPhase, checkPCE = true)
+            }
+            if (firFile.resolvePhase < toPhase) {
+                checkCanceled()
+                concurrentBodyResolveCounter.measure { runBodyResolveConcurrently(firFile, moduleFileCache) }
+            }
+        }
+    }
+
+    /**
+     * Each top-level declaration is resolved by its own designated transformer with a separate [ScopeSession]
+     * on a work-stealing pool, the calling thread participates in the resolve and holds [firFile]-based lock meanwhile.
+     * Workers resolve on behalf of the calling thread: lazy resolve they request in [firFile] doesn't wait for its lock,
+     * which would never be released otherwise. Such requests are for phases already reached by the file, except the ones
+     * of the declaration being resolved by the same worker.
+     *
+     * Workers run under the progress indicator of the calling thread and check cancellation before each declaration.
+     * Resolve of a declaration is not cancellable, as phases of [FirFileBuilder] are, so a declaration is never left
+     * partially resolved: it's marked as resolved to [FirResolvePhase.BODY_RESOLVE] right after its transformation,
+     * and a cancelled resolve is continued from the declarations not resolved yet.
+     *
+     * Workers share only the state which is safe for concurrent use:
+     * - each of them transforms a subtree of a different top-level declaration, other declarations of [firFile] are only read,
+     *   and they are not transformed any more since all implicit types were resolved sequentially;
+     * - caches of [firFile] session (symbol providers, scopes of classifiers) are concurrent, they are shared by threads
+     *   resolving different files anyway;
+     * - declarations of other files are resolved lazily under their own locks;
+     * - [ScopeSession] is not thread-safe, so each worker has its own one.
+     */
+    private fun runBodyResolveConcurrently(firFile: FirFile, moduleFileCache: ModuleFileCache) {
+        val declarations = firFile.declarations.filter { it.resolvePhase < FirResolvePhase.BODY_RESOLVE }
+        val completed = JobLauncher.getInstance().invokeConcurrentlyUnderProgress(
+            declarations,
+            ProgressManager.getInstance().progressIndicator ?: EmptyProgressIndicator(),
+            Processor { declaration ->
+                checkCanceled()
+                val transformer = FirDesignatedBodyResolveTransformerForIDE(
+                    listOf(firFile, declaration).iterator(),
+                    firFile.session,
+                    ScopeSession(),
+                    implicitTypeOnly = false
+                )
+                moduleFileCache.firFileLockProvider.runOnBehalfOfLockOwner(firFile) {
+                    executeWithoutPCE {
+                        firFile.transform<FirFile, ResolutionMode>(transformer, ResolutionMode.ContextDependent)
+                        declaration.replaceResolvePhase(FirResolvePhase.BODY_RESOLVE)
+                    }
+                }
+                true
+            }
+        )
+        check(completed) { "Concurrent body resolve of ${firFile.name} was not completed" }
+        firFile.replaceResolvePhase(FirResolvePhase.BODY_RESOLVE)
+    }
+
     fun runLazyResolveWithoutLock(
         firDeclarationToResolve: FirDeclaration,
         moduleFileCache: ModuleFileCache,
@@ -87,7 +168,9 @@ internal class FirLazyDeclarationResolver(
         }
         if (toPhase <= nonLazyPhase) return
         if (checkPCE) checkCanceled()
-        runLazyResolvePhase(firDeclarationToResolve, containerFirFile, moduleFileCache, provider, toPhase, towerDataContextCollector)
+        lazyResolveCounters[toPhase.ordinal].measure {
+            runLazyResolvePhase(firDeclarationToResolve, containerFirFile, moduleFileCache, provider, toPhase, towerDataContextCollector)
+        }
     }
 
     private fun runLazyResolvePhase(
@@ -142,6 +225,9 @@ internal class FirLazyDeclarationResolver(
             ?: error("Container for local declaration cannot be null")
         return nonLocalPsi.findNonLocalFirDeclaration(firFileBuilder, provider, moduleFileCache)
     }
-}
-
 
+    companion object {
+        private val lazyResolveCounters = LowLevelFirStatistics.phaseCounters("lazy resolve")
+        private val concurrentBodyResolveCounter = LowLevelFirStatistics.counter("concurrent body resolve")
+    }
+}
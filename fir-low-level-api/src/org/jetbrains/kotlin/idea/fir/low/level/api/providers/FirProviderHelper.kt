@@ -32,11 +32,11 @@ internal class FirProviderHelper(
 ) {
     fun getFirClassifierByFqName(classId: ClassId): FirClassLikeDeclaration<*>? {
         return executeOrReturnDefaultValueOnPCE(null) {
-            cache.classifierByClassId.computeIfAbsent(classId) {
+            cache.getOrComputeProviderValue(cache.classifierByClassId, classId) {
                 val ktClass = indexHelper.classFromIndexByClassId(classId)
                     ?: indexHelper.typeAliasFromIndexByClassId(classId)
-                    ?: return@computeIfAbsent Optional.empty()
-                if (ktClass is KtEnumEntry) return@computeIfAbsent Optional.empty()
+                    ?: return@getOrComputeProviderValue Optional.empty()
+                if (ktClass is KtEnumEntry) return@getOrComputeProviderValue Optional.empty()
                 val firFile = firFileBuilder.buildRawFirFileWithCaching(ktClass.containingKtFile, cache)
                 val classifier = FirElementFinder.findElementIn<FirClassLikeDeclaration<*>>(firFile) { classifier ->
                     classifier.symbol.classId == classId
@@ -51,7 +51,7 @@ internal class FirProviderHelper(
     fun getTopLevelCallableSymbols(packageFqName: FqName, name: Name): List<FirCallableSymbol<*>> {
         val callableId = CallableId(packageFqName, name)
         return executeOrReturnDefaultValueOnPCE(emptyList()) {
-            cache.callableByCallableId.computeIfAbsent(callableId) {
+            cache.getOrComputeProviderValue(cache.callableByCallableId, callableId) {
                 val files = Sets.newIdentityHashSet<KtFile>().apply {
                     indexHelper.getTopLevelFunctions(callableId).mapTo(this) { it.containingKtFile }
                     indexHelper.getTopLevelProperties(callableId).mapTo(this) { it.containingKtFile }
@@ -46,6 +46,7 @@ internal object FirIdeSessionFactory {
         firPhaseRunner: FirPhaseRunner,
         sessionProvider: FirIdeSessionProvider,
         librariesSession: FirIdeLibrariesSession,
+        incrementalRawFir: Boolean = false,
         init: FirSessionFactory.FirSessionConfigurator.() -> Unit = {}
     ): FirIdeSourcesSession {
         val scopeProvider = KotlinScopeProvider(::wrapScopeWithJvmMapped)
@@ -53,7 +54,7 @@ internal object FirIdeSessionFactory {
         val dependentModules = moduleInfo.collectTransitiveDependenciesWithSelf().filterIsInstance<ModuleSourceInfo>()
         val searchScope = ModuleWithDependentsScope(project, dependentModules.map { it.module })
         return FirIdeSourcesSession(moduleInfo, sessionProvider, searchScope, firBuilder).apply {
-            val cache = ModuleFileCacheImpl(this)
+            val cache = ModuleFileCacheImpl(this, isIncremental = incrementalRawFir)
             val firPhaseManager = IdeFirPhaseManager(FirLazyDeclarationResolver(firFileBuilder), cache)
 
             registerCommonComponents()
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.fir.low.level.api.util
+
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
+import com.intellij.openapi.util.registry.Registry
+
+/**
+ * Thread safe cache with LRU eviction of entries when their approximate retained size exceeds [maxSizeInBytes]
+ * Keys are weak and compared by identity, as in caches created by [com.google.common.collect.MapMaker.weakKeys]
+ *
+ * Entry size is computed by [weigher] on insertion only, so a value which grows after it was cached should be [reweigh]ed
+ */
+class SizeBoundedCache<K : Any, V : Any>(
+    maxSizeInBytes: Long,
+    private val weigher: (K, V) -> Long
+) {
+    private val cache: Cache<K, V> = CacheBuilder.newBuilder()
+        .weakKeys()
+        .maximumWeight(maxSizeInBytes)
+        .weigher<K, V> { key, value -> weigher(key, value).coerceIn(0L, Int.MAX_VALUE.toLong()).toInt() }
+        .recordStats()
+        .build()
+
+    fun getIfPresent(key: K): V? = cache.getIfPresent(key)
+
+    /**
+     * Same as [java.util.concurrent.ConcurrentMap.getOrPut]: [calculation] may be called concurrently for the same key,
+     * but only one of the calculated values is cached and returned
+     */
+    inline fun getOrPut(key: K, calculation: () -> V): V =
+        getIfPresent(key) ?: putIfAbsent(key, calculation())
+
+    fun putIfAbsent(key: K, value: V): V = cache.asMap().putIfAbsent(key, value) ?: value
+
+    /**
+     * Replaces a value for [key] with [newValue] if current value is not [isUpToDate], see [java.util.concurrent.ConcurrentMap.merge]
+     */
+    fun putIfOutdated(key: K, newValue: V, isUpToDate: (V) -> Boolean): V =
+        cache.asMap().merge(key, newValue) { oldValue, value -> if (isUpToDate(oldValue)) oldValue else value }!!
+
+    /**
+     * Recomputes size of [value] if it is still cached for [key]
+     */
+    fun reweigh(key: K, value: V) {
+        cache.asMap().replace(key, value, value)
+    }
+
+    val statistics: CacheStatistics
+        get() = cache.stats().let { CacheStatistics(it.hitCount(), it.missCount(), it.evictionCount()) }
+
+    companion object {
+        /**
+         * Approximate size of a reference, an object header and a hash map entry on a 64-bit JVM with compressed oops
+         */
+        const val REFERENCE_SIZE = 4L
+        const val OBJECT_HEADER_SIZE = 12L
+        const val MAP_ENTRY_SIZE = 32L
+
+        fun budgetFromRegistry(key: String, defaultSizeInMb: Int): Long =
+            Registry.intValue(key, defaultSizeInMb).toLong() * 1024 * 1024
+    }
+}
+
+data class CacheStatistics(val hitCount: Long, val missCount: Long, val evictionCount: Long)
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.fir.low.level.api
+
+import com.intellij.openapi.progress.EmptyProgressIndicator
+import com.intellij.openapi.progress.ProcessCanceledException
+import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.psi.PsiManager
+import com.intellij.psi.impl.PsiModificationTrackerImpl
+import org.jetbrains.kotlin.fir.declarations.FirFile
+import org.jetbrains.kotlin.fir.declarations.FirResolvePhase
+import org.jetbrains.kotlin.fir.render
+import org.jetbrains.kotlin.idea.fir.low.level.api.providers.firIdeProvider
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.psi.KtElement
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+
+/**
+ * Checks that concurrent resolve of file declarations gives the same FIR and diagnostics as the sequential one,
+ * also when the concurrent resolve is cancelled and then continued
+ */
+class FirConcurrentLazyResolveTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun isFirPlugin(): Boolean = true
+
+    override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+
+    fun testIndependentFunctions() = doTest(independentFunctions(50))
+
+    fun testImplicitTypesDependencies() = doTest(
+        """
+        fun a() = b() + 1
+        fun b() = c().length
+        fun c() = "c"
+
+        val x = a()
+        val y by lazy { x.toString() + b() }
+
+        fun useAll(): String {
+            val local = a() + x
+            return y + local + unresolved
+        }
+        """
+    )
+
+    fun testClassesAndTopLevelDeclarations() = doTest(
+        """
+        open class Base(val value: Int) {
+            open fun compute() = value * 2
+        }
+
+        class Derived : Base(1) {
+            override fun compute() = super.compute() + helper()
+            private fun helper() = topLevel().size
+        }
+
+        object Singleton {
+            val instance = Derived()
+            fun run(): Int = instance.compute()
+        }
+
+        fun topLevel() = listOf(Singleton.run(), Base(2).compute())
+
+        typealias Alias = List<Derived>
+
+        fun withAlias(alias: Alias): Int = alias.sumBy { it.compute() } + "x"
+        """
+    )
+
+    fun testCancelledResolveIsContinued() {
+        val file = myFixture.configureByText("test.kt", independentFunctions(50).trimIndent()) as KtFile
+        val elements = file.collectDescendantsOfType<KtElement>()
+
+        Registry.get("kotlin.fir.concurrent.file.resolve").setValue(false, testRootDisposable)
+        val sequential = resolveAndRender(file, elements)
+
+        dropResolveState()
+
+        Registry.get("kotlin.fir.concurrent.file.resolve").setValue(true, testRootDisposable)
+        val firFile = LowLevelFirApiFacade.getOrBuildFirFor(file, file.firResolveState(), FirResolvePhase.RAW_FIR) as FirFile
+        // is checked by workers too, so it doesn't touch PSI
+        val indicator = object : EmptyProgressIndicator() {
+            override fun isCanceled(): Boolean = super.isCanceled() || bodyResolvedDeclarations(firFile) > 0
+        }
+        try {
+            ProgressManager.getInstance().runProcess({ resolveAndRender(file, elements) }, indicator)
+            fail("Resolve was not cancelled after the first resolved declaration")
+        } catch (e: ProcessCanceledException) {
+        }
+        assertTrue(bodyResolvedDeclarations(firFile) in 1 until 50)
+
+        val concurrent = resolveAndRender(file, elements)
+        assertEquals(sequential.first, concurrent.first)
+        assertEquals(sequential.second, concurrent.second)
+    }
+
+    private fun bodyResolvedDeclarations(firFile: FirFile): Int =
+        firFile.declarations.count { it.resolvePhase == FirResolvePhase.BODY_RESOLVE }
+
+    private fun doTest(text: String) {
+        val file = myFixture.configureByText("test.kt", text.trimIndent()) as KtFile
+        val elements = file.collectDescendantsOfType<KtElement>()
+
+        Registry.get("kotlin.fir.concurrent.file.resolve").setValue(false, testRootDisposable)
+        val sequential = resolveAndRender(file, elements)
+
+        dropResolveState()
+
+        Registry.get("kotlin.fir.concurrent.file.resolve").setValue(true, testRootDisposable)
+        val concurrent = resolveAndRender(file, elements)
+
+        assertEquals(sequential.first, concurrent.first)
+        assertEquals(sequential.second, concurrent.second)
+    }
+
+    private fun resolveAndRender(file: KtFile, elements: List<KtElement>): Pair<String, String> {
+        val resolveState = file.firResolveState()
+        val diagnostics = elements.flatMap { element ->
+            resolveState.getDiagnostics(element).map { "${it.factory.name} ${it.textRanges}" }
+        }
+        val firFile = resolveState.firIdeSourcesSession.firIdeProvider.cache.getCachedFirFile(file)
+            ?: error("FirFile for ${file.name} was not built")
+        return firFile.render() to diagnostics.sorted().joinToString("\n")
+    }
+
+    private fun independentFunctions(count: Int): String =
+        (0 until count).joinToString("\n\n") { index ->
+            """
+            fun foo$index(p: Int): Int {
+                val list = listOf(p, $index).map { it * 2 }
+                return list.sum()
+            }
+            """
+        }
+
+    private fun dropResolveState() {
+        (PsiManager.getInstance(project).modificationTracker as PsiModificationTrackerImpl).incCounter()
+    }
+}
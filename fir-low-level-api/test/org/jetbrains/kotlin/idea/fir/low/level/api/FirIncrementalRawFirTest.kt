@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.fir.low.level.api
+
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.psi.PsiDocumentManager
+import org.jetbrains.kotlin.fir.FirElement
+import org.jetbrains.kotlin.fir.declarations.FirResolvePhase
+import org.jetbrains.kotlin.fir.render
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.idea.util.application.executeWriteCommand
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+
+class FirIncrementalRawFirTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun isFirPlugin(): Boolean = true
+
+    override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+
+    override fun setUp() {
+        super.setUp()
+        Registry.get("kotlin.fir.incremental.raw.fir").setValue(true, testRootDisposable)
+    }
+
+    fun testOnlyModifiedFunctionIsRebuilt() {
+        val file = configure(
+            """
+            fun foo(): Int {
+                return 1
+            }
+
+            fun bar(): Int {
+                return 2
+            }
+            """
+        )
+        val stateBefore = file.firResolveState()
+        val fooBefore = firFor(file.function("foo"))
+        val barBefore = firFor(file.function("bar"))
+
+        modifyBody(file.function("bar"), "val x = foo()")
+
+        assertSame(stateBefore, file.firResolveState())
+        assertSame(fooBefore, firFor(file.function("foo")))
+
+        val barAfter = firFor(file.function("bar"))
+        assertNotSame(barBefore, barAfter)
+        assertTrue(barAfter.render().contains("foo()"))
+    }
+
+    fun testModifiedClassMemberRebuildsFile() {
+        val file = configure(
+            """
+            class A {
+                fun foo(): Int {
+                    return 1
+                }
+            }
+            """
+        )
+        val fooBefore = firFor(file.function("foo"))
+
+        modifyBody(file.function("foo"), "val x = 2")
+
+        val fooAfter = firFor(file.function("foo"))
+        assertNotSame(fooBefore, fooAfter)
+        assertTrue(fooAfter.render().contains("x"))
+    }
+
+    private fun configure(text: String): KtFile =
+        myFixture.configureByText("test.kt", text.trimIndent()) as KtFile
+
+    private fun firFor(declaration: KtDeclaration): FirElement =
+        declaration.firResolveState().getOrBuildFirFor(declaration, FirResolvePhase.BODY_RESOLVE)
+
+    private fun KtFile.function(name: String): KtNamedFunction =
+        collectDescendantsOfType<KtNamedFunction>().single { it.name == name }
+
+    private fun modifyBody(function: KtNamedFunction, statement: String) {
+        val document = PsiDocumentManager.getInstance(project).getDocument(function.containingFile)!!
+        project.executeWriteCommand("modify body") {
+            document.insertString(function.bodyBlockExpression!!.lBrace!!.textRange.endOffset, "\n$statement")
+            PsiDocumentManager.getInstance(project).commitDocument(document)
+        }
+    }
+}
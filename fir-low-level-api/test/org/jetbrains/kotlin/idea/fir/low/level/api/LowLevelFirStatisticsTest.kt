@@ -0,0 +1,64 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.fir.low.level.api
+
+import com.google.gson.JsonParser
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.psi.KtFile
+
+class LowLevelFirStatisticsTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun isFirPlugin(): Boolean = true
+
+    private var wasEnabled = false
+
+    override fun setUp() {
+        super.setUp()
+        wasEnabled = LowLevelFirStatistics.isEnabled
+        LowLevelFirStatistics.isEnabled = true
+        LowLevelFirStatistics.reset()
+    }
+
+    override fun tearDown() {
+        try {
+            LowLevelFirStatistics.isEnabled = wasEnabled
+            LowLevelFirStatistics.reset()
+        } finally {
+            super.tearDown()
+        }
+    }
+
+    fun testDiagnosticsCollectionIsMeasured() {
+        val file = myFixture.configureByText("test.kt", "fun foo() = bar()\nfun bar(): Int = 1") as KtFile
+        LowLevelFirApiFacade.getDiagnosticsFor(file.declarations.first(), LowLevelFirApiFacade.getResolveStateFor(file))
+
+        val counters = mutableMapOf<String, Long>()
+        LowLevelFirStatistics.report { name, count, nanos ->
+            assertTrue("time of $name is not measured", nanos > 0)
+            counters[name] = count
+        }
+        assertEquals(1L, counters["raw fir building"])
+        assertEquals(1L, counters["diagnostics collection"])
+        assertTrue(counters.keys.any { it.startsWith("file resolve: ") })
+
+        val json = JsonParser().parse(LowLevelFirStatistics.exportJson()).asJsonObject
+        val exported = json["counters"].asJsonArray.associate { it.asJsonObject["name"].asString to it.asJsonObject["count"].asLong }
+        assertEquals(counters, exported)
+    }
+
+    fun testCountersAreNotUpdatedWhenDisabled() {
+        LowLevelFirStatistics.isEnabled = false
+        val counter = LowLevelFirStatistics.counter("test counter")
+        counter.measure { }
+        assertEquals(0L, counter.invocationCount)
+
+        LowLevelFirStatistics.isEnabled = true
+        counter.measure { }
+        assertEquals(1L, counter.invocationCount)
+
+        LowLevelFirStatistics.reset()
+        assertEquals("{\"counters\":[]}", LowLevelFirStatistics.exportJson())
+    }
+}
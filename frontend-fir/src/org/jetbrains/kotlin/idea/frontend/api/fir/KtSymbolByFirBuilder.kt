@@ -5,7 +5,6 @@
 
 package org.jetbrains.kotlin.idea.frontend.api.fir
 
-import com.google.common.collect.MapMaker
 import com.intellij.openapi.project.Project
 import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.fir.FirElement
@@ -20,6 +19,9 @@ import org.jetbrains.kotlin.fir.symbols.impl.FirTypeParameterSymbol
 import org.jetbrains.kotlin.fir.types.*
 import org.jetbrains.kotlin.fir.types.impl.ConeClassLikeTypeImpl
 import org.jetbrains.kotlin.idea.fir.low.level.api.FirModuleResolveState
+import org.jetbrains.kotlin.idea.fir.low.level.api.LowLevelFirStatistics
+import org.jetbrains.kotlin.idea.fir.low.level.api.util.CacheStatistics
+import org.jetbrains.kotlin.idea.fir.low.level.api.util.SizeBoundedCache
 import org.jetbrains.kotlin.idea.frontend.api.*
 import org.jetbrains.kotlin.idea.frontend.api.fir.symbols.*
 import org.jetbrains.kotlin.idea.frontend.api.fir.types.*
@@ -30,7 +32,6 @@ import org.jetbrains.kotlin.idea.frontend.api.types.KtType
 import org.jetbrains.kotlin.idea.stubindex.PackageIndexUtil
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
-import java.util.concurrent.ConcurrentMap
 
 /**
  * Maps FirElement to KtSymbol & ConeType to KtType, thread safe
@@ -62,12 +63,18 @@ internal class KtSymbolByFirBuilder private constructor(
         token = token,
         resolveState = resolveState,
         withReadOnlyCaching = false,
-        symbolsCache = BuilderCache(),
-        typesCache = BuilderCache()
+        symbolsCache = BuilderCache(SizeBoundedCache.budgetFromRegistry(SYMBOLS_CACHE_SIZE_KEY, defaultSizeInMb = 16)),
+        typesCache = BuilderCache(SizeBoundedCache.budgetFromRegistry(TYPES_CACHE_SIZE_KEY, defaultSizeInMb = 16))
     )
 
     private val resolveState by weakRef(resolveState)
 
+    val symbolsCacheStatistics: CacheStatistics
+        get() = symbolsCache.statistics
+
+    val typesCacheStatistics: CacheStatistics
+        get() = typesCache.statistics
+
     fun createReadOnlyCopy(newResolveState: FirModuleResolveState): KtSymbolByFirBuilder {
         check(!withReadOnlyCaching) { "Cannot create readOnly KtSymbolByFirBuilder from a readonly one" }
         return KtSymbolByFirBuilder(
@@ -82,20 +89,22 @@ internal class KtSymbolByFirBuilder private constructor(
 
 
     fun buildSymbol(fir: FirDeclaration): KtSymbol = symbolsCache.cache(fir) {
-        when (fir) {
-            is FirRegularClass -> buildClassSymbol(fir)
-            is FirSimpleFunction -> buildFunctionSymbol(fir)
-            is FirProperty -> buildVariableSymbol(fir)
-            is FirValueParameter -> buildParameterSymbol(fir)
-            is FirConstructor -> buildConstructorSymbol(fir)
-            is FirTypeParameter -> buildTypeParameterSymbol(fir)
-            is FirTypeAlias -> buildTypeAliasSymbol(fir)
-            is FirEnumEntry -> buildEnumEntrySymbol(fir)
-            is FirField -> buildFieldSymbol(fir)
-            is FirAnonymousFunction -> buildAnonymousFunctionSymbol(fir)
-            is FirPropertyAccessor -> buildPropertyAccessorSymbol(fir)
-            else ->
-                TODO(fir::class.toString())
+        symbolBuildingCounter.measure {
+            when (fir) {
+                is FirRegularClass -> buildClassSymbol(fir)
+                is FirSimpleFunction -> buildFunctionSymbol(fir)
+                is FirProperty -> buildVariableSymbol(fir)
+                is FirValueParameter -> buildParameterSymbol(fir)
+                is FirConstructor -> buildConstructorSymbol(fir)
+                is FirTypeParameter -> buildTypeParameterSymbol(fir)
+                is FirTypeAlias -> buildTypeAliasSymbol(fir)
+                is FirEnumEntry -> buildEnumEntrySymbol(fir)
+                is FirField -> buildFieldSymbol(fir)
+                is FirAnonymousFunction -> buildAnonymousFunctionSymbol(fir)
+                is FirPropertyAccessor -> buildPropertyAccessorSymbol(fir)
+                else ->
+                    TODO(fir::class.toString())
+            }
         }
     }
 
@@ -208,11 +217,18 @@ internal class KtSymbolByFirBuilder private constructor(
     }
 }
 
-private class BuilderCache<From, To> private constructor(
-    private val cache: ConcurrentMap<From, To>,
+/**
+ * Entries are evicted in LRU order when their approximate size exceeds the budget,
+ * so an evicted [KtSymbol] or [KtType] is built again as a new instance on the next request
+ */
+private class BuilderCache<From : Any, To : Any> private constructor(
+    private val cache: SizeBoundedCache<From, To>,
     private val isReadOnly: Boolean
 ) {
-    constructor() : this(cache = MapMaker().weakKeys().makeMap(), isReadOnly = false)
+    constructor(maxSizeInBytes: Long) : this(cache = SizeBoundedCache(maxSizeInBytes) { _, _ -> ENTRY_SIZE }, isReadOnly = false)
+
+    val statistics: CacheStatistics
+        get() = cache.statistics
 
     fun createReadOnlyCopy(): BuilderCache<From, To> {
         check(!isReadOnly) { "Cannot create readOnly BuilderCache from a readonly one" }
@@ -221,12 +237,23 @@ private class BuilderCache<From, To> private constructor(
 
     inline fun <reified S : To> cache(key: From, calculation: () -> S): S {
         if (isReadOnly) {
-            return (cache[key] ?: calculation()) as S
+            return (cache.getIfPresent(key) ?: calculation()) as S
         }
         return cache.getOrPut(key, calculation) as S
     }
+
+    companion object {
+        // a symbol or a type object with a validity token, a weak reference to the resolve state and a FIR reference
+        private const val ENTRY_SIZE =
+            SizeBoundedCache.MAP_ENTRY_SIZE + SizeBoundedCache.OBJECT_HEADER_SIZE * 3 + SizeBoundedCache.REFERENCE_SIZE * 6
+    }
 }
 
+private const val SYMBOLS_CACHE_SIZE_KEY = "kotlin.fir.symbols.cache.size.mb"
+private const val TYPES_CACHE_SIZE_KEY = "kotlin.fir.types.cache.size.mb"
+
+private val symbolBuildingCounter = LowLevelFirStatistics.counter("symbol building")
+
 internal fun FirElement.buildSymbol(builder: KtSymbolByFirBuilder) =
     (this as? FirDeclaration)?.let(builder::buildSymbol)
 
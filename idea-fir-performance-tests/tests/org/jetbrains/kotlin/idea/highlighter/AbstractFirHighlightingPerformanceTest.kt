@@ -17,6 +17,7 @@ import com.intellij.util.ThrowableRunnable
 import org.jetbrains.kotlin.idea.KotlinFileType
 import org.jetbrains.kotlin.idea.perf.Stats
 import org.jetbrains.kotlin.idea.perf.TestData
+import org.jetbrains.kotlin.idea.perf.lowLevelFirCounters
 import org.jetbrains.kotlin.idea.perf.performanceTest
 import org.jetbrains.kotlin.idea.perf.util.removeInfoMarkers
 import org.jetbrains.kotlin.idea.testFramework.commitAllDocuments
@@ -29,7 +30,7 @@ abstract class AbstractFirHighlightingPerformanceTest : AbstractHighlightingTest
         var warmedUp: Boolean = false
 
         @JvmStatic
-        val stats: Stats = Stats("firHighlight")
+        val stats: Stats = Stats("firHighlight", externalCounters = listOf(lowLevelFirCounters()))
 
     }
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.highlighter
+
+import com.intellij.codeInsight.daemon.impl.HighlightInfo
+import com.intellij.openapi.actionSystem.IdeActions
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.testFramework.RunAll
+import com.intellij.util.ThrowableRunnable
+import org.jetbrains.kotlin.idea.KotlinFileType
+import org.jetbrains.kotlin.idea.perf.Stats
+import org.jetbrains.kotlin.idea.perf.lowLevelFirCounters
+import org.jetbrains.kotlin.idea.perf.performanceTest
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.testFramework.commitAllDocuments
+
+/**
+ * Latency of highlighting after typing inside a function body of a big file,
+ * with whole FIR state rebuilt on modification and with incremental raw FIR building
+ */
+class FirTypingInBigFilePerformanceTest : KotlinLightCodeInsightFixtureTestCase() {
+    companion object {
+        @JvmStatic
+        val stats: Stats = Stats("firTypingInBigFile", externalCounters = listOf(lowLevelFirCounters()))
+
+        private const val FUNCTIONS_COUNT = 300
+    }
+
+    override fun isFirPlugin() = true
+
+    override fun tearDown() {
+        commitAllDocuments()
+        RunAll(
+            ThrowableRunnable { super.tearDown() },
+            ThrowableRunnable { stats.flush() }
+        ).run()
+    }
+
+    fun testTypingInBigFile() {
+        doTest("typing in big file")
+    }
+
+    fun testTypingInBigFileIncremental() {
+        Registry.get("kotlin.fir.incremental.raw.fir").setValue(true, testRootDisposable)
+        doTest("typing in big file with incremental raw FIR")
+    }
+
+    private fun doTest(name: String) {
+        myFixture.configureByText(KotlinFileType.INSTANCE, bigFileText())
+        myFixture.doHighlighting()
+
+        performanceTest<Unit, MutableList<HighlightInfo>> {
+            name(name)
+            stats(stats)
+            test {
+                myFixture.type('1')
+                it.value = myFixture.doHighlighting()
+            }
+            tearDown {
+                assertNotNull("no reasons to validate output as it is a performance test", it.value)
+                myFixture.performEditorAction(IdeActions.ACTION_EDITOR_BACKSPACE)
+                commitAllDocuments()
+            }
+        }
+    }
+
+    private fun bigFileText(): String = buildString {
+        for (index in 0 until FUNCTIONS_COUNT) {
+            val caret = if (index == FUNCTIONS_COUNT / 2) "<caret>" else ""
+            append("fun foo$index(p: Int): Int {\n")
+            append("    val list = listOf(p, $index).map { it * 2 }\n")
+            append("    return list.sum() + $index$caret\n")
+            append("}\n\n")
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf
+
+import com.intellij.openapi.util.registry.Registry
+import org.jetbrains.kotlin.fir.declarations.FirResolvePhase
+import org.jetbrains.kotlin.idea.fir.low.level.api.FirModuleResolveState
+import org.jetbrains.kotlin.idea.fir.low.level.api.LowLevelFirApiFacade
+import org.jetbrains.kotlin.idea.fir.low.level.api.util.CacheStatistics
+import org.jetbrains.kotlin.idea.perf.util.TeamCity
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+
+/**
+ * Heap retained by FIR resolve state after all function bodies of a number of files were resolved and mapped to FIR,
+ * with the default and with a small memory budget of PSI to FIR mappings cache
+ */
+class FirCachesHeapPerformanceTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun isFirPlugin() = true
+
+    fun testDefaultBudget() {
+        doTest("default budget")
+    }
+
+    fun testSmallBudget() {
+        Registry.get("kotlin.fir.psi.to.fir.cache.size.mb").setValue(1, testRootDisposable)
+        val statistics = doTest("1 MB budget")
+        assertTrue("PSI to FIR mappings are expected to be evicted", statistics.evictionCount > 0)
+    }
+
+    private fun doTest(name: String): CacheStatistics {
+        val files = (0 until FILES_COUNT).map { index ->
+            myFixture.addFileToProject("file$index.kt", fileText(index)) as KtFile
+        }
+
+        val heapBefore = usedHeap()
+        val resolveState = resolveAllFunctions(files)
+        val retainedHeap = usedHeap() - heapBefore
+
+        val statistics = LowLevelFirApiFacade.getPsiToFirCacheStatistics(resolveState)
+            ?: error("Unexpected resolve state ${resolveState::class}")
+
+        TeamCity.statValue("fir caches: $name: retained heap, bytes", retainedHeap)
+        TeamCity.statValue("fir caches: $name: psi to fir hits", statistics.hitCount)
+        TeamCity.statValue("fir caches: $name: psi to fir misses", statistics.missCount)
+        TeamCity.statValue("fir caches: $name: psi to fir evictions", statistics.evictionCount)
+        return statistics
+    }
+
+    private fun resolveAllFunctions(files: List<KtFile>): FirModuleResolveState {
+        val resolveState = LowLevelFirApiFacade.getResolveStateFor(files.first())
+        for (file in files) {
+            for (function in file.collectDescendantsOfType<KtNamedFunction>()) {
+                val body = function.bodyExpression ?: continue
+                LowLevelFirApiFacade.getOrBuildFirFor(body, resolveState, FirResolvePhase.BODY_RESOLVE)
+            }
+        }
+        return resolveState
+    }
+
+    private fun fileText(fileIndex: Int): String = buildString {
+        append("package p$fileIndex\n\n")
+        for (index in 0 until FUNCTIONS_PER_FILE) {
+            append("fun foo$index(p: Int): Int {\n")
+            append("    val list = listOf(p, $index).map { it * 2 }\n")
+            append("    return list.sum() + $fileIndex\n")
+            append("}\n\n")
+        }
+    }
+
+    private fun usedHeap(): Long {
+        repeat(3) { System.gc() }
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    companion object {
+        private val FILES_COUNT = Integer.getInteger("kotlin.perf.fir.caches.files", 300)
+        private const val FUNCTIONS_PER_FILE = 30
+    }
+}
@@ -0,0 +1,17 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf
+
+import org.jetbrains.kotlin.idea.fir.low.level.api.LowLevelFirStatistics
+import org.jetbrains.kotlin.idea.perf.util.ExternalCounters
+
+/**
+ * Enables [LowLevelFirStatistics] and reports its counters as a part of each [Stats] attempt
+ */
+fun lowLevelFirCounters(): ExternalCounters {
+    LowLevelFirStatistics.isEnabled = true
+    return ExternalCounters("fir", LowLevelFirStatistics::exportJson, LowLevelFirStatistics::reset)
+}
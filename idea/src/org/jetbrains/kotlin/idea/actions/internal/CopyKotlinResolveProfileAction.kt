@@ -0,0 +1,27 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.actions.internal
+
+import com.intellij.openapi.actionSystem.AnAction
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.ide.CopyPasteManager
+import org.jetbrains.kotlin.idea.caches.resolve.KotlinResolveProfiler
+import java.awt.datatransfer.StringSelection
+
+/**
+ * Copies the report of [KotlinResolveProfiler] as tab separated values, so it can be pasted into a spreadsheet
+ */
+class CopyKotlinResolveProfileAction : AnAction() {
+    override fun actionPerformed(e: AnActionEvent) {
+        CopyPasteManager.getInstance().setContents(StringSelection(KotlinResolveProfiler.report()))
+    }
+
+    override fun update(e: AnActionEvent) {
+        e.presentation.isVisible = ApplicationManager.getApplication().isInternal
+        e.presentation.isEnabled = KotlinResolveProfiler.snapshot().isNotEmpty()
+    }
+}
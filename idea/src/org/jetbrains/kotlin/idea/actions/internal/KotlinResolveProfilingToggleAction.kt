@@ -0,0 +1,26 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.actions.internal
+
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.actionSystem.ToggleAction
+import com.intellij.openapi.application.ApplicationManager
+import org.jetbrains.kotlin.idea.caches.resolve.KotlinResolveProfiler
+
+class KotlinResolveProfilingToggleAction : ToggleAction() {
+    override fun isSelected(e: AnActionEvent): Boolean =
+        KotlinResolveProfiler.isEnabled
+
+    override fun setSelected(e: AnActionEvent, state: Boolean) {
+        if (state) KotlinResolveProfiler.reset()
+        KotlinResolveProfiler.isEnabled = state
+    }
+
+    override fun update(e: AnActionEvent) {
+        super.update(e)
+        e.presentation.isEnabledAndVisible = ApplicationManager.getApplication().isInternal
+    }
+}
@@ -124,7 +124,13 @@ internal abstract class AbstractCompletionBenchmarkScenario(
     sealed class Result {
         abstract fun toCSV(stringBuilder: StringBuilder)
 
-        open class SuccessResult(val lines: Int, val filePath: String, val first: Long, val full: Long) : Result() {
+        open class SuccessResult(
+            val lines: Int,
+            val filePath: String,
+            val first: Long,
+            val full: Long,
+            val sources: Map<String, Long> = emptyMap()
+        ) : Result() {
             override fun toCSV(stringBuilder: StringBuilder): Unit = with(stringBuilder) {
                 append(filePath)
                 append(", ")
@@ -133,6 +139,8 @@ internal abstract class AbstractCompletionBenchmarkScenario(
                 append(first)
                 append(", ")
                 append(full)
+                append(", ")
+                append(sources.entries.joinToString(separator = "; ") { (source, time) -> "$source=$time" })
             }
         }
 
@@ -142,6 +150,7 @@ internal abstract class AbstractCompletionBenchmarkScenario(
                 append(", ")
                 append(", ")
                 append(", ")
+                append(", ")
             }
         }
     }
@@ -192,7 +201,7 @@ internal abstract class AbstractCompletionBenchmarkScenario(
 
     private suspend fun collectResult(file: KtFile, location: String): Result {
         val results = benchmarkSink.channel.receive()
-        return Result.SuccessResult(file.getLineCount(), location, results.firstFlush, results.full)
+        return Result.SuccessResult(file.getLineCount(), location, results.firstFlush, results.full, results.sources)
     }
 
     protected fun saveResults(allResults: List<Result>) {
@@ -201,7 +210,7 @@ internal abstract class AbstractCompletionBenchmarkScenario(
         if (result == JFileChooser.APPROVE_OPTION) {
             val file = jfc.selectedFile
             file.writeText(buildString {
-                appendLine("n, file, lines, ff, full")
+                appendLine("n, file, lines, ff, full, sources")
                 var i = 0
                 allResults.forEach {
                     append(i++)
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.caches
+
+import com.intellij.openapi.roots.ModuleRootModificationUtil
+import com.intellij.psi.PsiDocumentManager
+import org.jetbrains.kotlin.idea.caches.resolve.analyzeWithAllCompilerChecks
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.idea.util.application.executeWriteCommand
+import org.jetbrains.kotlin.psi.KtFile
+import org.junit.internal.runners.JUnit38ClassRunner
+import org.junit.runner.RunWith
+
+@RunWith(JUnit38ClassRunner::class)
+class KotlinPersistentDiagnosticsCacheTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+
+    fun testStoredDiagnosticsAreLoaded() {
+        val file = configure()
+        val diagnostics = file.analyzeWithAllCompilerChecks().bindingContext.diagnostics
+
+        KotlinPersistentDiagnosticsCache.store(file, diagnostics)
+        assertTrue(KotlinPersistentDiagnosticsCache.isRevalidated(file))
+
+        val cached = KotlinPersistentDiagnosticsCache.load(file) ?: error("Diagnostics are expected to be cached")
+        assertEquals(
+            diagnostics.all().map { it.factory.name to it.textRanges }.sortedBy { it.toString() },
+            cached.map { it.factoryName to it.textRanges }.sortedBy { it.toString() }
+        )
+        assertTrue(cached.any { it.factoryName == "UNRESOLVED_REFERENCE" })
+    }
+
+    fun testContentModificationInvalidatesCache() {
+        val file = configure()
+        KotlinPersistentDiagnosticsCache.store(file, file.analyzeWithAllCompilerChecks().bindingContext.diagnostics)
+
+        val document = PsiDocumentManager.getInstance(project).getDocument(file)!!
+        project.executeWriteCommand("modify") {
+            document.insertString(document.textLength, "\nfun bar() = 42\n")
+            PsiDocumentManager.getInstance(project).commitDocument(document)
+        }
+
+        assertNull(KotlinPersistentDiagnosticsCache.load(file))
+    }
+
+    fun testUnchangedDiagnosticsAreNotRewritten() {
+        val file = configure()
+        val diagnostics = file.analyzeWithAllCompilerChecks().bindingContext.diagnostics
+
+        assertTrue(KotlinPersistentDiagnosticsCache.store(file, diagnostics))
+        assertFalse(KotlinPersistentDiagnosticsCache.store(file, diagnostics))
+        assertNotNull(KotlinPersistentDiagnosticsCache.load(file))
+    }
+
+    fun testPluginVersionChangeInvalidatesCache() {
+        val file = configure()
+        KotlinPersistentDiagnosticsCache.store(file, file.analyzeWithAllCompilerChecks().bindingContext.diagnostics)
+
+        try {
+            KotlinPersistentDiagnosticsCache.pluginVersionForTests = "0.0.0-test"
+            assertNull(KotlinPersistentDiagnosticsCache.load(file))
+        } finally {
+            KotlinPersistentDiagnosticsCache.pluginVersionForTests = null
+        }
+
+        assertNotNull(KotlinPersistentDiagnosticsCache.load(file))
+    }
+
+    fun testDependenciesChangeInvalidatesCache() {
+        val file = configure()
+        KotlinPersistentDiagnosticsCache.store(file, file.analyzeWithAllCompilerChecks().bindingContext.diagnostics)
+
+        val libraryRoot = myFixture.tempDirFixture.findOrCreateDir("testLib")
+        ModuleRootModificationUtil.addModuleLibrary(module, "testLib", listOf(libraryRoot.url), emptyList())
+        try {
+            assertNull(KotlinPersistentDiagnosticsCache.load(file))
+        } finally {
+            ModuleRootModificationUtil.updateModel(module) { model ->
+                model.moduleLibraryTable.getLibraryByName("testLib")?.let { model.moduleLibraryTable.removeLibrary(it) }
+            }
+        }
+    }
+
+    fun testNotStoredFileHasNoCache() {
+        val file = configure()
+        assertFalse(KotlinPersistentDiagnosticsCache.isRevalidated(file))
+        assertNull(KotlinPersistentDiagnosticsCache.load(file))
+    }
+
+    private fun configure(): KtFile = myFixture.configureByText(
+        "Test.kt",
+        """
+        fun foo(p: Int): String {
+            val unused = 1
+            return unresolved(p)
+        }
+        """.trimIndent()
+    ) as KtFile
+}
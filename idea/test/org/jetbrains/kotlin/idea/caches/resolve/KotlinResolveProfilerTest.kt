@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.caches.resolve
+
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.KtNamedFunction
+import org.jetbrains.kotlin.resolve.lazy.BodyResolveMode
+import org.junit.internal.runners.JUnit38ClassRunner
+import org.junit.runner.RunWith
+
+@RunWith(JUnit38ClassRunner::class)
+class KotlinResolveProfilerTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+
+    override fun setUp() {
+        super.setUp()
+        KotlinResolveProfiler.reset()
+        KotlinResolveProfiler.isEnabled = true
+    }
+
+    override fun tearDown() {
+        try {
+            KotlinResolveProfiler.isEnabled = false
+            KotlinResolveProfiler.reset()
+        } finally {
+            super.tearDown()
+        }
+    }
+
+    fun testRepeatedAnalysisIsCacheHit() {
+        val file = myFixture.configureByText("test.kt", "fun foo(): Int = listOf(1).size") as KtFile
+        val function = file.declarations.single() as KtNamedFunction
+        val resolutionFacade = file.getResolutionFacade()
+
+        resolutionFacade.analyze(function.bodyExpression!!, BodyResolveMode.FULL)
+        val firstCall = analyzeStatistics()
+        assertEquals(1L, firstCall.callsCount)
+        assertEquals(0L, firstCall.cacheHitsCount)
+
+        resolutionFacade.analyze(function.bodyExpression!!, BodyResolveMode.FULL)
+        val (key, statistics) = KotlinResolveProfiler.snapshot().entries.single { it.key.operation == "analyze" }
+        assertEquals(BodyResolveMode.FULL, key.bodyResolveMode)
+        assertEquals(2L, statistics.callsCount)
+        assertEquals(1L, statistics.cacheHitsCount)
+        assertEquals(2L, statistics.histogram.sum())
+        assertTrue(KotlinResolveProfiler.report().lines().size >= 2)
+    }
+
+    fun testRepeatedDescriptorResolveIsCacheHit() {
+        val file = myFixture.configureByText("test.kt", "fun foo() = 1") as KtFile
+        val resolutionFacade = file.getResolutionFacade()
+
+        resolutionFacade.resolveToDescriptor(file.declarations.single(), BodyResolveMode.PARTIAL)
+        resolutionFacade.resolveToDescriptor(file.declarations.single(), BodyResolveMode.PARTIAL)
+
+        val statistics = KotlinResolveProfiler.snapshot().entries.single { it.key.operation == "resolveToDescriptor" }.value
+        assertEquals(2L, statistics.callsCount)
+        assertEquals(1L, statistics.cacheHitsCount)
+    }
+
+    private fun analyzeStatistics(): KotlinResolveProfiler.ResolveCallStatistics =
+        KotlinResolveProfiler.snapshot().entries.single { it.key.operation == "analyze" }.value
+
+    fun testDisabledProfilerRecordsNothing() {
+        KotlinResolveProfiler.isEnabled = false
+        val file = myFixture.configureByText("test.kt", "fun foo() = 1") as KtFile
+
+        file.getResolutionFacade().resolveToDescriptor(file.declarations.single(), BodyResolveMode.PARTIAL)
+
+        assertTrue(KotlinResolveProfiler.snapshot().isEmpty())
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.caches.resolve
+
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.util.registry.Registry
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.psiUtil.collectDescendantsOfType
+import org.jetbrains.kotlin.psi.psiUtil.parentsWithSelf
+import org.jetbrains.kotlin.psi.psiUtil.startOffset
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.junit.internal.runners.JUnit38ClassRunner
+import org.junit.runner.RunWith
+
+@RunWith(JUnit38ClassRunner::class)
+class PerFileAnalysisCacheConcurrencyTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+
+    fun testConcurrentAnalysisProducesSameResults() {
+        // files are in different packages, so that their declarations don't clash
+        val sequentialFile = myFixture.configureByText("Sequential.kt", generateFileText("sequential")) as KtFile
+        val expected = sequentialFile.declarations.map { it.renderAnalysisResult() }
+
+        Registry.get(CONCURRENT_ANALYSIS_KEY).setValue(true, testRootDisposable)
+
+        repeat(ROUNDS) { round ->
+            val concurrentFile = myFixture.configureByText("Concurrent$round.kt", generateFileText("concurrent$round")) as KtFile
+            val declarations = concurrentFile.declarations
+
+            val futures = (declarations.indices.shuffled() + declarations.indices.shuffled()).map { index ->
+                ApplicationManager.getApplication().executeOnPooledThread<Pair<Int, String>> {
+                    runReadAction { index to declarations[index].renderAnalysisResult() }
+                }
+            }
+
+            for (future in futures) {
+                val (index, actual) = future.get()
+                assertEquals("Analysis result differs for ${declarations[index].name} in round $round", expected[index], actual)
+            }
+        }
+    }
+
+    private fun KtDeclaration.renderAnalysisResult(): String {
+        @Suppress("DEPRECATION")
+        val bindingContext = analyzeWithAllCompilerChecks().bindingContext
+        val start = startOffset
+
+        val diagnostics = bindingContext.diagnostics.all()
+            .filter { diagnostic -> diagnostic.psiElement.parentsWithSelf.any { it == this } }
+            .map { "${it.factory.name}@${it.psiElement.startOffset - start}" }
+            .sorted()
+
+        val types = collectDescendantsOfType<KtExpression>().map {
+            "${it.startOffset - start}: ${bindingContext.getType(it)}"
+        }
+
+        return (diagnostics + types).joinToString("\n")
+    }
+
+    private fun generateFileText(packageName: String): String = buildString {
+        appendLine("package $packageName")
+        appendLine()
+        for (i in 0 until DECLARATIONS_COUNT) {
+            appendLine("fun foo$i(p: Int): String {")
+            appendLine("    val list = listOf(p, $i).map { it * 2 }")
+            appendLine("    val mismatch: Int = \"\$p\"")
+            appendLine("    return list.joinToString() + C${(i + 1) % DECLARATIONS_COUNT}().bar()")
+            appendLine("}")
+            appendLine()
+            appendLine("class C$i {")
+            appendLine("    val value = foo$i($i).length")
+            appendLine("    fun bar() = value.toString() + unresolved$i")
+            appendLine("}")
+            appendLine()
+        }
+    }
+
+    companion object {
+        private const val CONCURRENT_ANALYSIS_KEY = "kotlin.resolve.concurrent.per.file.analysis"
+        private const val DECLARATIONS_COUNT = 50
+        private const val ROUNDS = 3
+    }
+}
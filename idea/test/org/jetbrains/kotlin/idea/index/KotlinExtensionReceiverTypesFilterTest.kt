@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.index
+
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.search.GlobalSearchScope
+import org.jetbrains.kotlin.idea.stubindex.IntBloomFilter
+import org.jetbrains.kotlin.idea.stubindex.KotlinExtensionReceiverTypesFilter
+import org.jetbrains.kotlin.idea.stubindex.KotlinExtensionReceiverTypesFilterStorage
+import org.jetbrains.kotlin.idea.stubindex.KotlinTopLevelExtensionsByReceiverTypeIdIndex
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.idea.util.application.executeWriteCommand
+import org.junit.internal.runners.JUnit38ClassRunner
+import org.junit.runner.RunWith
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+@RunWith(JUnit38ClassRunner::class)
+class KotlinExtensionReceiverTypesFilterTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+
+    override fun setUp() {
+        super.setUp()
+        Registry.get("kotlin.completion.extensions.receiver.bloom.filter").setValue(true, testRootDisposable)
+        // the light project is shared between tests, keys of their files stay in the filters
+        KotlinExtensionReceiverTypesFilterStorage.getInstance(project).rootsChanged()
+    }
+
+    fun testBloomFilterHasNoFalseNegatives() {
+        val filter = IntBloomFilter(1000, 10)
+        val values = (0 until 1000).map { it * 7919 }
+        values.forEach { filter.add(it) }
+
+        assertTrue(values.all { filter.mightContain(it) })
+        assertTrue((1000 until 11000).count { filter.mightContain(it * 7919 + 1) } < 500)
+    }
+
+    fun testBloomFilterIsRestored() {
+        val filter = IntBloomFilter(100, 10)
+        (0 until 100).forEach { filter.add(it) }
+
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { filter.write(it) }
+        val restored = DataInputStream(ByteArrayInputStream(bytes.toByteArray())).use { IntBloomFilter.read(it) }
+
+        assertEquals(filter.addedCount, restored.addedCount)
+        assertTrue((0 until 1000).all { filter.mightContain(it) == restored.mightContain(it) })
+    }
+
+    fun testReceiverTypesWithoutExtensionsAreFiltered() {
+        myFixture.configureByText("test.kt", "class Foo\nclass Bar\nfun Foo.ext() {}\n")
+
+        assertEquals(listOf("Foo"), filter("Foo", "Bar"))
+    }
+
+    fun testFilterIsUpdatedOnModification() {
+        val file = myFixture.configureByText("test.kt", "class Foo\nclass Bar\nfun Foo.ext() {}\n")
+        assertEquals(listOf("Foo"), filter("Foo", "Bar"))
+
+        val document = PsiDocumentManager.getInstance(project).getDocument(file)!!
+        project.executeWriteCommand("add extension") {
+            document.insertString(document.textLength, "fun Bar.ext() {}\n")
+            PsiDocumentManager.getInstance(project).commitDocument(document)
+        }
+
+        assertEquals(listOf("Foo", "Bar"), filter("Foo", "Bar"))
+    }
+
+    private fun filter(vararg receiverTypeNames: String): List<String> {
+        val keyIds = receiverTypeNames.associateBy { KotlinTopLevelExtensionsByReceiverTypeIdIndex.keyId(it) }
+        return KotlinExtensionReceiverTypesFilter.filterKeyIds(keyIds.keys, project, GlobalSearchScope.allScope(project))
+            .map { keyIds.getValue(it) }
+    }
+}
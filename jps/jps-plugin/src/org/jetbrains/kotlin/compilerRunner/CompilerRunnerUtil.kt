@@ -18,14 +18,45 @@ package org.jetbrains.kotlin.compilerRunner
 
 import org.jetbrains.kotlin.preloading.ClassPreloadingUtils
 import org.jetbrains.kotlin.preloading.Preloader
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
 import org.jetbrains.kotlin.idea.artifacts.KotlinClassPath
+import org.jetbrains.kotlin.jps.build.KotlinBuilder
 import java.io.File
 import java.io.PrintStream
 import java.lang.ref.SoftReference
 
 object CompilerRunnerUtil {
+    /**
+     * In pooled mode the in-process compiler class loader is strongly referenced, and the compiler application environment
+     * (parsed JDK and library roots, core application services) is kept alive between compilations
+     * (see [KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY]), so chunks and consecutive builds in the same JPS process
+     * don't pay for their initialization. Both are recreated when the compiler class path is changed.
+     *
+     * It doesn't affect compilation in the daemon, which keeps its environment warm by itself.
+     */
+    const val POOLED_ENVIRONMENT_PROPERTY = "kotlin.jps.compiler.environment.pooled"
+
+    val isPooledEnvironmentEnabled: Boolean
+        get() = System.getProperty(POOLED_ENVIRONMENT_PROPERTY)?.toBoolean() == true
+
+    private val lock = Any()
+
+    // guarded by lock
     private var ourClassLoaderRef = SoftReference<ClassLoader>(null)
 
+    // guarded by lock
+    private var pooledClassLoader: PooledClassLoader? = null
+
+    /**
+     * The application environment of a pooled class loader is disposed when the class loader is replaced
+     * and no compilation running in it is left, see [users]
+     */
+    private class PooledClassLoader(val classLoader: ClassLoader, val classPathFingerprint: String) {
+        // both guarded by lock
+        var users = 0
+        var isReplaced = false
+    }
+
     internal val jdkToolsJar: File?
         get() {
             val javaHomePath = System.getProperty("java.home")
@@ -49,24 +80,80 @@ object CompilerRunnerUtil {
             return null
         }
 
-    @Synchronized
-    private fun getOrCreateClassLoader(
+    /**
+     * @return the class loader and the pooled class loader to be released by [releaseClassLoader] after the compilation
+     */
+    private fun acquireClassLoader(
         environment: JpsCompilerEnvironment,
         paths: List<File>
-    ): ClassLoader {
+    ): Pair<ClassLoader, PooledClassLoader?> = synchronized(lock) {
+        if (isPooledEnvironmentEnabled) {
+            val pooled = getOrCreatePooledClassLoader(environment, paths)
+            pooled.users++
+            return@synchronized pooled.classLoader to pooled
+        }
+
+        pooledClassLoader?.let { replacePooledClassLoader(it) }
+
         var classLoader = ourClassLoaderRef.get()
         if (classLoader == null) {
-            classLoader = ClassPreloadingUtils.preloadClasses(
-                paths,
-                Preloader.DEFAULT_CLASS_NUMBER_ESTIMATE,
-                CompilerRunnerUtil::class.java.classLoader,
-                environment.classesToLoadByParent
-            )
+            classLoader = createClassLoader(environment, paths)
             ourClassLoaderRef = SoftReference(classLoader)
         }
-        return classLoader!!
+        classLoader to null
     }
 
+    private fun releaseClassLoader(pooled: PooledClassLoader) {
+        synchronized(lock) {
+            pooled.users--
+            if (pooled.isReplaced && pooled.users == 0) disposeApplicationEnvironment(pooled.classLoader)
+        }
+    }
+
+    private fun getOrCreatePooledClassLoader(environment: JpsCompilerEnvironment, paths: List<File>): PooledClassLoader {
+        val fingerprint = classPathFingerprint(paths)
+        pooledClassLoader?.let { pooled ->
+            if (fingerprint == pooled.classPathFingerprint) return pooled
+
+            KotlinBuilder.LOG.info("Kotlin compiler class path is changed, pooled compiler environment is recreated")
+            replacePooledClassLoader(pooled)
+        }
+
+        return PooledClassLoader(createClassLoader(environment, paths), fingerprint).also { pooledClassLoader = it }
+    }
+
+    private fun createClassLoader(environment: JpsCompilerEnvironment, paths: List<File>): ClassLoader =
+        ClassPreloadingUtils.preloadClasses(
+            paths,
+            Preloader.DEFAULT_CLASS_NUMBER_ESTIMATE,
+            CompilerRunnerUtil::class.java.classLoader,
+            environment.classesToLoadByParent
+        )
+
+    private fun replacePooledClassLoader(pooled: PooledClassLoader) {
+        pooledClassLoader = null
+        pooled.isReplaced = true
+        if (pooled.users == 0) disposeApplicationEnvironment(pooled.classLoader)
+    }
+
+    /**
+     * The application environment kept alive by the pooled class loader is disposed explicitly,
+     * as it holds file system caches and isn't referenced by anything else
+     */
+    private fun disposeApplicationEnvironment(classLoader: ClassLoader) {
+        try {
+            val environmentClass = Class.forName(KOTLIN_CORE_ENVIRONMENT_CLASS, true, classLoader)
+            environmentClass.getMethod("disposeApplicationEnvironment").invoke(null)
+        } catch (e: ReflectiveOperationException) {
+            KotlinBuilder.LOG.warn("Could not dispose pooled Kotlin compiler application environment", e)
+        }
+    }
+
+    private fun classPathFingerprint(paths: List<File>): String =
+        paths.joinToString(File.pathSeparator) { "${it.absolutePath}:${it.length()}:${it.lastModified()}" }
+
+    private const val KOTLIN_CORE_ENVIRONMENT_CLASS = "org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment"
+
     fun invokeExecMethod(
         compilerClassName: String,
         arguments: Array<String>,
@@ -101,7 +188,11 @@ object CompilerRunnerUtil {
             jdkToolsJar?.let { classPath + it } ?: classPath
         }
 
-        val classLoader = getOrCreateClassLoader(environment, paths)
-        return fn(classLoader)
+        val (classLoader, pooled) = acquireClassLoader(environment, paths)
+        try {
+            return fn(classLoader)
+        } finally {
+            pooled?.let { releaseClassLoader(it) }
+        }
     }
 }
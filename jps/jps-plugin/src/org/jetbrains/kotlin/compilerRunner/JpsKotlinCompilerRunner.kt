@@ -285,7 +285,8 @@ class JpsKotlinCompilerRunner {
         // the property should be set at least for parallel builds to avoid parallel building problems (racing between destroying and using environment)
         // unfortunately it cannot be currently set by default globally, because it breaks many tests
         // since there is no reliable way so far to detect running under tests, switching it on only for parallel builds
-        if (System.getProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "false").toBoolean())
+        // and for the pooled compiler environment, which is kept alive between compilations on purpose
+        if (System.getProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "false").toBoolean() || CompilerRunnerUtil.isPooledEnvironmentEnabled)
             System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, "true")
 
         val rc = environment.withProgressReporter { progress ->
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import java.io.File
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.LongAdder
+
+enum class KotlinBuildPhase(val presentableName: String) {
+    CONTEXT_INITIALIZATION("context initialization"),
+    CACHE_VERSIONS_CHECK("cache versions check"),
+    DIRTY_FILES_BEFORE_ROUND("dirty files before round"),
+    COMPILER_ENVIRONMENT("compiler environment creation"),
+    COMPILATION("compilation"),
+    COMPILER_INITIALIZATION("compiler initialization"),
+    ANALYSIS("analysis"),
+    CODE_GENERATION("code generation"),
+    OUTPUT_REGISTRATION("output registration"),
+    CACHES_UPDATE("caches update"),
+    LOOKUP_STORAGE_UPDATE("lookup storage update"),
+    DIRTY_FILES_AFTER_ROUND("dirty files after round"),
+    CHUNK_MAPPINGS_UPDATE("chunk mappings update")
+}
+
+/**
+ * Time of Kotlin build phases per module chunk, written as JSON to [REPORTS_DIRECTORY_NAME] in the JPS data storage
+ * after every build when enabled by the [ENABLED_PROPERTY] system property. Only [MAX_REPORTS] latest reports are kept.
+ *
+ * [KotlinBuildPhase.COMPILATION] includes [KotlinBuildPhase.COMPILER_INITIALIZATION], [KotlinBuildPhase.ANALYSIS] and
+ * [KotlinBuildPhase.CODE_GENERATION], which are reported by the compiler itself (see [ChunkReport.recordCompilerMeasurement]).
+ */
+class KotlinBuildReport(val isEnabled: Boolean) {
+    private val startTime = System.currentTimeMillis()
+    private val startNanos = System.nanoTime()
+
+    private val buildPhases = PhasesStatistics()
+    private val chunks = ConcurrentHashMap<String, ChunkReport>()
+
+    class PhaseStatistics {
+        val count = LongAdder()
+        val nanos = LongAdder()
+    }
+
+    class PhasesStatistics {
+        private val phases = ConcurrentHashMap<KotlinBuildPhase, PhaseStatistics>()
+
+        fun record(phase: KotlinBuildPhase, nanos: Long) {
+            val statistics = phases.computeIfAbsent(phase) { PhaseStatistics() }
+            statistics.count.increment()
+            statistics.nanos.add(nanos)
+        }
+
+        val totalNanos: Long
+            get() = phases.values.sumOf { it.nanos.sum() }
+
+        internal fun appendJson(builder: StringBuilder) {
+            builder.append('[')
+            phases.entries.sortedBy { it.key.ordinal }.forEachIndexed { index, (phase, statistics) ->
+                if (index > 0) builder.append(',')
+                builder.append("{\"phase\":").appendJsonString(phase.presentableName)
+                builder.append(",\"count\":").append(statistics.count.sum())
+                builder.append(",\"ms\":").append(TimeUnit.NANOSECONDS.toMillis(statistics.nanos.sum())).append('}')
+            }
+            builder.append(']')
+        }
+    }
+
+    inner class ChunkReport internal constructor(val name: String, val targets: List<String>) {
+        val phases = PhasesStatistics()
+        val rounds = AtomicInteger()
+        val compiledFiles = AtomicInteger()
+
+        inline fun <R> measure(phase: KotlinBuildPhase, block: () -> R): R {
+            if (!isEnabled) return block()
+            val start = System.nanoTime()
+            try {
+                return block()
+            } finally {
+                phases.record(phase, System.nanoTime() - start)
+            }
+        }
+
+        fun roundStarted(filesCount: Int) {
+            if (!isEnabled) return
+            rounds.incrementAndGet()
+            compiledFiles.addAndGet(filesCount)
+        }
+
+        /**
+         * Records a measurement reported by the compiler with `-Xreport-perf`, e.g. `PERF: ANALYZE: 2 files (10 lines) in 120 ms`.
+         * Other messages are ignored.
+         *
+         * @return `true` if the message is a measurement consumed by the report, it shouldn't be shown in the build log then
+         */
+        fun recordCompilerMeasurement(message: String): Boolean {
+            if (!isEnabled || !message.startsWith(PERF_PREFIX)) return false
+
+            val match = PERF_MEASUREMENT.find(message.removePrefix(PERF_PREFIX))
+            val phase = match?.let { COMPILER_PHASES[it.groupValues[1]] }
+            if (match != null && phase != null) {
+                phases.record(phase, TimeUnit.MILLISECONDS.toNanos(match.groupValues[2].toLong()))
+            }
+            return true
+        }
+    }
+
+    fun chunk(kotlinChunk: KotlinChunk): ChunkReport =
+        chunks.computeIfAbsent(kotlinChunk.presentableShortName) {
+            ChunkReport(it, kotlinChunk.targets.map { target -> target.jpsModuleBuildTarget.presentableName })
+        }
+
+    inline fun <R> measure(phase: KotlinBuildPhase, block: () -> R): R {
+        if (!isEnabled) return block()
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            record(phase, System.nanoTime() - start)
+        }
+    }
+
+    fun record(phase: KotlinBuildPhase, nanos: Long) {
+        if (isEnabled) buildPhases.record(phase, nanos)
+    }
+
+    fun toJson(): String = buildString {
+        append("{\"startTime\":").append(startTime)
+        append(",\"durationMs\":").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos))
+        append(",\"phases\":")
+        buildPhases.appendJson(this)
+
+        append(",\"chunks\":[")
+        chunks.values.sortedByDescending { it.phases.totalNanos }.forEachIndexed { index, chunk ->
+            if (index > 0) append(',')
+            append("{\"chunk\":").appendJsonString(chunk.name)
+            append(",\"targets\":[")
+            chunk.targets.forEachIndexed { targetIndex, target ->
+                if (targetIndex > 0) append(',')
+                appendJsonString(target)
+            }
+            append("],\"rounds\":").append(chunk.rounds.get())
+            append(",\"compiledFiles\":").append(chunk.compiledFiles.get())
+            append(",\"phases\":")
+            chunk.phases.appendJson(this)
+            append('}')
+        }
+        append("]}")
+    }
+
+    /**
+     * @return the report file, or `null` when the report is disabled
+     */
+    fun write(dataStorageRoot: File): File? {
+        if (!isEnabled) return null
+
+        val reportsDir = File(dataStorageRoot, REPORTS_DIRECTORY_NAME)
+        reportsDir.mkdirs()
+
+        val reportFile = File(reportsDir, "build-${SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(Date(startTime))}.json")
+        reportFile.writeText(toJson())
+
+        reportsDir.listFiles { file -> file.extension == "json" }
+            ?.sortedByDescending { it.name }
+            ?.drop(MAX_REPORTS)
+            ?.forEach { it.delete() }
+
+        return reportFile
+    }
+
+    companion object {
+        const val ENABLED_PROPERTY = "kotlin.jps.build.report"
+        const val REPORTS_DIRECTORY_NAME = "kotlin-build-reports"
+        const val MAX_REPORTS = 100
+
+        private const val PERF_PREFIX = "PERF: "
+        private val PERF_MEASUREMENT = Regex("^([A-Z ]+):.* in (\\d+) ms")
+
+        private val COMPILER_PHASES = mapOf(
+            "INIT" to KotlinBuildPhase.COMPILER_INITIALIZATION,
+            "ANALYZE" to KotlinBuildPhase.ANALYSIS,
+            "GENERATE" to KotlinBuildPhase.CODE_GENERATION,
+            "IR TRANSLATION" to KotlinBuildPhase.CODE_GENERATION,
+            "IR LOWERING" to KotlinBuildPhase.CODE_GENERATION,
+            "IR GENERATION" to KotlinBuildPhase.CODE_GENERATION
+        )
+
+        fun create(): KotlinBuildReport = KotlinBuildReport(System.getProperty(ENABLED_PROPERTY)?.toBoolean() == true)
+
+        private fun StringBuilder.appendJsonString(value: String): StringBuilder =
+            append('"').append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append('"')
+    }
+}
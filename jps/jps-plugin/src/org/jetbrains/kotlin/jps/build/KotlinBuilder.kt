@@ -44,8 +44,13 @@ import org.jetbrains.kotlin.incremental.*
 import org.jetbrains.kotlin.incremental.components.ExpectActualTracker
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.ICReporterBase
+import org.jetbrains.kotlin.jps.incremental.ClassUsages
 import org.jetbrains.kotlin.jps.incremental.JpsIncrementalCache
+import org.jetbrains.kotlin.jps.incremental.JpsIncrementalJvmCache
 import org.jetbrains.kotlin.jps.incremental.JpsLookupStorageManager
+import org.jetbrains.kotlin.jps.incremental.MemberFingerprints
+import org.jetbrains.kotlin.jps.incremental.MemberFingerprintsFilter
+import org.jetbrains.kotlin.jps.incremental.mapLookupSymbolsToFiles
 import org.jetbrains.kotlin.jps.model.kotlinKind
 import org.jetbrains.kotlin.jps.targets.KotlinJvmModuleBuildTarget
 import org.jetbrains.kotlin.jps.targets.KotlinModuleBuildTarget
@@ -53,6 +58,7 @@ import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.preloading.ClassCondition
 import java.io.File
 import java.util.*
+import java.util.concurrent.TimeUnit
 import kotlin.collections.HashSet
 import kotlin.system.measureTimeMillis
 
@@ -76,6 +82,14 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
                         || className == "org.jetbrains.kotlin.modules.TargetId"
                         || className == "org.jetbrains.kotlin.cli.common.ExitCode"
             }
+
+        /**
+         * Compiler plugin argument providers are loaded once per JPS process in pooled compiler environment mode,
+         * see [CompilerRunnerUtil.isPooledEnvironmentEnabled]
+         */
+        private val pooledArgumentProviders by lazy {
+            ServiceLoader.load(KotlinJpsCompilerArgumentsProvider::class.java).toList()
+        }
     }
 
     private val statisticsLogger = TeamcityStatisticsLogger()
@@ -132,7 +146,9 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             context.testingContext?.kotlinCompileContext = kotlinContext
 
             if (kotlinContext.shouldCheckCacheVersions && kotlinContext.hasKotlin()) {
-                kotlinContext.checkCacheVersions()
+                kotlinContext.buildReport.measure(KotlinBuildPhase.CACHE_VERSIONS_CHECK) {
+                    kotlinContext.checkCacheVersions()
+                }
             }
 
             kotlinContext.cleanupCaches()
@@ -140,6 +156,7 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
         }
 
         LOG.info("Total Kotlin global compile context initialization time: $time ms")
+        kotlinContext.buildReport.record(KotlinBuildPhase.CONTEXT_INITIALIZATION, TimeUnit.MILLISECONDS.toNanos(time))
 
         return kotlinContext
     }
@@ -154,6 +171,7 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             synchronized(kotlinCompileContextKey) {
                 val kotlinCompileContext = context.getUserData(kotlinCompileContextKey)
                 if (kotlinCompileContext != null) {
+                    KotlinCachesSnapshots.exportIfRequested(context)
                     kotlinCompileContext.dispose()
                     context.putUserData(kotlinCompileContextKey, null)
 
@@ -179,10 +197,15 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
         if (targets.none { kotlinContext.hasKotlinMarker[it] == true }) return
 
         val kotlinChunk = kotlinContext.getChunk(chunk) ?: return
-        kotlinContext.checkChunkCacheVersion(kotlinChunk)
+        val chunkReport = kotlinContext.buildReport.chunk(kotlinChunk)
+        chunkReport.measure(KotlinBuildPhase.CACHE_VERSIONS_CHECK) {
+            kotlinContext.checkChunkCacheVersion(kotlinChunk)
+        }
 
         if (!kotlinContext.rebuildingAllKotlin && kotlinChunk.isEnabled) {
-            markAdditionalFilesForInitialRound(kotlinChunk, chunk, kotlinContext)
+            chunkReport.measure(KotlinBuildPhase.DIRTY_FILES_BEFORE_ROUND) {
+                markAdditionalFilesForInitialRound(kotlinChunk, chunk, kotlinContext)
+            }
         }
 
         buildLogger?.afterChunkBuildStarted(context, chunk)
@@ -280,7 +303,8 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             return NOTHING_DONE
 
         val kotlinTarget = context.kotlin.targetsBinding[chunk.representativeTarget()] ?: return OK
-        val messageCollector = MessageCollectorAdapter(context, kotlinTarget)
+        val chunkReport = context.kotlin.getChunk(chunk)?.let { context.kotlin.buildReport.chunk(it) }
+        val messageCollector = MessageCollectorAdapter(context, kotlinTarget, chunkReport)
 
         // New mpp project model: modules which is imported from sources sets of the compilations shouldn't be compiled for now.
         // It should be compiled only as one of source root of target compilation, which is added in [KotlinSourceRootProvider].
@@ -386,19 +410,22 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             return ABORT
         }
 
+        val chunkReport = kotlinContext.buildReport.chunk(kotlinChunk)
         val project = projectDescriptor.project
         val lookupTracker = getLookupTracker(project, representativeTarget)
         val exceptActualTracer = ExpectActualTrackerImpl()
         val incrementalCaches = kotlinChunk.loadCaches()
-        val environment = createCompileEnvironment(
-            context,
-            representativeTarget,
-            incrementalCaches,
-            lookupTracker,
-            exceptActualTracer,
-            chunk,
-            messageCollector
-        )
+        val environment = chunkReport.measure(KotlinBuildPhase.COMPILER_ENVIRONMENT) {
+            createCompileEnvironment(
+                context,
+                representativeTarget,
+                incrementalCaches,
+                lookupTracker,
+                exceptActualTracer,
+                chunk,
+                messageCollector
+            )
+        }
 
         context.testingContext?.buildLogger?.compilingFiles(
             kotlinDirtyFilesHolder.allDirtyFiles,
@@ -409,17 +436,21 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             LOG.debug("Compiling files: ${kotlinDirtyFilesHolder.allDirtyFiles}")
         }
 
+        chunkReport.roundStarted(kotlinDirtyFilesHolder.allDirtyFiles.size)
+
         val start = System.nanoTime()
-        val outputItemCollector = doCompileModuleChunk(
-            kotlinChunk,
-            representativeTarget,
-            kotlinChunk.compilerArguments,
-            context,
-            kotlinDirtyFilesHolder,
-            fsOperations,
-            environment,
-            incrementalCaches
-        )
+        val outputItemCollector = chunkReport.measure(KotlinBuildPhase.COMPILATION) {
+            doCompileModuleChunk(
+                kotlinChunk,
+                representativeTarget,
+                kotlinChunk.compilerArguments,
+                context,
+                kotlinDirtyFilesHolder,
+                fsOperations,
+                environment,
+                incrementalCaches
+            )
+        }
 
         statisticsLogger.registerStatistic(chunk, System.nanoTime() - start)
 
@@ -437,9 +468,11 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
 
         val generatedFiles = getGeneratedFiles(context, chunk, environment.outputItemsCollector)
         val kotlinTargets = kotlinContext.targetsBinding
-        for ((target, outputItems) in generatedFiles) {
-            val kotlinTarget = kotlinTargets[target] ?: error("Could not find Kotlin target for JPS target $target")
-            kotlinTarget.registerOutputItems(outputConsumer, outputItems)
+        chunkReport.measure(KotlinBuildPhase.OUTPUT_REGISTRATION) {
+            for ((target, outputItems) in generatedFiles) {
+                val kotlinTarget = kotlinTargets[target] ?: error("Could not find Kotlin target for JPS target $target")
+                kotlinTarget.registerOutputItems(outputConsumer, outputItems)
+            }
         }
         kotlinChunk.saveVersions()
 
@@ -456,13 +489,15 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             it.doAfterBuild()
         }
 
-        representativeTarget.updateChunkMappings(
-            context,
-            chunk,
-            kotlinDirtyFilesHolder,
-            generatedFiles,
-            incrementalCaches
-        )
+        chunkReport.measure(KotlinBuildPhase.CHUNK_MAPPINGS_UPDATE) {
+            representativeTarget.updateChunkMappings(
+                context,
+                chunk,
+                kotlinDirtyFilesHolder,
+                generatedFiles,
+                incrementalCaches
+            )
+        }
 
         if (!representativeTarget.isIncrementalCompilationEnabled) {
             return OK
@@ -475,26 +510,33 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
 
             val changesCollector = ChangesCollector()
 
-            for ((target, files) in generatedFiles) {
-                val kotlinModuleBuilderTarget = kotlinContext.targetsBinding[target]!!
-                kotlinModuleBuilderTarget.updateCaches(
-                    kotlinDirtyFilesHolder,
-                    incrementalCaches[kotlinModuleBuilderTarget]!!,
-                    files,
-                    changesCollector,
-                    environment
-                )
+            chunkReport.measure(KotlinBuildPhase.CACHES_UPDATE) {
+                for ((target, files) in generatedFiles) {
+                    val kotlinModuleBuilderTarget = kotlinContext.targetsBinding[target]!!
+                    kotlinModuleBuilderTarget.updateCaches(
+                        kotlinDirtyFilesHolder,
+                        incrementalCaches[kotlinModuleBuilderTarget]!!,
+                        files,
+                        changesCollector,
+                        environment
+                    )
+                }
             }
 
-            updateLookupStorage(lookupTracker, kotlinContext.lookupStorageManager, kotlinDirtyFilesHolder)
+            chunkReport.measure(KotlinBuildPhase.LOOKUP_STORAGE_UPDATE) {
+                updateLookupStorage(lookupTracker, kotlinContext.lookupStorageManager, kotlinDirtyFilesHolder)
+            }
 
             if (!isChunkRebuilding) {
-                changesCollector.processChangesUsingLookups(
-                    kotlinDirtyFilesHolder.allDirtyFiles,
-                    kotlinContext.lookupStorageManager,
-                    fsOperations,
-                    incrementalCaches.values
-                )
+                chunkReport.measure(KotlinBuildPhase.DIRTY_FILES_AFTER_ROUND) {
+                    changesCollector.processChangesUsingLookups(
+                        kotlinDirtyFilesHolder.allDirtyFiles,
+                        kotlinContext.lookupStorageManager,
+                        fsOperations,
+                        incrementalCaches.values,
+                        context
+                    )
+                }
             }
         }
 
@@ -514,6 +556,10 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
         incrementalCaches: Map<KotlinModuleBuildTarget<*>, JpsIncrementalCache>
     ): OutputItemsCollector? {
         loadPlugins(representativeTarget, commonArguments, context)
+        if (context.kotlin.buildReport.isEnabled) {
+            // analysis and code generation time is reported by the compiler, see KotlinBuildReport.ChunkReport.recordCompilerMeasurement
+            commonArguments.reportPerf = true
+        }
 
         kotlinChunk.targets.forEach {
             it.nextRound(context)
@@ -537,7 +583,9 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
             }
         }
 
-        val isDoneSomething = representativeTarget.compileModuleChunk(commonArguments, dirtyFilesHolder, environment)
+        val isDoneSomething = context.kotlin.compilationLimiter.withPermit(context) {
+            representativeTarget.compileModuleChunk(commonArguments, dirtyFilesHolder, environment)
+        }
 
         return if (isDoneSomething) environment.outputItemsCollector else null
     }
@@ -549,7 +597,11 @@ class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR) {
     ) {
         fun concatenate(strings: Array<String>?, cp: List<String>) = arrayOf(*strings.orEmpty(), *cp.toTypedArray())
 
-        for (argumentProvider in ServiceLoader.load(KotlinJpsCompilerArgumentsProvider::class.java)) {
+        val argumentProviders =
+            if (CompilerRunnerUtil.isPooledEnvironmentEnabled) pooledArgumentProviders
+            else ServiceLoader.load(KotlinJpsCompilerArgumentsProvider::class.java).toList()
+
+        for (argumentProvider in argumentProviders) {
             val jpsModuleBuildTarget = representativeTarget.jpsModuleBuildTarget
             // appending to pluginOptions
             commonArguments.pluginOptions = concatenate(
@@ -653,14 +705,16 @@ private fun ChangesCollector.processChangesUsingLookups(
     compiledFiles: Set<File>,
     lookupStorageManager: JpsLookupStorageManager,
     fsOperations: FSOperationsHelper,
-    caches: Iterable<JpsIncrementalCache>
+    caches: Iterable<JpsIncrementalCache>,
+    context: CompileContext
 ) {
     val allCaches = caches.flatMap { it.thisWithDependentCaches }
     val reporter = JpsICReporter()
 
     reporter.reportVerbose { "Start processing changes" }
 
-    val dirtyFiles = getDirtyFiles(allCaches, lookupStorageManager)
+    val memberFingerprintsFilter = createMemberFingerprintsFilter(context, caches)
+    val dirtyFiles = getDirtyFiles(allCaches, lookupStorageManager, memberFingerprintsFilter)
     fsOperations.markInChunkOrDependents(dirtyFiles.asIterable(), excludeFiles = compiledFiles)
 
     reporter.reportVerbose { "End of processing changes" }
@@ -668,16 +722,47 @@ private fun ChangesCollector.processChangesUsingLookups(
 
 private fun ChangesCollector.getDirtyFiles(
     caches: Iterable<IncrementalCacheCommon>,
-    lookupStorageManager: JpsLookupStorageManager
+    lookupStorageManager: JpsLookupStorageManager,
+    memberFingerprintsFilter: MemberFingerprintsFilter? = null
 ): Set<File> {
     val reporter = JpsICReporter()
     val (dirtyLookupSymbols, dirtyClassFqNames) = getDirtyData(caches, reporter)
     val dirtyFilesFromLookups = lookupStorageManager.withLookupStorage {
-        mapLookupSymbolsToFiles(it, dirtyLookupSymbols, reporter)
+        mapLookupSymbolsToFiles(it, dirtyLookupSymbols, reporter, memberFingerprintsFilter)
     }
     return dirtyFilesFromLookups + mapClassesFqNamesToFiles(caches, dirtyClassFqNames, reporter)
 }
 
+/**
+ * @return `null` when member fingerprints are disabled or no fingerprint is changed in the current round
+ */
+private fun createMemberFingerprintsFilter(context: CompileContext, caches: Iterable<JpsIncrementalCache>): MemberFingerprintsFilter? {
+    val changes = caches.filterIsInstance<JpsIncrementalJvmCache>().flatMap { it.memberFingerprints.takeChanges() }
+    if (changes.isEmpty()) return null
+
+    val projectDescriptor = context.projectDescriptor
+    return MemberFingerprintsFilter(changes) { sourceFile ->
+        val target = projectDescriptor.buildRootIndex.findJavaRootDescriptor(context, sourceFile)?.target
+        val outputs = target?.let { projectDescriptor.dataManager.getSourceToOutputMap(it).getOutputs(sourceFile.path) }
+        if (outputs.isNullOrEmpty()) return@MemberFingerprintsFilter null
+
+        val members = HashSet<String>()
+        val names = HashSet<String>()
+        val supertypes = HashSet<String>()
+        for (output in outputs) {
+            val outputFile = File(output)
+            if (outputFile.extension != "class") continue
+            if (!outputFile.isFile) return@MemberFingerprintsFilter null
+
+            val usages = MemberFingerprints.usages(outputFile.readBytes())
+            members.addAll(usages.members)
+            names.addAll(usages.names)
+            supertypes.addAll(usages.supertypes)
+        }
+        ClassUsages(members, names, supertypes)
+    }
+}
+
 private fun getLookupTracker(project: JpsProject, representativeTarget: KotlinModuleBuildTarget<*>): LookupTracker {
     val testLookupTracker = project.testingContext?.lookupTracker ?: LookupTracker.DO_NOTHING
 
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.jps.builders.impl.BuildDataPathsImpl
+import org.jetbrains.jps.builders.storage.BuildDataPaths
+import org.jetbrains.jps.incremental.CompileContext
+import org.jetbrains.jps.incremental.ModuleBuildTarget
+import org.jetbrains.jps.incremental.Utils
+import org.jetbrains.jps.incremental.storage.ProjectStamps
+import org.jetbrains.jps.model.serialization.JpsModelSerializationDataService
+import org.jetbrains.kotlin.jps.incremental.CompositeLookupsCacheAttributesManager
+import org.jetbrains.kotlin.jps.incremental.KotlinCachesSnapshotStore
+import org.jetbrains.kotlin.jps.incremental.KotlinDataContainerTarget
+import org.jetbrains.kotlin.jps.incremental.LookupStorageFormat
+import org.jetbrains.kotlin.jps.incremental.localCacheVersionManager
+import org.jetbrains.kotlin.jps.incremental.lookupsCacheVersionManager
+import java.io.File
+import kotlin.system.measureTimeMillis
+
+/**
+ * Sharing of JPS build data between machines through [KotlinCachesSnapshotStore] in a directory set by [STORE_DIR_PROPERTY].
+ *
+ * A snapshot is keyed by [KEY_PROPERTY], e.g. the VCS revision of the sources it was built from. It's exported after a successful
+ * build when [EXPORT_PROPERTY] is set (e.g. on CI), and imported by [import] into a fresh checkout before its first build,
+ * e.g. by running [main] with the revision the checkout is based on. JPS opens its data storage before any builder starts,
+ * so the import can't be done by [KotlinBuilder] itself.
+ *
+ * Snapshots contain JPS stamps and mappings, so they are exported only when JPS runs with portable caches
+ * ([ProjectStamps.PORTABLE_CACHES]): stamps are content hashes and paths are relative to the project directory.
+ * The build after an import then compiles only the sources that differ from the ones the snapshot was built from,
+ * and Kotlin caches imported with it are validated by [KotlinCompileContext] as usual.
+ */
+object KotlinCachesSnapshots {
+    const val STORE_DIR_PROPERTY = "kotlin.jps.caches.snapshots.dir"
+    const val EXPORT_PROPERTY = "kotlin.jps.caches.snapshots.export"
+    const val KEY_PROPERTY = "kotlin.jps.caches.snapshots.key"
+
+    private val storeDir: File?
+        get() = System.getProperty(STORE_DIR_PROPERTY)?.let(::File)
+
+    private val key: String?
+        get() = System.getProperty(KEY_PROPERTY)?.takeIf { it.isNotBlank() }
+
+    /**
+     * Usage: `KotlinCachesSnapshots <project directory> <JPS data storage directory>`, the store and the key are set by properties
+     */
+    @JvmStatic
+    fun main(args: Array<String>) {
+        require(args.size == 2) { "Expected arguments: <project directory> <JPS data storage directory>" }
+        val imported = import(File(args[0]), File(args[1]))
+        println(if (imported) "Kotlin caches snapshot is imported" else "Kotlin caches snapshot is not imported")
+    }
+
+    /**
+     * Imports the snapshot for [KEY_PROPERTY] into [dataStorageRoot] of the project in [projectDir], and restores its outputs.
+     * Must be called before the build opens [dataStorageRoot], which has to be empty, e.g. in a fresh checkout.
+     *
+     * @return `true` if the snapshot is imported
+     */
+    @JvmStatic
+    fun import(projectDir: File, dataStorageRoot: File): Boolean {
+        val storeDir = storeDir ?: return false
+        val key = key ?: return false
+
+        var imported = false
+        var result = ""
+        val time = measureTimeMillis {
+            val store = KotlinCachesSnapshotStore(storeDir)
+            val cacheVersions = store.readCacheVersions(key)
+            result = when {
+                KotlinCachesSnapshotStore.dataFiles(dataStorageRoot).isNotEmpty() ->
+                    "Kotlin caches snapshot is not imported: $dataStorageRoot is not empty"
+                cacheVersions == null -> "Kotlin caches snapshot $key is not found in $storeDir"
+                !isCompatible(cacheVersions, BuildDataPathsImpl(dataStorageRoot)) ->
+                    "Kotlin caches snapshot $key in $storeDir has incompatible versions"
+                store.import(key, dataStorageRoot, projectDir) -> {
+                    imported = true
+                    "Kotlin caches snapshot $key is imported from $storeDir"
+                }
+                else -> "Kotlin caches snapshot $key is not found in $storeDir"
+            }
+        }
+
+        KotlinBuilder.LOG.info("$result in $time ms")
+        return imported
+    }
+
+    fun exportIfRequested(context: CompileContext) {
+        val store = KotlinCachesSnapshotStore(storeDir ?: return)
+        if (System.getProperty(EXPORT_PROPERTY)?.toBoolean() != true) return
+        val key = key ?: return
+        if (Utils.ERRORS_DETECTED_KEY[context, false]) return
+
+        if (!ProjectStamps.PORTABLE_CACHES) {
+            KotlinBuilder.LOG.info("Kotlin caches snapshot is not exported: JPS doesn't use portable caches")
+            return
+        }
+
+        val projectDescriptor = context.projectDescriptor
+        val projectDir = JpsModelSerializationDataService.getBaseDirectory(projectDescriptor.project)
+        if (projectDir == null) {
+            KotlinBuilder.LOG.info("Kotlin caches snapshot is not exported: project directory is unknown")
+            return
+        }
+
+        val outputDirs = outputDirs(context)
+        val outsideOutputDir = outputDirs.firstOrNull { !FileUtil.isAncestor(projectDir, it, false) }
+        if (outsideOutputDir != null) {
+            KotlinBuilder.LOG.info("Kotlin caches snapshot is not exported: output directory $outsideOutputDir is outside of $projectDir")
+            return
+        }
+
+        val dataManager = projectDescriptor.dataManager
+        dataManager.flush(false)
+
+        lateinit var snapshotFile: File
+        val time = measureTimeMillis {
+            val dataPaths = dataManager.dataPaths
+            snapshotFile = store.export(key, dataPaths.dataStorageRoot, projectDir, outputDirs, actualCacheVersions(dataPaths))
+        }
+
+        KotlinBuilder.LOG.info("Kotlin caches snapshot is exported to $snapshotFile in $time ms")
+    }
+
+    private fun outputDirs(context: CompileContext): List<File> =
+        context.projectDescriptor.buildTargetIndex.allTargets
+            .mapNotNull { (it as? ModuleBuildTarget)?.outputDir }
+            .distinct()
+
+    /**
+     * Versions of the lookups cache and of local caches of all targets in [dataPaths] keyed by paths of their data roots
+     */
+    private fun actualCacheVersions(dataPaths: BuildDataPaths): Map<String, String> {
+        val result = sortedMapOf<String, String>()
+        val storageRoot = dataPaths.dataStorageRoot
+
+        val lookupsCacheRoot = dataPaths.getTargetDataRoot(KotlinDataContainerTarget)
+        val lookupsCacheAttributes = CompositeLookupsCacheAttributesManager(lookupsCacheRoot, emptySet()).loadActual()
+        if (lookupsCacheAttributes != null) {
+            result[LOOKUPS_VERSION] = lookupsCacheAttributes.version.toString()
+            result[LOOKUPS_STORAGE_FORMAT] = lookupsCacheAttributes.storageFormat.id
+        }
+
+        for (targetTypeRoot in dataPaths.targetsDataRoot.listFiles() ?: emptyArray()) {
+            for (targetRoot in targetTypeRoot.listFiles() ?: continue) {
+                if (targetRoot == lookupsCacheRoot) continue
+                val version = localCacheVersionManager(targetRoot, true).loadActual() ?: continue
+                result[LOCAL_VERSION_PREFIX + FileUtil.toSystemIndependentName(targetRoot.relativeTo(storageRoot).path)] =
+                    version.intValue.toString()
+            }
+        }
+
+        return result
+    }
+
+    private fun isCompatible(cacheVersions: Map<String, String>, dataPaths: BuildDataPaths): Boolean {
+        val lookupsCacheRoot = dataPaths.getTargetDataRoot(KotlinDataContainerTarget)
+        val lookupsCacheVersion = lookupsCacheVersionManager(lookupsCacheRoot, true).expected?.intValue?.toString()
+        if (cacheVersions[LOOKUPS_VERSION] != lookupsCacheVersion) return false
+        if (cacheVersions[LOOKUPS_STORAGE_FORMAT] != LookupStorageFormat.fromSystemProperty().id) return false
+
+        val storageRoot = dataPaths.dataStorageRoot
+        return cacheVersions.all { (name, version) ->
+            if (!name.startsWith(LOCAL_VERSION_PREFIX)) return@all true
+            val targetRoot = File(storageRoot, name.removePrefix(LOCAL_VERSION_PREFIX))
+            version == localCacheVersionManager(targetRoot, true).expected?.intValue?.toString()
+        }
+    }
+
+    private const val LOOKUPS_VERSION = "lookups.version"
+    private const val LOOKUPS_STORAGE_FORMAT = "lookups.storage.format"
+    private const val LOCAL_VERSION_PREFIX = "local.version."
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import org.jetbrains.jps.api.GlobalOptions
+import org.jetbrains.jps.incremental.CompileContext
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+
+/**
+ * Bounds the number of Kotlin chunks compiled at the same time.
+ *
+ * When independent modules are compiled in parallel (see [GlobalOptions.COMPILE_PARALLEL_OPTION]), JPS starts a chunk
+ * as soon as all chunks it depends on are built, so [KotlinChunk.loadCaches] of a chunk never wires caches of a chunk
+ * which is being compiled at the same time. Kotlin compilations are much more memory-hungry than other builders,
+ * so the number of simultaneous compilations is limited by [MAX_PARALLEL_COMPILATIONS_PROPERTY] separately from
+ * the number of JPS builder threads. By default it is the maximum heap size of the build process divided by
+ * [MEMORY_PER_COMPILATION_MB] (512 MB), capped at the number of available processors.
+ *
+ * Chunks compiled at the same time may share dependencies and read their incremental caches concurrently. This is safe,
+ * as caches of a chunk are written only by its own compilation, which is finished before any of its dependents is started.
+ * Updates of caches and of the lookup storage are not limited, as they are synchronized by
+ * [org.jetbrains.kotlin.jps.incremental.JpsLookupStorageManager] anyway.
+ */
+class KotlinCompilationLimiter private constructor(maxParallelCompilations: Int?) {
+    private val permits = maxParallelCompilations?.let { Semaphore(it, true) }
+
+    fun <T> withPermit(context: CompileContext, compilation: () -> T): T {
+        if (permits == null) return compilation()
+
+        while (!permits.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            context.checkCanceled()
+        }
+
+        try {
+            return compilation()
+        } finally {
+            permits.release()
+        }
+    }
+
+    companion object {
+        const val MAX_PARALLEL_COMPILATIONS_PROPERTY = "kotlin.jps.parallel.compilations"
+
+        private const val ACQUIRE_TIMEOUT_MS = 100L
+
+        // approximate peak heap usage of a compilation of a middle-sized chunk
+        private const val MEMORY_PER_COMPILATION_MB = 512L
+
+        val isParallelBuildEnabled: Boolean
+            get() = System.getProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "false").toBoolean()
+
+        fun create(): KotlinCompilationLimiter {
+            if (!isParallelBuildEnabled) return KotlinCompilationLimiter(null)
+
+            val maxParallelCompilations = Integer.getInteger(MAX_PARALLEL_COMPILATIONS_PROPERTY) ?: defaultMaxParallelCompilations()
+
+            KotlinBuilder.LOG.info("Parallel build is enabled, at most $maxParallelCompilations Kotlin chunks are compiled simultaneously")
+
+            return KotlinCompilationLimiter(maxParallelCompilations.coerceAtLeast(1))
+        }
+
+        private fun defaultMaxParallelCompilations(): Int {
+            val runtime = Runtime.getRuntime()
+            val byMemory = runtime.maxMemory() / (MEMORY_PER_COMPILATION_MB * 1024 * 1024)
+            return byMemory.coerceIn(1L, runtime.availableProcessors().toLong()).toInt()
+        }
+    }
+}
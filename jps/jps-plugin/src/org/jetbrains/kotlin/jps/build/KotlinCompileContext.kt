@@ -52,6 +52,8 @@ internal val CompileContext.kotlin: KotlinCompileContext
 internal val kotlinCompileContextKey = GlobalContextKey<KotlinCompileContext>("kotlin")
 
 class KotlinCompileContext(val jpsContext: CompileContext) {
+    val buildReport = KotlinBuildReport.create()
+
     val dataManager = jpsContext.projectDescriptor.dataManager
     val dataPaths = dataManager.dataPaths
     val testingLogger: TestingBuildLogger?
@@ -62,6 +64,8 @@ class KotlinCompileContext(val jpsContext: CompileContext) {
     val targetsBinding
         get() = targetsIndex.byJpsTarget
 
+    val lookupStorageFormat = LookupStorageFormat.fromSystemProperty()
+
     val lookupsCacheAttributesManager: CompositeLookupsCacheAttributesManager = makeLookupsCacheAttributesManager()
 
     val shouldCheckCacheVersions = System.getProperty(KotlinBuilder.SKIP_CACHE_VERSION_CHECK_PROPERTY) == null
@@ -80,7 +84,9 @@ class KotlinCompileContext(val jpsContext: CompileContext) {
     val fileToPathConverter: FileToPathConverter =
         JpsFileToPathConverter(jpsContext.projectDescriptor.project)
 
-    val lookupStorageManager = JpsLookupStorageManager(dataManager, fileToPathConverter)
+    val lookupStorageManager = JpsLookupStorageManager(dataManager, fileToPathConverter, lookupStorageFormat)
+
+    val compilationLimiter = KotlinCompilationLimiter.create()
 
     /**
      * Flag to prevent rebuilding twice.
@@ -89,6 +95,7 @@ class KotlinCompileContext(val jpsContext: CompileContext) {
      */
     val rebuildAfterCacheVersionChanged = RebuildAfterCacheVersionChangeMarker(dataManager)
 
+    @Volatile
     var rebuildingAllKotlin = false
 
     /**
@@ -109,7 +116,7 @@ class KotlinCompileContext(val jpsContext: CompileContext) {
         }
 
         val lookupsCacheRootPath = dataPaths.getTargetDataRoot(KotlinDataContainerTarget)
-        return CompositeLookupsCacheAttributesManager(lookupsCacheRootPath, expectedLookupsCacheComponents)
+        return CompositeLookupsCacheAttributesManager(lookupsCacheRootPath, expectedLookupsCacheComponents, lookupStorageFormat)
     }
 
     private fun loadLookupsCacheStateDiff(): CacheAttributesDiff<CompositeLookupsCacheAttributes> {
@@ -255,7 +262,9 @@ class KotlinCompileContext(val jpsContext: CompileContext) {
     }
 
     fun dispose() {
-
+        buildReport.write(dataPaths.dataStorageRoot)?.let {
+            KotlinBuilder.LOG.info("Kotlin build report is written to $it")
+        }
     }
 
     fun getChunk(rawChunk: ModuleChunk): KotlinChunk? {
@@ -17,12 +17,15 @@ import java.io.File
 
 class MessageCollectorAdapter(
     private val context: CompileContext,
-    private val kotlinTarget: KotlinModuleBuildTarget<*>?
+    private val kotlinTarget: KotlinModuleBuildTarget<*>?,
+    private val chunkReport: KotlinBuildReport.ChunkReport? = null
 ) : MessageCollector {
     private var hasErrors = false
 
     override fun report(severity: CompilerMessageSeverity, message: String, location: CompilerMessageSourceLocation?) {
         hasErrors = hasErrors || severity.isError
+        // -Xreport-perf is enabled for the build report, its measurements are not compiler output
+        if (chunkReport != null && chunkReport.recordCompilerMeasurement(message)) return
 
         var prefix = ""
         if (severity == CompilerMessageSeverity.EXCEPTION) {
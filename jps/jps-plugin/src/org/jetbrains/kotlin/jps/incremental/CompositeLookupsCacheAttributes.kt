@@ -11,13 +11,15 @@ import java.io.IOException
 
 /**
  * Attributes manager for global lookups cache that may contain lookups for several compilers (jvm, js).
- * Works by delegating to [lookupsCacheVersionManager] and managing additional file with list of executed compilers (cache components).
+ * Works by delegating to [lookupsCacheVersionManager] and managing additional files with list of executed compilers (cache components)
+ * and with [LookupStorageFormat] of the cache.
  *
  * TODO(1.2.80): got rid of shared lookup cache, replace with individual lookup cache for each compiler
  */
 class CompositeLookupsCacheAttributesManager(
     rootPath: File,
-    expectedComponents: Set<String>
+    expectedComponents: Set<String>,
+    expectedStorageFormat: LookupStorageFormat = LookupStorageFormat.PERSISTENT_HASH_MAP
 ) : CacheAttributesManager<CompositeLookupsCacheAttributes> {
     private val versionManager = lookupsCacheVersionManager(
         rootPath,
@@ -25,10 +27,11 @@ class CompositeLookupsCacheAttributesManager(
     )
 
     private val actualComponentsFile = File(rootPath, "components.txt")
+    private val actualStorageFormatFile = File(rootPath, "storage-format.txt")
 
     override val expected: CompositeLookupsCacheAttributes? =
         if (expectedComponents.isEmpty()) null
-        else CompositeLookupsCacheAttributes(versionManager.expected!!.intValue, expectedComponents)
+        else CompositeLookupsCacheAttributes(versionManager.expected!!.intValue, expectedComponents, expectedStorageFormat)
 
     override fun loadActual(): CompositeLookupsCacheAttributes? {
         val version = versionManager.loadActual() ?: return null
@@ -41,25 +44,37 @@ class CompositeLookupsCacheAttributesManager(
             return null
         }
 
-        return CompositeLookupsCacheAttributes(version.intValue, components)
+        // caches written before the format was configurable are always stored in persistent hash maps
+        val storageFormat = try {
+            if (actualStorageFormatFile.exists()) LookupStorageFormat.fromId(actualStorageFormatFile.readText().trim()) ?: return null
+            else LookupStorageFormat.PERSISTENT_HASH_MAP
+        } catch (e: IOException) {
+            return null
+        }
+
+        return CompositeLookupsCacheAttributes(version.intValue, components, storageFormat)
     }
 
     override fun writeVersion(values: CompositeLookupsCacheAttributes?) {
         if (values == null) {
             versionManager.writeVersion(null)
             actualComponentsFile.delete()
+            actualStorageFormatFile.delete()
         } else {
             versionManager.writeVersion(CacheVersion(values.version))
 
             actualComponentsFile.parentFile.mkdirs()
             actualComponentsFile.writeText(values.components.joinToString("\n"))
+            actualStorageFormatFile.writeText(values.storageFormat.id)
         }
     }
 
     override fun isCompatible(actual: CompositeLookupsCacheAttributes, expected: CompositeLookupsCacheAttributes): Boolean {
         // cache can be reused when all required (expected) components are present
         // (components that are not required anymore are not not interfere)
-        return actual.version == expected.version && actual.components.containsAll(expected.components)
+        return actual.version == expected.version &&
+                actual.storageFormat == expected.storageFormat &&
+                actual.components.containsAll(expected.components)
     }
 
     @get:TestOnly
@@ -69,7 +84,32 @@ class CompositeLookupsCacheAttributesManager(
 
 data class CompositeLookupsCacheAttributes(
     val version: Int,
-    val components: Set<String>
+    val components: Set<String>,
+    val storageFormat: LookupStorageFormat = LookupStorageFormat.PERSISTENT_HASH_MAP
 ) {
-    override fun toString() = "($version, $components)"
+    override fun toString() =
+        if (storageFormat == LookupStorageFormat.PERSISTENT_HASH_MAP) "($version, $components)"
+        else "($version, $components, ${storageFormat.id})"
+}
+
+/**
+ * Format of the global lookups cache, selected by [PROPERTY] in the build process VM options of a project.
+ * The cache is rebuilt when the format is changed.
+ */
+enum class LookupStorageFormat(val id: String) {
+    PERSISTENT_HASH_MAP("persistent-hash-map"),
+
+    /**
+     * See [MappedLookupStorage]
+     */
+    MAPPED_SEGMENTS("mapped-segments");
+
+    companion object {
+        const val PROPERTY = "kotlin.jps.lookups.storage.format"
+
+        fun fromId(id: String): LookupStorageFormat? = values().firstOrNull { it.id == id }
+
+        fun fromSystemProperty(): LookupStorageFormat =
+            System.getProperty(PROPERTY)?.let { fromId(it) } ?: PERSISTENT_HASH_MAP
+    }
 }
\ No newline at end of file
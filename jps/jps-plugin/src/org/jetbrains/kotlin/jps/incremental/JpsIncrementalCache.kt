@@ -24,6 +24,7 @@ import org.jetbrains.jps.incremental.storage.StorageOwner
 import org.jetbrains.kotlin.incremental.IncrementalCacheCommon
 import org.jetbrains.kotlin.incremental.IncrementalJsCache
 import org.jetbrains.kotlin.incremental.IncrementalJvmCache
+import org.jetbrains.kotlin.incremental.KOTLIN_CACHE_DIRECTORY_NAME
 import org.jetbrains.kotlin.incremental.storage.FileToPathConverter
 import org.jetbrains.kotlin.jps.build.KotlinBuilder
 import org.jetbrains.kotlin.jps.targets.KotlinModuleBuildTarget
@@ -39,12 +40,31 @@ class JpsIncrementalJvmCache(
     paths: BuildDataPaths,
     pathConverter: FileToPathConverter
 ) : IncrementalJvmCache(paths.getTargetDataRoot(target), target.outputDir, pathConverter), JpsIncrementalCache {
+    val memberFingerprints = MemberFingerprintsStorage(
+        File(File(paths.getTargetDataRoot(target), KOTLIN_CACHE_DIRECTORY_NAME), MemberFingerprintsStorage.DIRECTORY_NAME)
+    )
+
     override fun addJpsDependentCache(cache: JpsIncrementalCache) {
         if (cache is JpsIncrementalJvmCache) {
             addDependentCache(cache)
         }
     }
 
+    override fun flush(memoryCachesOnly: Boolean) {
+        super.flush(memoryCachesOnly)
+        memberFingerprints.flush(memoryCachesOnly)
+    }
+
+    override fun close() {
+        super.close()
+        memberFingerprints.close()
+    }
+
+    override fun clean() {
+        super.clean()
+        memberFingerprints.clean()
+    }
+
     override fun debugLog(message: String) {
         KotlinBuilder.LOG.debug(message)
     }
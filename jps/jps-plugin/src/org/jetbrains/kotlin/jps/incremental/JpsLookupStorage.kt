@@ -17,22 +17,47 @@
 package org.jetbrains.kotlin.jps.incremental
 
 import com.intellij.openapi.diagnostic.Logger
+import com.intellij.util.containers.MultiMap
+import org.jetbrains.annotations.TestOnly
 import org.jetbrains.jps.builders.storage.BuildDataCorruptedException
 import org.jetbrains.jps.builders.storage.StorageProvider
 import org.jetbrains.jps.incremental.storage.BuildDataManager
 import org.jetbrains.jps.incremental.storage.StorageOwner
+import org.jetbrains.kotlin.incremental.ICReporter
 import org.jetbrains.kotlin.incremental.LookupStorage
+import org.jetbrains.kotlin.incremental.LookupSymbol
 import org.jetbrains.kotlin.incremental.storage.FileToPathConverter
 import java.io.File
 import java.io.IOException
 
 private object LookupStorageLock
 
+/**
+ * Storage of lookups: for every [LookupSymbol], paths of source files where it was looked up
+ *
+ * Implemented by [LookupStorage] on persistent hash maps and by [MappedLookupStorage],
+ * an implementation is selected by [CompositeLookupsCacheAttributes.storageFormat]
+ */
+interface JpsLookupStorage : StorageOwner {
+    fun get(lookupSymbol: LookupSymbol): Collection<String>
+
+    fun addAll(lookups: MultiMap<LookupSymbol, String>, allPaths: Set<String>)
+
+    fun removeLookupsFrom(files: Sequence<File>)
+
+    @TestOnly
+    fun forceGC()
+
+    @TestOnly
+    fun dump(lookupSymbols: Set<LookupSymbol>): String
+}
+
 class JpsLookupStorageManager(
     private val buildDataManager: BuildDataManager,
-    pathConverter: FileToPathConverter
+    pathConverter: FileToPathConverter,
+    storageFormat: LookupStorageFormat = LookupStorageFormat.PERSISTENT_HASH_MAP
 ) {
-    private val storageProvider = JpsLookupStorageProvider(pathConverter)
+    private val storageProvider = JpsLookupStorageProvider(pathConverter, storageFormat)
 
     fun cleanLookupStorage(log: Logger) {
         synchronized(LookupStorageLock) {
@@ -46,7 +71,7 @@ class JpsLookupStorageManager(
         }
     }
 
-    fun <T> withLookupStorage(fn: (LookupStorage) -> T): T {
+    fun <T> withLookupStorage(fn: (JpsLookupStorage) -> T): T {
         synchronized(LookupStorageLock) {
             try {
                 val lookupStorage = buildDataManager.getStorage(KotlinDataContainerTarget, storageProvider)
@@ -58,14 +83,50 @@ class JpsLookupStorageManager(
     }
 
     private class JpsLookupStorageProvider(
-        private val pathConverter: FileToPathConverter
+        private val pathConverter: FileToPathConverter,
+        private val storageFormat: LookupStorageFormat
     ) : StorageProvider<JpsLookupStorage>() {
         override fun createStorage(targetDataDir: File): JpsLookupStorage =
-            JpsLookupStorage(targetDataDir, pathConverter)
+            storageFormat.createStorage(targetDataDir, pathConverter)
+    }
+}
+
+fun LookupStorageFormat.createStorage(targetDataDir: File, pathConverter: FileToPathConverter): JpsLookupStorage =
+    when (this) {
+        LookupStorageFormat.PERSISTENT_HASH_MAP -> PersistentHashMapLookupStorage(targetDataDir, pathConverter)
+        LookupStorageFormat.MAPPED_SEGMENTS -> MappedLookupStorage(File(targetDataDir, MappedLookupStorage.DIRECTORY_NAME), pathConverter)
     }
 
-    private class JpsLookupStorage(
-        targetDataDir: File,
-        pathConverter: FileToPathConverter
-    ) : StorageOwner, LookupStorage(targetDataDir, pathConverter)
+/**
+ * @param memberFingerprintsFilter excludes files which are not affected by changes of looked up members
+ */
+fun mapLookupSymbolsToFiles(
+    lookupStorage: JpsLookupStorage,
+    lookupSymbols: Iterable<LookupSymbol>,
+    reporter: ICReporter,
+    memberFingerprintsFilter: MemberFingerprintsFilter? = null
+): Set<File> {
+    val dirtyFiles = HashSet<File>()
+    for (lookup in lookupSymbols) {
+        val lookupFiles = lookupStorage.get(lookup).map(::File)
+        val affectedFiles =
+            if (memberFingerprintsFilter == null) lookupFiles
+            else lookupFiles.filter { it in dirtyFiles || memberFingerprintsFilter.isAffected(lookup, it) }
+
+        if (affectedFiles.size < lookupFiles.size) {
+            reporter.reportVerbose {
+                "${lookup.scope}#${lookup.name} is changed, files are not affected according to member fingerprints: ${lookupFiles - affectedFiles}"
+            }
+        }
+        if (affectedFiles.isNotEmpty()) {
+            reporter.reportVerbose { "${lookup.scope}#${lookup.name} is changed, marking files dirty: $affectedFiles" }
+        }
+        dirtyFiles.addAll(affectedFiles)
+    }
+    return dirtyFiles
 }
+
+private class PersistentHashMapLookupStorage(
+    targetDataDir: File,
+    pathConverter: FileToPathConverter
+) : JpsLookupStorage, LookupStorage(targetDataDir, pathConverter)
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.*
+import java.util.zip.ZipEntry
+import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
+
+/**
+ * Directory with snapshots of JPS build data, each snapshot is a zip archive named by a key,
+ * see [org.jetbrains.kotlin.jps.build.KotlinCachesSnapshots] for how keys are chosen.
+ *
+ * A snapshot contains the whole JPS data storage except the state of dirty files of the exporting build ([FS_STATE_FILE_NAME]):
+ * source file stamps, source-to-output mappings and dependency mappings of JPS, and all Kotlin caches with their version files.
+ * Paths inside all of them must be relative to the project directory (JPS portable caches and
+ * [org.jetbrains.kotlin.jps.build.JpsFileToPathConverter]), so a snapshot can be imported into a checkout in another location.
+ *
+ * The data describes the compiled classes, so output directories are archived along with it by paths relative
+ * to the project directory. The first entry of a snapshot holds the versions of Kotlin caches, see [readCacheVersions].
+ */
+class KotlinCachesSnapshotStore(private val storeDir: File) {
+    fun snapshotFile(key: String): File = File(storeDir, "$key.zip")
+
+    /**
+     * Archives the data storage [dataStorageRoot] with [cacheVersions] and contents of [outputDirs] under [projectDir].
+     * The archive is written to a temporary file first, so concurrent imports never see an incomplete snapshot.
+     */
+    fun export(
+        key: String,
+        dataStorageRoot: File,
+        projectDir: File,
+        outputDirs: Collection<File>,
+        cacheVersions: Map<String, String>
+    ): File {
+        val snapshotFile = snapshotFile(key)
+        storeDir.mkdirs()
+
+        val tempFile = File.createTempFile(key, ".tmp", storeDir)
+        try {
+            ZipOutputStream(tempFile.outputStream().buffered()).use { zip ->
+                zip.putNextEntry(ZipEntry(CACHE_VERSIONS_ENTRY))
+                Properties().apply { putAll(cacheVersions) }.store(zip, null)
+                zip.closeEntry()
+
+                fun addFile(file: File, entryName: String) {
+                    zip.putNextEntry(ZipEntry(entryName))
+                    file.inputStream().use { it.copyTo(zip) }
+                    zip.closeEntry()
+                }
+
+                for (file in dataFiles(dataStorageRoot)) {
+                    addFile(file, DATA_PREFIX + relativePath(file, dataStorageRoot))
+                }
+
+                for (outputDir in outputDirs) {
+                    outputDir.walkTopDown().filter { it.isFile }.forEach { file ->
+                        addFile(file, OUTPUTS_PREFIX + relativePath(file, projectDir))
+                    }
+                }
+            }
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            tempFile.delete()
+        }
+
+        return snapshotFile
+    }
+
+    /**
+     * Versions of the caches in the snapshot for [key] passed to [export], `null` if there is no such snapshot
+     */
+    fun readCacheVersions(key: String): Map<String, String>? {
+        val snapshotFile = snapshotFile(key)
+        if (!snapshotFile.isFile) return null
+
+        ZipInputStream(snapshotFile.inputStream().buffered()).use { zip ->
+            val entry = zip.nextEntry
+            if (entry?.name != CACHE_VERSIONS_ENTRY) throw IOException("Cache versions are not found in $snapshotFile")
+
+            val properties = Properties().apply { load(zip) }
+            return properties.stringPropertyNames().associateWith { properties.getProperty(it) }
+        }
+    }
+
+    /**
+     * Unpacks the snapshot for [key] into [dataStorageRoot] and restores the outputs archived with it under [projectDir].
+     * Existing files with the same paths are overwritten, the caller is expected to import only into an empty data storage.
+     *
+     * @return `false` if there is no such snapshot
+     */
+    fun import(key: String, dataStorageRoot: File, projectDir: File): Boolean {
+        val snapshotFile = snapshotFile(key)
+        if (!snapshotFile.isFile) return false
+
+        ZipInputStream(snapshotFile.inputStream().buffered()).use { zip ->
+            while (true) {
+                val entry = zip.nextEntry ?: break
+                if (entry.isDirectory || entry.name == CACHE_VERSIONS_ENTRY) continue
+
+                val file = when {
+                    entry.name.startsWith(DATA_PREFIX) -> entryFile(dataStorageRoot, entry.name.removePrefix(DATA_PREFIX), snapshotFile)
+                    entry.name.startsWith(OUTPUTS_PREFIX) -> entryFile(projectDir, entry.name.removePrefix(OUTPUTS_PREFIX), snapshotFile)
+                    else -> throw IOException("Unexpected entry ${entry.name} in $snapshotFile")
+                }
+
+                file.parentFile.mkdirs()
+                file.outputStream().use { zip.copyTo(it) }
+            }
+        }
+
+        return true
+    }
+
+    private fun entryFile(root: File, path: String, snapshotFile: File): File {
+        val file = File(root, path)
+        if (!FileUtil.isAncestor(root, file, true)) throw IOException("Unexpected entry $path in $snapshotFile")
+        return file
+    }
+
+    private fun relativePath(file: File, root: File): String = FileUtil.toSystemIndependentName(file.relativeTo(root).path)
+
+    companion object {
+        private const val CACHE_VERSIONS_ENTRY = "cache-versions.properties"
+        private const val DATA_PREFIX = "data/"
+        private const val OUTPUTS_PREFIX = "outputs/"
+
+        /**
+         * Dirty files and deleted sources of the last build, with absolute paths of the exporting machine.
+         * Without it JPS finds dirty files of the importing checkout by comparing their stamps with the imported ones.
+         */
+        const val FS_STATE_FILE_NAME = "fs_state.dat"
+
+        fun dataFiles(dataStorageRoot: File): List<File> =
+            dataStorageRoot.walkTopDown()
+                .filter { it.isFile && !(it.name == FS_STATE_FILE_NAME && it.parentFile == dataStorageRoot) }
+                .toList()
+    }
+}
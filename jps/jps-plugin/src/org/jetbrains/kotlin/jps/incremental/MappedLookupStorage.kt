@@ -0,0 +1,547 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.containers.MultiMap
+import com.intellij.util.io.ByteBufferUtil
+import gnu.trove.TIntArrayList
+import gnu.trove.TIntHashSet
+import gnu.trove.TIntObjectHashMap
+import org.jetbrains.annotations.TestOnly
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.incremental.storage.FileToPathConverter
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.IntBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+
+/**
+ * Lookup storage on a memory-mapped segment with lookups of the last compaction and append-only logs of changes made after it.
+ *
+ * - `lookups.<generation>.segment`: lookup symbols and paths of files converted by [pathConverter], for every symbol a sorted array
+ *   of ids of files where it was looked up, and numbers of lookups in every file. Postings are read from the mapped segment directly.
+ * - `symbols.log`: lookup symbols added after the compaction, their ids follow the ones of the segment
+ * - `files.log`: paths of files added after the compaction, their ids follow the ones of the segment
+ * - `postings.log`: pairs of symbol and file ids added after the compaction, and tombstones of files removed by [removeLookupsFrom]
+ *
+ * Updates are only appended, so a round which changes a few files writes only postings of these files instead of
+ * rewriting postings of all looked up symbols. Only the logs are replayed into memory when the storage is opened.
+ *
+ * On [flush] the storage is compacted when the logs contain more postings than a half of the segment: a segment of the next
+ * generation is written with live lookups only, so symbols and files which are not looked up anymore are dropped, and the logs
+ * are started over. Logs start with the generation of the segment they follow, logs of older generations are already merged
+ * into the segment and are ignored, so the storage stays consistent if the process is terminated during the compaction.
+ * Symbols and files are appended before postings referring to them, so any other inconsistency found on opening means a corrupted storage.
+ *
+ * The segment stays mapped until it's replaced by compaction, removed by [clean] or the storage is closed, and is unmapped
+ * before its file is deleted: a mapped file can't be deleted on Windows. Logs are read into memory and never stay mapped.
+ * Files which can't be deleted fail the operation with [IOException] instead of leaving a storage that would be read wrongly.
+ */
+class MappedLookupStorage(
+    private val storageDir: File,
+    private val pathConverter: FileToPathConverter
+) : JpsLookupStorage {
+    private val symbolsFile = File(storageDir, "symbols.log")
+    private val filesFile = File(storageDir, "files.log")
+    private val postingsFile = File(storageDir, "postings.log")
+
+    private var generation = 0
+
+    private val symbols = ArrayList<LookupSymbol>()
+    private val symbolIds = HashMap<LookupSymbol, Int>()
+    private val paths = ArrayList<String>()
+    private val pathIds = HashMap<String, Int>()
+
+    // files of a segment symbol `s` are `segmentFileIds[segmentOffsets[s] until segmentOffsets[s + 1]]`
+    private var segmentBuffer: ByteBuffer? = null
+    private var segmentSymbolsCount = 0
+    private var segmentFilesCount = 0
+    private var segmentOffsets: IntBuffer = EMPTY_BUFFER
+    private var segmentFileIds: IntBuffer = EMPTY_BUFFER
+    private var segmentPostingsByFile: IntBuffer = EMPTY_BUFFER
+
+    // files which lookups were removed after the compaction, their postings in the segment are dead
+    private val removedSegmentFiles = TIntHashSet()
+
+    // postings added after the compaction
+    private val addedFilesBySymbol = TIntObjectHashMap<TIntHashSet>()
+    private val addedSymbolsByFile = TIntObjectHashMap<TIntHashSet>()
+
+    private var segmentPostings = 0
+    private var addedPostings = 0
+    private var garbagePostings = 0
+
+    private var symbolsOutput: DataOutputStream? = null
+    private var filesOutput: DataOutputStream? = null
+    private val pendingPostings = ByteArrayOutputStream()
+    private val pendingPostingsOutput = DataOutputStream(pendingPostings)
+
+    init {
+        load()
+    }
+
+    @Synchronized
+    override fun get(lookupSymbol: LookupSymbol): Collection<String> {
+        val symbolId = symbolIds[lookupSymbol] ?: return emptyList()
+        val result = ArrayList<String>()
+
+        if (symbolId < segmentSymbolsCount) {
+            for (index in segmentOffsets[symbolId] until segmentOffsets[symbolId + 1]) {
+                val fileId = segmentFileIds[index]
+                if (!removedSegmentFiles.contains(fileId)) result.add(pathConverter.toFile(paths[fileId]).path)
+            }
+        }
+
+        addedFilesBySymbol[symbolId]?.forEach { fileId ->
+            result.add(pathConverter.toFile(paths[fileId]).path)
+            true
+        }
+
+        return result
+    }
+
+    @Synchronized
+    override fun addAll(lookups: MultiMap<LookupSymbol, String>, allPaths: Set<String>) {
+        val fileIdByPath = allPaths.associateWith { fileId(pathConverter.toPath(File(it))) }
+
+        for ((lookupSymbol, lookupPaths) in lookups.entrySet()) {
+            if (lookupPaths.isEmpty()) continue
+            val symbolId = symbolId(lookupSymbol)
+
+            for (path in lookupPaths) {
+                val fileId = fileIdByPath[path] ?: fileId(pathConverter.toPath(File(path)))
+                if (addPosting(symbolId, fileId)) writePosting(symbolId, fileId)
+            }
+        }
+    }
+
+    @Synchronized
+    override fun removeLookupsFrom(files: Sequence<File>) {
+        for (file in files) {
+            val fileId = pathIds[pathConverter.toPath(file)] ?: continue
+            if (removeFile(fileId)) writePosting(TOMBSTONE, fileId)
+        }
+    }
+
+    @Synchronized
+    override fun flush(memoryCachesOnly: Boolean) {
+        if (memoryCachesOnly) return
+
+        symbolsOutput?.flush()
+        filesOutput?.flush()
+
+        val logPostings = addedPostings + garbagePostings
+        if (logPostings >= COMPACTION_THRESHOLD && logPostings > segmentPostings / 2) {
+            compact()
+        } else if (pendingPostings.size() > 0) {
+            openLog(postingsFile).use { pendingPostings.writeTo(it) }
+            pendingPostings.reset()
+        }
+    }
+
+    @Synchronized
+    override fun close() {
+        flush(memoryCachesOnly = false)
+        closeOutputs()
+        resetState()
+    }
+
+    @Synchronized
+    override fun clean() {
+        closeOutputs()
+        pendingPostings.reset()
+        resetState()
+        // a new log would be written for the generation 0 and ignored after a segment left from the deleted ones
+        if (!FileUtil.delete(storageDir)) throw IOException("Could not delete $storageDir")
+        generation = 0
+    }
+
+    @TestOnly
+    @Synchronized
+    override fun forceGC() {
+        symbolsOutput?.flush()
+        filesOutput?.flush()
+        compact()
+    }
+
+    @TestOnly
+    @Synchronized
+    override fun dump(lookupSymbols: Set<LookupSymbol>): String = buildString {
+        for (lookupSymbol in lookupSymbols.sortedWith(compareBy({ it.scope }, { it.name }))) {
+            val lookupPaths = get(lookupSymbol).sorted()
+            if (lookupPaths.isNotEmpty()) {
+                appendLine("$lookupSymbol -> ${lookupPaths.joinToString()}")
+            }
+        }
+    }
+
+    private fun symbolId(lookupSymbol: LookupSymbol): Int =
+        symbolIds.getOrPut(lookupSymbol) {
+            val output = symbolsOutput ?: openLog(symbolsFile).also { symbolsOutput = it }
+            output.writeString(lookupSymbol.name)
+            output.writeString(lookupSymbol.scope)
+
+            symbols.add(lookupSymbol)
+            symbols.size - 1
+        }
+
+    private fun fileId(path: String): Int =
+        pathIds.getOrPut(path) {
+            val output = filesOutput ?: openLog(filesFile).also { filesOutput = it }
+            output.writeString(path)
+
+            paths.add(path)
+            paths.size - 1
+        }
+
+    private fun writePosting(symbolId: Int, fileId: Int) {
+        pendingPostingsOutput.writeInt(symbolId)
+        pendingPostingsOutput.writeInt(fileId)
+    }
+
+    /**
+     * @return `false` if the file is already known to look up the symbol
+     */
+    private fun addPosting(symbolId: Int, fileId: Int): Boolean {
+        if (isInSegment(symbolId, fileId)) return false
+
+        val fileIds = addedFilesBySymbol[symbolId] ?: TIntHashSet().also { addedFilesBySymbol.put(symbolId, it) }
+        if (!fileIds.add(fileId)) return false
+
+        val symbolIds = addedSymbolsByFile[fileId] ?: TIntHashSet().also { addedSymbolsByFile.put(fileId, it) }
+        symbolIds.add(symbolId)
+        addedPostings++
+        return true
+    }
+
+    /**
+     * @return `false` if there were no lookups in the file
+     */
+    private fun removeFile(fileId: Int): Boolean {
+        var removedPostings = 0
+
+        if (fileId < segmentFilesCount && segmentPostingsByFile[fileId] > 0 && removedSegmentFiles.add(fileId)) {
+            removedPostings += segmentPostingsByFile[fileId]
+            segmentPostings -= segmentPostingsByFile[fileId]
+        }
+
+        val symbolIds = addedSymbolsByFile.remove(fileId)
+        symbolIds?.forEach { symbolId ->
+            val fileIds = addedFilesBySymbol[symbolId]
+            fileIds.remove(fileId)
+            if (fileIds.isEmpty) addedFilesBySymbol.remove(symbolId)
+            true
+        }
+        if (symbolIds != null) {
+            removedPostings += symbolIds.size()
+            addedPostings -= symbolIds.size()
+        }
+
+        if (removedPostings == 0) return false
+        // the tombstone itself is garbage too
+        garbagePostings += removedPostings + 1
+        return true
+    }
+
+    private fun isInSegment(symbolId: Int, fileId: Int): Boolean {
+        if (symbolId >= segmentSymbolsCount || fileId >= segmentFilesCount || removedSegmentFiles.contains(fileId)) return false
+
+        var low = segmentOffsets[symbolId]
+        var high = segmentOffsets[symbolId + 1] - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            val middleFileId = segmentFileIds[middle]
+            when {
+                middleFileId < fileId -> low = middle + 1
+                middleFileId > fileId -> high = middle - 1
+                else -> return true
+            }
+        }
+        return false
+    }
+
+    /**
+     * Writes live lookups to a segment of the next generation, drops the logs and reopens the storage
+     */
+    private fun compact() {
+        closeOutputs()
+        pendingPostings.reset()
+        storageDir.mkdirs()
+
+        val newPaths = ArrayList<String>()
+        val newFileIds = IntArray(paths.size) { -1 }
+        val newSymbols = ArrayList<LookupSymbol>()
+        val offsets = TIntArrayList()
+        val fileIds = TIntArrayList()
+        val postingsByFile = TIntArrayList()
+
+        val symbolFileIds = TIntArrayList()
+        for (symbolId in symbols.indices) {
+            symbolFileIds.resetQuick()
+            if (symbolId < segmentSymbolsCount) {
+                for (index in segmentOffsets[symbolId] until segmentOffsets[symbolId + 1]) {
+                    val fileId = segmentFileIds[index]
+                    if (!removedSegmentFiles.contains(fileId)) symbolFileIds.add(fileId)
+                }
+            }
+            addedFilesBySymbol[symbolId]?.forEach { fileId ->
+                symbolFileIds.add(fileId)
+                true
+            }
+            if (symbolFileIds.isEmpty) continue
+
+            offsets.add(fileIds.size())
+            newSymbols.add(symbols[symbolId])
+            for (index in 0 until symbolFileIds.size()) {
+                val fileId = symbolFileIds[index]
+                if (newFileIds[fileId] < 0) {
+                    newFileIds[fileId] = newPaths.size
+                    newPaths.add(paths[fileId])
+                    postingsByFile.add(0)
+                }
+                symbolFileIds[index] = newFileIds[fileId]
+                postingsByFile[newFileIds[fileId]]++
+            }
+            symbolFileIds.sort()
+            fileIds.add(symbolFileIds.toNativeArray())
+        }
+        offsets.add(fileIds.size())
+
+        val newGeneration = generation + 1
+        val compactedFile = File(storageDir, "${segmentFile(newGeneration).name}.compacted")
+        DataOutputStream(BufferedOutputStream(FileOutputStream(compactedFile))).use { output ->
+            output.writeInt(newGeneration)
+            output.writeInt(newSymbols.size)
+            output.writeInt(newPaths.size)
+            for (lookupSymbol in newSymbols) {
+                output.writeString(lookupSymbol.name)
+                output.writeString(lookupSymbol.scope)
+            }
+            newPaths.forEach { output.writeString(it) }
+            output.writeInts(offsets)
+            output.writeInts(fileIds)
+            output.writeInts(postingsByFile)
+        }
+        Files.move(compactedFile.toPath(), segmentFile(newGeneration).toPath(), StandardCopyOption.ATOMIC_MOVE)
+
+        // logs and segments of the previous generations are ignored from now on
+        val previousSegmentFile = segmentFile(generation)
+        resetState()
+        for (file in listOf(symbolsFile, filesFile, postingsFile, previousSegmentFile)) {
+            delete(file)
+        }
+
+        load()
+    }
+
+    /**
+     * Unmaps the segment and clears all the data read from it and from the logs, except the [generation]
+     */
+    private fun resetState() {
+        symbols.clear()
+        symbolIds.clear()
+        paths.clear()
+        pathIds.clear()
+        segmentSymbolsCount = 0
+        segmentFilesCount = 0
+        segmentOffsets = EMPTY_BUFFER
+        segmentFileIds = EMPTY_BUFFER
+        segmentPostingsByFile = EMPTY_BUFFER
+        segmentBuffer?.let { ByteBufferUtil.cleanBuffer(it) }
+        segmentBuffer = null
+        removedSegmentFiles.clear()
+        addedFilesBySymbol.clear()
+        addedSymbolsByFile.clear()
+        segmentPostings = 0
+        addedPostings = 0
+        garbagePostings = 0
+    }
+
+    private fun load() {
+        if (!storageDir.exists()) return
+
+        loadSegment()
+
+        // the segment may be written but the logs of its previous generation not deleted yet,
+        // new records must not be appended to them
+        for (logFile in listOf(symbolsFile, filesFile, postingsFile)) {
+            if (logGeneration(logFile) != generation) delete(logFile)
+        }
+
+        readLog(symbolsFile) { buffer ->
+            val lookupSymbol = LookupSymbol(name = buffer.readString(), scope = buffer.readString())
+            symbolIds[lookupSymbol] = symbols.size
+            symbols.add(lookupSymbol)
+        }
+
+        readLog(filesFile) { buffer ->
+            val path = buffer.readString()
+            pathIds[path] = paths.size
+            paths.add(path)
+        }
+
+        val postings = read(postingsFile) ?: return
+        postings.position(LOG_HEADER_SIZE)
+        if (postings.remaining() % POSTING_SIZE != 0) throw IOException("Unexpected size of $postingsFile: ${postings.capacity()}")
+
+        while (postings.hasRemaining()) {
+            val symbolId = postings.int
+            val fileId = postings.int
+            if (fileId !in paths.indices || (symbolId != TOMBSTONE && symbolId !in symbols.indices)) {
+                throw IOException("Posting ($symbolId, $fileId) in $postingsFile refers to unknown symbol or file")
+            }
+
+            if (symbolId == TOMBSTONE) {
+                removeFile(fileId)
+            } else if (!addPosting(symbolId, fileId)) {
+                garbagePostings++
+            }
+        }
+    }
+
+    private fun loadSegment() {
+        val segmentFiles = storageDir.listFiles { file -> SEGMENT_NAME_REGEX.matches(file.name) }.orEmpty()
+        val segmentFile = segmentFiles.maxByOrNull { segmentGeneration(it) }
+        if (segmentFile == null) {
+            generation = 0
+            return
+        }
+        // segments of older generations are left when the storage is terminated during compaction
+        segmentFiles.filter { it != segmentFile }.forEach { delete(it) }
+
+        val buffer = map(segmentFile) ?: return
+        segmentBuffer = buffer
+        try {
+            generation = buffer.int
+            if (generation != segmentGeneration(segmentFile)) throw IOException("Unexpected generation $generation of $segmentFile")
+
+            segmentSymbolsCount = buffer.int
+            segmentFilesCount = buffer.int
+            repeat(segmentSymbolsCount) {
+                val lookupSymbol = LookupSymbol(name = buffer.readString(), scope = buffer.readString())
+                symbolIds[lookupSymbol] = symbols.size
+                symbols.add(lookupSymbol)
+            }
+            repeat(segmentFilesCount) {
+                val path = buffer.readString()
+                pathIds[path] = paths.size
+                paths.add(path)
+            }
+
+            segmentOffsets = buffer.sliceInts(segmentSymbolsCount + 1)
+            segmentPostings = segmentOffsets[segmentSymbolsCount]
+            segmentFileIds = buffer.sliceInts(segmentPostings)
+            segmentPostingsByFile = buffer.sliceInts(segmentFilesCount)
+        } catch (e: RuntimeException) {
+            // BufferUnderflowException or IllegalArgumentException when the segment is incomplete
+            throw IOException("Could not read $segmentFile", e)
+        }
+    }
+
+    private fun segmentFile(generation: Int) = File(storageDir, "lookups.$generation.segment")
+
+    private fun segmentGeneration(file: File): Int = SEGMENT_NAME_REGEX.matchEntire(file.name)!!.groupValues[1].toInt()
+
+    private fun logGeneration(file: File): Int? {
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(FileInputStream(file)).use { it.readInt() }
+        } catch (e: EOFException) {
+            null
+        }
+    }
+
+    private inline fun readLog(file: File, readRecord: (ByteBuffer) -> Unit) {
+        val buffer = read(file) ?: return
+        try {
+            buffer.position(LOG_HEADER_SIZE)
+            while (buffer.hasRemaining()) {
+                readRecord(buffer)
+            }
+        } catch (e: RuntimeException) {
+            // BufferUnderflowException or NegativeArraySizeException when the last record is incomplete
+            throw IOException("Could not read $file", e)
+        }
+    }
+
+    private fun map(file: File): ByteBuffer? {
+        if (!file.exists()) return null
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        }
+    }
+
+    private fun read(file: File): ByteBuffer? {
+        if (!file.exists()) return null
+        return ByteBuffer.wrap(file.readBytes())
+    }
+
+    private fun delete(file: File) {
+        if (file.exists() && !file.delete()) throw IOException("Could not delete $file")
+    }
+
+    /**
+     * Opens [file] for appending, a new log starts with the generation of the segment it follows
+     */
+    private fun openLog(file: File): DataOutputStream {
+        storageDir.mkdirs()
+        val isNew = !file.exists() || file.length() == 0L
+        return DataOutputStream(BufferedOutputStream(FileOutputStream(file, true))).also {
+            if (isNew) it.writeInt(generation)
+        }
+    }
+
+    private fun closeOutputs() {
+        symbolsOutput?.close()
+        symbolsOutput = null
+        filesOutput?.close()
+        filesOutput = null
+    }
+
+    private fun DataOutputStream.writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun DataOutputStream.writeInts(values: TIntArrayList) {
+        for (index in 0 until values.size()) {
+            writeInt(values[index])
+        }
+    }
+
+    private fun ByteBuffer.readString(): String {
+        val bytes = ByteArray(int)
+        get(bytes)
+        return String(bytes, Charsets.UTF_8)
+    }
+
+    /**
+     * View of the next [count] ints of the buffer, which position is moved after them
+     */
+    private fun ByteBuffer.sliceInts(count: Int): IntBuffer {
+        val end = position() + count * Int.SIZE_BYTES
+        val result = (duplicate().limit(end) as ByteBuffer).slice().asIntBuffer()
+        position(end)
+        return result
+    }
+
+    companion object {
+        const val DIRECTORY_NAME = "mapped-lookups"
+
+        private const val TOMBSTONE = -1
+        private const val POSTING_SIZE = 8
+        private const val LOG_HEADER_SIZE = 4
+        private const val COMPACTION_THRESHOLD = 1 shl 16
+
+        private val SEGMENT_NAME_REGEX = Regex("lookups\\.(\\d+)\\.segment")
+        private val EMPTY_BUFFER: IntBuffer = IntBuffer.allocate(0)
+    }
+}
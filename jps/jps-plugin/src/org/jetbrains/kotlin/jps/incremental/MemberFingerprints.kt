@@ -0,0 +1,216 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import org.jetbrains.org.objectweb.asm.*
+
+/**
+ * ABI fingerprints of non-private (including synthetic) members of a compiled class: JVM name, erased descriptor, visibility and other flags,
+ * generic signature and annotations (including nullability annotations of parameters).
+ *
+ * Fingerprint has a form of `<kind> <name> <descriptor>|<details>`, where `<kind>` is [METHOD], [FIELD] or [CONSTANT].
+ * The `<name> <descriptor>` part is a [memberKey], which is matched with [ClassUsages.members] of other classes.
+ *
+ * Fingerprints are used by [MemberFingerprintsFilter] when enabled by the [ENABLED_PROPERTY] system property.
+ */
+object MemberFingerprints {
+    const val ENABLED_PROPERTY = "kotlin.jps.member.fingerprints"
+
+    const val METHOD = 'M'
+    const val FIELD = 'F'
+    const val CONSTANT = 'C'
+
+    val isEnabled: Boolean
+        get() = System.getProperty(ENABLED_PROPERTY)?.toBoolean() == true
+
+    fun of(classBytes: ByteArray): Set<String> {
+        val result = HashSet<String>()
+
+        ClassReader(classBytes).accept(object : ClassVisitor(Opcodes.API_VERSION) {
+            override fun visitMethod(
+                access: Int, name: String, descriptor: String, signature: String?, exceptions: Array<out String>?
+            ): MethodVisitor? {
+                if (!isAbi(access)) return null
+
+                val annotations = ArrayList<String>()
+                return object : MethodVisitor(Opcodes.API_VERSION) {
+                    override fun visitAnnotation(annotationDescriptor: String, visible: Boolean): AnnotationVisitor? {
+                        annotations.add(annotationDescriptor)
+                        return null
+                    }
+
+                    override fun visitParameterAnnotation(parameter: Int, annotationDescriptor: String, visible: Boolean): AnnotationVisitor? {
+                        annotations.add("$parameter:$annotationDescriptor")
+                        return null
+                    }
+
+                    override fun visitEnd() {
+                        result.add(fingerprint(METHOD, access, name, descriptor, signature, annotations))
+                    }
+                }
+            }
+
+            override fun visitField(access: Int, name: String, descriptor: String, signature: String?, value: Any?): FieldVisitor? {
+                if (!isAbi(access)) return null
+
+                val annotations = ArrayList<String>()
+                return object : FieldVisitor(Opcodes.API_VERSION) {
+                    override fun visitAnnotation(annotationDescriptor: String, visible: Boolean): AnnotationVisitor? {
+                        annotations.add(annotationDescriptor)
+                        return null
+                    }
+
+                    override fun visitEnd() {
+                        // Values of constants are inlined into usages, so usages can't be found by references
+                        val kind = if (value != null) CONSTANT else FIELD
+                        result.add(fingerprint(kind, access, name, descriptor, signature, annotations))
+                    }
+                }
+            }
+        }, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+        return result
+    }
+
+    /**
+     * Members referenced from the code of a class or declared in it (they may override removed members),
+     * direct supertypes of the class, and names which may refer to members without such references:
+     * string constants (e.g. used by reflection), annotation arguments, local variables (e.g. markers of inlined functions `$i$f$<name>`)
+     * and simple names of classes owning referenced members (e.g. a constructor call may be resolved to an added function instead)
+     */
+    fun usages(classBytes: ByteArray): ClassUsages {
+        val members = HashSet<String>()
+        val names = HashSet<String>()
+        val supertypes = HashSet<String>()
+
+        val annotationVisitor = object : AnnotationVisitor(Opcodes.API_VERSION) {
+            override fun visit(name: String?, value: Any?) {
+                name?.let(names::add)
+                if (value is String) names.add(value)
+            }
+
+            override fun visitEnum(name: String?, descriptor: String?, value: String) {
+                name?.let(names::add)
+                names.add(value)
+            }
+
+            override fun visitAnnotation(name: String?, descriptor: String?): AnnotationVisitor {
+                name?.let(names::add)
+                return this
+            }
+
+            override fun visitArray(name: String?): AnnotationVisitor {
+                name?.let(names::add)
+                return this
+            }
+        }
+
+        fun addConstant(value: Any?) {
+            when (value) {
+                is String -> names.add(value)
+                is Handle -> members.add(memberKey(value.name, value.desc))
+            }
+        }
+
+        val methodVisitor = object : MethodVisitor(Opcodes.API_VERSION) {
+            override fun visitMethodInsn(opcode: Int, owner: String, name: String, descriptor: String, isInterface: Boolean) {
+                members.add(memberKey(name, descriptor))
+                names.add(simpleName(owner))
+            }
+
+            override fun visitFieldInsn(opcode: Int, owner: String, name: String, descriptor: String) {
+                members.add(memberKey(name, descriptor))
+                names.add(simpleName(owner))
+            }
+
+            override fun visitInvokeDynamicInsn(name: String, descriptor: String, handle: Handle, vararg arguments: Any?) {
+                names.add(name)
+                addConstant(handle)
+                arguments.forEach(::addConstant)
+            }
+
+            override fun visitLdcInsn(value: Any?) {
+                addConstant(value)
+            }
+
+            override fun visitLocalVariable(name: String, descriptor: String, signature: String?, start: Label, end: Label, index: Int) {
+                names.add(name)
+            }
+
+            override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = annotationVisitor
+
+            override fun visitAnnotationDefault(): AnnotationVisitor = annotationVisitor
+
+            override fun visitParameterAnnotation(parameter: Int, descriptor: String, visible: Boolean): AnnotationVisitor =
+                annotationVisitor
+        }
+
+        ClassReader(classBytes).accept(object : ClassVisitor(Opcodes.API_VERSION) {
+            override fun visit(
+                version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?
+            ) {
+                superName?.let { supertypes.add(fqName(it)) }
+                interfaces?.mapTo(supertypes, ::fqName)
+            }
+
+            override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = annotationVisitor
+
+            override fun visitField(access: Int, name: String, descriptor: String, signature: String?, value: Any?): FieldVisitor {
+                members.add(memberKey(name, descriptor))
+                addConstant(value)
+                return object : FieldVisitor(Opcodes.API_VERSION) {
+                    override fun visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = annotationVisitor
+                }
+            }
+
+            override fun visitMethod(
+                access: Int, name: String, descriptor: String, signature: String?, exceptions: Array<out String>?
+            ): MethodVisitor {
+                members.add(memberKey(name, descriptor))
+                return methodVisitor
+            }
+        }, ClassReader.SKIP_FRAMES)
+
+        return ClassUsages(members, names, supertypes)
+    }
+
+    fun kind(fingerprint: String): Char = fingerprint[0]
+
+    fun memberKey(fingerprint: String): String = fingerprint.substring(2, fingerprint.indexOf('|'))
+
+    fun memberName(fingerprint: String): String = fingerprint.substring(2, fingerprint.indexOf(' ', 2))
+
+    fun memberKeyName(memberKey: String): String = memberKey.substringBefore(' ')
+
+    private fun memberKey(name: String, descriptor: String): String = "$name $descriptor"
+
+    // nested classes are separated by `$` in internal names
+    private fun fqName(internalName: String): String = internalName.replace('/', '.').replace('$', '.')
+
+    private fun simpleName(internalName: String): String = internalName.substringAfterLast('/').substringAfterLast('$')
+
+    private fun isAbi(access: Int): Boolean = access and Opcodes.ACC_PRIVATE == 0
+
+    private fun fingerprint(kind: Char, access: Int, name: String, descriptor: String, signature: String?, annotations: List<String>) =
+        "$kind ${memberKey(name, descriptor)}|${access and ABI_FLAGS}|${signature.orEmpty()}|${annotations.sorted().joinToString(",")}"
+
+    private const val ABI_FLAGS = Opcodes.ACC_PUBLIC or Opcodes.ACC_PROTECTED or Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or
+            Opcodes.ACC_ABSTRACT or Opcodes.ACC_VARARGS or Opcodes.ACC_VOLATILE or Opcodes.ACC_TRANSIENT
+}
+
+/**
+ * @param supertypes qualified names of direct supertypes of classes
+ */
+class ClassUsages(val members: Set<String>, val names: Set<String>, val supertypes: Set<String>)
+
+/**
+ * Fingerprints of members of a class which were removed or added (changed members are both removed and added) in a compilation round
+ */
+class MemberFingerprintsChange(
+    val classFqName: String,
+    val removed: Set<String>,
+    val added: Set<String>
+)
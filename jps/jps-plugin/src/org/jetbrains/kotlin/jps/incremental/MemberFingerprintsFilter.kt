@@ -0,0 +1,97 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.name.FqName
+import java.io.File
+
+/**
+ * Refines files found by lookups of a changed [LookupSymbol] using [MemberFingerprints] of changed classes.
+ *
+ * Lookups record only a name and a scope, so any file which looked up a name is recompiled when any member with this name is changed.
+ * A file can't be affected if its compiled classes don't extend a changed class, don't have names matching the symbol
+ * in string constants, annotation arguments, referenced class names or markers of inlined functions, and:
+ * - don't reference or declare (i.e. override) any removed member, e.g. an unused overload;
+ * - don't reference or declare any member with the name of an added member, because a call resolved to a declaration with
+ *   the same name may be resolved to the added member instead. So a changed member (removed and added) affects files
+ *   using any of its overloads, but not the files which only looked up the name, e.g. by `==` looking up `equals`.
+ *
+ * Changes of constants are handled as usual, i.e. all files which looked up the symbol are affected: usages of constants
+ * are inlined and can't be found by references. For the same reason an added member which shadows a constant or an intrinsic
+ * previously used by a file (e.g. with an implicit receiver of the changed class) isn't detected.
+ *
+ * @param usagesOf usages in classes compiled from a source file, or `null` when they are not known
+ */
+class MemberFingerprintsFilter(
+    changes: Collection<MemberFingerprintsChange>,
+    private val usagesOf: (File) -> ClassUsages?
+) {
+    private val changesByScope = HashMap<String, MutableList<MemberFingerprintsChange>>()
+    private val usagesCache = HashMap<File, ClassUsages?>()
+
+    init {
+        for (change in changes) {
+            // members of classes are looked up in the scope of a class, top-level members in the scope of a package
+            val fqName = FqName(change.classFqName)
+            changesByScope.getOrPut(fqName.asString()) { ArrayList() }.add(change)
+            changesByScope.getOrPut(fqName.parent().asString()) { ArrayList() }.add(change)
+        }
+    }
+
+    val isEmpty: Boolean
+        get() = changesByScope.isEmpty()
+
+    fun isAffected(lookupSymbol: LookupSymbol, file: File): Boolean {
+        val changes = changesByScope[lookupSymbol.scope] ?: return true
+
+        fun Set<String>.withSymbolName() = filter { isJvmNameOf(MemberFingerprints.memberName(it), lookupSymbol.name) }
+
+        val removed = changes.flatMap { it.removed.withSymbolName() }
+        val added = changes.flatMap { it.added.withSymbolName() }
+        if (removed.isEmpty() && added.isEmpty()) return true
+        if ((removed + added).any { MemberFingerprints.kind(it) == MemberFingerprints.CONSTANT }) return true
+
+        val usages = usagesCache.getOrPut(file) { usagesOf(file) } ?: return true
+        if (removed.any { MemberFingerprints.memberKey(it) in usages.members }) return true
+        if (added.isNotEmpty() && usages.members.any { isJvmNameOf(MemberFingerprints.memberKeyName(it), lookupSymbol.name) }) return true
+        if (changes.any { it.classFqName in usages.supertypes }) return true
+
+        val names = (removed + added).mapTo(HashSet()) { MemberFingerprints.memberName(it) } + lookupSymbol.name
+        return usages.names.any { usage -> usage in names || isInlineMarkerOf(usage, lookupSymbol.name) }
+    }
+
+    private fun isInlineMarkerOf(usage: String, name: String): Boolean =
+        usage.startsWith(INLINE_FUNCTION_MARKER) && usage.startsWith(name, INLINE_FUNCTION_MARKER.length) ||
+                usage.startsWith(INLINE_LAMBDA_MARKER) && usage.startsWith("$name-", INLINE_LAMBDA_MARKER.length)
+
+    companion object {
+        private const val INLINE_FUNCTION_MARKER = "\$i\$f\$"
+        private const val INLINE_LAMBDA_MARKER = "\$i\$a\$-"
+
+        /**
+         * Whether [jvmName] may be a name of a JVM member generated for a Kotlin declaration named [name]:
+         * the declaration itself, property accessors, and members with suffixes like `$default`, `$annotations`
+         * or mangled names of declarations with inline class parameters, and their synthetic accessors
+         */
+        fun isJvmNameOf(jvmName: String, name: String): Boolean {
+            val capitalized = name.capitalize()
+            val candidates = listOfNotNull(
+                name,
+                "get$capitalized",
+                "set$capitalized",
+                "is$capitalized",
+                if (name.startsWith("is") && name.length > 2) "set" + name.substring(2) else null
+            )
+
+            // synthetic accessors of private members, e.g. `access$getFoo$p`
+            val baseName = jvmName.removePrefix("access$")
+            return candidates.any { candidate ->
+                baseName == candidate || baseName.startsWith("$candidate$") || baseName.startsWith("$candidate-")
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.PersistentHashMap
+import org.jetbrains.jps.incremental.storage.StorageOwner
+import org.jetbrains.kotlin.build.GeneratedJvmClass
+import org.jetbrains.kotlin.jps.incremental.storages.StringSetExternalizer
+import org.jetbrains.kotlin.name.FqName
+import java.io.File
+
+/**
+ * [MemberFingerprints] of classes of a target by their fq names.
+ *
+ * Fingerprints are stored only while [MemberFingerprints.isEnabled], otherwise the storage is removed,
+ * so fingerprints are never outdated: a class without fingerprints is just not refined by [MemberFingerprintsFilter].
+ */
+class MemberFingerprintsStorage(private val storageDir: File) : StorageOwner {
+    private val storageFile = File(storageDir, "fingerprints")
+    private var storage: PersistentHashMap<String, Collection<String>>? = null
+
+    private var lastChanges: List<MemberFingerprintsChange> = emptyList()
+
+    /**
+     * Stores fingerprints of [generatedClasses] and removes fingerprints of [previousClasses] which were not generated again.
+     * Changes of classes, which had no fingerprints before, are not reported.
+     */
+    @Synchronized
+    fun update(generatedClasses: Iterable<GeneratedJvmClass>, previousClasses: Iterable<FqName>) {
+        val storage = storage ?: openStorage()
+        val changes = ArrayList<MemberFingerprintsChange>()
+        val generatedFqNames = HashSet<String>()
+
+        for (generatedClass in generatedClasses) {
+            val outputClass = generatedClass.outputClass
+            val fqName = outputClass.className.fqNameForClassNameWithoutDollars.asString()
+            generatedFqNames.add(fqName)
+
+            val newFingerprints = MemberFingerprints.of(outputClass.fileContents)
+            val oldFingerprints = storage.get(fqName)
+            if (oldFingerprints != null) {
+                val removed = oldFingerprints.filterTo(HashSet()) { it !in newFingerprints }
+                val added = newFingerprints.filterTo(HashSet()) { it !in oldFingerprints }
+                if (removed.isNotEmpty() || added.isNotEmpty()) {
+                    changes.add(MemberFingerprintsChange(fqName, removed, added))
+                }
+            }
+
+            storage.put(fqName, newFingerprints)
+        }
+
+        for (previousClass in previousClasses) {
+            val fqName = previousClass.asString()
+            if (fqName !in generatedFqNames) {
+                storage.remove(fqName)
+            }
+        }
+
+        lastChanges = changes
+    }
+
+    /**
+     * Changes found by the last [update], i.e. in the current compilation round of the target. Changes are returned only once.
+     */
+    @Synchronized
+    fun takeChanges(): List<MemberFingerprintsChange> = lastChanges.also { lastChanges = emptyList() }
+
+    @Synchronized
+    override fun flush(memoryCachesOnly: Boolean) {
+        if (!memoryCachesOnly) storage?.force()
+    }
+
+    @Synchronized
+    override fun close() {
+        storage?.close()
+        storage = null
+    }
+
+    @Synchronized
+    override fun clean() {
+        close()
+        lastChanges = emptyList()
+        if (storageDir.exists()) FileUtil.delete(storageDir)
+    }
+
+    private fun openStorage(): PersistentHashMap<String, Collection<String>> {
+        storageDir.mkdirs()
+        return PersistentHashMap(storageFile, EnumeratorStringDescriptor.INSTANCE, StringSetExternalizer).also { storage = it }
+    }
+
+    companion object {
+        const val DIRECTORY_NAME = "member-fingerprints"
+    }
+}
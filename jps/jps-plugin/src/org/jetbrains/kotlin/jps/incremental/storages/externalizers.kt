@@ -17,6 +17,7 @@
 package org.jetbrains.kotlin.jps.incremental.storages
 
 import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.io.EnumeratorStringDescriptor
 import com.intellij.util.io.IOUtil
 import com.intellij.util.io.KeyDescriptor
 import gnu.trove.THashSet
@@ -43,3 +44,5 @@ object PathFunctionPairKeyDescriptor : KeyDescriptor<PathFunctionPair> {
 }
 
 object PathCollectionExternalizer : CollectionExternalizer<String>(PathStringDescriptor(), { THashSet(FileUtil.PATH_HASHING_STRATEGY) })
+
+object StringSetExternalizer : CollectionExternalizer<String>(EnumeratorStringDescriptor.INSTANCE, { HashSet() })
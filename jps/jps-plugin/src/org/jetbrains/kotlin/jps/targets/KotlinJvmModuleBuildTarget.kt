@@ -36,6 +36,7 @@ import org.jetbrains.kotlin.jps.build.KotlinCompileContext
 import org.jetbrains.kotlin.jps.build.KotlinDirtySourceFilesHolder
 import org.jetbrains.kotlin.jps.incremental.JpsIncrementalCache
 import org.jetbrains.kotlin.jps.incremental.JpsIncrementalJvmCache
+import org.jetbrains.kotlin.jps.incremental.MemberFingerprints
 import org.jetbrains.kotlin.jps.model.k2JvmCompilerArguments
 import org.jetbrains.kotlin.jps.model.kotlinCompilerSettings
 import org.jetbrains.kotlin.load.kotlin.incremental.components.IncrementalCache
@@ -318,7 +319,26 @@ class KotlinJvmModuleBuildTarget(kotlinContext: KotlinCompileContext, jpsModuleB
     ) {
         super.updateCaches(dirtyFilesHolder, jpsIncrementalCache, files, changesCollector, environment)
 
-        updateIncrementalCache(files, jpsIncrementalCache as IncrementalJvmCache, changesCollector, null)
+        jpsIncrementalCache as JpsIncrementalJvmCache
+        updateMemberFingerprints(dirtyFilesHolder, jpsIncrementalCache, files)
+        updateIncrementalCache(files, jpsIncrementalCache, changesCollector, null)
+    }
+
+    /**
+     * Should be called before [updateIncrementalCache], as previous classes of dirty files are taken from [cache]
+     */
+    private fun updateMemberFingerprints(
+        dirtyFilesHolder: KotlinDirtySourceFilesHolder,
+        cache: JpsIncrementalJvmCache,
+        files: List<GeneratedFile>
+    ) {
+        if (!MemberFingerprints.isEnabled) {
+            cache.memberFingerprints.clean()
+            return
+        }
+
+        val sourceFiles = dirtyFilesHolder.getDirtyFiles(jpsModuleBuildTarget).keys + dirtyFilesHolder.getRemovedFiles(jpsModuleBuildTarget)
+        cache.memberFingerprints.update(files.filterIsInstance<GeneratedJvmClass>(), cache.classesFqNamesBySources(sourceFiles))
     }
 
     override val globalLookupCacheId: String
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import com.intellij.util.PathUtil
+import org.jetbrains.jps.incremental.messages.BuildMessage
+import org.jetbrains.kotlin.jps.build.fixtures.EnableICFixture
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+
+class KotlinBuildReportTest : AbstractKotlinJpsBuildTestCase() {
+    private val enableICFixture = EnableICFixture()
+
+    override fun setUp() {
+        super.setUp()
+        enableICFixture.setUp()
+        workDir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    override fun tearDown() {
+        enableICFixture.tearDown()
+        super.tearDown()
+    }
+
+    fun testReportIsNotWrittenByDefault() {
+        createProject()
+        rebuildAllModules()
+
+        assertFalse(reportsDir.exists())
+    }
+
+    fun testReportOfIncrementalBuild() {
+        withSystemProperty(KotlinBuildReport.ENABLED_PROPERTY, "true") {
+            val file = createProject()
+            rebuildAllModules()
+            change(file, "package foo\n\nfun foo(): Long = 1L")
+            val result = buildAllModules()
+            result.assertSuccessful()
+
+            val perfMessages = result.getMessages(BuildMessage.Kind.INFO).filter { it.messageText.startsWith("PERF:") }
+            assertEmpty("measurements of the compiler are shown in the build log", perfMessages)
+        }
+
+        val reports = reportsDir.listFiles()!!.sortedBy { it.name }
+        assertEquals(2, reports.size)
+
+        val report = reports.last().readText()
+        assertTrue(report, report.startsWith("{\"startTime\":"))
+        assertTrue(report, "\"chunk\":\"module\"" in report)
+        for (phase in listOf(
+            KotlinBuildPhase.CONTEXT_INITIALIZATION,
+            KotlinBuildPhase.COMPILER_ENVIRONMENT,
+            KotlinBuildPhase.COMPILATION,
+            KotlinBuildPhase.ANALYSIS,
+            KotlinBuildPhase.CODE_GENERATION,
+            KotlinBuildPhase.OUTPUT_REGISTRATION,
+            KotlinBuildPhase.CACHES_UPDATE,
+            KotlinBuildPhase.LOOKUP_STORAGE_UPDATE,
+            KotlinBuildPhase.DIRTY_FILES_AFTER_ROUND
+        )) {
+            assertTrue("${phase.presentableName} is not reported: $report", "\"phase\":\"${phase.presentableName}\"" in report)
+        }
+    }
+
+    private val reportsDir: File
+        get() = File(myDataStorageRoot, KotlinBuildReport.REPORTS_DIRECTORY_NAME)
+
+    private fun createProject(): String {
+        val file = createFile("src/foo/foo.kt", "package foo\n\nfun foo(): Int = 1")
+        createFile("src/bar/bar.kt", "package bar\n\nfun bar() = foo.foo()")
+        addModule("module", PathUtil.getParentPath(PathUtil.getParentPath(file)))
+        addKotlinStdlibDependency()
+        return file
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import com.intellij.util.ThrowableRunnable
+import org.jetbrains.jps.incremental.storage.ProjectStamps
+import org.jetbrains.kotlin.idea.test.runAll
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.jps.build.fixtures.EnableICFixture
+import java.io.File
+import kotlin.reflect.KFunction1
+
+/**
+ * Builds a project with export of a snapshot in one directory, then imports the snapshot into a clean copy of the project
+ * in another directory with one changed file and checks that the build compiles only this file.
+ *
+ * JPS stamps are content hashes only with portable caches, so the test has to be run with `-Dorg.jetbrains.jps.portable.caches=true`.
+ */
+class KotlinCachesSnapshotsBuildTest : BaseKotlinJpsBuildTestCase() {
+    private val enableICFixture = EnableICFixture()
+    private lateinit var workingDir: File
+
+    override fun setUp() {
+        super.setUp()
+        enableICFixture.setUp()
+        workingDir = createTempDir("KotlinCachesSnapshotsBuildTest", getTestName(false))
+    }
+
+    override fun tearDown() {
+        runAll(
+            ThrowableRunnable { workingDir.deleteRecursively() },
+            ThrowableRunnable { enableICFixture.tearDown() },
+            ThrowableRunnable { super.tearDown() }
+        )
+    }
+
+    fun testImportIntoCleanCheckout() {
+        assertTrue("JPS portable caches are disabled", ProjectStamps.PORTABLE_CACHES)
+
+        withSystemProperty(KotlinCachesSnapshots.STORE_DIR_PROPERTY, workingDir.resolve("store").path) {
+            withSystemProperty(KotlinCachesSnapshots.KEY_PROPERTY, "revision") {
+                withSystemProperty(KotlinCachesSnapshots.EXPORT_PROPERTY, "true") {
+                    runInCheckout(workingDir.resolve("exported"), CachesSnapshotsTestCase::testExport)
+                }
+                withSystemProperty(KotlinCachesSnapshots.EXPORT_PROPERTY, null) {
+                    runInCheckout(workingDir.resolve("imported"), CachesSnapshotsTestCase::testImport)
+                }
+            }
+        }
+    }
+
+    private fun runInCheckout(checkoutDir: File, testMethod: KFunction1<CachesSnapshotsTestCase, Unit>) {
+        val testCase = object : CachesSnapshotsTestCase(checkoutDir) {
+            override fun getName(): String = testMethod.name
+        }
+        testCase.exposedPrivateApi.setUp()
+
+        try {
+            testMethod.call(testCase)
+        } finally {
+            testCase.exposedPrivateApi.tearDown()
+        }
+    }
+}
+
+// the class should not be executed directly (hence it's abstract)
+abstract class CachesSnapshotsTestCase(private val checkoutDir: File) : KotlinJpsBuildTestBase() {
+    val exposedPrivateApi = ExposedPrivateApi()
+
+    @WorkingDir("RelocatableCaches")
+    fun testExport() {
+        initProject(LibraryDependency.JVM_FULL_RUNTIME)
+        buildAllModules().assertSuccessful()
+
+        assertTrue("Snapshot is not exported", File(System.getProperty(KotlinCachesSnapshots.STORE_DIR_PROPERTY), "revision.zip").isFile)
+    }
+
+    @WorkingDir("RelocatableCaches")
+    fun testImport() {
+        val changedFile = File(workDir, "src/Foo.kt")
+        // a private member doesn't change the ABI, so no other file has to be recompiled
+        val changedText = changedFile.readText().replace("class FooChild() : Foo() {}", "class FooChild() : Foo() { private fun c() = 2 }")
+        changedFile.writeText(changedText)
+
+        assertTrue("Snapshot is not imported", KotlinCachesSnapshots.import(workDir, myDataStorageRoot))
+        initProject(LibraryDependency.JVM_FULL_RUNTIME)
+
+        val compiledFiles = HashSet<File>()
+        myProject.setTestingContext(TestingContext(LookupTracker.DO_NOTHING, object : TestingBuildLogger {
+            override fun compilingFiles(files: Collection<File>, allRemovedFilesFiles: Collection<File>) {
+                compiledFiles.addAll(files)
+            }
+        }))
+
+        buildAllModules().assertSuccessful()
+
+        assertEquals(listOf("Foo.kt"), compiledFiles.map { it.name })
+        assertFilesExistInOutput(myProject.modules.single(), "MainKt.class", "Foo.class", "FooChild.class", "utils/Utils.class")
+    }
+
+    override fun copyTestDataToTmpDir(testDataDir: File): File {
+        testDataDir.copyRecursively(checkoutDir)
+        return checkoutDir
+    }
+
+    // the famous Public Morozov pattern
+    inner class ExposedPrivateApi {
+        fun setUp() {
+            this@CachesSnapshotsTestCase.setUp()
+        }
+
+        fun tearDown() {
+            this@CachesSnapshotsTestCase.tearDown()
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import com.intellij.util.PathUtil
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.jps.build.fixtures.EnableICFixture
+import org.jetbrains.kotlin.jps.incremental.MemberFingerprints
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+
+/**
+ * Number of files recompiled after removal of unused overloads of functions called from [CLIENTS] files
+ * and after changes of signatures of members with names looked up by them,
+ * with and without refinement of dirty files by [MemberFingerprints]
+ */
+class MemberFingerprintsBuildTest : AbstractKotlinJpsBuildTestCase() {
+    private val enableICFixture = EnableICFixture()
+
+    override fun setUp() {
+        super.setUp()
+        enableICFixture.setUp()
+        workDir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    override fun tearDown() {
+        enableICFixture.tearDown()
+        super.tearDown()
+    }
+
+    fun testUnusedOverloadsRemovedWithoutFingerprints() {
+        withSystemProperty(MemberFingerprints.ENABLED_PROPERTY, "false") {
+            val recompiledClients = removeOverloads(usedByClient = false)
+            assertEquals(CLIENTS, recompiledClients)
+        }
+    }
+
+    fun testUnusedOverloadsRemovedWithFingerprints() {
+        withSystemProperty(MemberFingerprints.ENABLED_PROPERTY, "true") {
+            val recompiledClients = removeOverloads(usedByClient = false)
+            assertEquals(0, recompiledClients)
+        }
+    }
+
+    fun testUsedOverloadRemovedWithFingerprints() {
+        withSystemProperty(MemberFingerprints.ENABLED_PROPERTY, "true") {
+            removeOverloads(usedByClient = true, expectSuccess = false)
+        }
+    }
+
+    fun testSignatureOfLookedUpNameChangedWithoutFingerprints() {
+        withSystemProperty(MemberFingerprints.ENABLED_PROPERTY, "false") {
+            val recompiledClients = changeSignature(ApiChange.EQUALS)
+            assertEquals(CLIENTS, recompiledClients)
+        }
+    }
+
+    // `==` looks up `equals` in the class, but is compiled to `Intrinsics.areEqual`, so no client refers to a member named `equals`
+    fun testSignatureOfLookedUpNameChangedWithFingerprints() {
+        withSystemProperty(MemberFingerprints.ENABLED_PROPERTY, "true") {
+            val recompiledClients = changeSignature(ApiChange.EQUALS)
+            assertEquals(0, recompiledClients)
+        }
+    }
+
+    // a call of another overload may be resolved to the changed one
+    fun testSignatureOfCalledOverloadChangedWithFingerprints() {
+        withSystemProperty(MemberFingerprints.ENABLED_PROPERTY, "true") {
+            val recompiledClients = changeSignature(ApiChange.PROCESS)
+            assertEquals(CLIENTS, recompiledClients)
+        }
+    }
+
+    private fun removeOverloads(usedByClient: Boolean, expectSuccess: Boolean = true): Int =
+        changeApi(
+            apiText(withOverloads = true),
+            apiText(withOverloads = false),
+            { index -> clientText(index, usesOverloads = usedByClient && index == 0) },
+            expectSuccess
+        )
+
+    private fun changeSignature(change: ApiChange): Int =
+        changeApi(apiText(withOverloads = true), apiText(withOverloads = true, change = change), { clientText(it, usesOverloads = false) })
+
+    /**
+     * @return number of recompiled client files
+     */
+    private fun changeApi(apiText: String, newApiText: String, clientText: (Int) -> String, expectSuccess: Boolean = true): Int {
+        val apiFile = createFile("src/lib/Api.kt", apiText)
+        for (index in 0 until CLIENTS) {
+            createFile("src/client/Client$index.kt", clientText(index))
+        }
+        addModule("module", PathUtil.getParentPath(PathUtil.getParentPath(apiFile)))
+        addKotlinStdlibDependency()
+        rebuildAllModules()
+
+        val compiledFiles = HashSet<File>()
+        myProject.setTestingContext(TestingContext(LookupTracker.DO_NOTHING, object : TestingBuildLogger {
+            override fun compilingFiles(files: Collection<File>, allRemovedFilesFiles: Collection<File>) {
+                compiledFiles.addAll(files)
+            }
+        }))
+
+        change(apiFile, newApiText)
+        val result = buildAllModules()
+        if (expectSuccess) result.assertSuccessful() else result.assertFailed()
+
+        return compiledFiles.count { it.name.startsWith("Client") }
+    }
+
+    private fun apiText(withOverloads: Boolean, change: ApiChange? = null): String = buildString {
+        appendLine("package lib")
+        appendLine()
+        appendLine("class Api {")
+        appendLine("    fun process(value: Int): Int = value")
+        if (withOverloads) {
+            val type = if (change == ApiChange.PROCESS) "CharSequence" else "String"
+            appendLine("    fun process(value: $type): $type = value")
+        }
+        val strict = if (change == ApiChange.EQUALS) ", strict: Boolean" else ""
+        appendLine("    fun equals(other: Api, ignoreCase: Boolean$strict): Boolean = this === other")
+        appendLine("}")
+        appendLine()
+        appendLine("fun format(value: Int): String = value.toString()")
+        if (withOverloads) appendLine("fun format(value: Long): String = value.toString()")
+    }
+
+    private fun clientText(index: Int, usesOverloads: Boolean): String = buildString {
+        appendLine("package client")
+        appendLine()
+        appendLine("import lib.*")
+        appendLine()
+        appendLine("fun client$index(): String {")
+        appendLine("    val result = Api().process($index)")
+        appendLine("    if (Api() == Api()) return \"\"")
+        if (usesOverloads) appendLine("    Api().process(\"$index\") + format(${index}L)")
+        appendLine("    return format(result)")
+        appendLine("}")
+    }
+
+    private enum class ApiChange { PROCESS, EQUALS }
+
+    companion object {
+        private const val CLIENTS = 20
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import com.intellij.util.PathUtil
+import org.jetbrains.jps.api.GlobalOptions
+import org.jetbrains.jps.model.java.JpsJavaExtensionService
+import org.jetbrains.jps.model.module.JpsModule
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
+import org.jetbrains.kotlin.compilerRunner.CompilerRunnerUtil
+import org.jetbrains.kotlin.jps.build.fixtures.EnableICFixture
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import kotlin.system.measureTimeMillis
+
+/**
+ * Clean and incremental build time of a generated project with [LAYERS] layers of [MODULES_PER_LAYER] modules,
+ * where every module depends on all modules of the previous layer, with sequential and parallel chunk compilation,
+ * and with the pooled in-process compiler environment (see [CompilerRunnerUtil.POOLED_ENVIRONMENT_PROPERTY]).
+ *
+ * The size of the project is configurable with `kotlin.jps.benchmark.layers` and `kotlin.jps.benchmark.modules.per.layer`.
+ */
+class ParallelChunksBuildBenchmarkTest : AbstractKotlinJpsBuildTestCase() {
+    private val enableICFixture = EnableICFixture()
+
+    override fun setUp() {
+        super.setUp()
+        enableICFixture.setUp()
+        workDir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    override fun tearDown() {
+        enableICFixture.tearDown()
+        super.tearDown()
+    }
+
+    fun testSequentialBuild() {
+        withSystemProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "false") {
+            doTest("sequential")
+        }
+    }
+
+    fun testParallelBuild() {
+        withSystemProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "true") {
+            doTest("parallel")
+        }
+    }
+
+    fun testParallelBuildWithSingleCompilation() {
+        withSystemProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "true") {
+            withSystemProperty(KotlinCompilationLimiter.MAX_PARALLEL_COMPILATIONS_PROPERTY, "1") {
+                doTest("parallel, single compilation")
+            }
+        }
+    }
+
+    fun testSequentialBuildWithPooledCompilerEnvironment() {
+        withSystemProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "false") {
+            withPooledCompilerEnvironment {
+                doTest("sequential, pooled compiler environment")
+            }
+        }
+    }
+
+    fun testParallelBuildWithPooledCompilerEnvironment() {
+        withSystemProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "true") {
+            withPooledCompilerEnvironment {
+                doTest("parallel, pooled compiler environment")
+            }
+        }
+    }
+
+    /**
+     * Pooled environment sets [KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY], which should not leak to other tests
+     */
+    private fun withPooledCompilerEnvironment(fn: () -> Unit) {
+        withSystemProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY)) {
+            withSystemProperty(CompilerRunnerUtil.POOLED_ENVIRONMENT_PROPERTY, "true", fn)
+        }
+    }
+
+    private fun doTest(name: String) {
+        val rootFile = generateProject()
+        addKotlinStdlibDependency()
+
+        val cleanBuildTime = measureTimeMillis {
+            rebuildAllModules()
+        }
+
+        // changes the signature used by every module of the next layer, so all dependent chunks are rebuilt
+        change(rootFile, moduleText(layer = 0, index = 0, returnType = "Long"))
+        val incrementalBuildTime = measureTimeMillis {
+            buildAllModules().assertSuccessful()
+        }
+
+        reportStatistic("Kotlin JPS $name clean build of ${LAYERS * MODULES_PER_LAYER} modules, ms", cleanBuildTime)
+        reportStatistic("Kotlin JPS $name incremental build of ${LAYERS * MODULES_PER_LAYER} modules, ms", incrementalBuildTime)
+    }
+
+    private fun reportStatistic(key: String, value: Long) {
+        System.out.println(String.format("##teamcity[buildStatisticValue key='%s' value='%d']", key, value))
+    }
+
+    /**
+     * @return path to the source file of the first module of the first layer
+     */
+    private fun generateProject(): String {
+        var previousLayer = emptyList<JpsModule>()
+        var rootFile: String? = null
+
+        for (layer in 0 until LAYERS) {
+            previousLayer = (0 until MODULES_PER_LAYER).map { index ->
+                val file = createFile("${moduleName(layer, index)}/src/Module.kt", moduleText(layer, index, returnType = "Int"))
+                if (rootFile == null) rootFile = file
+
+                val module = addModule(moduleName(layer, index), PathUtil.getParentPath(file))
+                for (dependency in previousLayer) {
+                    JpsJavaExtensionService.getInstance().getOrCreateDependencyExtension(
+                        module.dependenciesList.addModuleDependency(dependency)
+                    ).isExported = false
+                }
+                module
+            }
+        }
+
+        return rootFile!!
+    }
+
+    private fun moduleText(layer: Int, index: Int, returnType: String): String = buildString {
+        appendLine("package ${moduleName(layer, index)}")
+        appendLine()
+
+        for (declaration in 0 until DECLARATIONS_PER_MODULE) {
+            appendLine("class C$declaration(val value: Int) {")
+            appendLine("    fun compute(): $returnType = value${if (returnType == "Int") "" else ".to$returnType()"}")
+            if (layer > 0) {
+                for (dependency in 0 until MODULES_PER_LAYER) {
+                    appendLine("    fun use$dependency() = ${moduleName(layer - 1, dependency)}.C$declaration(value).compute()")
+                }
+            }
+            appendLine("}")
+            appendLine()
+        }
+    }
+
+    private fun moduleName(layer: Int, index: Int) = "m${layer}_$index"
+
+    companion object {
+        private val LAYERS = Integer.getInteger("kotlin.jps.benchmark.layers", 3)
+        private val MODULES_PER_LAYER = Integer.getInteger("kotlin.jps.benchmark.modules.per.layer", 6)
+        private const val DECLARATIONS_PER_MODULE = 20
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.build
+
+import com.intellij.util.PathUtil
+import org.jetbrains.jps.api.GlobalOptions
+import org.jetbrains.jps.model.java.JpsJavaExtensionService
+import org.jetbrains.jps.model.module.JpsModule
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.jps.build.fixtures.EnableICFixture
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Incremental parallel build of [DEPENDENTS] independent modules sharing one dependency: after every change of the shared module
+ * all dependent chunks are compiled at the same time and read incremental caches of the shared module (inline functions,
+ * constants and the ABI of its classes) concurrently, and each of them has to see the changed data to be recompiled.
+ */
+class ParallelChunksBuildTest : AbstractKotlinJpsBuildTestCase() {
+    private val enableICFixture = EnableICFixture()
+
+    override fun setUp() {
+        super.setUp()
+        enableICFixture.setUp()
+        workDir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    override fun tearDown() {
+        enableICFixture.tearDown()
+        super.tearDown()
+    }
+
+    fun testSharedDependencyChanges() {
+        withSystemProperty(GlobalOptions.COMPILE_PARALLEL_OPTION, "true") {
+            // independent of the heap size of the test process
+            withSystemProperty(KotlinCompilationLimiter.MAX_PARALLEL_COMPILATIONS_PROPERTY, DEPENDENTS.toString()) {
+                val sharedFile = createFile("shared/src/Shared.kt", sharedText(revision = 0))
+                val shared = addModule("shared", PathUtil.getParentPath(sharedFile))
+                for (index in 0 until DEPENDENTS) {
+                    addDependentModule(index, shared)
+                }
+                addKotlinStdlibDependency()
+                rebuildAllModules()
+
+                val compiledFiles = ConcurrentHashMap.newKeySet<File>()
+                myProject.setTestingContext(TestingContext(LookupTracker.DO_NOTHING, object : TestingBuildLogger {
+                    override fun compilingFiles(files: Collection<File>, allRemovedFilesFiles: Collection<File>) {
+                        compiledFiles.addAll(files)
+                    }
+                }))
+
+                for (revision in 1..REVISIONS) {
+                    compiledFiles.clear()
+                    change(sharedFile, sharedText(revision))
+                    buildAllModules().assertSuccessful()
+
+                    assertEquals(
+                        "revision $revision",
+                        (0 until DEPENDENTS).map { "Dependent$it.kt" }.sorted() + "Shared.kt",
+                        compiledFiles.map { it.name }.sorted()
+                    )
+                }
+            }
+        }
+    }
+
+    private fun addDependentModule(index: Int, shared: JpsModule) {
+        val file = createFile("dependent$index/src/Dependent$index.kt", dependentText(index))
+        val module = addModule("dependent$index", PathUtil.getParentPath(file))
+        JpsJavaExtensionService.getInstance().getOrCreateDependencyExtension(
+            module.dependenciesList.addModuleDependency(shared)
+        ).isExported = false
+    }
+
+    // every revision changes the inline function body, the constant value and the return type of the member
+    private fun sharedText(revision: Int): String = buildString {
+        val type = if (revision % 2 == 0) "Int" else "Long"
+        appendLine("package shared")
+        appendLine()
+        appendLine("const val SHARED_CONST = $revision")
+        appendLine()
+        appendLine("inline fun sharedInline(value: Int): Int = value + $revision")
+        appendLine()
+        appendLine("class Shared {")
+        appendLine("    fun value(): $type = $revision")
+        appendLine("}")
+    }
+
+    private fun dependentText(index: Int): String = buildString {
+        appendLine("package dependent$index")
+        appendLine()
+        appendLine("import shared.*")
+        appendLine()
+        appendLine("fun dependent$index() = sharedInline($index) + SHARED_CONST + Shared().value()")
+    }
+
+    companion object {
+        private const val DEPENDENTS = 8
+        private const val REVISIONS = 3
+    }
+}
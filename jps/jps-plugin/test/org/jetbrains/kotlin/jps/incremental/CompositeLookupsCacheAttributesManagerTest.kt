@@ -77,4 +77,15 @@ class CompositeLookupsCacheAttributesManagerTest {
             ).status
         )
     }
-}
\ No newline at end of file
+
+    @Test
+    fun testStorageFormatChanged() {
+        assertEquals(
+            CacheStatus.INVALID,
+            manager.loadDiff(
+                actual = CompositeLookupsCacheAttributes(1, setOf("jvm")),
+                expected = CompositeLookupsCacheAttributes(1, setOf("jvm"), LookupStorageFormat.MAPPED_SEGMENTS)
+            ).status
+        )
+    }
+}
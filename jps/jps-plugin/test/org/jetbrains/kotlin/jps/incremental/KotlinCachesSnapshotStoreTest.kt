@@ -0,0 +1,99 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.kotlin.incremental.KOTLIN_CACHE_DIRECTORY_NAME
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+class KotlinCachesSnapshotStoreTest {
+    private lateinit var workingDir: File
+    private lateinit var store: KotlinCachesSnapshotStore
+
+    @Before
+    fun setUp() {
+        workingDir = FileUtil.createTempDirectory("kotlinCachesSnapshotStore", null)
+        store = KotlinCachesSnapshotStore(File(workingDir, "store"))
+    }
+
+    @After
+    fun tearDown() {
+        FileUtil.delete(workingDir)
+    }
+
+    @Test
+    fun testExportImport() {
+        val source = createDataStorage("source")
+        File(workingDir, "source/$CLASS_FILE").apply { parentFile.mkdirs() }.writeText("source class")
+        store.export("key", source, File(workingDir, "source"), listOf(File(workingDir, "source/$OUTPUT_DIR")), CACHE_VERSIONS)
+
+        val destination = File(workingDir, "destination")
+        val destinationStorage = File(destination, STORAGE_DIR)
+
+        assertEquals(CACHE_VERSIONS, store.readCacheVersions("key"))
+        assertTrue(store.import("key", destinationStorage, destination))
+
+        for (path in DATA_FILES) {
+            assertEquals("source $path", File(destinationStorage, path).readText())
+        }
+        assertFalse("State of dirty files shouldn't be imported", File(destinationStorage, FS_STATE).exists())
+        assertEquals("Outputs should be restored with caches", "source class", File(destination, CLASS_FILE).readText())
+    }
+
+    @Test
+    fun testSnapshotContainsJpsAndKotlinData() {
+        val dataStorageRoot = createDataStorage("source")
+        val paths = KotlinCachesSnapshotStore.dataFiles(dataStorageRoot)
+            .map { FileUtil.toSystemIndependentName(it.relativeTo(dataStorageRoot).path) }
+            .sorted()
+
+        assertEquals(DATA_FILES.sorted(), paths)
+    }
+
+    @Test
+    fun testMissingSnapshot() {
+        val destination = File(workingDir, "destination")
+
+        assertNull(store.readCacheVersions("unknown"))
+        assertFalse(store.import("unknown", File(destination, STORAGE_DIR), destination))
+        assertFalse(destination.exists())
+    }
+
+    private fun createDataStorage(name: String): File {
+        val dataStorageRoot = File(workingDir, "$name/$STORAGE_DIR")
+        for (path in DATA_FILES + FS_STATE) {
+            val file = File(dataStorageRoot, path)
+            file.parentFile.mkdirs()
+            file.writeText("$name $path")
+        }
+        return dataStorageRoot
+    }
+
+    companion object {
+        private const val STORAGE_DIR = "system"
+        private const val OUTPUT_DIR = "out/production/module"
+        private const val CLASS_FILE = "$OUTPUT_DIR/pkg/A.class"
+        private val CACHE_VERSIONS = mapOf("lookups.version" to "5", "local.version.targets/java-production/module" to "13")
+
+        private const val TARGET_ROOT = "targets/java-production/module"
+        private const val FS_STATE = KotlinCachesSnapshotStore.FS_STATE_FILE_NAME
+
+        private val DATA_FILES = listOf(
+            "targets/kotlin-data-container/kotlin-data-container/lookups.tab",
+            "$TARGET_ROOT/$KOTLIN_CACHE_DIRECTORY_NAME/proto.tab",
+            "$TARGET_ROOT/format-version.txt",
+            "$TARGET_ROOT/jvm-build-meta-info.txt",
+            "$TARGET_ROOT/src-out/data",
+            "$TARGET_ROOT/$FS_STATE",
+            "mappings-control",
+            "timestamps/data"
+        )
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.containers.MultiMap
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.incremental.ICReporterBase
+import org.jetbrains.kotlin.incremental.LookupSymbol
+import org.jetbrains.kotlin.incremental.storage.RelativeFileToPathConverter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+
+/**
+ * Writes [SYMBOLS_COUNT] * [LOOKUPS_PER_SYMBOL] lookups, reopens the storage, and makes an incremental round which replaces
+ * lookups of a tenth of files and maps changed symbols to dirty files, as done by `processChangesUsingLookups`
+ */
+class LookupStorageBenchmarkTest {
+    private lateinit var workingDir: File
+
+    @Before
+    fun setUp() {
+        workingDir = FileUtil.createTempDirectory("lookupStorageBenchmark", null)
+    }
+
+    @After
+    fun tearDown() {
+        FileUtil.delete(workingDir)
+    }
+
+    @Test
+    fun testFormatsAreEquivalent() {
+        val persistentHashMapResult = lookupRounds(LookupStorageFormat.PERSISTENT_HASH_MAP)
+        val mappedSegmentsResult = lookupRounds(LookupStorageFormat.MAPPED_SEGMENTS)
+
+        assertEquals(persistentHashMapResult, mappedSegmentsResult)
+    }
+
+    @Test
+    fun testMappedSegmentsCompaction() {
+        val storageDir = File(workingDir, "compaction")
+        val converter = RelativeFileToPathConverter(workingDir)
+
+        val mappedLookupsDir = File(storageDir, MappedLookupStorage.DIRECTORY_NAME)
+        val segmentSizes = (0 until 3).map {
+            val storage = LookupStorageFormat.MAPPED_SEGMENTS.createStorage(storageDir, converter)
+            storage.removeLookupsFrom(sourceFiles().asSequence())
+            storage.addAll(lookups { true }, sourcePaths())
+            storage.close()
+
+            val storageFiles = mappedLookupsDir.listFiles().orEmpty().map { it.name }
+            assertEquals(listOf("lookups.${it + 1}.segment"), storageFiles)
+            File(mappedLookupsDir, storageFiles.single()).length()
+        }
+        assertEquals(1, segmentSizes.toSet().size)
+
+        // symbols and files which are not looked up anymore are dropped from the segment
+        val storage = LookupStorageFormat.MAPPED_SEGMENTS.createStorage(storageDir, converter)
+        storage.removeLookupsFrom(sourceFiles().drop(FILES_COUNT / 2).asSequence())
+        storage.forceGC()
+        storage.close()
+
+        val segment = mappedLookupsDir.listFiles().orEmpty().single()
+        assert(segment.length() < segmentSizes.last() * 3 / 4) { "Segment of ${segment.length()} bytes is not compacted" }
+
+        val reopened = LookupStorageFormat.MAPPED_SEGMENTS.createStorage(storageDir, converter)
+        // files of the symbol 0 are in the first half, of the symbol 40 in the second one
+        assertEquals(lookedUpFiles(0).map { sourceFile(it).path }.sorted(), reopened.get(symbol(0)).sorted())
+        assertEquals(emptyList<String>(), reopened.get(symbol(40)).toList())
+        reopened.close()
+    }
+
+    @Test
+    fun testMappedSegmentsClean() {
+        val storageDir = File(workingDir, "clean")
+        val converter = RelativeFileToPathConverter(workingDir)
+
+        val compacted = LookupStorageFormat.MAPPED_SEGMENTS.createStorage(storageDir, converter)
+        compacted.addAll(lookups { true }, sourcePaths())
+        compacted.close()
+
+        // the segment of a later generation is mapped when the storage is cleaned, lookups added after it must survive reopening
+        val storage = LookupStorageFormat.MAPPED_SEGMENTS.createStorage(storageDir, converter)
+        storage.clean()
+        storage.addAll(lookups { it == 0 }, setOf(sourceFile(0).path))
+        storage.close()
+
+        val mappedLookupsDir = File(storageDir, MappedLookupStorage.DIRECTORY_NAME)
+        assertEquals(listOf("files.log", "postings.log", "symbols.log"), mappedLookupsDir.listFiles().orEmpty().map { it.name }.sorted())
+
+        val reopened = LookupStorageFormat.MAPPED_SEGMENTS.createStorage(storageDir, converter)
+        val symbolOfFile0 = (0 until SYMBOLS_COUNT).first { 0 in lookedUpFiles(it) }
+        assertEquals(listOf(sourceFile(0).path), reopened.get(symbol(symbolOfFile0)).toList())
+        reopened.close()
+    }
+
+    private fun lookupRounds(format: LookupStorageFormat): Set<File> {
+        val storageDir = File(workingDir, format.id)
+        val converter = RelativeFileToPathConverter(workingDir)
+        val changedFiles = (0 until FILES_COUNT step 10).toSet()
+
+        val initialStorage = format.createStorage(storageDir, converter)
+        initialStorage.addAll(lookups { true }, sourcePaths())
+        initialStorage.close()
+
+        val storage = format.createStorage(storageDir, converter)
+        storage.removeLookupsFrom(changedFiles.map { sourceFile(it) }.asSequence())
+        storage.addAll(lookups { it in changedFiles }, changedFiles.mapTo(HashSet()) { sourceFile(it).path })
+
+        val changedSymbols = (0 until SYMBOLS_COUNT step 2).map(::symbol)
+        val dirtyFiles = mapLookupSymbolsToFiles(storage, changedSymbols, TestICReporter)
+        storage.close()
+        return dirtyFiles
+    }
+
+    private fun lookups(isFileIncluded: (Int) -> Boolean): MultiMap<LookupSymbol, String> {
+        val result = MultiMap.createSet<LookupSymbol, String>()
+        for (symbolIndex in 0 until SYMBOLS_COUNT) {
+            for (fileIndex in lookedUpFiles(symbolIndex)) {
+                if (isFileIncluded(fileIndex)) {
+                    result.putValue(symbol(symbolIndex), sourceFile(fileIndex).path)
+                }
+            }
+        }
+        return result
+    }
+
+    private fun lookedUpFiles(symbolIndex: Int) = (0 until LOOKUPS_PER_SYMBOL).map { (symbolIndex * 31 + it * 7) % FILES_COUNT }
+
+    private fun symbol(index: Int) = LookupSymbol(name = "name${index % 1000}", scope = "p${index / 1000}.C")
+
+    private fun sourceFile(index: Int) = File(workingDir, "src/p${index % 10}/file$index.kt")
+
+    private fun sourceFiles() = (0 until FILES_COUNT).map(::sourceFile)
+
+    private fun sourcePaths() = sourceFiles().mapTo(HashSet()) { it.path }
+
+    private object TestICReporter : ICReporterBase() {
+        override fun reportCompileIteration(incremental: Boolean, sourceFiles: Collection<File>, exitCode: ExitCode) {}
+        override fun report(message: () -> String) {}
+        override fun reportVerbose(message: () -> String) {}
+    }
+
+    companion object {
+        private const val SYMBOLS_COUNT = 20_000
+        private const val LOOKUPS_PER_SYMBOL = 5
+        private const val FILES_COUNT = 2_000
+    }
+}
@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassUtil
 import org.jetbrains.kotlin.idea.debugger.breakpoints.getLambdasAtLineIfAny
 import org.jetbrains.kotlin.idea.debugger.evaluate.KotlinDebuggerCaches
 import org.jetbrains.kotlin.idea.debugger.evaluate.KotlinDebuggerCaches.Companion.getOrComputeClassNames
+import org.jetbrains.kotlin.idea.debugger.evaluate.KotlinDebuggerCaches.Companion.getOrComputeClassNamesForLine
 import org.jetbrains.kotlin.idea.debugger.evaluate.KotlinDebuggerCaches.ComputedClassNames
 import org.jetbrains.kotlin.idea.debugger.evaluate.KotlinDebuggerCaches.ComputedClassNames.Companion.Cached
 import org.jetbrains.kotlin.idea.debugger.evaluate.KotlinDebuggerCaches.ComputedClassNames.Companion.EMPTY
@@ -95,9 +96,26 @@ class DebuggerClassNameProvider(
             position.elementAt?.let { getRelevantElement(it) }
         }
 
-        val result = getOrComputeClassNames(relevantElement) { element ->
+        val file = position.file as? KtFile
+        val line = position.line
+        if (file == null || line < 0) {
+            return computeClassesForPosition(position, relevantElement).classNames.toSet()
+        }
+
+        val key = runReadAction {
+            PositionKey(
+                line, relevantElement?.textRange?.startOffset, relevantElement?.javaClass,
+                searchScope, findInlineUseSites, alwaysReturnLambdaParentClass
+            )
+        }
+
+        return getOrComputeClassNamesForLine(file, key) { computeClassesForPosition(position, relevantElement) }.toSet()
+    }
+
+    private fun computeClassesForPosition(position: SourcePosition, relevantElement: PsiElement?): ComputedClassNames {
+        var result = getOrComputeClassNames(relevantElement) { element ->
             getOuterClassNamesForElement(element, emptySet())
-        }.toMutableSet()
+        }
 
         for (lambda in position.readAction(::getLambdasAtLineIfAny)) {
             result += getOrComputeClassNames(lambda) { element ->
@@ -105,9 +123,18 @@ class DebuggerClassNameProvider(
             }
         }
 
-        return result
+        return result.distinct()
     }
 
+    private data class PositionKey(
+        val line: Int,
+        val relevantElementOffset: Int?,
+        val relevantElementClass: Class<*>?,
+        val searchScope: GlobalSearchScope,
+        val findInlineUseSites: Boolean,
+        val alwaysReturnLambdaParentClass: Boolean
+    )
+
     @PublishedApi
     @Suppress("NON_TAIL_RECURSIVE_CALL")
     internal tailrec fun getOuterClassNamesForElement(element: PsiElement?, alreadyVisited: Set<PsiElement>): ComputedClassNames {
@@ -175,16 +202,19 @@ class DebuggerClassNameProvider(
                     }
                 }
 
-                if (findInlineUseSites && (
-                            element.isInlineInReadAction ||
-                                    runReadAction { element.accessors.any { it.hasModifier(KtTokens.INLINE_KEYWORD) } })
-                ) {
+                val isInline = element.isInlineInReadAction ||
+                        runReadAction { element.accessors.any { it.hasModifier(KtTokens.INLINE_KEYWORD) } }
+
+                if (findInlineUseSites && isInline) {
                     val inlinedCalls = inlineUsagesSearcher.findInlinedCalls(element, alreadyVisited) { el, newAlreadyVisited ->
                         this.getOuterClassNamesForElement(el, newAlreadyVisited)
                     }
                     nonInlineClasses + inlinedCalls
-                } else {
+                } else if (isInline) {
+                    // Names without inline call sites shouldn't be returned to providers which look for them
                     return NonCached(nonInlineClasses.classNames)
+                } else {
+                    nonInlineClasses
                 }
             }
             is KtNamedFunction -> {
@@ -199,7 +229,12 @@ class DebuggerClassNameProvider(
                     }
                 }
 
-                if (!findInlineUseSites || !element.isInlineInReadAction) {
+                if (!element.isInlineInReadAction) {
+                    return nonInlineClasses
+                }
+
+                if (!findInlineUseSites) {
+                    // Names without inline call sites shouldn't be returned to providers which look for them
                     return NonCached(nonInlineClasses.classNames)
                 }
 
@@ -227,14 +262,15 @@ class DebuggerClassNameProvider(
                     if (name != null) Cached(name) else EMPTY
                 }
 
+                // whether the lambda is inlined depends on the called function, which may be declared in another file
                 if (!names.isEmpty()
                     && !alwaysReturnLambdaParentClass
                     && !InlineUtil.isInlinedArgument(element, typeMapper.bindingContext, true)
                 ) {
-                    return names
+                    return names.dependingOnOtherFiles()
                 }
 
-                names + getOuterClassNamesForElement(element.relevantParentInReadAction, alreadyVisited)
+                (names + getOuterClassNamesForElement(element.relevantParentInReadAction, alreadyVisited)).dependingOnOtherFiles()
             }
             else -> getOuterClassNamesForElement(element.relevantParentInReadAction, alreadyVisited)
         }
@@ -82,7 +82,12 @@ class InlineCallableUsagesSearcher(val project: Project, val searchScope: Global
             }
 
             val results = searchResult.map { transformer(it, newAlreadyVisited) }
-            return ComputedClassNames(results.flatMap { it.classNames }, shouldBeCached = results.all { it.shouldBeCached })
+            // Call sites found by a cancelled search are incomplete
+            return ComputedClassNames(
+                results.flatMap { it.classNames },
+                shouldBeCached = isSuccess && results.all { it.shouldBeCached },
+                dependsOnOtherFiles = true
+            )
         }
     }
 
@@ -42,6 +42,8 @@ class CoroutineDumpAction : AnAction(), AnAction.TransparentUpdate {
                     val states = CoroutineDebugProbesProxy(context.suspendContext ?: return)
                         .dumpCoroutines()
                     if (states.isOk()) {
+                        // The dump shows stack traces of all coroutines, they should be resolved on the manager thread
+                        states.cache.forEach { it.resolveStackFrames() }
                         val f = fun() {
                             val ui = session.xDebugSession?.ui ?: return
                             addCoroutineDump(project, states.cache, ui, session.searchScope)
@@ -10,19 +10,52 @@ import com.sun.jdi.ThreadReference
 import org.jetbrains.kotlin.idea.debugger.coroutine.data.CoroutineInfoData.Companion.DEFAULT_COROUTINE_NAME
 import org.jetbrains.kotlin.idea.debugger.coroutine.data.CoroutineInfoData.Companion.DEFAULT_COROUTINE_STATE
 import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.MirrorOfCoroutineInfo
+import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.MirrorOfCoroutineInfoDescription
 import org.jetbrains.kotlin.idea.debugger.coroutine.util.logger
 
 /**
  * Represents state of a coroutine.
+ * Stack frames of coroutines dumped in a batch are resolved on the first access, which should happen on the debugger manager thread.
+ * They are not compared by [equals] to avoid resolving them.
  * @see `kotlinx.coroutines.debug.CoroutineInfo`
  */
 data class CoroutineInfoData(
     val key: CoroutineNameIdState,
-    val stackTrace: List<CoroutineStackFrameItem>,
-    val creationStackTrace: List<CreationCoroutineStackFrameItem>,
     val activeThread: ThreadReference? = null, // for suspended coroutines should be null
     val lastObservedFrame: ObjectReference? = null
 ) {
+    private var stackFrames: Lazy<CoroutineStackFrames> = lazyOf(CoroutineStackFrames.EMPTY)
+
+    constructor(
+        key: CoroutineNameIdState,
+        stackFrames: Lazy<CoroutineStackFrames>,
+        activeThread: ThreadReference? = null,
+        lastObservedFrame: ObjectReference? = null
+    ) : this(key, activeThread, lastObservedFrame) {
+        this.stackFrames = stackFrames
+    }
+
+    constructor(
+        key: CoroutineNameIdState,
+        stackTrace: List<CoroutineStackFrameItem>,
+        creationStackTrace: List<CreationCoroutineStackFrameItem>,
+        activeThread: ThreadReference? = null,
+        lastObservedFrame: ObjectReference? = null
+    ) : this(key, lazyOf(CoroutineStackFrames(stackTrace, creationStackTrace)), activeThread, lastObservedFrame)
+
+    val stackTrace: List<CoroutineStackFrameItem>
+        get() = stackFrames.value.restoredStackFrames
+
+    val creationStackTrace: List<CreationCoroutineStackFrameItem>
+        get() = stackFrames.value.creationStackFrames
+
+    val isStackResolved: Boolean
+        get() = stackFrames.isInitialized()
+
+    fun resolveStackFrames() {
+        stackFrames.value
+    }
+
     fun isSuspended() = key.state == State.SUSPENDED
 
     fun isCreated() = key.state == State.CREATED
@@ -42,6 +75,15 @@ data class CoroutineInfoData(
     }
 }
 
+data class CoroutineStackFrames(
+    val restoredStackFrames: List<CoroutineStackFrameItem>,
+    val creationStackFrames: List<CreationCoroutineStackFrameItem>
+) {
+    companion object {
+        val EMPTY = CoroutineStackFrames(emptyList(), emptyList())
+    }
+}
+
 data class CoroutineNameIdState(val name: String, val id: String, val state: State, val dispatcher: String?) {
 
     fun formatName() =
@@ -55,6 +97,14 @@ data class CoroutineNameIdState(val name: String, val id: String, val state: Sta
                 State.valueOf(mirror.state ?: DEFAULT_COROUTINE_STATE),
                 mirror.context?.dispatcher
             )
+
+        fun instance(description: MirrorOfCoroutineInfoDescription): CoroutineNameIdState =
+            CoroutineNameIdState(
+                description.name ?: DEFAULT_COROUTINE_NAME,
+                "${description.sequenceNumber}",
+                State.valueOf(description.state ?: DEFAULT_COROUTINE_STATE),
+                description.dispatcher
+            )
     }
 }
 
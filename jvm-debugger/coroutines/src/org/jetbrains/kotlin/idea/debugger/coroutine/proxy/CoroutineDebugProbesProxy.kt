@@ -46,3 +46,5 @@ class CoroutineDebugProbesProxy(val suspendContext: SuspendContextImpl) {
 }
 
 fun standaloneCoroutineDebuggerEnabled() = Registry.`is`("kotlin.debugger.coroutines.standalone")
+
+fun batchedCoroutineDumpEnabled() = Registry.`is`("kotlin.debugger.coroutines.batched.dump")
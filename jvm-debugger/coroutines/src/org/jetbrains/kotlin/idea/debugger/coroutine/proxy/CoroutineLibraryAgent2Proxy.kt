@@ -8,12 +8,14 @@ package org.jetbrains.kotlin.idea.debugger.coroutine.proxy
 import com.sun.jdi.ObjectReference
 import org.jetbrains.kotlin.idea.debugger.coroutine.data.CoroutineInfoData
 import org.jetbrains.kotlin.idea.debugger.coroutine.data.CoroutineNameIdState
+import org.jetbrains.kotlin.idea.debugger.coroutine.data.CoroutineStackFrames
 import org.jetbrains.kotlin.idea.debugger.coroutine.data.CreationCoroutineStackFrameItem
 import org.jetbrains.kotlin.idea.debugger.coroutine.data.SuspendCoroutineStackFrameItem
 import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.DebugMetadata
 import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.DebugProbesImpl
 import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.MirrorOfBaseContinuationImpl
 import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.MirrorOfCoroutineInfo
+import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror.MirrorOfPackedCoroutineInfo
 import org.jetbrains.kotlin.idea.debugger.coroutine.util.isCreationSeparatorFrame
 import org.jetbrains.kotlin.idea.debugger.coroutine.util.logger
 import org.jetbrains.kotlin.idea.debugger.evaluate.DefaultExecutionContext
@@ -26,15 +28,48 @@ class CoroutineLibraryAgent2Proxy(private val executionContext: DefaultExecution
     private val debugMetadata: DebugMetadata? = DebugMetadata.instance(executionContext)
 
     override fun dumpCoroutinesInfo(): List<CoroutineInfoData> {
+        if (batchedCoroutineDumpEnabled()) {
+            dumpCoroutinesInfoInBatch()?.let { return it }
+        }
+
         val result = debugProbesImpl?.dumpCoroutinesInfo(executionContext) ?: emptyList()
         return result.mapNotNull { mapToCoroutineInfoData(it) }
     }
 
+    /**
+     * Dumps names and states of all coroutines with a single method call in the debuggee,
+     * stack frames of a coroutine are resolved when they are requested for the first time.
+     *
+     * @return `null` if the coroutines library in the debuggee doesn't support such dumps
+     */
+    private fun dumpCoroutinesInfoInBatch(): List<CoroutineInfoData>? {
+        val debugProbesImpl = debugProbesImpl ?: return null
+        if (!debugProbesImpl.canDumpCoroutinesInfoAsJson) return null
+
+        val dump = debugProbesImpl.dumpCoroutinesInfoAsJsonAndReferences(executionContext) ?: return null
+        return dump.map { info ->
+            CoroutineInfoData(
+                CoroutineNameIdState.instance(info.description),
+                lazy { resolveStackFrames(info) },
+                info.lastObservedThread,
+                info.lastObservedFrame
+            )
+        }
+    }
+
+    private fun resolveStackFrames(info: MirrorOfPackedCoroutineInfo): CoroutineStackFrames {
+        return try {
+            val mirror = debugProbesImpl?.mirrorOfCoroutineInfo(info.that, executionContext) ?: return CoroutineStackFrames.EMPTY
+            findStackFrames(mirror)
+        } catch (e: Exception) {
+            log.warn("Exception happened while resolving stack frames of a coroutine.", e)
+            CoroutineStackFrames.EMPTY
+        }
+    }
+
     private fun mapToCoroutineInfoData(mirror: MirrorOfCoroutineInfo): CoroutineInfoData? {
         val coroutineNameIdState = CoroutineNameIdState.instance(mirror)
-        val stackTrace = mirror.enhancedStackTrace?.map { it.stackTraceElement() } ?: emptyList()
-        val baseContinuationImpls = getAllBaseContinuationImpls(mirror.lastObservedFrame)
-        val stackFrames = findStackFrames(stackTrace, baseContinuationImpls)
+        val stackFrames = findStackFrames(mirror)
         return CoroutineInfoData(
             coroutineNameIdState,
             stackFrames.restoredStackFrames,
@@ -44,6 +79,12 @@ class CoroutineLibraryAgent2Proxy(private val executionContext: DefaultExecution
         )
     }
 
+    private fun findStackFrames(mirror: MirrorOfCoroutineInfo): CoroutineStackFrames {
+        val stackTrace = mirror.enhancedStackTrace?.map { it.stackTraceElement() } ?: emptyList()
+        val baseContinuationImpls = getAllBaseContinuationImpls(mirror.lastObservedFrame)
+        return findStackFrames(stackTrace, baseContinuationImpls)
+    }
+
     /**
      * Restores array of BaseContinuationImpl's for each restored frame based on the CoroutineInfo's last frame.
      * Start from 'lastObservedFrame' and following 'completion' property until the end of the chain (completion = null).
@@ -91,11 +132,6 @@ class CoroutineLibraryAgent2Proxy(private val executionContext: DefaultExecution
         return CoroutineStackFrames(restoredStackFrames, creationStackFrames)
     }
 
-    data class CoroutineStackFrames(
-        val restoredStackFrames: List<SuspendCoroutineStackFrameItem>,
-        val creationStackFrames: List<CreationCoroutineStackFrameItem>
-    )
-
     companion object {
         fun instance(executionContext: DefaultExecutionContext): CoroutineLibraryAgent2Proxy? {
             val agentProxy = CoroutineLibraryAgent2Proxy(executionContext)
@@ -26,9 +26,15 @@ class DebugProbesImpl private constructor(context: DefaultExecutionContext) :
 
     private val enhanceStackTraceWithThreadDumpMethod by MethodMirrorDelegate("enhanceStackTraceWithThreadDump", javaLangListMirror)
     private val dumpMethod by MethodMirrorDelegate("dumpCoroutinesInfo", javaLangListMirror, "()Ljava/util/List;")
+    private val dumpAsJsonAndReferencesMethod by MethodDelegate<ArrayReference>(
+        "dumpCoroutinesInfoAsJsonAndReferences", "()[Ljava/lang/Object;"
+    )
 
     val isInstalled: Boolean by lazy { isInstalled(context) }
 
+    val canDumpCoroutinesInfoAsJson: Boolean
+        get() = instance != null && dumpAsJsonAndReferencesMethod.method != null
+
     override fun fetchMirror(value: ObjectReference, context: DefaultExecutionContext) =
         MirrorOfDebugProbesImpl(value, instance, isInstalled)
 
@@ -54,6 +60,52 @@ class DebugProbesImpl private constructor(context: DefaultExecutionContext) :
         return referenceList.values.mapNotNull { coroutineInfo.mirror(it, context) }
     }
 
+    /**
+     * Dumps all coroutines with a single call of `dumpCoroutinesInfoAsJsonAndReferences` (kotlinx-coroutines 1.6.0+),
+     * which returns a JSON array of names, ids, dispatchers, sequence numbers and states of coroutines
+     * followed by arrays of last observed threads, last observed frames and coroutine infos.
+     * Other information, e.g. stack traces, is not fetched: use [mirrorOfCoroutineInfo] for a particular coroutine.
+     *
+     * The returned references are kept from garbage collection until the debuggee is resumed.
+     *
+     * @return `null` if the dump has unexpected format
+     */
+    fun dumpCoroutinesInfoAsJsonAndReferences(context: DefaultExecutionContext): List<MirrorOfPackedCoroutineInfo>? {
+        instance ?: return null
+        val dump = dumpAsJsonAndReferencesMethod.value(instance, context) ?: return null
+        context.keepReference(dump)
+
+        val values = dump.values
+        if (values.size != 4) return null
+        val json = (values[0] as? StringReference)?.value() ?: return null
+        val lastObservedThreads = (values[1] as? ArrayReference)?.values ?: return null
+        val lastObservedFrames = (values[2] as? ArrayReference)?.values ?: return null
+        val coroutineInfos = (values[3] as? ArrayReference)?.values ?: return null
+
+        val descriptions = try {
+            CoroutinesInfoJsonReader(json).readCoroutinesInfo()
+        } catch (e: IllegalArgumentException) {
+            log.warn("coroutine-debugger: unexpected coroutines dump format", e)
+            return null
+        }
+
+        val size = coroutineInfos.size
+        if (lastObservedThreads.size != size || lastObservedFrames.size != size || descriptions.size != size) return null
+
+        return coroutineInfos.indices.mapNotNull { index ->
+            val coroutineInfo = coroutineInfos[index] as? ObjectReference ?: return@mapNotNull null
+            MirrorOfPackedCoroutineInfo(
+                coroutineInfo,
+                descriptions[index],
+                lastObservedThreads[index] as? ThreadReference,
+                lastObservedFrames[index] as? ObjectReference
+            )
+        }
+    }
+
+    fun mirrorOfCoroutineInfo(value: ObjectReference, context: DefaultExecutionContext): MirrorOfCoroutineInfo? =
+        coroutineInfo.mirror(value, context)
+
     fun getCoroutineInfo(value: ObjectReference?, context: DefaultExecutionContext): MirrorOfCoroutineInfo? {
         val coroutineOwner = debugProbesCoroutineOwner.mirror(value, context)
         return coroutineOwner?.coroutineInfo
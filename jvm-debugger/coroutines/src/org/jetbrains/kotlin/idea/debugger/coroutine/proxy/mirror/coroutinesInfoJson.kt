@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.debugger.coroutine.proxy.mirror
+
+/**
+ * Reads the JSON array of coroutine descriptions produced by `DebugProbesImpl.dumpCoroutinesInfoAsJsonAndReferences`:
+ * `[{"name": "foo", "id": 1, "dispatcher": "Dispatchers.Default", "sequenceNumber": 1, "state": "SUSPENDED"}, ...]`.
+ * Only flat objects with string, number, boolean and `null` values are supported.
+ *
+ * @throws IllegalArgumentException if the text is not such an array
+ */
+class CoroutinesInfoJsonReader(private val text: String) {
+    private var position = 0
+
+    fun readCoroutinesInfo(): List<MirrorOfCoroutineInfoDescription> {
+        val objects = readArrayOfObjects()
+        return objects.map {
+            MirrorOfCoroutineInfoDescription(
+                it["name"] as? String,
+                it["id"] as? Long,
+                it["dispatcher"] as? String,
+                it["sequenceNumber"] as? Long,
+                it["state"] as? String
+            )
+        }
+    }
+
+    private fun readArrayOfObjects(): List<Map<String, Any?>> {
+        val result = ArrayList<Map<String, Any?>>()
+        expect('[')
+        if (!consume(']')) {
+            do {
+                result.add(readObject())
+            } while (consume(','))
+            expect(']')
+        }
+        skipWhitespaces()
+        require(position == text.length) { errorMessage("end of text") }
+        return result
+    }
+
+    private fun readObject(): Map<String, Any?> {
+        val result = HashMap<String, Any?>()
+        expect('{')
+        if (!consume('}')) {
+            do {
+                skipWhitespaces()
+                val key = readString()
+                expect(':')
+                result[key] = readValue()
+            } while (consume(','))
+            expect('}')
+        }
+        return result
+    }
+
+    private fun readValue(): Any? {
+        skipWhitespaces()
+        require(position < text.length) { errorMessage("value") }
+        return when (text[position]) {
+            '"' -> readString()
+            'n' -> readWord("null", null)
+            't' -> readWord("true", true)
+            'f' -> readWord("false", false)
+            else -> readNumber()
+        }
+    }
+
+    private fun readWord(word: String, value: Any?): Any? {
+        require(text.startsWith(word, position)) { errorMessage(word) }
+        position += word.length
+        return value
+    }
+
+    private fun readNumber(): Long {
+        val start = position
+        if (position < text.length && text[position] == '-') position++
+        while (position < text.length && text[position].isDigit()) position++
+        return text.substring(start, position).toLongOrNull() ?: throw IllegalArgumentException(errorMessage("number"))
+    }
+
+    private fun readString(): String {
+        require(position < text.length && text[position] == '"') { errorMessage("string") }
+        position++
+
+        val result = StringBuilder()
+        while (position < text.length) {
+            val current = text[position++]
+            when (current) {
+                '"' -> return result.toString()
+                '\\' -> {
+                    require(position < text.length) { errorMessage("escape sequence") }
+                    when (val escaped = text[position++]) {
+                        'b' -> result.append('\b')
+                        'f' -> result.append('\u000C')
+                        'n' -> result.append('\n')
+                        'r' -> result.append('\r')
+                        't' -> result.append('\t')
+                        'u' -> {
+                            require(position + 4 <= text.length) { errorMessage("unicode escape sequence") }
+                            val code = text.substring(position, position + 4).toIntOrNull(16)
+                                ?: throw IllegalArgumentException(errorMessage("unicode escape sequence"))
+                            result.append(code.toChar())
+                            position += 4
+                        }
+                        else -> result.append(escaped)
+                    }
+                }
+                else -> result.append(current)
+            }
+        }
+
+        throw IllegalArgumentException(errorMessage("end of string"))
+    }
+
+    private fun expect(char: Char) {
+        require(consume(char)) { errorMessage("'$char'") }
+    }
+
+    private fun consume(char: Char): Boolean {
+        skipWhitespaces()
+        if (position < text.length && text[position] == char) {
+            position++
+            return true
+        }
+        return false
+    }
+
+    private fun skipWhitespaces() {
+        while (position < text.length && text[position].isWhitespace()) position++
+    }
+
+    private fun errorMessage(expected: String) = "Expected $expected at $position"
+}
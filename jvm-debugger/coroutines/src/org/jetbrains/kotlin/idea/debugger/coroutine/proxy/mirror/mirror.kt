@@ -36,6 +36,23 @@ data class MirrorOfCoroutineInfo(
         val lastObservedFrame: ObjectReference?
 )
 
+/**
+ * Coroutine dumped in a batch by [DebugProbesImpl.dumpCoroutinesInfoAsJsonAndReferences]
+ */
+data class MirrorOfPackedCoroutineInfo(
+        val that: ObjectReference,
+        val description: MirrorOfCoroutineInfoDescription,
+        val lastObservedThread: ThreadReference?,
+        val lastObservedFrame: ObjectReference?
+)
+
+data class MirrorOfCoroutineInfoDescription(
+        val name: String?,
+        val id: Long?,
+        val dispatcher: String?,
+        val sequenceNumber: Long?,
+        val state: String?
+)
 
 data class MirrorOfCoroutineStackFrame(
         val that: ObjectReference,
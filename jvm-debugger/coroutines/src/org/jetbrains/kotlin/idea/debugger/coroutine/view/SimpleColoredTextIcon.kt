@@ -113,7 +113,8 @@ class SimpleColoredTextIconPresentationRenderer {
 
         val icon = fromState(infoData.key.state)
 
-        val hasChildren = infoData.stackTrace.isNotEmpty() || infoData.creationStackTrace.isNotEmpty()
+        // Don't resolve stack frames until the node is expanded
+        val hasChildren = !infoData.isStackResolved || infoData.stackTrace.isNotEmpty() || infoData.creationStackTrace.isNotEmpty()
         val label = SimpleColoredTextIcon(icon, hasChildren)
         label.append("\"")
         label.appendValue(infoData.key.formatName())
@@ -79,6 +79,27 @@ fun interpreterLoop(
     initialState: Frame<Value>,
     eval: Eval,
     handler: InterpretationEventHandler = InterpretationEventHandler.NONE
+): InterpreterResult {
+    return interpreterLoop(m, computeHandlers(m), initialState, eval, handler)
+}
+
+// Values read from the debuggee are reused within the evaluation of a pure method, see PreparedMethod.isPure
+fun interpreterLoop(
+    prepared: PreparedMethod,
+    initialState: Frame<Value>,
+    eval: Eval,
+    handler: InterpretationEventHandler = InterpretationEventHandler.NONE
+): InterpreterResult {
+    val methodEval = if (prepared.isPure) ReadCachingEval(eval) else eval
+    return interpreterLoop(prepared.method, prepared.handlers, initialState, methodEval, handler)
+}
+
+private fun interpreterLoop(
+    m: MethodNode,
+    handlers: Array<out List<TryCatchBlockNode>?>,
+    initialState: Frame<Value>,
+    eval: Eval,
+    handler: InterpretationEventHandler
 ): InterpreterResult {
     val firstInsn = m.instructions.first
     if (firstInsn == null) throw IllegalArgumentException("Empty method")
@@ -92,7 +113,6 @@ fun interpreterLoop(
 
     val interpreter = SingleInstructionInterpreter(eval)
     val frame = Frame(initialState)
-    val handlers = computeHandlers(m)
 
     class ResultException(val result: InterpreterResult) : RuntimeException()
 
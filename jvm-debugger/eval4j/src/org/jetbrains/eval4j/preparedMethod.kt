@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.eval4j
+
+import org.jetbrains.org.objectweb.asm.Opcodes.*
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.AbstractInsnNode
+import org.jetbrains.org.objectweb.asm.tree.MethodInsnNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.tree.TryCatchBlockNode
+
+/**
+ * A method decoded once to be interpreted many times, e.g. the condition of a breakpoint hit in a loop.
+ *
+ * The instances are shared between evaluations, so [method] should not be modified after the creation.
+ */
+class PreparedMethod(val method: MethodNode) {
+    // Also fills the instruction index cache of the method before it is shared
+    internal val handlers: Array<out List<TryCatchBlockNode>?> = computeHandlers(method)
+
+    /**
+     * A pure method doesn't write fields and array elements, doesn't create objects and calls only the methods
+     * known to have no side effects, so nothing it reads from the debuggee can change during its evaluation.
+     *
+     * Known methods are the ones of final JDK classes and static Kotlin intrinsics which don't call methods of their arguments:
+     * any call of an overridable method (e.g. `Number.intValue` or `equals` called by `Intrinsics.areEqual`)
+     * may run the debuggee code with side effects.
+     */
+    val isPure: Boolean = method.instructions.toArray().all { it.isPure() }
+}
+
+private fun AbstractInsnNode.isPure(): Boolean {
+    return when (opcode) {
+        PUTFIELD, PUTSTATIC,
+        IASTORE, LASTORE, FASTORE, DASTORE, AASTORE, BASTORE, CASTORE, SASTORE,
+        NEW, NEWARRAY, ANEWARRAY, MULTIANEWARRAY,
+        MONITORENTER, MONITOREXIT,
+        INVOKEDYNAMIC -> false
+        INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC, INVOKEINTERFACE -> {
+            val insn = this as MethodInsnNode
+            insn.name in PURE_METHODS[insn.owner].orEmpty()
+        }
+        else -> true
+    }
+}
+
+private val BOXING_METHODS = setOf(
+    "valueOf", "booleanValue", "charValue", "byteValue", "shortValue", "intValue", "longValue", "floatValue", "doubleValue"
+)
+
+private val PURE_METHODS = mapOf(
+    "java/lang/Boolean" to BOXING_METHODS,
+    "java/lang/Character" to BOXING_METHODS,
+    "java/lang/Byte" to BOXING_METHODS,
+    "java/lang/Short" to BOXING_METHODS,
+    "java/lang/Integer" to BOXING_METHODS,
+    "java/lang/Long" to BOXING_METHODS,
+    "java/lang/Float" to BOXING_METHODS,
+    "java/lang/Double" to BOXING_METHODS,
+    // not `contains`, it calls `toString` of the argument
+    "java/lang/String" to setOf("length", "isEmpty", "charAt", "equals", "compareTo", "startsWith", "endsWith", "indexOf"),
+    "java/lang/Math" to setOf("abs", "min", "max"),
+    "kotlin/jvm/internal/Intrinsics" to setOf(
+        "compare", "checkNotNull", "checkNotNullExpressionValue", "checkExpressionValueIsNotNull",
+        "checkNotNullParameter", "checkParameterIsNotNull"
+    )
+)
+
+/**
+ * Reuses the values read from the debuggee during the evaluation of a pure method, see [PreparedMethod.isPure].
+ * Every read otherwise costs a JDI round trip.
+ */
+internal class ReadCachingEval(private val delegate: Eval) : Eval by delegate {
+    private val classes = HashMap<Type, Value>()
+    private val strings = HashMap<String, Value>()
+    private val staticFields = HashMap<FieldDescription, Value>()
+    private val fields = HashMap<Pair<Value, FieldDescription>, Value>()
+    private val arrayLengths = HashMap<Value, Value>()
+    private val arrayElements = HashMap<Pair<Value, Int>, Value>()
+    private val instanceChecks = HashMap<Pair<Value, Type>, Boolean>()
+
+    override fun loadClass(classType: Type): Value {
+        return classes.getOrPut(classType) { delegate.loadClass(classType) }
+    }
+
+    override fun loadString(str: String): Value {
+        return strings.getOrPut(str) { delegate.loadString(str) }
+    }
+
+    override fun isInstanceOf(value: Value, targetType: Type): Boolean {
+        if (!value.isCacheable) return delegate.isInstanceOf(value, targetType)
+        return instanceChecks.getOrPut(Pair(value, targetType)) { delegate.isInstanceOf(value, targetType) }
+    }
+
+    override fun getArrayLength(array: Value): Value {
+        if (!array.isCacheable) return delegate.getArrayLength(array)
+        return arrayLengths.getOrPut(array) { delegate.getArrayLength(array) }
+    }
+
+    override fun getArrayElement(array: Value, index: Value): Value {
+        if (!array.isCacheable) return delegate.getArrayElement(array, index)
+        return arrayElements.getOrPut(Pair(array, index.int)) { delegate.getArrayElement(array, index) }
+    }
+
+    override fun getStaticField(fieldDesc: FieldDescription): Value {
+        return staticFields.getOrPut(fieldDesc) { delegate.getStaticField(fieldDesc) }
+    }
+
+    override fun getField(instance: Value, fieldDesc: FieldDescription): Value {
+        if (!instance.isCacheable) return delegate.getField(instance, fieldDesc)
+        return fields.getOrPut(Pair(instance, fieldDesc)) { delegate.getField(instance, fieldDesc) }
+    }
+
+    // Null and not yet constructed objects can't be hashed, reads from them are not cached
+    private val Value.isCacheable: Boolean
+        get() = this is ObjectValue && this !is NewObjectValue && value != null
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.eval4j.test;
+
+@SuppressWarnings("unused")
+class BenchmarkData {
+    static int[] values = {1, 2, 3, 4, 5};
+    static String name = "breakpoint";
+    static int hits = 0;
+
+    static boolean pureCondition() {
+        return values.length > 3
+               && values[0] + values[1] == values[2]
+               && values[values.length - 1] == values.length
+               && name.length() > 0
+               && name.length() < values[4] * values[4]
+               && name.equals("breakpoint");
+    }
+
+    static boolean impureCondition() {
+        hits++;
+        return values.length > 3
+               && values[0] + values[1] == values[2]
+               && values[values.length - 1] == values.length
+               && name.length() > 0
+               && name.length() < values[4] * values[4]
+               && name.equals("breakpoint");
+    }
+
+    static boolean objectsEqual(Object first, Object second) {
+        return kotlin.jvm.internal.Intrinsics.areEqual(first, second);
+    }
+
+    static int numberValue(Number number) {
+        return number.intValue();
+    }
+
+    static boolean nameContains(CharSequence part) {
+        return name.contains(part);
+    }
+}
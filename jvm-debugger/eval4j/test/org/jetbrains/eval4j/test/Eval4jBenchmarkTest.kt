@@ -0,0 +1,142 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.eval4j.test
+
+import junit.framework.TestCase
+import org.jetbrains.eval4j.*
+import org.jetbrains.org.objectweb.asm.ClassReader
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.AbstractInsnNode
+import org.jetbrains.org.objectweb.asm.tree.ClassNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.tree.analysis.Frame
+import java.util.concurrent.TimeUnit
+
+/**
+ * Instructions per second and calls to [Eval] (JDI round trips in the debugger) per evaluation
+ * of a breakpoint condition, interpreted as is and as a [PreparedMethod].
+ */
+class Eval4jBenchmarkTest : TestCase() {
+    private val ownerClass = BenchmarkData::class.java
+    private val methods: List<MethodNode> by lazy {
+        val classNode = ClassNode()
+        ownerClass.classLoader!!.getResourceAsStream(ownerClass.getInternalName() + ".class")!!.use { inputStream ->
+            ClassReader(inputStream).accept(classNode, 0)
+        }
+        classNode.methods
+    }
+
+    private fun method(name: String) = methods.single { it.name == name }
+
+    fun testPureCondition() {
+        val prepared = PreparedMethod(method("pureCondition"))
+        assertTrue(prepared.isPure)
+
+        val interpreted = measure("Interpreted pure condition") { eval, handler ->
+            interpreterLoop(prepared.method, initialFrame(prepared.method), eval, handler)
+        }
+        val preparedResult = measure("Prepared pure condition") { eval, handler ->
+            interpreterLoop(prepared, initialFrame(prepared.method), eval, handler)
+        }
+
+        assertEquals(ValueReturned(boolean(true)), interpreted.result)
+        assertEquals(interpreted.result, preparedResult.result)
+        assertTrue(
+            "Reads should be reused: ${preparedResult.evalCalls} calls vs ${interpreted.evalCalls}",
+            preparedResult.evalCalls < interpreted.evalCalls
+        )
+    }
+
+    fun testImpureCondition() {
+        val prepared = PreparedMethod(method("impureCondition"))
+        assertFalse(prepared.isPure)
+
+        val interpreted = measure("Interpreted impure condition") { eval, handler ->
+            interpreterLoop(prepared.method, initialFrame(prepared.method), eval, handler)
+        }
+        val preparedResult = measure("Prepared impure condition") { eval, handler ->
+            interpreterLoop(prepared, initialFrame(prepared.method), eval, handler)
+        }
+
+        assertEquals(interpreted.result, preparedResult.result)
+        assertEquals(interpreted.evalCalls, preparedResult.evalCalls)
+    }
+
+    // these methods call methods of their arguments, which may be overridden in the debuggee
+    fun testCallsOfOverridableMethodsAreImpure() {
+        for (name in listOf("objectsEqual", "numberValue", "nameContains")) {
+            assertFalse(name, PreparedMethod(method(name)).isPure)
+        }
+    }
+
+    private class Measurement(val result: InterpreterResult, val evalCalls: Int)
+
+    private fun measure(title: String, evaluate: (Eval, InterpretationEventHandler) -> InterpreterResult): Measurement {
+        val handler = CountingEventHandler()
+        var result: InterpreterResult? = null
+        var evalCalls = 0
+
+        repeat(WARMUP_EVALUATIONS) {
+            evaluate(CountingEval(REFLECTION_EVAL), handler)
+        }
+        handler.instructions = 0
+
+        val start = System.nanoTime()
+        repeat(EVALUATIONS) {
+            val eval = CountingEval(REFLECTION_EVAL)
+            result = evaluate(eval, handler)
+            evalCalls = eval.calls
+        }
+        val elapsedNanos = (System.nanoTime() - start).coerceAtLeast(1)
+
+        val instructionsPerSecond = handler.instructions * TimeUnit.SECONDS.toNanos(1) / elapsedNanos
+        println("$title: $instructionsPerSecond instructions/s, $evalCalls eval calls per evaluation")
+
+        return Measurement(result!!, evalCalls)
+    }
+
+    private fun initialFrame(method: MethodNode): Frame<Value> = initFrame(ownerClass.getInternalName(), method)
+
+    private class CountingEventHandler : InterpretationEventHandler {
+        var instructions = 0L
+
+        override fun instructionProcessed(insn: AbstractInsnNode): InterpreterResult? {
+            instructions++
+            return null
+        }
+
+        override fun exceptionThrown(currentState: Frame<Value>, currentInsn: AbstractInsnNode, exception: Value): InterpreterResult? = null
+        override fun exceptionCaught(currentState: Frame<Value>, currentInsn: AbstractInsnNode, exception: Value): InterpreterResult? = null
+    }
+
+    private class CountingEval(private val delegate: Eval) : Eval by delegate {
+        var calls = 0
+
+        private fun <T> count(f: () -> T): T {
+            calls++
+            return f()
+        }
+
+        override fun loadClass(classType: Type) = count { delegate.loadClass(classType) }
+        override fun loadString(str: String) = count { delegate.loadString(str) }
+        override fun isInstanceOf(value: Value, targetType: Type) = count { delegate.isInstanceOf(value, targetType) }
+        override fun getArrayLength(array: Value) = count { delegate.getArrayLength(array) }
+        override fun getArrayElement(array: Value, index: Value) = count { delegate.getArrayElement(array, index) }
+        override fun getStaticField(fieldDesc: FieldDescription) = count { delegate.getStaticField(fieldDesc) }
+        override fun getField(instance: Value, fieldDesc: FieldDescription) = count { delegate.getField(instance, fieldDesc) }
+
+        override fun invokeStaticMethod(methodDesc: MethodDescription, arguments: List<Value>) =
+            count { delegate.invokeStaticMethod(methodDesc, arguments) }
+
+        override fun invokeMethod(instance: Value, methodDesc: MethodDescription, arguments: List<Value>, invokeSpecial: Boolean) =
+            count { delegate.invokeMethod(instance, methodDesc, arguments, invokeSpecial) }
+    }
+
+    companion object {
+        private const val WARMUP_EVALUATIONS = 1_000
+        private const val EVALUATIONS = 10_000
+    }
+}
@@ -26,6 +26,7 @@ import com.intellij.openapi.diagnostic.Attachment
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.project.DumbService
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiElement
 import com.intellij.testFramework.runInEdtAndWait
 import com.sun.jdi.*
@@ -68,8 +69,6 @@ import org.jetbrains.kotlin.resolve.AnalyzingUtils
 import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.isInlineClassType
 import org.jetbrains.kotlin.resolve.jvm.AsmTypes
-import org.jetbrains.org.objectweb.asm.ClassReader
-import org.jetbrains.org.objectweb.asm.tree.ClassNode
 import java.util.*
 import org.jetbrains.eval4j.Value as Eval4JValue
 
@@ -187,7 +186,9 @@ class KotlinEvaluator(val codeFragment: KtCodeFragment, private val sourcePositi
     private fun evaluateSafe(context: ExecutionContext, status: EvaluationStatus): Any? {
         fun compilerFactory(): CompiledDataDescriptor = compileCodeFragment(context, status)
 
-        val (compiledData, _) = compileCodeFragmentCacheAware(codeFragment, sourcePosition, ::compilerFactory, force = false)
+        val (compiledData, _) = compileCodeFragmentCacheAware(
+            codeFragment, sourcePosition, { getCapturedValueTypes(context) }, ::compilerFactory, force = false
+        )
 
         val classLoadingResult = loadClassesSafely(context, compiledData.classes)
         val classLoaderRef = (classLoadingResult as? ClassLoadingResult.Success)?.classLoader
@@ -215,6 +216,18 @@ class KotlinEvaluator(val codeFragment: KtCodeFragment, private val sourcePositi
         return result.toJdiValue(context, status)
     }
 
+    private fun getCapturedValueTypes(context: ExecutionContext): List<String> {
+        return try {
+            val frameProxy = context.frameProxy
+            val location = frameProxy.location()
+            // Parameters of compiled fragments depend on whether the frame is in a constructor
+            val frameValues = listOf("this: ${location.declaringType().name()}", "method: ${location.method().name()}")
+            frameValues + frameProxy.visibleVariables().map { "${it.name()}: ${it.typeName()}" }
+        } catch (e: EvaluateException) {
+            emptyList()
+        }
+    }
+
     private fun compileCodeFragment(context: ExecutionContext, status: EvaluationStatus): CompiledDataDescriptor {
         val debugProcess = context.debugProcess
         var analysisResult = analyze(codeFragment, status, debugProcess)
@@ -233,7 +246,8 @@ class KotlinEvaluator(val codeFragment: KtCodeFragment, private val sourcePositi
 
         try {
             val result = CodeFragmentCompiler(context, status).compile(codeFragment, filesToCompile, bindingContext, moduleDescriptor)
-            return createCompiledDataDescriptor(result, sourcePosition)
+            val inlinedFiles = runReadAction { filesToCompile.filter { it != codeFragment }.mapNotNull { it.virtualFile } }
+            return createCompiledDataDescriptor(result, sourcePosition, inlinedFiles)
         } catch (e: Throwable) {
             status.error(EvaluationError.BackendException)
             throw e
@@ -334,9 +348,7 @@ class KotlinEvaluator(val codeFragment: KtCodeFragment, private val sourcePositi
         classLoader: ClassLoaderReference?,
         status: EvaluationStatus
     ): InterpreterResult {
-        val mainClassBytecode = compiledData.mainClass.bytes
-        val mainClassAsmNode = ClassNode().apply { ClassReader(mainClassBytecode).accept(this, 0) }
-        val mainMethod = mainClassAsmNode.methods.first { it.name == GENERATED_FUNCTION_NAME }
+        val mainMethod = compiledData.eval4jMainMethod
 
         return runEvaluation(context, compiledData, classLoader ?: context.evaluationContext.classLoader, status) { args ->
             val vm = context.vm.virtualMachine
@@ -356,7 +368,7 @@ class KotlinEvaluator(val codeFragment: KtCodeFragment, private val sourcePositi
                     return context.invokeMethod(obj, method, args, ObjectReference.INVOKE_NONVIRTUAL)
                 }
             }
-            interpreterLoop(mainMethod, makeInitialFrame(mainMethod, args.map { it.asValue() }), eval)
+            interpreterLoop(mainMethod, makeInitialFrame(mainMethod.method, args.map { it.asValue() }), eval)
         }
     }
 
@@ -524,7 +536,11 @@ private fun reportError(codeFragment: KtCodeFragment, position: SourcePosition?,
     }
 }
 
-fun createCompiledDataDescriptor(result: CodeFragmentCompiler.CompilationResult, sourcePosition: SourcePosition?): CompiledDataDescriptor {
+fun createCompiledDataDescriptor(
+    result: CodeFragmentCompiler.CompilationResult,
+    sourcePosition: SourcePosition?,
+    inlinedFiles: List<VirtualFile> = emptyList()
+): CompiledDataDescriptor {
     val localFunctionSuffixes = result.localFunctionSuffixes
 
     val dumbParameters = ArrayList<CodeFragmentParameter.Dumb>(result.parameterInfo.parameters.size)
@@ -546,7 +562,8 @@ fun createCompiledDataDescriptor(result: CodeFragmentCompiler.CompilationResult,
         dumbParameters,
         result.parameterInfo.crossingBounds,
         result.mainMethodSignature,
-        sourcePosition
+        sourcePosition,
+        inlinedFiles
     )
 }
 
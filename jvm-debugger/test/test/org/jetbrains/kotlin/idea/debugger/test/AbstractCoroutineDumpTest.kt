@@ -56,8 +56,10 @@ abstract class AbstractCoroutineDumpTest : KotlinDescriptorTestCaseWithStepping(
         }
     }
 
+    protected open val coroutinesLibraryVersion: String = "1.3.8"
+
     override fun createJavaParameters(mainClass: String?): JavaParameters {
-        val description = JpsMavenRepositoryLibraryDescriptor("org.jetbrains.kotlinx", "kotlinx-coroutines-core", "1.3.8")
+        val description = JpsMavenRepositoryLibraryDescriptor("org.jetbrains.kotlinx", "kotlinx-coroutines-core", coroutinesLibraryVersion)
         val debugJar = JarRepositoryManager.loadDependenciesSync(
             project, description, setOf(ArtifactKind.ARTIFACT),
             RemoteRepositoryDescription.DEFAULT_REPOSITORIES, null
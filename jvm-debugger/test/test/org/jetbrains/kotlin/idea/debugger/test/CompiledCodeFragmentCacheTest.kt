@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.debugger.test
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.idea.debugger.evaluate.CompiledCodeFragmentCache
+import org.jetbrains.kotlin.idea.debugger.evaluate.compilation.CompiledDataDescriptor
+import org.jetbrains.org.objectweb.asm.Type
+
+/**
+ * Eviction and stored data of [CompiledCodeFragmentCache], see [CompiledCodeFragmentEvaluationBenchmarkTest] for evaluations
+ * in a live debuggee.
+ */
+class CompiledCodeFragmentCacheTest : TestCase() {
+    fun testLeastRecentlyUsedEviction() {
+        val cache = CompiledCodeFragmentCache<Unit>(maxSize = 2)
+        cache.put(key(0), compiledData(), CAPTURED_VALUE_TYPES, Unit)
+        cache.put(key(1), compiledData(), CAPTURED_VALUE_TYPES, Unit)
+        assertNotNull(cache[key(0)])
+
+        cache.put(key(2), compiledData(), CAPTURED_VALUE_TYPES, Unit)
+
+        assertEquals(2, cache.size)
+        assertNotNull(cache[key(0)])
+        assertNull(cache[key(1)])
+        assertNotNull(cache[key(2)])
+    }
+
+    fun testCapturedValueTypesAreStored() {
+        val cache = CompiledCodeFragmentCache<Unit>()
+        cache.put(key(0), compiledData(), listOf("a: int"), Unit)
+        assertEquals(listOf("a: int"), cache[key(0)]!!.capturedValueTypes)
+
+        // a frame with other types replaces the entry after compilation
+        cache.put(key(0), compiledData(), listOf("a: java.lang.String"), Unit)
+        assertEquals(1, cache.size)
+        assertEquals(listOf("a: java.lang.String"), cache[key(0)]!!.capturedValueTypes)
+    }
+
+    private fun key(index: Int) = CompiledCodeFragmentCache.Key("value > $index", "file:///test/Foo.kt", index)
+
+    private fun compiledData() = CompiledDataDescriptor(
+        emptyList(), emptyList(), emptySet(),
+        CompiledDataDescriptor.MethodSignature(emptyList(), Type.BOOLEAN_TYPE),
+        null
+    )
+
+    companion object {
+        private val CAPTURED_VALUE_TYPES = listOf("this: test.Foo", "value: int")
+    }
+}
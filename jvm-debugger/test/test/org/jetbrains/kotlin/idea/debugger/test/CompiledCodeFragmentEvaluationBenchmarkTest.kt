@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.debugger.test
+
+import com.intellij.debugger.engine.evaluation.CodeFragmentKind
+import com.intellij.debugger.engine.evaluation.TextWithImportsImpl
+import com.intellij.execution.process.ProcessOutputTypes
+import com.intellij.testFramework.TestDataPath
+import org.jetbrains.kotlin.idea.KotlinFileType
+import org.jetbrains.kotlin.idea.debugger.evaluate.CompiledCodeFragmentCache
+import org.jetbrains.kotlin.idea.debugger.test.preference.DebuggerPreferences
+import org.jetbrains.kotlin.test.JUnit3RunnerWithInners
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestMetadata
+import org.jetbrains.kotlin.test.TestRoot
+import org.junit.runner.RunWith
+
+/**
+ * Time of repeated evaluations of a breakpoint condition in a live debuggee: the first one compiles the fragment,
+ * the others take it from [CompiledCodeFragmentCache]. The test output shows that the fragment is compiled only once.
+ */
+@TestRoot("jvm-debugger/test")
+@TestDataPath("\$CONTENT_ROOT")
+@RunWith(JUnit3RunnerWithInners::class)
+@TestMetadata("testData/evaluationBenchmark")
+class CompiledCodeFragmentEvaluationBenchmarkTest : AbstractKotlinEvaluateExpressionTest() {
+    override fun doMultiFileTest(files: TestFiles, preferences: DebuggerPreferences) {
+        doOnBreakpoint {
+            try {
+                val condition = TextWithImportsImpl(CodeFragmentKind.EXPRESSION, CONDITION, "", KotlinFileType.INSTANCE)
+
+                val compilationStart = System.nanoTime()
+                evaluate(this, condition)
+                val compilationNanos = System.nanoTime() - compilationStart
+
+                val cachedStart = System.nanoTime()
+                repeat(EVALUATIONS - 1) {
+                    evaluate(this, condition)
+                }
+                val cachedNanos = (System.nanoTime() - cachedStart) / (EVALUATIONS - 1)
+
+                reportStatistic("Kotlin debugger condition evaluation with compilation, us", compilationNanos / 1000)
+                reportStatistic("Kotlin debugger cached condition evaluation, us", cachedNanos / 1000)
+                print("Evaluations: $EVALUATIONS\n", ProcessOutputTypes.SYSTEM)
+            } finally {
+                resume(this)
+            }
+        }
+    }
+
+    private fun reportStatistic(key: String, value: Long) {
+        System.out.println(String.format("##teamcity[buildStatisticValue key='%s' value='%d']", key, value))
+    }
+
+    @TestMetadata("conditionEvaluation.kt")
+    fun testConditionEvaluation() {
+        KotlinTestUtils.runTest(this::doTest, this, "testData/evaluationBenchmark/conditionEvaluation.kt")
+    }
+
+    companion object {
+        private const val CONDITION = "value > 10 && values.sum() > 0"
+        private const val EVALUATIONS = 200
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.debugger.test
+
+import com.intellij.debugger.engine.SuspendContextImpl
+import com.intellij.execution.process.ProcessOutputTypes
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.testFramework.TestDataPath
+import org.jetbrains.kotlin.idea.debugger.coroutine.data.CoroutineInfoData
+import org.jetbrains.kotlin.idea.debugger.coroutine.proxy.CoroutineDebugProbesProxy
+import org.jetbrains.kotlin.idea.debugger.test.preference.DebuggerPreferences
+import org.jetbrains.kotlin.test.JUnit3RunnerWithInners
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestMetadata
+import org.jetbrains.kotlin.test.TestRoot
+import org.junit.runner.RunWith
+
+/**
+ * Time of dumping a few thousand coroutines in one batched call of `DebugProbesImpl`
+ * compared to mirroring every coroutine info separately.
+ */
+@TestRoot("jvm-debugger/test")
+@TestDataPath("\$CONTENT_ROOT")
+@RunWith(JUnit3RunnerWithInners::class)
+@TestMetadata("testData/coroutinesBenchmark")
+class CoroutineDumpBenchmarkTest : AbstractCoroutineDumpTest() {
+    // The batched dump is available since kotlinx-coroutines 1.6.0
+    override val coroutinesLibraryVersion: String = "1.6.0"
+
+    override fun doMultiFileTest(files: TestFiles, preferences: DebuggerPreferences) {
+        doOnBreakpoint {
+            try {
+                val batched = timedDump(batched = true)
+                val separate = timedDump(batched = false)
+
+                assertFalse("Coroutines are not found", batched.isEmpty())
+                assertEquals(separate.map { it.key }, batched.map { it.key })
+                assertEquals(separate.map { it.stackTrace.size }, batched.map { it.stackTrace.size })
+
+                print("Batched dump: ${batched.size} coroutines\n", ProcessOutputTypes.SYSTEM)
+                print("Dumps are equal: true\n", ProcessOutputTypes.SYSTEM)
+            } finally {
+                resume(this)
+            }
+        }
+    }
+
+    private fun SuspendContextImpl.timedDump(batched: Boolean): List<CoroutineInfoData> {
+        val registryValue = Registry.get(BATCHED_DUMP_REGISTRY_KEY)
+        val oldValue = registryValue.asBoolean()
+        registryValue.setValue(batched)
+        try {
+            val start = System.nanoTime()
+            val infoCache = CoroutineDebugProbesProxy(this).dumpCoroutines()
+            if (!infoCache.isOk()) throw AssertionError("Dump failed")
+
+            // Stack frames of the separate dump are resolved along with the coroutine infos
+            val stackFramesResolved = infoCache.cache.filter { it.isStackResolved }
+            if (batched && stackFramesResolved.isNotEmpty()) {
+                throw AssertionError("Batched dump is not used: stack frames of ${stackFramesResolved.size} coroutines are resolved")
+            }
+            if (!batched && stackFramesResolved.size != infoCache.cache.size) throw AssertionError("Separate dump is not used")
+
+            // The batched dump resolves stack frames lazily, resolve them to compare the complete work
+            infoCache.cache.forEach { it.resolveStackFrames() }
+            val elapsedMs = (System.nanoTime() - start) / 1_000_000
+            println("${if (batched) "Batched" else "Separate"} dump of ${infoCache.cache.size} coroutines: $elapsedMs ms")
+
+            return infoCache.cache
+        } finally {
+            registryValue.setValue(oldValue)
+        }
+    }
+
+    @TestMetadata("manyCoroutines.kt")
+    fun testManyCoroutines() {
+        KotlinTestUtils.runTest(this::doTest, this, "testData/coroutinesBenchmark/manyCoroutines.kt")
+    }
+
+    companion object {
+        private const val BATCHED_DUMP_REGISTRY_KEY = "kotlin.debugger.coroutines.batched.dump"
+    }
+}
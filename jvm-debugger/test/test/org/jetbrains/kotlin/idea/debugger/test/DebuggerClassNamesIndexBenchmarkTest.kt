@@ -0,0 +1,82 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.debugger.test
+
+import com.intellij.debugger.SourcePosition
+import com.intellij.openapi.command.WriteCommandAction
+import com.intellij.psi.PsiDocumentManager
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.testFramework.LightProjectDescriptor
+import org.jetbrains.kotlin.idea.core.util.getLineCount
+import org.jetbrains.kotlin.idea.debugger.DebuggerClassNameProvider
+import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
+import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
+import org.jetbrains.kotlin.psi.KtFile
+
+/**
+ * Class names for prepare requests of breakpoints on every line of a file computed the first time and taken from the line index
+ * of the file, which is kept after modifications of other files.
+ */
+class DebuggerClassNamesIndexBenchmarkTest : KotlinLightCodeInsightFixtureTestCase() {
+    override fun getProjectDescriptor(): LightProjectDescriptor {
+        return KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
+    }
+
+    fun testBreakpointRegistration() {
+        val file = myFixture.configureByText("breakpoints.kt", fileText(className = "Foo")) as KtFile
+
+        val coldNames = registerBreakpoints(file)
+        val warmNames = registerBreakpoints(file)
+
+        assertEquals(coldNames, warmNames)
+        assertTrue(coldNames.flatten().any { it.startsWith("test.Foo0") })
+
+        myFixture.addFileToProject("other.kt", "package test\n\nfun other() = 1")
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+
+        val afterOtherFileNames = registerBreakpoints(file)
+        assertEquals(coldNames, afterOtherFileNames)
+
+        val document = PsiDocumentManager.getInstance(project).getDocument(file)!!
+        WriteCommandAction.runWriteCommandAction(project) {
+            document.setText(fileText(className = "Bar"))
+        }
+        PsiDocumentManager.getInstance(project).commitAllDocuments()
+
+        val modifiedNames = registerBreakpoints(file)
+        assertTrue(modifiedNames.flatten().any { it.startsWith("test.Bar0") })
+        assertFalse(modifiedNames.flatten().any { it.startsWith("test.Foo") })
+    }
+
+    private fun registerBreakpoints(file: KtFile): List<List<String>> {
+        val provider = DebuggerClassNameProvider(project, GlobalSearchScope.allScope(project))
+        val positions = (0 until file.getLineCount()).map { SourcePosition.createFromLine(file, it) }
+        return positions.map { provider.getOuterClassNamesForPosition(it).sorted() }
+    }
+
+    private fun fileText(className: String): String = buildString {
+        appendLine("package test")
+        appendLine()
+        for (classIndex in 0 until CLASSES) {
+            appendLine("class $className$classIndex {")
+            for (functionIndex in 0 until FUNCTIONS) {
+                appendLine("    fun foo$functionIndex(values: List<Int>): Int {")
+                appendLine("        val mapped = values.map { it + $functionIndex }")
+                appendLine("        val runnable = Runnable { println(mapped) }")
+                appendLine("        runnable.run()")
+                appendLine("        return mapped.sumBy { value -> value * 2 }")
+                appendLine("    }")
+            }
+            appendLine("}")
+            appendLine()
+        }
+    }
+
+    companion object {
+        private const val CLASSES = 10
+        private const val FUNCTIONS = 10
+    }
+}
@@ -0,0 +1,14 @@
+package manyCoroutines
+
+import kotlinx.coroutines.*
+
+fun main() = runBlocking {
+    val jobs = List(2000) {
+        launch(CoroutineName("worker")) {
+            delay(Long.MAX_VALUE)
+        }
+    }
+    yield()
+    //Breakpoint!
+    jobs.forEach { it.cancel() }
+}
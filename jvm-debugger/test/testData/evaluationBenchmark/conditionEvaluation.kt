@@ -0,0 +1,14 @@
+package conditionEvaluation
+
+fun main() {
+    val values = IntArray(100) { it }
+    check(values)
+}
+
+fun check(values: IntArray) {
+    val value = values.size
+    //Breakpoint!
+    consume(value)
+}
+
+fun consume(value: Int) = value
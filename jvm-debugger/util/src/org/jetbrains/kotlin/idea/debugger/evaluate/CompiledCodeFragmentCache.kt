@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.debugger.evaluate
+
+import org.jetbrains.kotlin.idea.debugger.evaluate.compilation.CompiledDataDescriptor
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Compiled code fragments by their content: the text and the context position.
+ *
+ * Lookups don't lock, the least recently used entries are evicted when there are more than [maxSize] entries.
+ * Entries are not invalidated by the cache itself: [Entry.dependencies] and [Entry.capturedValueTypes] should be checked
+ * by the caller. Types of the captured values are not a part of the key, as they are obtained from the debuggee,
+ * which is only worth doing for a found entry.
+ */
+class CompiledCodeFragmentCache<D>(private val maxSize: Int = MAX_SIZE) {
+    /**
+     * @param text the fragment text together with its imports
+     * @param contextFile URL of the file of the context position
+     */
+    data class Key(val text: String, val contextFile: String, val line: Int)
+
+    /**
+     * @param capturedValueTypes names and types of `this` and local variables visible in the frame the fragment was compiled for
+     */
+    class Entry<D>(val compiledData: CompiledDataDescriptor, val capturedValueTypes: List<String>, val dependencies: D, lastAccess: Long) {
+        @Volatile
+        var lastAccess: Long = lastAccess
+            internal set
+    }
+
+    private val entries = ConcurrentHashMap<Key, Entry<D>>()
+    private val accessCounter = AtomicLong()
+
+    val size: Int
+        get() = entries.size
+
+    operator fun get(key: Key): Entry<D>? {
+        val entry = entries[key] ?: return null
+        entry.lastAccess = accessCounter.incrementAndGet()
+        return entry
+    }
+
+    fun put(key: Key, compiledData: CompiledDataDescriptor, capturedValueTypes: List<String>, dependencies: D) {
+        entries[key] = Entry(compiledData, capturedValueTypes, dependencies, accessCounter.incrementAndGet())
+
+        while (entries.size > maxSize) {
+            val leastRecentlyUsed = entries.entries.minByOrNull { it.value.lastAccess } ?: break
+            entries.remove(leastRecentlyUsed.key, leastRecentlyUsed.value)
+        }
+    }
+
+    fun remove(key: Key, entry: Entry<D>) {
+        entries.remove(key, entry)
+    }
+
+    fun clear() {
+        entries.clear()
+    }
+
+    companion object {
+        const val MAX_SIZE = 200
+    }
+}
@@ -19,15 +19,18 @@ package org.jetbrains.kotlin.idea.debugger.evaluate
 import com.intellij.debugger.SourcePosition
 import com.intellij.debugger.engine.evaluation.EvaluateException
 import com.intellij.openapi.components.ServiceManager
+import com.intellij.openapi.fileEditor.FileDocumentManager
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.roots.ProjectRootModificationTracker
 import com.intellij.openapi.roots.libraries.LibraryUtil
+import com.intellij.openapi.util.Key
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiElement
+import com.intellij.psi.util.CachedValue
 import com.intellij.psi.util.CachedValueProvider
 import com.intellij.psi.util.CachedValuesManager
 import com.intellij.psi.util.PsiModificationTracker
 import com.intellij.psi.util.PsiTreeUtil
-import com.intellij.util.containers.MultiMap
 import org.apache.log4j.Logger
 import org.jetbrains.annotations.TestOnly
 import org.jetbrains.eval4j.Value
@@ -39,6 +42,7 @@ import org.jetbrains.kotlin.codegen.state.KotlinTypeMapper
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.idea.caches.resolve.analyzeWithAllCompilerChecks
 import org.jetbrains.kotlin.idea.caches.resolve.analyzeWithContentAndGetResult
+import org.jetbrains.kotlin.idea.caches.trackers.KotlinCodeBlockModificationListener
 import org.jetbrains.kotlin.idea.core.util.runInReadActionWithWriteActionPriorityWithPCE
 import org.jetbrains.kotlin.idea.debugger.BinaryCacheKey
 import org.jetbrains.kotlin.idea.debugger.createWeakBytecodeDebugInfoStorage
@@ -54,17 +58,11 @@ import java.util.*
 import java.util.concurrent.ConcurrentHashMap
 
 class KotlinDebuggerCaches(project: Project) {
-    private val cachedCompiledData = CachedValuesManager.getManager(project).createCachedValue(
-        {
-            CachedValueProvider.Result<MultiMap<String, CompiledDataDescriptor>>(
-                MultiMap.create(), PsiModificationTracker.MODIFICATION_COUNT
-            )
-        }, false
-    )
+    private val compiledCodeFragments = CompiledCodeFragmentCache<CompiledCodeFragmentDependencies>()
 
     private val cachedClassNames = CachedValuesManager.getManager(project).createCachedValue(
         {
-            CachedValueProvider.Result<MutableMap<PsiElement, List<String>>>(
+            CachedValueProvider.Result<MutableMap<PsiElement, ComputedClassNames>>(
                 ConcurrentHashMap(),
                 PsiModificationTracker.MODIFICATION_COUNT
             )
@@ -92,55 +90,85 @@ class KotlinDebuggerCaches(project: Project) {
     companion object {
         private val LOG = Logger.getLogger(KotlinDebuggerCaches::class.java)!!
 
+        private val LINE_CLASS_NAMES_KEY = Key.create<CachedValue<ConcurrentHashMap<Any, LineClassNames>>>("KOTLIN_DEBUGGER_LINE_CLASS_NAMES")
+
+        private const val ANY_MODIFICATION_COUNT = -1L
+
+        private fun getOutOfBlockModificationCount(project: Project): Long {
+            return KotlinCodeBlockModificationListener.getInstance(project).kotlinOutOfCodeBlockTracker.modificationCount
+        }
+
+        // Stamps of documents, as compiled data may depend on uncommitted changes. A document is loaded if it isn't cached:
+        // stamps of a cached document and of its file aren't comparable, and the document may be collected between evaluations.
+        // Files without documents (e.g. too large ones) always use stamps of the file.
+        private fun getModificationStamp(file: VirtualFile): Long {
+            return runReadAction { FileDocumentManager.getInstance().getDocument(file)?.modificationStamp ?: file.modificationStamp }
+        }
+
         @get:TestOnly
         var LOG_COMPILATIONS: Boolean = false
 
         fun getInstance(project: Project) = ServiceManager.getService(project, KotlinDebuggerCaches::class.java)!!
 
+        /**
+         * Returns compiled data for [codeFragment] from the project-wide cache of compiled code fragments, or compiles it.
+         * Compiled data is reused while the context file and the files of inlined functions are not modified,
+         * and there are no out-of-code-block modifications in the project.
+         *
+         * @param capturedValueTypes names and types of values visible in the frame, see [CompiledCodeFragmentCache.Entry].
+         *  Obtaining them needs requests to the debuggee, so they are computed only when there is a cached candidate, or after compilation.
+         * @return compiled data and whether it was taken from the cache
+         */
         fun compileCodeFragmentCacheAware(
             codeFragment: KtCodeFragment,
             sourcePosition: SourcePosition?,
+            capturedValueTypes: () -> List<String>,
             compileCode: () -> CompiledDataDescriptor,
             force: Boolean = false
         ): Pair<CompiledDataDescriptor, Boolean> {
-            if (sourcePosition == null) {
+            val contextFile = sourcePosition?.let { runReadAction { it.file.virtualFile } }
+            if (sourcePosition == null || contextFile == null) {
                 return Pair(compileCode(), false)
             }
 
-            val evaluateExpressionCache = getInstance(codeFragment.project)
+            val project = codeFragment.project
+            val compiledCodeFragments = getInstance(project).compiledCodeFragments
 
-            val text = "${codeFragment.importsToString()}\n${codeFragment.text}"
+            val text = runReadAction { "${codeFragment.importsToString()}\n${codeFragment.text}" }
+            val key = CompiledCodeFragmentCache.Key(text, contextFile.url, sourcePosition.line)
 
-            val cachedResults = synchronized<Collection<CompiledDataDescriptor>>(evaluateExpressionCache.cachedCompiledData) {
-                evaluateExpressionCache.cachedCompiledData.value[text]
-            }
-
-            val existingResult = cachedResults.firstOrNull { it.sourcePosition == sourcePosition }
-            if (existingResult != null) {
-                if (force) {
-                    synchronized(evaluateExpressionCache.cachedCompiledData) {
-                        evaluateExpressionCache.cachedCompiledData.value.remove(text, existingResult)
+            var frameValueTypes: List<String>? = null
+            val existingEntry = compiledCodeFragments[key]
+            if (existingEntry != null) {
+                if (!force && existingEntry.dependencies.isUpToDate(project)) {
+                    frameValueTypes = capturedValueTypes()
+                    if (existingEntry.capturedValueTypes == frameValueTypes) {
+                        return Pair(existingEntry.compiledData, true)
                     }
-                } else {
-                    return Pair(existingResult, true)
                 }
+
+                compiledCodeFragments.remove(key, existingEntry)
             }
 
+            val outOfBlockModificationCount = getOutOfBlockModificationCount(project)
+            val contextFileStamp = getModificationStamp(contextFile)
+
             val newCompiledData = compileCode()
 
             if (LOG_COMPILATIONS) {
                 LOG.debug("Compile bytecode for ${codeFragment.text}")
             }
 
-            synchronized(evaluateExpressionCache.cachedCompiledData) {
-                evaluateExpressionCache.cachedCompiledData.value.putValue(text, newCompiledData)
-            }
+            val dependencyFiles = listOf(contextFile) + newCompiledData.inlinedFiles
+            val dependencyStamps = listOf(contextFileStamp) + newCompiledData.inlinedFiles.map { getModificationStamp(it) }
+            val dependencies = CompiledCodeFragmentDependencies(outOfBlockModificationCount, dependencyFiles, dependencyStamps)
+            compiledCodeFragments.put(key, newCompiledData, frameValueTypes ?: capturedValueTypes(), dependencies)
 
             return Pair(newCompiledData, false)
         }
 
-        fun <T : PsiElement> getOrComputeClassNames(psiElement: T?, create: (T) -> ComputedClassNames): List<String> {
-            if (psiElement == null) return Collections.emptyList()
+        fun <T : PsiElement> getOrComputeClassNames(psiElement: T?, create: (T) -> ComputedClassNames): ComputedClassNames {
+            if (psiElement == null) return ComputedClassNames.EMPTY
 
             val cache = getInstance(runReadAction { psiElement.project })
 
@@ -152,7 +180,44 @@ class KotlinDebuggerCaches(project: Project) {
             val computedClassNames = create(psiElement)
 
             if (computedClassNames.shouldBeCached) {
-                classNamesCache[psiElement] = computedClassNames.classNames
+                classNamesCache[psiElement] = computedClassNames
+            }
+
+            return computedClassNames
+        }
+
+        /**
+         * Returns class names for a position in [file] from the line index of the file, computing them on a miss.
+         * [key] should identify the line, the element at the position and everything else the class names depend on.
+         *
+         * The index is dropped on modification of the file itself, so class names of declarations and lambdas
+         * survive edits in other files. Class names which depend on other files ([ComputedClassNames.dependsOnOtherFiles],
+         * e.g. call sites of inline functions) are only valid until the next PSI modification in the project.
+         */
+        fun getOrComputeClassNamesForLine(file: KtFile, key: Any, create: () -> ComputedClassNames): List<String> {
+            val project = runReadAction { file.project }
+            val index = runReadAction {
+                CachedValuesManager.getCachedValue(file, LINE_CLASS_NAMES_KEY) {
+                    CachedValueProvider.Result.create(
+                        ConcurrentHashMap<Any, LineClassNames>(),
+                        file,
+                        ProjectRootModificationTracker.getInstance(project)
+                    )
+                }
+            }
+
+            val modificationCount = PsiModificationTracker.SERVICE.getInstance(project).modificationCount
+
+            val cachedValue = index[key]
+            if (cachedValue != null && cachedValue.isUpToDate(modificationCount)) {
+                return cachedValue.classNames
+            }
+
+            val computedClassNames = create()
+
+            if (computedClassNames.shouldBeCached) {
+                val dependencyModificationCount = if (computedClassNames.dependsOnOtherFiles) modificationCount else ANY_MODIFICATION_COUNT
+                index[key] = LineClassNames(computedClassNames.classNames, dependencyModificationCount)
             }
 
             return computedClassNames.classNames
@@ -223,7 +288,31 @@ class KotlinDebuggerCaches(project: Project) {
 
     data class Parameter(val callText: String, val type: KotlinType, val value: Value? = null, val error: EvaluateException? = null)
 
-    class ComputedClassNames(val classNames: List<String>, val shouldBeCached: Boolean) {
+    private class CompiledCodeFragmentDependencies(
+        private val outOfBlockModificationCount: Long,
+        private val files: List<VirtualFile>,
+        private val modificationStamps: List<Long>
+    ) {
+        fun isUpToDate(project: Project): Boolean {
+            if (getOutOfBlockModificationCount(project) != outOfBlockModificationCount) {
+                return false
+            }
+
+            return files.indices.all { index -> files[index].isValid && getModificationStamp(files[index]) == modificationStamps[index] }
+        }
+    }
+
+    private class LineClassNames(val classNames: List<String>, private val modificationCount: Long) {
+        fun isUpToDate(currentModificationCount: Long): Boolean {
+            return modificationCount == ANY_MODIFICATION_COUNT || modificationCount == currentModificationCount
+        }
+    }
+
+    /**
+     * @param dependsOnOtherFiles whether the class names depend on files other than the file of the element,
+     *  e.g. include classes where an inline function is inlined
+     */
+    class ComputedClassNames(val classNames: List<String>, val shouldBeCached: Boolean, val dependsOnOtherFiles: Boolean = false) {
         @Suppress("FunctionName")
         companion object {
             val EMPTY = Cached(emptyList())
@@ -236,10 +325,14 @@ class KotlinDebuggerCaches(project: Project) {
 
         fun isEmpty() = classNames.isEmpty()
 
-        fun distinct() = ComputedClassNames(classNames.distinct(), shouldBeCached)
+        fun distinct() = ComputedClassNames(classNames.distinct(), shouldBeCached, dependsOnOtherFiles)
+
+        fun dependingOnOtherFiles() = ComputedClassNames(classNames, shouldBeCached, dependsOnOtherFiles = true)
 
         operator fun plus(other: ComputedClassNames) = ComputedClassNames(
-            classNames + other.classNames, shouldBeCached && other.shouldBeCached
+            classNames + other.classNames,
+            shouldBeCached && other.shouldBeCached,
+            dependsOnOtherFiles || other.dependsOnOtherFiles
         )
     }
 }
\ No newline at end of file
@@ -6,17 +6,29 @@
 package org.jetbrains.kotlin.idea.debugger.evaluate.compilation
 
 import com.intellij.debugger.SourcePosition
+import com.intellij.openapi.vfs.VirtualFile
+import org.jetbrains.eval4j.PreparedMethod
 import org.jetbrains.kotlin.idea.debugger.evaluate.classLoading.ClassToLoad
+import org.jetbrains.kotlin.idea.debugger.evaluate.classLoading.GENERATED_FUNCTION_NAME
+import org.jetbrains.org.objectweb.asm.ClassReader
 import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.ClassNode
 
 data class CompiledDataDescriptor(
     val classes: List<ClassToLoad>,
     val parameters: List<CodeFragmentParameter.Dumb>,
     val crossingBounds: Set<CodeFragmentParameter.Dumb>,
     val mainMethodSignature: MethodSignature,
-    val sourcePosition: SourcePosition?
+    val sourcePosition: SourcePosition?,
+    val inlinedFiles: List<VirtualFile> = emptyList()
 ) {
     data class MethodSignature(val parameterTypes: List<Type>, val returnType: Type)
+
+    // Decoded once for all evaluations of the fragment, e.g. on every hit of a conditional breakpoint
+    val eval4jMainMethod: PreparedMethod by lazy {
+        val mainClassAsmNode = ClassNode().apply { ClassReader(mainClass.bytes).accept(this, 0) }
+        PreparedMethod(mainClassAsmNode.methods.first { it.name == GENERATED_FUNCTION_NAME })
+    }
 }
 
 val CompiledDataDescriptor.mainClass: ClassToLoad
@@ -24,7 +24,8 @@ typealias StatInfos = Map<String, Any>?
 class Stats(
     val name: String = "",
     private val profilerConfig: ProfilerConfig = ProfilerConfig(),
-    private val acceptanceStabilityLevel: Int = 25
+    private val acceptanceStabilityLevel: Int = 25,
+    private val externalCounters: List<ExternalCounters> = emptyList()
 ) : AutoCloseable {
 
     private val perfTestRawDataMs = mutableListOf<Long>()
@@ -290,6 +291,12 @@ class Stats(
                         valueMap["counter \"$name\": count"] = counter.toLong()
                         valueMap["counter \"$name\": time"] = nanos.nsToMs
                     }
+                    for (counters in externalCounters) {
+                        counters.report { name, count, nanos ->
+                            valueMap["${counters.prefix} \"$name\": count"] = count
+                            valueMap["${counters.prefix} \"$name\": time"] = nanos.nsToMs
+                        }
+                    }
 
                 } catch (t: Throwable) {
                     logMessage(t) { "error at $attemptName" }
@@ -308,6 +315,7 @@ class Stats(
                         break
                     } finally {
                         PerformanceCounter.resetAllCounters()
+                        externalCounters.forEach { it.resetAll() }
                     }
                 }
             }
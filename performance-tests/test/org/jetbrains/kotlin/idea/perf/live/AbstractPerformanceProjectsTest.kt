@@ -95,7 +95,7 @@ abstract class AbstractPerformanceProjectsTest : UsefulTestCase() {
         return if (lastIndexOf >= 0) fileName.substring(lastIndexOf + 1) else fileName
     }
 
-    private fun closeProject(project: Project) = myApplication.closeProject(project)
+    protected fun closeProject(project: Project) = myApplication.closeProject(project)
 
     protected fun perfOpenProject(
         stats: Stats,
@@ -582,7 +582,9 @@ abstract class AbstractPerformanceProjectsTest : UsefulTestCase() {
         warmUpIterations: Int = 3,
         iterations: Int = 10,
         checkStability: Boolean = true,
-        filenameSimplifier: (String) -> String = ::simpleFilename
+        filenameSimplifier: (String) -> String = ::simpleFilename,
+        // if not null, the file is opened right after it in the measured part, so the time to the first highlighting is measured
+        onProjectOpened: (() -> Unit)? = null
     ): List<HighlightInfo> {
         val profileManager = ProjectInspectionProfileManager.getInstance(project)
         val currentProfile = profileManager.currentProfile
@@ -600,9 +602,15 @@ abstract class AbstractPerformanceProjectsTest : UsefulTestCase() {
                     iterations(if (isWarmUp) 2 else iterations)
                     checkStability(checkStability)
                     setUp {
-                        it.setUpValue = openFileInEditor(project, fileName)
+                        if (onProjectOpened == null) {
+                            it.setUpValue = openFileInEditor(project, fileName)
+                        }
                     }
                     test {
+                        if (onProjectOpened != null) {
+                            onProjectOpened()
+                            it.setUpValue = openFileInEditor(project, fileName)
+                        }
                         val file = it.setUpValue
                         it.value = highlightFile(project, file!!.psiFile)
                     }
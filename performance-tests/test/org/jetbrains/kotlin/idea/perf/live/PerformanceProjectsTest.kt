@@ -8,9 +8,11 @@ package org.jetbrains.kotlin.idea.perf.live
 import com.intellij.codeInsight.daemon.impl.HighlightInfo
 import com.intellij.lang.annotation.AnnotationHolder
 import com.intellij.openapi.project.Project
+import com.intellij.openapi.project.guessProjectDir
 import com.intellij.psi.PsiElement
 import com.intellij.testFramework.RunAll
 import com.intellij.util.ThrowableRunnable
+import org.jetbrains.kotlin.idea.caches.resolve.KotlinResolveWarmUpService
 import org.jetbrains.kotlin.idea.core.script.ScriptConfigurationManager
 import org.jetbrains.kotlin.idea.highlighter.KotlinPsiChecker
 import org.jetbrains.kotlin.idea.highlighter.KotlinPsiCheckerAndHighlightingUpdater
@@ -126,6 +128,34 @@ class PerformanceProjectsTest : AbstractPerformanceProjectsTest() {
         }
     }
 
+    fun testKotlinProjectResolveWarmUp() {
+        suite("Kotlin project resolve warm-up") {
+            Stats("kotlin project resolve warm-up").use { stat ->
+                val fileName = "compiler/psi/src/org/jetbrains/kotlin/psi/KtFile.kt"
+
+                // only the first highlighting after opening builds resolvers, so every variant opens the project again;
+                // both variants measure the time from the opening of the project to the first highlighting of the file
+                perfOpenKotlinProjectFast(stat)
+                perfHighlightFile(
+                    project(), fileName, stat, note = "without warm-up",
+                    warmUpIterations = 0, iterations = 1, checkStability = false,
+                    onProjectOpened = {}
+                )
+                closeProject(project())
+                myProject = null
+
+                perfOpenKotlinProjectFast(stat)
+                val virtualFile = project().guessProjectDir()?.findFileByRelativePath(fileName) ?: error("$fileName is not found")
+                perfHighlightFile(
+                    project(), fileName, stat, note = "with warm-up",
+                    warmUpIterations = 0, iterations = 1, checkStability = false,
+                    // as the startup activity does, the warm-up runs in background while the file is opened and highlighted
+                    onProjectOpened = { KotlinResolveWarmUpService.getInstance(project()).warmUp(listOf(virtualFile)) }
+                )
+            }
+        }
+    }
+
     fun testKotlinProjectCopyAndPaste() {
         suite("Kotlin copy-and-paste") {
             Stats("Kotlin copy-and-paste").use { stat ->
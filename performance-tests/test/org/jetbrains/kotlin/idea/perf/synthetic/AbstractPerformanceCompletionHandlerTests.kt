@@ -10,6 +10,7 @@ import com.intellij.codeInsight.completion.CompletionType
 import com.intellij.openapi.application.runWriteAction
 import com.intellij.openapi.util.io.FileUtil
 import com.intellij.util.ThrowableRunnable
+import org.jetbrains.kotlin.idea.completion.CompletionCandidatesCache
 import org.jetbrains.kotlin.idea.completion.test.ExpectedCompletionUtils
 import org.jetbrains.kotlin.idea.completion.test.configureWithExtraFile
 import org.jetbrains.kotlin.idea.completion.test.handlers.AbstractCompletionHandlerTest.Companion.CODE_STYLE_SETTING_PREFIX
@@ -22,6 +23,7 @@ import org.jetbrains.kotlin.idea.formatter.kotlinCommonSettings
 import org.jetbrains.kotlin.idea.formatter.kotlinCustomSettings
 import org.jetbrains.kotlin.idea.perf.Stats
 import org.jetbrains.kotlin.idea.perf.performanceTest
+import org.jetbrains.kotlin.idea.perf.util.TeamCity
 import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
 import org.jetbrains.kotlin.idea.test.configureCodeStyleAndRun
 import org.jetbrains.kotlin.idea.test.runAll
@@ -116,6 +118,9 @@ abstract class AbstractPerformanceCompletionHandlerTests(
         tailText: String?,
         completionChars: String
     ) {
+        val candidatesCache = CompletionCandidatesCache.getInstance(project)
+        candidatesCache.resetStatistics()
+
         performanceTest<Unit, Unit> {
             name(testName())
             stats(stats())
@@ -131,6 +136,13 @@ abstract class AbstractPerformanceCompletionHandlerTests(
                 }
             }
         }
+
+        if (CompletionCandidatesCache.isEnabled) {
+            val total = candidatesCache.hitCount + candidatesCache.missCount
+            if (total > 0) {
+                TeamCity.statValue("${stats().name}: ${testName()}: candidates cache hit rate, %", (candidatesCache.hitRate * 100).toInt())
+            }
+        }
     }
 
     private fun testName(): String {
@@ -178,9 +190,20 @@ abstract class AbstractPerformanceCompletionHandlerTests(
     override fun getProjectDescriptor() = KotlinWithJdkAndRuntimeLightProjectDescriptor.INSTANCE
 }
 
-abstract class AbstractPerformanceBasicCompletionHandlerTest : AbstractPerformanceCompletionHandlerTests(CompletionType.BASIC)
+// run with -Dkotlin.completion.extensions.receiver.bloom.filter=false to compare with lookups of extensions not filtered by receiver types,
+// with -Dkotlin.completion.candidates.cache=false to compare with completion not reusing candidates of previous sessions
+abstract class AbstractPerformanceBasicCompletionHandlerTest : AbstractPerformanceCompletionHandlerTests(
+    CompletionType.BASIC,
+    note = listOfNotNull(
+        "no-receiver-filter".takeIf { System.getProperty("kotlin.completion.extensions.receiver.bloom.filter") == "false" },
+        "no-candidates-cache".takeIf { System.getProperty("kotlin.completion.candidates.cache") == "false" }
+    ).joinToString("-")
+)
 
-abstract class AbstractPerformanceSmartCompletionHandlerTest : AbstractPerformanceCompletionHandlerTests(CompletionType.SMART)
+abstract class AbstractPerformanceSmartCompletionHandlerTest : AbstractPerformanceCompletionHandlerTests(
+    CompletionType.SMART,
+    note = if (System.getProperty("kotlin.completion.candidates.cache") == "false") "no-candidates-cache" else ""
+)
 
 abstract class AbstractPerformanceCompletionCharFilterTest : AbstractPerformanceCompletionHandlerTests(
     CompletionType.BASIC,
@@ -8,20 +8,25 @@ package org.jetbrains.kotlin.idea.perf.synthetic
 import com.intellij.codeInsight.completion.CompletionType
 import com.intellij.codeInsight.lookup.LookupElement
 import com.intellij.openapi.application.runWriteAction
+import com.intellij.openapi.util.io.FileUtil
 import com.intellij.openapi.util.text.StringUtil
 import com.intellij.util.ThrowableRunnable
 import org.jetbrains.kotlin.idea.KotlinFileType
 import org.jetbrains.kotlin.idea.completion.CompletionBindingContextProvider
+import org.jetbrains.kotlin.idea.completion.CompletionBindingContextProvider.ContextKind
 import org.jetbrains.kotlin.idea.perf.Stats
 import org.jetbrains.kotlin.idea.perf.Stats.Companion.WARM_UP
 import org.jetbrains.kotlin.idea.perf.TestData
 import org.jetbrains.kotlin.idea.perf.performanceTest
+import org.jetbrains.kotlin.idea.perf.util.TeamCity
 import org.jetbrains.kotlin.idea.test.KotlinLightCodeInsightFixtureTestCase
 import org.jetbrains.kotlin.idea.test.KotlinWithJdkAndRuntimeLightProjectDescriptor
 import org.jetbrains.kotlin.idea.test.runAll
 import org.jetbrains.kotlin.idea.testFramework.commitAllDocuments
 import org.jetbrains.kotlin.idea.util.application.executeWriteCommand
 import org.jetbrains.kotlin.test.InTextDirectivesUtils
+import java.io.File
+import java.util.*
 
 /**
  * inspired by @see AbstractCompletionIncrementalResolveTest
@@ -70,7 +75,11 @@ abstract class AbstractPerformanceCompletionIncrementalResolveTest : KotlinLight
     protected fun doPerfTest(unused: String) {
         val testPath = testPath()
         val testName = getTestName(false)
-        innerPerfTest(testName) {
+        val hasCaretMarker = FileUtil.loadFile(File(testPath), true).contains("<caret>")
+        val provider = CompletionBindingContextProvider.getInstance(project)
+        val reuseTotals = EnumMap<ContextKind, ReuseTotals>(ContextKind::class.java)
+
+        innerPerfTest(testName, afterCompletion = { reuseTotals.add(provider) }) {
             myFixture.configureByFile(fileName())
 
             val document = myFixture.editor.document
@@ -97,11 +106,70 @@ abstract class AbstractPerformanceCompletionIncrementalResolveTest : KotlinLight
                 document.deleteString(changeMarker.startOffset, changeMarker.endOffset)
             }
 
+            val caretMarker = if (hasCaretMarker)
+                document.createRangeMarker(editor.caretModel.offset, editor.caretModel.offset)
+            else
+                null
             editor.caretModel.moveToOffset(beforeMarker.startOffset)
+
+            // the first completion provides the data reused by the measured one after the change
+            perfTestCore()
+            provider.resetStatistics()
+
+            project.executeWriteCommand("") {
+                if (backspaceCount != null) {
+                    document.deleteString(changeMarker.startOffset - backspaceCount, changeMarker.startOffset)
+                }
+                if (textToType != null) {
+                    document.insertString(changeMarker.startOffset, textToType)
+                }
+            }
+
+            editor.caretModel.moveToOffset(caretMarker?.startOffset ?: changeMarker.endOffset)
+        }
+
+        reportReuseStatistics(testName, reuseTotals)
+    }
+
+    private class ReuseTotals {
+        var completions = 0
+        var reuses = 0
+        var reuseMillis = 0.0
+        var fullResolveMillis = 0.0
+    }
+
+    private fun MutableMap<ContextKind, ReuseTotals>.add(provider: CompletionBindingContextProvider) {
+        for (kind in ContextKind.values()) {
+            val statistics = provider.getStatistics(kind)
+            if (statistics.attemptCount == 0) continue
+
+            val totals = getOrPut(kind) { ReuseTotals() }
+            totals.completions += statistics.attemptCount
+            totals.reuses += statistics.reuseCount
+            totals.reuseMillis += statistics.averageReuseMillis * statistics.reuseCount
+            totals.fullResolveMillis += statistics.averageFullResolveMillis * (statistics.attemptCount - statistics.reuseCount)
+        }
+    }
+
+    private fun reportReuseStatistics(testName: String, reuseTotals: Map<ContextKind, ReuseTotals>) {
+        for ((kind, totals) in reuseTotals) {
+            val prefix = "${stats.name}: $testName: ${kind.name.toLowerCase()}"
+            val fullResolves = totals.completions - totals.reuses
+            TeamCity.statValue("$prefix reuse rate, %", totals.reuses * 100 / totals.completions)
+            if (totals.reuses > 0) {
+                TeamCity.statValue("$prefix reuse, ms", "%.3f".format(totals.reuseMillis / totals.reuses))
+            }
+            if (fullResolves > 0) {
+                TeamCity.statValue("$prefix full resolve, ms", "%.3f".format(totals.fullResolveMillis / fullResolves))
+            }
         }
     }
 
-    private fun innerPerfTest(name: String, setUpBody: (TestData<Unit, Array<LookupElement>>) -> Unit) {
+    private fun innerPerfTest(
+        name: String,
+        afterCompletion: () -> Unit = {},
+        setUpBody: (TestData<Unit, Array<LookupElement>>) -> Unit
+    ) {
         CompletionBindingContextProvider.ENABLED = true
         try {
             performanceTest<Unit, Array<LookupElement>> {
@@ -112,6 +180,7 @@ abstract class AbstractPerformanceCompletionIncrementalResolveTest : KotlinLight
                 tearDown {
                     // no reasons to validate output as it is a performance test
                     assertNotNull(it.value)
+                    afterCompletion()
                     runWriteAction {
                         myFixture.file.delete()
                     }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf.synthetic
+
+import com.intellij.psi.codeStyle.MinusculeMatcher
+import com.intellij.psi.codeStyle.NameUtil
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.idea.completion.ClassShortNamesTrie
+import org.jetbrains.kotlin.idea.perf.util.PerformanceSuite
+import org.jetbrains.kotlin.idea.perf.util.suite
+import org.jetbrains.kotlin.test.JUnit3RunnerWithInners
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+/**
+ * Compares the lookup of class names matching completion prefixes in [ClassShortNamesTrie] with checking every name
+ * on a synthetic classpath, and measures building and incremental updates of the trie.
+ *
+ * Size of the classpath is controlled by `kotlin.perf.class.names` system property.
+ */
+@RunWith(JUnit3RunnerWithInners::class)
+class PerformanceClassShortNamesTrieTest : UsefulTestCase() {
+
+    fun testClassShortNamesTrie() {
+        suite(
+            suiteName = "Class short names trie",
+            config = PerformanceSuite.StatsScopeConfig(name = "class short names trie")
+        ) {
+            app {
+                val names = generateClassNames(CLASS_NAMES_COUNT, Random(42))
+                val changedNames = generateClassNames(CHANGED_NAMES_COUNT, Random(43)).filter { it !in names }
+                val trie = ClassShortNamesTrie.EMPTY.update(names, emptyList())
+
+                logStatValue("class names", trie.size)
+
+                for (prefix in PREFIXES) {
+                    val expected = scanAll(names, prefix)
+                    val found = lookUpInTrie(trie, prefix)
+                    check(expected.isNotEmpty()) { "no names match '$prefix'" }
+                    check(found == expected) { "${found.size} names found in the trie for '$prefix', ${expected.size} expected" }
+                }
+
+                with(config) {
+                    warmup = 3
+                    iterations = 10
+                }
+
+                measure<Int>("all names") {
+                    test = { PREFIXES.sumBy { scanAll(names, it).size } }
+                }
+
+                measure<Int>("trie") {
+                    test = { PREFIXES.sumBy { lookUpInTrie(trie, it).size } }
+                }
+
+                measure<Int>("trie build") {
+                    test = { ClassShortNamesTrie.EMPTY.update(names, emptyList()).size }
+                }
+
+                measure<Int>("trie update") {
+                    test = { trie.update(changedNames, names.take(changedNames.size)).size }
+                }
+            }
+        }
+    }
+
+    private fun scanAll(names: Collection<String>, prefix: String): Set<String> {
+        val matcher = middleMatcher(prefix)
+        return names.filterTo(HashSet()) { matcher.matches(it.substringAfterLast('.')) }
+    }
+
+    private fun lookUpInTrie(trie: ClassShortNamesTrie, prefix: String): Set<String> {
+        val matcher = middleMatcher(prefix)
+        return trie.candidates(prefix, middleMatching = true)!!.filterTo(HashSet()) { matcher.matches(it.substringAfterLast('.')) }
+    }
+
+    // CamelHumpMatcher matches with `*` prepended when middle matching is on, but it is always off in unit test mode
+    private fun middleMatcher(prefix: String): MinusculeMatcher = NameUtil.buildMatcher("*$prefix", NameUtil.MatchingCaseSensitivity.NONE)
+
+    // names like `pkg12.ConcurrentStreamFactory`, a few of them in several packages
+    private fun generateClassNames(count: Int, random: Random): List<String> {
+        val names = LinkedHashSet<String>()
+        while (names.size < count) {
+            val wordsCount = 1 + random.nextInt(4)
+            val shortName = (0 until wordsCount).joinToString("") { WORDS[random.nextInt(WORDS.size)] }
+            val suffix = if (random.nextInt(10) == 0) random.nextInt(100).toString() else ""
+            names += "pkg${random.nextInt(PACKAGES_COUNT)}.$shortName$suffix"
+        }
+        return names.toList()
+    }
+
+    companion object {
+        private val CLASS_NAMES_COUNT = Integer.getInteger("kotlin.perf.class.names", 200_000)
+        private const val CHANGED_NAMES_COUNT = 100
+        private const val PACKAGES_COUNT = 1000
+
+        private val WORDS = listOf(
+            "Abstract", "Array", "Hash", "Map", "List", "Set", "Linked", "Tree", "String", "Builder", "Buffer", "Reader", "Writer",
+            "Input", "Output", "Stream", "Channel", "Socket", "Server", "Client", "Http", "URL", "Connection", "Factory", "Impl",
+            "Provider", "Service", "Manager", "Handler", "Listener", "Adapter", "Event", "Exception", "Error", "Null", "Pointer",
+            "Concurrent", "Atomic", "Lock", "Thread", "Pool", "Executor", "Task", "Future", "Kotlin", "Java", "Psi", "Element",
+            "Reference", "Resolve", "Cache", "Index", "Stub", "File", "Path", "Config", "Settings", "Utils", "Base", "Default"
+        )
+
+        private val PREFIXES = listOf("Str", "Map", "HM", "NPE", "Abstr", "FacImpl", "ListenerAda", "ConcHashM", "ring", "uilder", "U")
+    }
+}
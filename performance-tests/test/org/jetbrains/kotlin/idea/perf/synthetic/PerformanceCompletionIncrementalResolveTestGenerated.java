@@ -66,13 +66,33 @@ public class PerformanceCompletionIncrementalResolveTestGenerated extends Abstra
         runTest("../completion/testData/incrementalResolve/outOfBlockModification.kt");
     }
 
+    @TestMetadata("prevArgumentChanged.kt")
+    public void testPrevArgumentChanged() throws Exception {
+        runTest("../completion/testData/incrementalResolve/prevArgumentChanged.kt");
+    }
+
     @TestMetadata("prevStatementNotResolved.kt")
     public void testPrevStatementNotResolved() throws Exception {
         runTest("../completion/testData/incrementalResolve/prevStatementNotResolved.kt");
     }
 
+    @TestMetadata("sameArgumentInExpressionBody.kt")
+    public void testSameArgumentInExpressionBody() throws Exception {
+        runTest("../completion/testData/incrementalResolve/sameArgumentInExpressionBody.kt");
+    }
+
+    @TestMetadata("sameExpressionBodyInClass.kt")
+    public void testSameExpressionBodyInClass() throws Exception {
+        runTest("../completion/testData/incrementalResolve/sameExpressionBodyInClass.kt");
+    }
+
     @TestMetadata("sameStatement.kt")
     public void testSameStatement() throws Exception {
         runTest("../completion/testData/incrementalResolve/sameStatement.kt");
     }
+
+    @TestMetadata("sameTemplateEntryInAccessor.kt")
+    public void testSameTemplateEntryInAccessor() throws Exception {
+        runTest("../completion/testData/incrementalResolve/sameTemplateEntryInAccessor.kt");
+    }
 }
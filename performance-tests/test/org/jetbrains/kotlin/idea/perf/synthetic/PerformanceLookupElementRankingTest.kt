@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010-2021 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf.synthetic
+
+import com.intellij.codeInsight.lookup.LookupElement
+import com.intellij.codeInsight.lookup.LookupElementBuilder
+import com.intellij.codeInsight.lookup.LookupElementDecorator
+import com.intellij.codeInsight.lookup.LookupElementWeigher
+import com.intellij.openapi.application.runReadAction
+import com.intellij.psi.PsiElement
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.descriptors.*
+import org.jetbrains.kotlin.idea.caches.resolve.resolveToDescriptorIfAny
+import org.jetbrains.kotlin.idea.completion.*
+import org.jetbrains.kotlin.idea.core.completion.DeclarationLookupObject
+import org.jetbrains.kotlin.idea.perf.util.DefaultProfile
+import org.jetbrains.kotlin.idea.perf.util.PerformanceSuite
+import org.jetbrains.kotlin.idea.perf.util.suite
+import org.jetbrains.kotlin.idea.util.CallType
+import org.jetbrains.kotlin.psi.KtClass
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.descriptorUtil.fqNameSafe
+import org.jetbrains.kotlin.types.typeUtil.isNothing
+import org.jetbrains.kotlin.test.JUnit3RunnerWithInners
+import org.junit.runner.RunWith
+import javax.swing.Icon
+
+/**
+ * Time of ranking lookup elements by the position-independent Kotlin weighers and statistics as a function of the list size:
+ * with the weights computed from descriptors as before [LookupElementWeights], with [LookupElementWeights] computed by weighers
+ * in the sorting thread, and precomputed concurrently beforehand.
+ *
+ * Like the classifiers of the completion sorter, ranking weighs every element once and sorts by the cached weights.
+ */
+@RunWith(JUnit3RunnerWithInners::class)
+class PerformanceLookupElementRankingTest : UsefulTestCase() {
+
+    fun testRanking() {
+        suite(
+            suiteName = "Lookup element ranking",
+            config = PerformanceSuite.StatsScopeConfig(name = "lookup element ranking")
+        ) {
+            app {
+                warmUpProject()
+
+                project {
+                    descriptor {
+                        name("lookupElementRanking")
+
+                        kotlinFile("Members") {
+                            topClass("Members") {
+                                for (index in 0 until SIZES.last()) {
+                                    function("member${index % NAMES_COUNT}") {
+                                        for (parameter in 0 until index % 4) {
+                                            param("p$parameter", "Int")
+                                        }
+                                        returnType("String")
+                                        body("return \"$index\"")
+                                    }
+                                }
+                            }
+                        }
+                    }
+
+                    profile(DefaultProfile)
+
+                    fixture("src/Members.kt").use { fixture ->
+                        val file = fixture.psiFile as KtFile
+                        val descriptors = runReadAction {
+                            val membersClass = file.declarations.single() as KtClass
+                            membersClass.declarations.mapNotNull { it.resolveToDescriptorIfAny() }
+                        }
+
+                        with(config) {
+                            warmup = 3
+                            iterations = 10
+                        }
+
+                        for (size in SIZES) {
+                            var elements = emptyList<LookupElement>()
+
+                            measure<Int>("descriptor weights", "$size items") {
+                                before = { elements = createElements(descriptors.take(size), precomputeWeights = false) }
+                                test = { runReadAction { rank(elements, DESCRIPTOR_WEIGHERS) } }
+                            }
+
+                            measure<Int>("sequential weights", "$size items") {
+                                before = { elements = createElements(descriptors.take(size), precomputeWeights = true) }
+                                test = { runReadAction { rank(elements, WEIGHERS) } }
+                            }
+
+                            measure<Int>("concurrent weights", "$size items") {
+                                before = { elements = createElements(descriptors.take(size), precomputeWeights = true) }
+                                test = {
+                                    runReadAction {
+                                        LookupElementWeights.precomputeConcurrently(elements)
+                                        rank(elements, WEIGHERS)
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // same as BasicLookupElementFactory does, but without rendering of the presentation which is not measured here
+    private fun createElements(descriptors: List<DeclarationDescriptor>, precomputeWeights: Boolean): List<LookupElement> = runReadAction {
+        descriptors.map { descriptor ->
+            val lookupObject = object : DeclarationLookupObjectImpl(descriptor) {
+                override val psiElement: PsiElement?
+                    get() = null
+
+                override fun getIcon(flags: Int): Icon? = null
+            }
+            val element = LookupElementDecorator.withInsertHandler(LookupElementBuilder.create(lookupObject, descriptor.name.asString()), null)
+            if (precomputeWeights) {
+                val weights = LookupElementWeights(lookupObject)
+                element.precomputedWeights = weights
+                check(LookupElementDecorator.withInsertHandler(element, null).weights === weights) { "weights of the decorated element are lost" }
+            }
+            element
+        }
+    }
+
+    private fun rank(elements: List<LookupElement>, weighers: List<(LookupElement) -> Comparable<*>?>): Int {
+        val weighted = elements.map { element -> element to weighers.map { it(element) } }
+        val sorted = weighted.sortedWith(Comparator { (_, weights1), (_, weights2) ->
+            for (index in weights1.indices) {
+                @Suppress("UNCHECKED_CAST")
+                val result = compareValues(weights1[index] as Comparable<Any>?, weights2[index] as Comparable<Any>?)
+                if (result != 0) return@Comparator result
+            }
+            0
+        })
+        check(sorted.size == elements.size)
+        return sorted.size
+    }
+
+    companion object {
+        private val SIZES = listOf(100, 1_000, 5_000, 10_000)
+        private const val NAMES_COUNT = 500
+
+        private val WEIGHERS: List<(LookupElement) -> Comparable<*>?> = listOf<LookupElementWeigher>(
+            DeprecatedWeigher,
+            KindWeigher,
+            CallableReferenceWeigher(CallType.CALLABLE_REFERENCE),
+            VariableOrFunctionWeigher,
+            ByNameAlphabeticalWeigher,
+            PreferLessParametersWeigher,
+            KotlinUnwantedLookupElementWeigher
+        ).map { weigher -> { element: LookupElement -> weigher.weigh(element) } } + { element: LookupElement ->
+            element.weights?.statisticsInfo("")?.value
+        }
+
+        private val FLOW_COLLECT_FQ_NAME = FqName("kotlinx.coroutines.flow.Flow.collect")
+
+        // the same weighers computing the weights from descriptors
+        private val DESCRIPTOR_WEIGHERS = listOf<(LookupElement) -> Comparable<*>?>(
+            { element -> if ((element.`object` as? DeclarationLookupObject)?.isDeprecated == true) 1 else 0 },
+            { element ->
+                when (val descriptor = (element.`object` as? DeclarationLookupObject)?.descriptor) {
+                    is VariableDescriptor, is FunctionDescriptor -> 1
+                    is ClassDescriptor -> if (descriptor.kind == ClassKind.ENUM_ENTRY) 0 else 2
+                    else -> 2
+                }
+            },
+            { element ->
+                val descriptor = (element.`object` as? DeclarationLookupObject)?.descriptor as? CallableDescriptor
+                if (descriptor?.returnType?.isNothing() == true) 1 else 0
+            },
+            { element ->
+                when ((element.`object` as? DeclarationLookupObject)?.descriptor) {
+                    is VariableDescriptor -> 0
+                    is FunctionDescriptor -> 1
+                    else -> null
+                }
+            },
+            { element -> (element.`object` as? DeclarationLookupObject)?.name?.asString() },
+            { element -> ((element.`object` as? DeclarationLookupObject)?.descriptor as? FunctionDescriptor)?.valueParameters?.size },
+            { element ->
+                val descriptor = (element.`object` as? DeclarationLookupObject)?.descriptor
+                if (descriptor?.fqNameSafe == FLOW_COLLECT_FQ_NAME) 1 else 0
+            },
+            { element ->
+                (element.`object` as? DeclarationLookupObject)?.descriptor?.let { KotlinStatisticsInfo.forDescriptor(it.original).value }
+            }
+        )
+    }
+}
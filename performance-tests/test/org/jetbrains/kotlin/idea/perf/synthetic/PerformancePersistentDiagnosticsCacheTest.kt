@@ -0,0 +1,134 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf.synthetic
+
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzerSettings
+import com.intellij.codeInsight.daemon.impl.DaemonCodeAnalyzerEx
+import com.intellij.codeInsight.daemon.impl.DaemonCodeAnalyzerImpl
+import com.intellij.lang.annotation.HighlightSeverity
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.testFramework.UsefulTestCase
+import com.intellij.testFramework.runInEdtAndWait
+import org.jetbrains.kotlin.idea.caches.KotlinPersistentDiagnosticsCache
+import org.jetbrains.kotlin.idea.perf.ProjectBuilder
+import org.jetbrains.kotlin.idea.perf.util.DefaultProfile
+import org.jetbrains.kotlin.idea.perf.util.PerformanceSuite
+import org.jetbrains.kotlin.idea.perf.util.suite
+import org.jetbrains.kotlin.idea.testFramework.Fixture
+import org.jetbrains.kotlin.idea.testFramework.ProjectOpenAction
+import org.jetbrains.kotlin.idea.testFramework.dispatchAllInvocationEvents
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.test.JUnit3RunnerWithInners
+import org.junit.runner.RunWith
+
+/**
+ * Compares time to the first diagnostics visible in the editor of a big file in a just opened project: with the cache disabled
+ * they are shown by the regular highlighting, with the cache enabled - by diagnostics stored by [KotlinPersistentDiagnosticsCache]
+ * in the previous session. Both variants open the file and wait for the daemon, so the whole way to the editor is measured.
+ *
+ * Every variant opens the project again and is measured once without warm-up, as later runs reuse caches of the first one.
+ */
+@RunWith(JUnit3RunnerWithInners::class)
+class PerformancePersistentDiagnosticsCacheTest : UsefulTestCase() {
+
+    fun testDiagnosticsOnReopen() {
+        suite(
+            suiteName = "Persistent diagnostics cache",
+            config = PerformanceSuite.StatsScopeConfig(name = "persistent diagnostics cache")
+        ) {
+            app {
+                val cacheEnabled = Registry.get("kotlin.highlighting.persistent.diagnostics.cache")
+                cacheEnabled.setValue(true, testRootDisposable)
+                warmUpProject()
+
+                val projectPath = ProjectBuilder().apply {
+                    name("persistentDiagnosticsCache")
+
+                    kotlinFile("BigFile") {
+                        topClass("BigFile") {
+                            for (index in 0 until FUNCTIONS_COUNT) {
+                                function("foo$index") {
+                                    param("p", "Int")
+                                    returnType("String")
+                                    body("val list = listOf(p, $index).map { it * 2 }")
+                                    body("return list.joinToString() + unresolved$index")
+                                }
+                            }
+                        }
+                    }
+                }.generateFiles()
+
+                // the previous session: diagnostics are stored by highlighting
+                project(projectPath, openWith = ProjectOpenAction.SIMPLE_JAVA_MODULE) {
+                    profile(DefaultProfile)
+                    fixture(BIG_FILE).use { fixture ->
+                        highlight(fixture)
+                        check(KotlinPersistentDiagnosticsCache.load(fixture.psiFile as KtFile) != null) {
+                            "diagnostics of $BIG_FILE are not cached"
+                        }
+                    }
+                }
+
+                with(config) {
+                    warmup = 0
+                    iterations = 1
+                }
+
+                val reparseDelay = DaemonCodeAnalyzerSettings.getInstance().autoReparseDelay
+                try {
+                    // the daemon starts right after the file is opened
+                    DaemonCodeAnalyzerSettings.getInstance().autoReparseDelay = 0
+
+                    for (enabled in listOf(false, true)) {
+                        cacheEnabled.setValue(enabled)
+                        project(projectPath, openWith = ProjectOpenAction.SIMPLE_JAVA_MODULE) {
+                            profile(DefaultProfile)
+                            measure<Int>("first visible diagnostics", if (enabled) "cache enabled" else "cache disabled") {
+                                test = { waitForVisibleErrors(fixture(BIG_FILE)) }
+                            }
+                        }
+                    }
+                } finally {
+                    DaemonCodeAnalyzerSettings.getInstance().autoReparseDelay = reparseDelay
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of errors in the editor of [fixture] once the daemon shows any
+     */
+    private fun waitForVisibleErrors(fixture: Fixture): Int {
+        val project = fixture.project
+        val daemon = DaemonCodeAnalyzer.getInstance(project) as DaemonCodeAnalyzerImpl
+        runInEdtAndWait {
+            daemon.setUpdateByTimerEnabled(true)
+            daemon.restart(fixture.psiFile)
+        }
+
+        val deadline = System.currentTimeMillis() + TIMEOUT_MS
+        while (true) {
+            var errors = 0
+            runReadAction {
+                DaemonCodeAnalyzerEx.processHighlights(
+                    fixture.document, project, HighlightSeverity.ERROR, 0, fixture.document.textLength
+                ) { errors++; true }
+            }
+            if (errors > 0) return errors
+
+            check(System.currentTimeMillis() < deadline) { "no diagnostics are shown in ${fixture.fileName}" }
+            dispatchAllInvocationEvents()
+        }
+    }
+
+    companion object {
+        private const val FUNCTIONS_COUNT = 1000
+        private const val BIG_FILE = "src/BigFile.kt"
+        private const val TIMEOUT_MS = 60_000L
+    }
+}
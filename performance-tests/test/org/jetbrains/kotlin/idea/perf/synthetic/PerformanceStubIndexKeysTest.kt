@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf.synthetic
+
+import com.intellij.openapi.application.runReadAction
+import com.intellij.openapi.project.Project
+import com.intellij.psi.search.GlobalSearchScope
+import com.intellij.psi.stubs.StubIndex
+import com.intellij.testFramework.UsefulTestCase
+import org.jetbrains.kotlin.idea.perf.util.DefaultProfile
+import org.jetbrains.kotlin.idea.perf.util.PerformanceSuite
+import org.jetbrains.kotlin.idea.perf.util.suite
+import org.jetbrains.kotlin.idea.stubindex.KotlinFunctionShortNameIndex
+import org.jetbrains.kotlin.idea.stubindex.KotlinPropertyShortNameIndex
+import org.jetbrains.kotlin.idea.stubindex.KotlinTopLevelExtensionsByReceiverTypeIdIndex
+import org.jetbrains.kotlin.test.JUnit3RunnerWithInners
+import org.junit.runner.RunWith
+import java.lang.management.ManagementFactory
+
+/**
+ * Measures lookups of top-level extensions by receiver types in [KotlinTopLevelExtensionsByReceiverTypeIdIndex] on a synthetic project:
+ * heap allocated by one lookup compared to the previous lookup that enumerated short name index keys, and lookup time.
+ *
+ * Size of the project is controlled by `kotlin.perf.stub.index.files` system property.
+ */
+@RunWith(JUnit3RunnerWithInners::class)
+class PerformanceStubIndexKeysTest : UsefulTestCase() {
+
+    fun testStubIndexKeys() {
+        suite(
+            suiteName = "Stub index keys",
+            config = PerformanceSuite.StatsScopeConfig(name = "stub index keys")
+        ) {
+            app {
+                warmUpProject()
+
+                project {
+                    descriptor {
+                        name("stubIndexKeys")
+
+                        for (index in 0 until FILES_COUNT) {
+                            kotlinFile("Class$index") {
+                                pkg("pkg${index % PACKAGES_COUNT}")
+
+                                topClass("Class$index") {
+                                    function("member$index") {
+                                        returnType("Int")
+                                        body("return $index")
+                                    }
+                                }
+
+                                topFunction("Class${index / 2}.extension$index") {
+                                    returnType("Int")
+                                    body("return member${index / 2}()")
+                                }
+                            }
+                        }
+                    }
+
+                    profile(DefaultProfile)
+
+                    val scope = GlobalSearchScope.allScope(project)
+                    val receivers = (0 until FILES_COUNT / 2 step FILES_COUNT / 2 / LOOKUPS_COUNT).map { "Class$it" }
+
+                    // key ids the previous lookup built before any index access: accepted callable names crossed with receiver types
+                    logStatValue("before: allocated by extensions lookup, bytes", allocatedBytes {
+                        val callableNames = HashSet<String>()
+                        for (nameIndex in listOf(KotlinFunctionShortNameIndex.getInstance(), KotlinPropertyShortNameIndex.getInstance())) {
+                            StubIndex.getInstance().processAllKeys(nameIndex.key, project) { name ->
+                                if (name.startsWith("extension")) callableNames.add(name)
+                                true
+                            }
+                        }
+                        receivers.flatMapTo(HashSet()) { receiver -> callableNames.map { (receiver + '\n' + it).hashCode() } }.size
+                    })
+
+                    logStatValue("after: allocated by extensions lookup, bytes", allocatedBytes {
+                        lookUpReceivers(receivers, project, scope)
+                    })
+
+                    with(config) {
+                        warmup = 3
+                        iterations = 10
+                    }
+
+                    measure<Int>("extensions by receiver type") {
+                        test = {
+                            runReadAction { lookUpReceivers(receivers, project, scope) }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // extensions of `ClassN` are `extension2N` and `extension2N+1`
+    private fun lookUpReceivers(receivers: List<String>, project: Project, scope: GlobalSearchScope): Int {
+        val index = KotlinTopLevelExtensionsByReceiverTypeIdIndex.INSTANCE
+        val found = receivers.sumBy { receiver ->
+            index.get(KotlinTopLevelExtensionsByReceiverTypeIdIndex.keyId(receiver), project, scope)
+                .count { it.name?.startsWith("extension") == true }
+        }
+        check(found == receivers.size * 2) { "$found extensions found, ${receivers.size * 2} expected" }
+        return found
+    }
+
+    private fun allocatedBytes(action: () -> Int): Long {
+        val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        val result = runReadAction(action)
+        val after = threadBean.getThreadAllocatedBytes(threadId)
+        check(result > 0)
+        return after - before
+    }
+
+    companion object {
+        private val FILES_COUNT = Integer.getInteger("kotlin.perf.stub.index.files", 50_000)
+        private const val PACKAGES_COUNT = 100
+        private const val LOOKUPS_COUNT = 100
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2010-2020 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.idea.perf.util
+
+/**
+ * Counters of a subsystem which doesn't use [org.jetbrains.kotlin.util.PerformanceCounter], e.g. FIR IDE resolve phases.
+ * [exportJson] returns `{"counters":[{"name":"...","count":1,"nanos":2}, ...]}`, counters are reset after each attempt.
+ */
+class ExternalCounters(
+    val prefix: String,
+    private val exportJson: () -> String,
+    private val reset: () -> Unit
+) {
+    fun report(consumer: (name: String, count: Long, nanos: Long) -> Unit) {
+        val counters = kotlinJsonMapper.readTree(exportJson())["counters"] ?: return
+        for (counter in counters) {
+            consumer(counter["name"].asText(), counter["count"].asLong(), counter["nanos"].asLong())
+        }
+    }
+
+    fun resetAll() {
+        reset()
+    }
+}